@@ -0,0 +1,146 @@
+package io.fairspace.saturn.webdav;
+
+import io.fairspace.saturn.rdf.dao.DAO;
+import io.fairspace.saturn.rdf.transactions.SimpleTransactions;
+import io.fairspace.saturn.services.metadata.MetadataPermissions;
+import io.fairspace.saturn.services.metadata.MetadataService;
+import io.fairspace.saturn.services.metadata.validation.ComposedValidator;
+import io.fairspace.saturn.services.metadata.validation.DeletionValidator;
+import io.fairspace.saturn.services.users.User;
+import io.fairspace.saturn.services.users.UserService;
+import io.milton.http.Handler;
+import io.milton.http.HttpManager;
+import io.milton.http.Request;
+import io.milton.http.ResourceFactory;
+import io.milton.http.Response;
+import io.milton.http.values.ValueAndType;
+import io.milton.http.values.ValueWriters;
+import io.milton.http.webdav.PropFindPropertyBuilder;
+import io.milton.http.webdav.PropFindRequestFieldParser;
+import io.milton.http.webdav.PropFindResponse;
+import io.milton.http.webdav.PropertiesRequest;
+import io.milton.resource.MakeCollectionableResource;
+import io.milton.resource.PropFindableResource;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.util.Context;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.namespace.QName;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.fairspace.saturn.TestUtils.*;
+import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
+import static io.fairspace.saturn.config.Services.METADATA_PERMISSIONS;
+import static io.fairspace.saturn.config.Services.METADATA_SERVICE;
+import static io.fairspace.saturn.vocabulary.Vocabularies.VOCABULARY;
+import static org.apache.jena.query.DatasetFactory.wrap;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Measures a PROPFIND with Depth 1 on a directory with 50k files, streamed by {@link StreamingPropFindHandler}.
+ * The properties built for each entry are the ones a client listing a directory asks for,
+ * so that the lazily loaded file versions are read as well.
+ */
+public class PropFindBenchmark {
+    private static final String BASE_PATH = "/api/webdav";
+    private static final String BASE_URI = "http://example.com" + BASE_PATH;
+    private static final String DAV = "DAV:";
+    private static final int FILES = 50_000;
+    private static final int PAGE_SIZE = 1_000;
+    private static final int RUNS = 5;
+
+    private final Request request = mock(Request.class);
+    private final Response response = mock(Response.class);
+    private final HttpManager manager = mock(HttpManager.class);
+    private StreamingPropFindHandler handler;
+    private CountingOutputStream out;
+
+    @Before
+    public void before() throws Exception {
+        var context = new Context();
+        var ds = wrap(DatasetGraphFactory.createTxnMem());
+        var model = ds.getDefaultModel();
+        var userService = mock(UserService.class);
+        var permissions = new MetadataPermissions(userService, VOCABULARY);
+        context.set(METADATA_PERMISSIONS, permissions);
+        var davFactory = new DavFactory(model.createResource(BASE_URI), mock(BlobStore.class), userService, context);
+        context.set(METADATA_SERVICE, new MetadataService(new SimpleTransactions(ds), VOCABULARY, new ComposedValidator(new DeletionValidator()), permissions, davFactory));
+
+        User admin = createTestUser("admin", true);
+        new DAO(model).write(admin);
+
+        setupRequestContext();
+        var jettyRequest = getCurrentRequest();
+        when(jettyRequest.getAuthentication()).thenReturn(mockAuthentication("admin"));
+        when(userService.currentUser()).thenReturn(admin);
+        when(jettyRequest.getAttribute("BLOB")).thenReturn(new BlobInfo("id", 10, "md5"));
+
+        var root = (MakeCollectionableResource) ((ResourceFactory) davFactory).getResource(null, BASE_PATH);
+        var dir = (DirectoryResource) root.createCollection("coll");
+        var start = System.currentTimeMillis();
+        for (var i = 0; i < FILES; i++) {
+            dir.createNew("file" + i, null, 0L, "text/plain");
+        }
+        System.out.printf("%d files created in %dms%n", FILES, System.currentTimeMillis() - start);
+
+        var fields = mock(PropertiesRequest.class);
+        var requestFieldParser = mock(PropFindRequestFieldParser.class);
+        when(requestFieldParser.getRequestedFields(any())).thenReturn(fields);
+        var propertyBuilder = mock(PropFindPropertyBuilder.class);
+        when(propertyBuilder.buildProperties(any(), eq(0), eq(fields), anyString())).thenAnswer(invocation -> {
+            PropFindableResource resource = invocation.getArgument(0);
+            var known = new LinkedHashMap<QName, ValueAndType>();
+            known.put(new QName(DAV, "displayname"), new ValueAndType(resource.getName(), String.class));
+            known.put(new QName(DAV, "creationdate"), new ValueAndType(resource.getCreateDate(), Date.class));
+            known.put(new QName(DAV, "getlastmodified"), new ValueAndType(resource.getModifiedDate(), Date.class));
+            if (resource instanceof FileResource file) {
+                known.put(new QName(DAV, "getcontentlength"), new ValueAndType(file.getContentLength(), Long.class));
+                known.put(new QName(DAV, "getetag"), new ValueAndType(file.getETag(), String.class));
+            }
+            return List.of(new PropFindResponse(invocation.getArgument(3), known, Map.of()));
+        });
+        handler = new StreamingPropFindHandler(mock(Handler.class), propertyBuilder, requestFieldParser, new ValueWriters());
+
+        when(manager.getResourceFactory()).thenReturn(davFactory);
+        when(request.getDepthHeader()).thenReturn(1);
+        when(request.getMethod()).thenReturn(Request.Method.PROPFIND);
+        when(request.getAbsolutePath()).thenReturn(BASE_PATH + "/coll");
+        when(request.getAbsoluteUrl()).thenReturn(BASE_URI + "/coll/");
+        when(response.getOutputStream()).thenAnswer(invocation -> out);
+    }
+
+    @Test
+    public void benchmarkFullListing() throws Exception {
+        for (var run = 0; run < RUNS; run++) {
+            var start = System.currentTimeMillis();
+            var bytes = propFind();
+            System.out.printf("Full listing of %d files: %d bytes in %dms%n", FILES, bytes, System.currentTimeMillis() - start);
+        }
+    }
+
+    @Test
+    public void benchmarkLastPage() throws Exception {
+        var jettyRequest = getCurrentRequest();
+        when(jettyRequest.getHeader(StreamingPropFindHandler.PAGE_SIZE_HEADER)).thenReturn(Integer.toString(PAGE_SIZE));
+        when(jettyRequest.getHeader(StreamingPropFindHandler.PAGE_OFFSET_HEADER)).thenReturn(Integer.toString(FILES - PAGE_SIZE));
+
+        for (var run = 0; run < RUNS; run++) {
+            var start = System.currentTimeMillis();
+            var bytes = propFind();
+            System.out.printf("Last page of %d files: %d bytes in %dms%n", PAGE_SIZE, bytes, System.currentTimeMillis() - start);
+        }
+    }
+
+    private long propFind() throws Exception {
+        out = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        handler.process(manager, request, response);
+        return out.getByteCount();
+    }
+}
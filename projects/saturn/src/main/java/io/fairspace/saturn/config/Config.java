@@ -59,6 +59,8 @@ public class Config {
 
         public File transactionLogPath = new File("data/log");
 
+        public File textIndexPath = new File("data/text");
+
         public boolean bulkTransactions = true;
     }
 
@@ -73,11 +75,29 @@ public class Config {
 
     public static class WebDAV {
         public String blobStorePath = "data/blobs";
+        public boolean contentAddressedBlobs = false;
+        /**
+         * Flush blobs to disk before the metadata referring to them is committed.
+         */
+        public boolean syncBlobs = true;
+        /**
+         * Unreferenced blobs are only deleted by the blob garbage collector if they haven't been modified for this long.
+         */
+        public long blobGracePeriodHours = 24;
+        /**
+         * Maximal number of blobs deleted per second by the blob garbage collector.
+         */
+        public double blobDeletionRate = 100;
+        public String uploadStagingPath = "data/uploads";
     }
 
     public static class Search {
         public long pageRequestTimeout = 10_000;
         public long countRequestTimeout = 100_1000;
+        /**
+         * Maximal total number of values in the cached view pages.
+         */
+        public long resultCacheSize = 100_000;
     }
 
     public static class Storage {
@@ -100,6 +120,23 @@ public class Config {
         public String url = String.format("jdbc:postgresql://%s:%d/%s", "localhost", 5432, "fairspace");
         public String username = "fairspace";
         public String password = "fairspace";
+        /**
+         * Optional read replica of the view database, used for queries.
+         * The username and password of the primary database are used if not specified.
+         */
+        public String replicaUrl;
+        public String replicaUsername;
+        public String replicaPassword;
+        /**
+         * Maximal numbers of connections per workload, see {@link io.fairspace.saturn.services.views.Workload}.
+         */
+        public int maxIndexWriterConnections = 5;
+        public int maxInteractiveConnections = 35;
+        public int maxBackgroundConnections = 10;
+        /**
+         * Maximal time in milliseconds to wait for a connection, before the request is rejected.
+         */
+        public long connectionQueueTimeout = 10_000;
     }
 
     @Override
@@ -1,20 +1,25 @@
 package io.fairspace.saturn.config;
 
 import io.fairspace.saturn.rdf.search.FilteredDatasetGraph;
+import io.fairspace.saturn.rdf.search.LabelIndexDatasetGraph;
 import io.fairspace.saturn.rdf.transactions.BulkTransactions;
 import io.fairspace.saturn.rdf.transactions.SimpleTransactions;
 import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.rdf.transactions.TxnVersionDatasetGraph;
 import io.fairspace.saturn.services.health.HealthService;
 import io.fairspace.saturn.services.maintenance.MaintenanceService;
 import io.fairspace.saturn.services.metadata.MetadataPermissions;
 import io.fairspace.saturn.services.metadata.MetadataService;
 import io.fairspace.saturn.services.metadata.validation.*;
 import io.fairspace.saturn.services.search.SearchService;
+import io.fairspace.saturn.services.uploads.UploadService;
 import io.fairspace.saturn.services.users.UserService;
 import io.fairspace.saturn.services.views.*;
 import io.fairspace.saturn.webdav.BlobStore;
+import io.fairspace.saturn.webdav.ContentAddressedBlobStore;
 import io.fairspace.saturn.webdav.DavFactory;
 import io.fairspace.saturn.webdav.LocalBlobStore;
+import io.fairspace.saturn.webdav.TreeOperations;
 import io.fairspace.saturn.webdav.WebDAVServlet;
 import io.milton.resource.Resource;
 import lombok.Getter;
@@ -38,6 +43,8 @@ public class Services {
     public static final Symbol USER_SERVICE = Symbol.create("user_service");
     public static final Symbol METADATA_SERVICE = Symbol.create("metadata_service");
     public static final Symbol METADATA_PERMISSIONS = Symbol.create("metadata_permissions");
+    public static final Symbol DATASET_VERSION = Symbol.create("dataset_version");
+    public static final Symbol LABEL_INDEX = Symbol.create("label_index");
 
     private final Config config;
     private final Transactions transactions;
@@ -49,7 +56,9 @@ public class Services {
     private final QueryService queryService;
     private final SearchService searchService;
     private final BlobStore blobStore;
+    private final UploadService uploadService;
     private final DavFactory davFactory;
+    private final TreeOperations treeOperations;
     private final HttpServlet davServlet;
     private final DatasetGraph filteredDatasetGraph;
     private final HealthService healthService;
@@ -57,15 +66,20 @@ public class Services {
 
     public Services(@NonNull Config config, @NonNull ViewsConfig viewsConfig, @NonNull Dataset dataset, ViewStoreClientFactory viewStoreClientFactory) {
         this.config = config;
+        TxnVersionDatasetGraph datasetVersion = dataset.getContext().get(DATASET_VERSION);
         this.transactions = config.jena.bulkTransactions ? new BulkTransactions(dataset) : new SimpleTransactions(dataset);
 
         userService = new UserService(config.auth, transactions);
         dataset.getContext().set(USER_SERVICE, userService);
 
-        blobStore = new LocalBlobStore(new File(config.webDAV.blobStorePath));
+        blobStore = config.webDAV.contentAddressedBlobs
+                ? new ContentAddressedBlobStore(new File(config.webDAV.blobStorePath), transactions, config.webDAV.syncBlobs)
+                : new LocalBlobStore(new File(config.webDAV.blobStorePath), config.webDAV.syncBlobs);
         davFactory = new DavFactory(dataset.getDefaultModel().createResource(CONFIG.publicUrl + "/api/webdav"), blobStore, userService, dataset.getContext());
         dataset.getContext().set(FS_ROOT, davFactory.root);
-        davServlet = new WebDAVServlet(davFactory, transactions, blobStore);
+        treeOperations = new TreeOperations(davFactory, transactions);
+        uploadService = new UploadService(new File(config.webDAV.uploadStagingPath), blobStore);
+        davServlet = new WebDAVServlet(davFactory, transactions, blobStore, uploadService);
 
         metadataPermissions = new MetadataPermissions(userService, VOCABULARY);
         dataset.getContext().set(METADATA_PERMISSIONS, metadataPermissions);
@@ -79,17 +93,21 @@ public class Services {
         metadataService = new MetadataService(transactions, VOCABULARY, metadataValidator, metadataPermissions, davFactory);
         dataset.getContext().set(METADATA_SERVICE, metadataService);
 
-        maintenanceService = new MaintenanceService(userService, dataset, viewStoreClientFactory);
+        maintenanceService = new MaintenanceService(userService, dataset, transactions, viewStoreClientFactory, blobStore);
 
         filteredDatasetGraph = new FilteredDatasetGraph(dataset.asDatasetGraph(), metadataPermissions);
         var filteredDataset = DatasetImpl.wrap(filteredDatasetGraph);
 
-        queryService = viewStoreClientFactory == null
-                ? new SparqlQueryService(config.search, viewsConfig, filteredDataset)
-                : new JdbcQueryService(config.search, viewStoreClientFactory, transactions, davFactory.root);
-        viewService = new ViewService(config.search, viewsConfig, filteredDataset, viewStoreClientFactory);
+        var baseQueryService = viewStoreClientFactory == null
+                ? new SparqlQueryService(config.search, viewsConfig, filteredDataset, datasetVersion)
+                : new JdbcQueryService(config.search, viewStoreClientFactory, transactions, davFactory.root, datasetVersion);
+        queryService = datasetVersion == null
+                ? baseQueryService
+                : new CachingQueryService(baseQueryService, datasetVersion, viewStoreClientFactory, config.search);
+        viewService = new ViewService(config.search, viewsConfig, filteredDataset, viewStoreClientFactory, datasetVersion);
 
-        searchService = new SearchService(filteredDataset);
+        LabelIndexDatasetGraph labelIndex = dataset.getContext().get(LABEL_INDEX);
+        searchService = new SearchService(filteredDataset, labelIndex, userService);
 
         healthService = new HealthService(viewStoreClientFactory == null ? null : viewStoreClientFactory.dataSource);
     }
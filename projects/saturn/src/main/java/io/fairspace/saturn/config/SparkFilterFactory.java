@@ -7,6 +7,8 @@ import io.fairspace.saturn.services.metadata.MetadataApp;
 import io.fairspace.saturn.services.metadata.VocabularyApp;
 import io.fairspace.saturn.services.search.SearchApp;
 import io.fairspace.saturn.services.services.ServicesApp;
+import io.fairspace.saturn.services.treeoperations.TreeOperationApp;
+import io.fairspace.saturn.services.uploads.UploadApp;
 import io.fairspace.saturn.services.users.*;
 import io.fairspace.saturn.services.views.ViewApp;
 
@@ -16,7 +18,7 @@ public class SparkFilterFactory {
     public static Filter createSparkFilter(String apiPathPrefix, Services svc, Config config) {
         return new SaturnSparkFilter(
                 new MetadataApp(apiPathPrefix + "/metadata", svc.getMetadataService()),
-                new ViewApp(apiPathPrefix + "/views", svc.getViewService(), svc.getQueryService()),
+                new ViewApp(apiPathPrefix + "/views", svc.getViewService(), svc.getQueryService(), svc.getUserService()),
                 new SearchApp(apiPathPrefix + "/search", svc.getSearchService(), svc.getQueryService()),
                 new VocabularyApp(apiPathPrefix + "/vocabulary"),
                 new UserApp(apiPathPrefix + "/users", svc.getUserService()),
@@ -24,6 +26,8 @@ public class SparkFilterFactory {
                 new FeaturesApp(apiPathPrefix + "/features", config.features),
                 new HealthApp(apiPathPrefix + "/health", svc.getHealthService()),
                 new MaintenanceApp(apiPathPrefix + "/maintenance", svc.getMaintenanceService()),
+                new UploadApp(apiPathPrefix + "/uploads", svc.getUploadService()),
+                new TreeOperationApp(apiPathPrefix + "/tree-operations", svc.getTreeOperations()),
                 new LogoutApp("/logout", svc.getUserService(), config));
     }
 }
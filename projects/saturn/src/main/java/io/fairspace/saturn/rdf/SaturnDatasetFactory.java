@@ -1,6 +1,8 @@
 package io.fairspace.saturn.rdf;
 
 import io.fairspace.saturn.config.*;
+import io.fairspace.saturn.rdf.search.LabelIndexDatasetGraph;
+import io.fairspace.saturn.rdf.search.SaturnTextIndex;
 import io.fairspace.saturn.rdf.transactions.*;
 import io.fairspace.saturn.services.views.*;
 import lombok.extern.log4j.*;
@@ -11,6 +13,8 @@ import org.apache.jena.query.DatasetFactory;
 
 import java.io.File;
 
+import static io.fairspace.saturn.config.Services.DATASET_VERSION;
+import static io.fairspace.saturn.config.Services.LABEL_INDEX;
 import static io.fairspace.saturn.rdf.MarkdownDataType.MARKDOWN_DATA_TYPE;
 import static io.fairspace.saturn.rdf.transactions.Restore.restore;
 import static org.apache.jena.tdb2.sys.DatabaseConnection.connectCreate;
@@ -22,14 +26,23 @@ public class SaturnDatasetFactory {
      * We're playing Russian dolls here.
      * The original TDB2 dataset graph, which in fact consists of a number of wrappers itself (Jena uses wrappers everywhere),
      * is wrapped with a number of wrapper classes, each adding a new feature.
-     * Currently it adds transaction logging and applies default vocabulary if needed.
+     * Currently it adds full-text indexing, transaction logging, an in-memory label index, keeps track of the dataset version
+     * and applies default vocabulary if needed.
      */
     public static Dataset connect(Config.Jena config, ViewStoreClientFactory viewStoreClientFactory) {
         var restoreNeeded = isRestoreNeeded(config.datasetPath);
+        var textIndexNeeded = !restoreNeeded && !config.textIndexPath.exists();
 
         // Create a TDB2 dataset graph
         var dsg = connectCreate(Location.create(config.datasetPath.getAbsolutePath()), config.storeParams).getDatasetGraph();
 
+        // Add a full-text index of labels and comments
+        dsg = SaturnTextIndex.wrap(dsg, config.textIndexPath);
+        if (textIndexNeeded) {
+            log.info("No text index found, indexing the existing data");
+            SaturnTextIndex.rebuild(dsg);
+        }
+
         var txnLog = new LocalTransactionLog(config.transactionLogPath, new SparqlTransactionCodec());
 
         if (viewStoreClientFactory != null) {
@@ -43,6 +56,17 @@ public class SaturnDatasetFactory {
         // Add transaction log
         dsg = new TxnLogDatasetGraph(dsg, txnLog);
 
+        // Keep an in-memory index of labels for lookups, the existing data is indexed without delaying the startup
+        var labelIndex = new LabelIndexDatasetGraph(dsg);
+        labelIndex.buildInBackground();
+        dsg = labelIndex;
+        dsg.getContext().set(LABEL_INDEX, labelIndex);
+
+        // Keep track of the dataset version, used for invalidating caches
+        var versionedDatasetGraph = new TxnVersionDatasetGraph(dsg);
+        dsg = versionedDatasetGraph;
+        dsg.getContext().set(DATASET_VERSION, versionedDatasetGraph);
+
         TypeMapper.getInstance().registerDatatype(MARKDOWN_DATA_TYPE);
 
         return DatasetFactory.wrap(dsg);
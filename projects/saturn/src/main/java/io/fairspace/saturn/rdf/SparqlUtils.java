@@ -60,12 +60,6 @@ public class SparqlUtils {
         executeWrite(dataset, () -> UpdateExecutionFactory.create(UpdateFactory.create(updateString), dataset).execute());
     }
 
-    public static String getQueryRegex(String query) {
-        return ("(^|\\s|\\.|\\-|\\,|\\;|\\(|\\[|\\{|\\?|\\!|\\\\|\\/|_)"
-                + query.replaceAll("[^a-zA-Z0-9]", "\\\\$0"))
-                .replace("/\\/g", "\\\\");
-    }
-
     public static List<SearchResultDTO> getByQuery(Query query, QuerySolutionMap binding, Dataset dataset) {
         log.debug("Executing query:\n{}", query);
         var selectExecution = QueryExecutionFactory.create(query, dataset, binding);
@@ -0,0 +1,373 @@
+package io.fairspace.saturn.rdf.search;
+
+import io.fairspace.saturn.rdf.AbstractChangesAwareDatasetGraph;
+import io.fairspace.saturn.services.search.SearchResultDTO;
+import io.fairspace.saturn.vocabulary.FS;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.QuadAction;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.apache.jena.system.Txn.executeRead;
+
+/**
+ * Keeps an in-memory index of the labels of all typed resources, per type, for autocompletion.
+ * Labels are case-folded and indexed both from their start and from the start of every other word,
+ * so both prefix and infix lookups take a single search in a sorted set.
+ * Changes are collected during a write transaction and only applied to the index once it is committed.
+ * The index of the existing data is built by {@link #build()}, e.g. in the background at startup;
+ * until it is ready, lookups have to be answered otherwise. While it is being built, commits wait for it,
+ * so that each change is either part of the data read or applied afterwards.
+ */
+@Log4j2
+public class LabelIndexDatasetGraph extends AbstractChangesAwareDatasetGraph {
+    // Rough sizes of the objects in the index, in bytes, used for estimating its memory use
+    private static final int KEY_SIZE = 32 + 40;
+    private static final int RESOURCE_SIZE = 48 + 2 * 48;
+    private static final int STRING_SIZE = 40;
+
+    private static final Comparator<Key> KEY_ORDER = Key::compareText;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, IndexedResource> resources = new HashMap<>();
+    private final Map<String, TypeIndex> types = new HashMap<>();
+    // Write transactions are handled sequentially, so a single list suffices.
+    private final List<Change> changes = new ArrayList<>();
+    private volatile boolean ready;
+
+    public LabelIndexDatasetGraph(DatasetGraph dsg) {
+        super(dsg);
+    }
+
+    /**
+     * Indexes the existing data, unless that has been done already.
+     */
+    public void build() {
+        lock.writeLock().lock();
+        try {
+            if (ready) {
+                return;
+            }
+            var start = new Date().getTime();
+            executeRead(getWrapped(), () -> {
+                for (var predicate : List.of(RDF.type.asNode(), RDFS.label.asNode(), FS.dateDeleted.asNode())) {
+                    getWrapped().find(Node.ANY, Node.ANY, predicate, Node.ANY)
+                            .forEachRemaining(q -> apply(new Change(QuadAction.ADD, q.getSubject(), q.getPredicate(), q.getObject())));
+                }
+            });
+            ready = true;
+            log.info("Label index of {} resources built in {}ms", resources.size(), new Date().getTime() - start);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Builds the index in a background thread.
+     */
+    public void buildInBackground() {
+        var thread = new Thread(() -> {
+            try {
+                build();
+            } catch (Exception e) {
+                log.error("Cannot build the label index", e);
+            }
+        }, "label-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return whether the existing data has been indexed, before that lookups find nothing.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Finds the non-deleted resources of a type with a label containing a word starting with the query, ignoring case.
+     * Resources with a label starting with the query come first, in the order of their labels.
+     *
+     * @return up to limit results with the IRI and the matching label of the resources.
+     */
+    public List<SearchResultDTO> lookup(String type, String query, int limit) {
+        var prefix = fold(query.trim());
+        var results = new LinkedHashMap<String, SearchResultDTO>();
+        lock.readLock().lock();
+        try {
+            var index = types.get(type);
+            if (index != null) {
+                collect(index.labels, prefix, limit, results);
+                collect(index.words, prefix, limit, results);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new ArrayList<>(results.values());
+    }
+
+    /**
+     * Finds the non-deleted resources of a type with exactly the given label.
+     *
+     * @return the IRI and the label of the resources.
+     */
+    public List<SearchResultDTO> lookupExact(String type, String label) {
+        var folded = fold(label);
+        var results = new ArrayList<SearchResultDTO>();
+        lock.readLock().lock();
+        try {
+            var index = types.get(type);
+            if (index != null) {
+                // Labels which only differ in case are adjacent
+                for (var key : index.labels.tailSet(new Key(null, "", folded, 0), true)) {
+                    if (!key.folded.equals(folded)) {
+                        break;
+                    }
+                    if (key.label.equals(label) && !key.resource.deleted) {
+                        results.add(SearchResultDTO.builder()
+                                .id(key.resource.uri)
+                                .label(key.label)
+                                .build());
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return results;
+    }
+
+    public LabelIndexStatsDTO getStats() {
+        if (!ready) {
+            return new LabelIndexStatsDTO(false, 0, 0, 0, 0, 0);
+        }
+        lock.readLock().lock();
+        try {
+            long keys = 0;
+            long bytes = (long) resources.size() * RESOURCE_SIZE;
+            for (var index : types.values()) {
+                keys += index.labels.size() + index.words.size();
+            }
+            bytes += keys * KEY_SIZE;
+            long labels = 0;
+            for (var resource : resources.values()) {
+                labels += resource.labels.size();
+                bytes += 2L * STRING_SIZE + resource.uri.length();
+                for (var label : resource.labels) {
+                    // The label and its case-folded copy
+                    bytes += 2L * (STRING_SIZE + label.length());
+                }
+            }
+            return new LabelIndexStatsDTO(true, types.size(), resources.size(), labels, keys, bytes);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    protected void onChange(QuadAction action, Node graph, Node subject, Node predicate, Node object) {
+        if (subject.isURI() && (predicate.equals(RDF.type.asNode()) || predicate.equals(RDFS.label.asNode()) || predicate.equals(FS.dateDeleted.asNode()))) {
+            changes.add(new Change(action, subject, predicate, object));
+        }
+    }
+
+    @Override
+    public void begin(TxnType type) {
+        begin(TxnType.convert(type));
+    }
+
+    @Override
+    public void begin(ReadWrite readWrite) {
+        super.begin(readWrite);
+
+        if (readWrite == ReadWrite.WRITE) {
+            changes.clear();
+        }
+    }
+
+    @Override
+    public void commit() {
+        var write = transactionMode() == ReadWrite.WRITE;
+        if (ready || !write || changes.isEmpty()) {
+            super.commit();
+            if (write && !changes.isEmpty()) {
+                lock.writeLock().lock();
+                try {
+                    changes.forEach(this::apply);
+                } finally {
+                    lock.writeLock().unlock();
+                    changes.clear();
+                }
+            }
+            return;
+        }
+        // The existing data mustn't be read while the changes are being committed
+        lock.writeLock().lock();
+        try {
+            super.commit();
+            // Otherwise build() reads the changes
+            if (ready) {
+                changes.forEach(this::apply);
+            }
+        } finally {
+            lock.writeLock().unlock();
+            changes.clear();
+        }
+    }
+
+    @Override
+    public void abort() {
+        if (transactionMode() == ReadWrite.WRITE) {
+            changes.clear();
+        }
+        super.abort();
+    }
+
+    private static void collect(NavigableSet<Key> keys, String prefix, int limit, Map<String, SearchResultDTO> results) {
+        for (var key : keys.tailSet(new Key(null, "", prefix, 0), true)) {
+            if (results.size() >= limit || !key.folded.startsWith(prefix, key.offset)) {
+                return;
+            }
+            if (!key.resource.deleted && !results.containsKey(key.resource.uri)) {
+                results.put(key.resource.uri, SearchResultDTO.builder()
+                        .id(key.resource.uri)
+                        .label(key.label)
+                        .build());
+            }
+        }
+    }
+
+    private void apply(Change change) {
+        if (!change.subject.isURI()) {
+            return;
+        }
+        var uri = change.subject.getURI();
+        var resource = resources.computeIfAbsent(uri, IndexedResource::new);
+        var add = change.action == QuadAction.ADD;
+        if (change.predicate.equals(RDF.type.asNode())) {
+            if (change.object.isURI()) {
+                var type = change.object.getURI();
+                if (add ? resource.types.add(type) : resource.types.remove(type)) {
+                    new HashSet<>(resource.labels).forEach(label -> update(type, resource, label, add));
+                }
+            }
+        } else if (change.predicate.equals(RDFS.label.asNode())) {
+            if (change.object.isLiteral()) {
+                var label = change.object.getLiteralLexicalForm();
+                // The same label can be stored multiple times, e.g. with different language tags
+                var indexed = resource.labels.contains(label);
+                if (add) {
+                    resource.labels.add(label);
+                } else {
+                    resource.labels.remove(label);
+                }
+                if (indexed != resource.labels.contains(label)) {
+                    resource.types.forEach(type -> update(type, resource, label, add));
+                }
+            }
+        } else {
+            resource.deleted = add;
+        }
+        if (resource.types.isEmpty() && resource.labels.isEmpty() && !resource.deleted) {
+            resources.remove(uri);
+        }
+    }
+
+    private void update(String type, IndexedResource resource, String label, boolean add) {
+        var index = types.computeIfAbsent(type, t -> new TypeIndex());
+        var folded = fold(label);
+        for (var offset = 0; offset < folded.length(); offset++) {
+            if (offset > 0 && !isWordStart(folded, offset)) {
+                continue;
+            }
+            var keys = offset == 0 ? index.labels : index.words;
+            var key = new Key(resource, label, folded, offset);
+            if (add) {
+                keys.add(key);
+            } else {
+                keys.remove(key);
+            }
+        }
+        if (index.labels.isEmpty()) {
+            types.remove(type);
+        }
+    }
+
+    private static boolean isWordStart(String text, int offset) {
+        return Character.isLetterOrDigit(text.charAt(offset)) && !Character.isLetterOrDigit(text.charAt(offset - 1));
+    }
+
+    private static String fold(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    private static class IndexedResource {
+        final String uri;
+        final Set<String> types = new HashSet<>();
+        final List<String> labels = new ArrayList<>(1);
+        boolean deleted;
+
+        IndexedResource(String uri) {
+            this.uri = uri;
+        }
+    }
+
+    private static class TypeIndex {
+        // Keys for the start of the labels
+        final NavigableSet<Key> labels = new TreeSet<>(KEY_ORDER);
+        // Keys for the start of the other words of the labels
+        final NavigableSet<Key> words = new TreeSet<>(KEY_ORDER);
+    }
+
+    /**
+     * A position in a label, ordered by the text following it.
+     */
+    @Value
+    private static class Key {
+        IndexedResource resource;
+        String label;
+        String folded;
+        int offset;
+
+        int compareText(Key other) {
+            var length = Math.min(folded.length() - offset, other.folded.length() - other.offset);
+            for (var i = 0; i < length; i++) {
+                var c = Character.compare(folded.charAt(offset + i), other.folded.charAt(other.offset + i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            var c = Integer.compare(folded.length() - offset, other.folded.length() - other.offset);
+            if (c != 0) {
+                return c;
+            }
+            // The lookup key has no resource and precedes all keys with the same text
+            if (resource == null || other.resource == null) {
+                return resource == other.resource ? 0 : resource == null ? -1 : 1;
+            }
+            c = resource.uri.compareTo(other.resource.uri);
+            if (c != 0) {
+                return c;
+            }
+            c = label.compareTo(other.label);
+            return c != 0 ? c : Integer.compare(offset, other.offset);
+        }
+    }
+
+    @Value
+    private static class Change {
+        QuadAction action;
+        Node subject;
+        Node predicate;
+        Node object;
+    }
+}
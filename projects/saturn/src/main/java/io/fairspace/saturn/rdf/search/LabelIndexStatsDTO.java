@@ -0,0 +1,13 @@
+package io.fairspace.saturn.rdf.search;
+
+import lombok.Value;
+
+@Value
+public class LabelIndexStatsDTO {
+    boolean ready;
+    long types;
+    long resources;
+    long labels;
+    long keys;
+    long estimatedMemoryBytes;
+}
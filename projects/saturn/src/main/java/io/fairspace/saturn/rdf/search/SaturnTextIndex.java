@@ -0,0 +1,118 @@
+package io.fairspace.saturn.rdf.search;
+
+import lombok.SneakyThrows;
+import lombok.extern.log4j.Log4j2;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.text.*;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.vocabulary.RDFS;
+import org.apache.lucene.queryparser.classic.QueryParserBase;
+import org.apache.lucene.store.FSDirectory;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Date;
+
+import static java.util.stream.Collectors.joining;
+import static org.apache.jena.system.Txn.executeWrite;
+
+/**
+ * Lucene full-text index of the labels and comments of all resources, used by the lookup and file searches.
+ * The index is kept up to date on every commit and can be queried with the text:query property function.
+ * Every label and comment is a separate document, identified by a hash of the statement,
+ * so that the document is removed when the statement is removed, e.g. when a resource is renamed or moved.
+ * The entity types and the deleted flags are not part of the index, as it only indexes literals,
+ * these are checked by the graph patterns of the queries. A query can be restricted to the resources
+ * under a path, see {@link #toTextQuery(String, String)}.
+ */
+@Log4j2
+public class SaturnTextIndex {
+    public static final String TEXT_NS = "http://jena.apache.org/text#";
+
+    private static final String ENTITY_FIELD = "uri";
+    private static final String UID_FIELD = "uid";
+    private static final String LABEL_FIELD = "label";
+    private static final String COMMENT_FIELD = "comment";
+
+    /**
+     * Wraps the dataset graph with a dataset graph maintaining a text index stored at the given path.
+     */
+    @SneakyThrows
+    public static DatasetGraph wrap(DatasetGraph dsg, File path) {
+        var entityDefinition = new EntityDefinition(ENTITY_FIELD, LABEL_FIELD, RDFS.label.asNode());
+        entityDefinition.set(COMMENT_FIELD, RDFS.comment.asNode());
+        // Without a uid field, removed statements are never removed from the index
+        entityDefinition.setUidField(UID_FIELD);
+
+        var index = TextDatasetFactory.createLuceneIndex(FSDirectory.open(path.toPath()), new TextIndexConfig(entityDefinition));
+        var textDatasetGraph = TextDatasetFactory.create(dsg, index, true);
+        textDatasetGraph.getContext().set(TextQuery.textIndex, index);
+        return textDatasetGraph;
+    }
+
+    /**
+     * Replaces the contents of the text index of the dataset graph with the labels and comments currently stored.
+     * Runs in a write transaction, so no changes are missed while rebuilding.
+     */
+    public static void rebuild(DatasetGraph dsg) {
+        var index = (TextIndexLucene) dsg.getContext().get(TextQuery.textIndex);
+        var entityDefinition = index.getDocDef();
+        executeWrite(dsg, () -> {
+            var start = new Date().getTime();
+            try {
+                index.getIndexWriter().deleteAll();
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to clear the text index", e);
+            }
+            var count = 0;
+            for (var predicate : entityDefinition.getPredicates()) {
+                var it = dsg.find(Node.ANY, Node.ANY, predicate, Node.ANY);
+                while (it.hasNext()) {
+                    var entity = TextQueryFuncs.entityFromQuad(entityDefinition, it.next());
+                    if (entity != null) {
+                        index.addEntity(entity);
+                        count++;
+                    }
+                }
+            }
+            index.prepareCommit();
+            index.commit();
+            log.info("Text index recreated with {} entries in {}ms.", count, new Date().getTime() - start);
+        });
+    }
+
+    /**
+     * Converts a user query to a Lucene query matching labels or comments with words
+     * starting with each of the words of the query.
+     *
+     * @return the Lucene query, or null if the query contains no words.
+     */
+    public static String toTextQuery(String query) {
+        var terms = Arrays.stream(query.toLowerCase().split("[^\\p{L}\\p{N}]+"))
+                .filter(term -> !term.isEmpty())
+                .map(term -> "+" + QueryParserBase.escape(term) + "*")
+                .collect(joining(" "));
+        if (terms.isEmpty()) {
+            return null;
+        }
+        return LABEL_FIELD + ":(" + terms + ") OR " + COMMENT_FIELD + ":(" + terms + ")";
+    }
+
+    /**
+     * Converts a user query to a Lucene query as {@link #toTextQuery(String)} does,
+     * only matching the resource with the given IRI and the resources with an IRI starting with its path.
+     * The restriction is part of the Lucene query, so a limit on the number of hits only applies to the matches within the path.
+     *
+     * @return the Lucene query, or null if the query contains no words.
+     */
+    public static String toTextQuery(String query, String parentIRI) {
+        var textQuery = toTextQuery(query);
+        if (textQuery == null) {
+            return null;
+        }
+        // The entity field is not analyzed, it matches the IRI as is
+        var parent = QueryParserBase.escape(StringUtils.removeEnd(parentIRI, "/"));
+        return "+(" + textQuery + ") +(" + ENTITY_FIELD + ":" + parent + " OR " + ENTITY_FIELD + ":" + parent + "\\/*)";
+    }
+}
@@ -7,10 +7,14 @@ import lombok.extern.slf4j.*;
 import org.apache.jena.graph.Node;
 import org.apache.jena.query.*;
 import org.apache.jena.sparql.core.*;
+import org.eclipse.jetty.server.Request;
 
 import java.util.Date;
 import java.util.*;
 
+import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
+import static io.fairspace.saturn.auth.RequestContext.getUserURI;
+
 @Slf4j
 public class TxnIndexDatasetGraph extends AbstractChangesAwareDatasetGraph {
     private final DatasetGraph dsg;
@@ -19,6 +23,9 @@ public class TxnIndexDatasetGraph extends AbstractChangesAwareDatasetGraph {
     // If many write transactions can be active simultaneously, this set needs to be
     // tied to the active thread.
     private final Set<Node> updatedSubjects = new HashSet<>();
+    // The users whose changes are part of the transaction, for read-your-writes routing of view queries
+    private final Set<String> writers = new HashSet<>();
+    private Request lastRequest;
 
     public TxnIndexDatasetGraph(DatasetGraph dsg, ViewStoreClientFactory viewStoreClientFactory) {
         super(dsg);
@@ -30,13 +37,33 @@ public class TxnIndexDatasetGraph extends AbstractChangesAwareDatasetGraph {
         updatedSubjects.add(subject);
     }
 
+    private void markWriter() {
+        var request = getCurrentRequest();
+        if (request != null && request != lastRequest) {
+            lastRequest = request;
+            var user = getUserURI();
+            if (user != null) {
+                writers.add(user.getURI());
+            }
+        }
+    }
+
+    private void clearChanges() {
+        updatedSubjects.clear();
+        writers.clear();
+        lastRequest = null;
+    }
+
     /**
      * Collects changes
      */
     @Override
     protected void onChange(QuadAction action, Node graph, Node subject, Node predicate, Node object) {
         switch (action) {
-            case ADD, DELETE -> markSubject(subject);
+            case ADD, DELETE -> {
+                markSubject(subject);
+                markWriter();
+            }
         }
     }
 
@@ -44,7 +71,7 @@ public class TxnIndexDatasetGraph extends AbstractChangesAwareDatasetGraph {
     public void begin(TxnType type) {
         begin(TxnType.convert(type));
         if (isInWriteTransaction()) {
-            updatedSubjects.clear();
+            clearChanges();
         }
     }
 
@@ -54,16 +81,20 @@ public class TxnIndexDatasetGraph extends AbstractChangesAwareDatasetGraph {
         if (isInWriteTransaction()) {
             log.debug("Commit updated subjects: {}", updatedSubjects);
             var start = new Date().getTime();
-            try (var viewStoreClient = viewStoreClientFactory.build();
+            try (var viewStoreClient = viewStoreClientFactory.build(Workload.INDEX_WRITER);
                  var viewUpdater = new ViewUpdater(viewStoreClient, dsg)) {
                 updatedSubjects.forEach(viewUpdater::updateSubject);
+                var indexVersion = updatedSubjects.isEmpty() ? 0 : viewStoreClient.incrementIndexVersion();
                 viewUpdater.commit();
+                if (indexVersion > 0) {
+                    viewStoreClientFactory.recordWrite(writers, indexVersion);
+                }
                 log.debug("Updating {} subjects took {}ms", updatedSubjects.size(), new Date().getTime() - start);
             } catch(Exception e) {
                 log.error("Updating {} subjects failed after {}ms", updatedSubjects.size(), new Date().getTime() - start, e);
                 throw e;
             } finally {
-                updatedSubjects.clear();
+                clearChanges();
             }
         }
         super.commit();
@@ -74,7 +105,7 @@ public class TxnIndexDatasetGraph extends AbstractChangesAwareDatasetGraph {
         super.abort();
         if (isInWriteTransaction()) {
             log.debug("Aborting transaction");
-            updatedSubjects.clear();
+            clearChanges();
         }
     }
 
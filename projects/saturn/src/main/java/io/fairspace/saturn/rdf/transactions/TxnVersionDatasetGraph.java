@@ -0,0 +1,105 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import io.fairspace.saturn.rdf.AbstractChangesAwareDatasetGraph;
+import io.fairspace.saturn.vocabulary.FS;
+import lombok.extern.log4j.Log4j2;
+import org.apache.jena.graph.Node;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.query.TxnType;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.sparql.core.QuadAction;
+
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps a monotonically increasing version number of the dataset.
+ * The version is incremented after every committed write transaction that changed the data,
+ * so it can be used to invalidate caches of data derived from the dataset.
+ * A separate collections version is only incremented when a transaction may have created, deleted,
+ * restored or moved a collection, for caches that only depend on the set of collections.
+ */
+@Log4j2
+public class TxnVersionDatasetGraph extends AbstractChangesAwareDatasetGraph {
+    private static final Set<Node> COLLECTION_PREDICATES = Set.of(
+            FS.linkedEntityType.asNode(), FS.dateDeleted.asNode(), FS.movedTo.asNode());
+
+    private final AtomicLong version = new AtomicLong();
+    private final AtomicLong collectionsVersion = new AtomicLong();
+    // Write transactions are handled sequentially, so single flags suffice.
+    private boolean changed;
+    private boolean collectionsChanged;
+
+    public TxnVersionDatasetGraph(DatasetGraph dsg) {
+        super(dsg);
+    }
+
+    /**
+     * @return the version of the last committed state of the dataset.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return the version of the set of collections in the last committed state of the dataset.
+     */
+    public long getCollectionsVersion() {
+        return collectionsVersion.get();
+    }
+
+    @Override
+    protected void onChange(QuadAction action, Node graph, Node subject, Node predicate, Node object) {
+        switch (action) {
+            case ADD, DELETE -> {
+                changed = true;
+                if (COLLECTION_PREDICATES.contains(predicate)) {
+                    collectionsChanged = true;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void begin(TxnType type) {
+        begin(TxnType.convert(type));
+    }
+
+    @Override
+    public void begin(ReadWrite readWrite) {
+        super.begin(readWrite);
+
+        if (readWrite == ReadWrite.WRITE) {
+            changed = false;
+            collectionsChanged = false;
+        }
+    }
+
+    @Override
+    public void commit() {
+        var increment = isInWriteTransaction() && changed;
+        var incrementCollections = increment && collectionsChanged;
+        super.commit();
+        if (incrementCollections) {
+            collectionsChanged = false;
+            log.debug("Collections version incremented to {}", collectionsVersion.incrementAndGet());
+        }
+        if (increment) {
+            changed = false;
+            log.debug("Dataset version incremented to {}", version.incrementAndGet());
+        }
+    }
+
+    @Override
+    public void abort() {
+        if (isInWriteTransaction()) {
+            changed = false;
+            collectionsChanged = false;
+        }
+        super.abort();
+    }
+
+    private boolean isInWriteTransaction() {
+        return transactionMode() == ReadWrite.WRITE;
+    }
+}
@@ -3,6 +3,8 @@ package io.fairspace.saturn.services.maintenance;
 import io.fairspace.saturn.services.BaseApp;
 
 import static javax.servlet.http.HttpServletResponse.*;
+import static org.eclipse.jetty.http.MimeTypes.Type.APPLICATION_JSON;
+import static spark.Spark.get;
 import static spark.Spark.post;
 
 public class MaintenanceApp extends BaseApp {
@@ -21,5 +23,50 @@ public class MaintenanceApp extends BaseApp {
             res.status(SC_NO_CONTENT);
             return "";
         });
+
+        post("/reindex-text", (req, res) -> {
+            maintenanceService.startRecreateTextIndexTask();
+            res.status(SC_NO_CONTENT);
+            return "";
+        });
+
+        post("/migrate-blobs", (req, res) -> {
+            maintenanceService.startMigrateBlobsTask();
+            res.status(SC_NO_CONTENT);
+            return "";
+        });
+
+        post("/shard-blobs", (req, res) -> {
+            maintenanceService.startShardBlobsTask();
+            res.status(SC_NO_CONTENT);
+            return "";
+        });
+
+        post("/collect-blobs", (req, res) -> {
+            maintenanceService.startCollectBlobsTask(Boolean.parseBoolean(req.queryParams("dryRun")));
+            res.status(SC_NO_CONTENT);
+            return "";
+        });
+
+        get("/collect-blobs", (req, res) -> {
+            var report = maintenanceService.getBlobCollectionReport();
+            if (report == null) {
+                res.status(SC_NOT_FOUND);
+                return "";
+            }
+            res.type(APPLICATION_JSON.asString());
+            return mapper.writeValueAsString(report);
+        });
+
+        post("/migrate-file-versions", (req, res) -> {
+            maintenanceService.startMigrateFileVersionsTask();
+            res.status(SC_NO_CONTENT);
+            return "";
+        });
+
+        get("/connections", (req, res) -> {
+            res.type(APPLICATION_JSON.asString());
+            return mapper.writeValueAsString(maintenanceService.getConnectionStats());
+        });
     }
 }
@@ -1,29 +1,46 @@
 package io.fairspace.saturn.services.maintenance;
 
 import io.fairspace.saturn.config.ConfigLoader;
+import io.fairspace.saturn.rdf.search.SaturnTextIndex;
+import io.fairspace.saturn.rdf.transactions.Transactions;
 import io.fairspace.saturn.services.*;
 import io.fairspace.saturn.services.users.*;
 import io.fairspace.saturn.services.views.*;
+import io.fairspace.saturn.webdav.BlobCollectionReport;
+import io.fairspace.saturn.webdav.BlobGarbageCollector;
+import io.fairspace.saturn.webdav.BlobStore;
+import io.fairspace.saturn.webdav.ContentAddressedBlobStore;
+import io.fairspace.saturn.webdav.FileVersions;
+import io.fairspace.saturn.webdav.LocalBlobStore;
 import lombok.NonNull;
 import lombok.extern.log4j.Log4j2;
 import org.apache.jena.query.Dataset;
 
+import java.io.IOException;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.*;
 
+import static io.fairspace.saturn.config.ConfigLoader.CONFIG;
+
 @Log4j2
 public class MaintenanceService {
     private final ThreadPoolExecutor threadpool = new ThreadPoolExecutor(1, 1,
             0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>());
     private final UserService userService;
     private final Dataset dataset;
+    private final Transactions transactions;
     private final ViewStoreClientFactory viewStoreClientFactory;
+    private final BlobStore blobStore;
+    private volatile BlobCollectionReport blobCollectionReport;
 
-    public MaintenanceService(@NonNull UserService userService, @NonNull Dataset dataset, ViewStoreClientFactory viewStoreClientFactory) {
+    public MaintenanceService(@NonNull UserService userService, @NonNull Dataset dataset, @NonNull Transactions transactions, ViewStoreClientFactory viewStoreClientFactory, BlobStore blobStore) {
         this.userService = userService;
         this.dataset = dataset;
+        this.transactions = transactions;
         this.viewStoreClientFactory = viewStoreClientFactory;
+        this.blobStore = blobStore;
     }
 
     public boolean disabled() {
@@ -51,8 +68,121 @@ public class MaintenanceService {
         });
     }
 
+    public synchronized void startRecreateTextIndexTask() {
+        if (!userService.currentUser().isAdmin()) {
+            throw new AccessDeniedException();
+        }
+        if (active()) {
+            log.info("Reindexing is already in progress.");
+            throw new ConflictException("Reindexing is already in progress.");
+        }
+        threadpool.submit(() -> {
+            log.info("Start asynchronous text reindexing task");
+            SaturnTextIndex.rebuild(dataset.asDatasetGraph());
+        });
+    }
+
+    public synchronized void startMigrateBlobsTask() {
+        if (!userService.currentUser().isAdmin()) {
+            throw new AccessDeniedException();
+        }
+        if (!(blobStore instanceof ContentAddressedBlobStore)) {
+            throw new NotAvailableException("Content-addressed blob store not enabled");
+        }
+        if (active()) {
+            log.info("A maintenance task is already in progress.");
+            throw new ConflictException("A maintenance task is already in progress.");
+        }
+        threadpool.submit(() -> {
+            log.info("Start asynchronous blob migration task");
+            try {
+                ((ContentAddressedBlobStore) blobStore).migrateLegacyBlobs();
+            } catch (IOException e) {
+                log.error("Blob migration failed", e);
+            }
+        });
+    }
+
+    public synchronized void startShardBlobsTask() {
+        if (!userService.currentUser().isAdmin()) {
+            throw new AccessDeniedException();
+        }
+        if (!(blobStore instanceof LocalBlobStore)) {
+            throw new NotAvailableException("Local blob store not enabled");
+        }
+        if (active()) {
+            log.info("A maintenance task is already in progress.");
+            throw new ConflictException("A maintenance task is already in progress.");
+        }
+        threadpool.submit(() -> {
+            log.info("Start asynchronous blob sharding task");
+            try {
+                ((LocalBlobStore) blobStore).migrateToShardedLayout();
+            } catch (IOException e) {
+                log.error("Blob sharding failed", e);
+            }
+        });
+    }
+
+    public synchronized void startCollectBlobsTask(boolean dryRun) {
+        if (!userService.currentUser().isAdmin()) {
+            throw new AccessDeniedException();
+        }
+        if (!(blobStore instanceof LocalBlobStore)) {
+            throw new NotAvailableException("Local blob store not enabled");
+        }
+        if (active()) {
+            log.info("A maintenance task is already in progress.");
+            throw new ConflictException("A maintenance task is already in progress.");
+        }
+        var collector = new BlobGarbageCollector((LocalBlobStore) blobStore, transactions,
+                Duration.ofHours(CONFIG.webDAV.blobGracePeriodHours), CONFIG.webDAV.blobDeletionRate);
+        threadpool.submit(() -> {
+            log.info("Start asynchronous blob garbage collection task");
+            try {
+                blobCollectionReport = collector.collect(dryRun);
+            } catch (IOException e) {
+                log.error("Blob garbage collection failed", e);
+            }
+        });
+    }
+
+    /**
+     * @return the report of the last blob garbage collection, or null.
+     */
+    public BlobCollectionReport getBlobCollectionReport() {
+        if (!userService.currentUser().isAdmin()) {
+            throw new AccessDeniedException();
+        }
+        return blobCollectionReport;
+    }
+
+    public synchronized void startMigrateFileVersionsTask() {
+        if (!userService.currentUser().isAdmin()) {
+            throw new AccessDeniedException();
+        }
+        if (active()) {
+            log.info("A maintenance task is already in progress.");
+            throw new ConflictException("A maintenance task is already in progress.");
+        }
+        threadpool.submit(() -> {
+            log.info("Start asynchronous file versions migration task");
+            FileVersions.migrate(transactions);
+        });
+    }
+
+    public List<WorkloadStatsDTO> getConnectionStats() {
+        if (!userService.currentUser().isAdmin()) {
+            throw new AccessDeniedException();
+        }
+        if (disabled()) {
+            throw new NotAvailableException("Service not available");
+        }
+        return viewStoreClientFactory.getConnectionStats();
+    }
+
     public void recreateIndex() {
-        try (var viewStoreClient = viewStoreClientFactory.build();
+        try (var viewStoreClient = viewStoreClientFactory.build(Workload.BACKGROUND);
              var viewUpdater = new ViewUpdater(viewStoreClient, dataset.asDatasetGraph())){
             var start = new Date().getTime();
             // Index entities
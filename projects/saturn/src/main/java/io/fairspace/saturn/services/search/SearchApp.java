@@ -3,7 +3,9 @@ package io.fairspace.saturn.services.search;
 import io.fairspace.saturn.services.BaseApp;
 import io.fairspace.saturn.services.views.QueryService;
 
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 import static org.eclipse.jetty.http.MimeTypes.Type.APPLICATION_JSON;
+import static spark.Spark.get;
 import static spark.Spark.post;
 
 public class SearchApp extends BaseApp {
@@ -37,5 +39,15 @@ public class SearchApp extends BaseApp {
             var results = searchService.getLookupSearchResults(request);
             return mapper.writeValueAsString(results);
         });
+
+        get("/lookup/stats", (req, res) -> {
+            var stats = searchService.getLabelIndexStats();
+            if (stats == null) {
+                res.status(SC_NOT_FOUND);
+                return "";
+            }
+            res.type(APPLICATION_JSON.asString());
+            return mapper.writeValueAsString(stats);
+        });
     }
 }
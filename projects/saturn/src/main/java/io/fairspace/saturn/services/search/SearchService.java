@@ -1,6 +1,11 @@
 package io.fairspace.saturn.services.search;
 
 import io.fairspace.saturn.rdf.SparqlUtils;
+import io.fairspace.saturn.rdf.search.LabelIndexDatasetGraph;
+import io.fairspace.saturn.rdf.search.LabelIndexStatsDTO;
+import io.fairspace.saturn.rdf.search.SaturnTextIndex;
+import io.fairspace.saturn.services.AccessDeniedException;
+import io.fairspace.saturn.services.users.UserService;
 import io.fairspace.saturn.services.views.QueryService;
 import io.fairspace.saturn.services.views.SparqlQueryService;
 import io.fairspace.saturn.vocabulary.FS;
@@ -8,10 +13,12 @@ import lombok.extern.log4j.*;
 import org.apache.jena.query.*;
 import org.apache.jena.rdf.model.Literal;
 import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDFS;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import static io.fairspace.saturn.rdf.ModelUtils.getStringProperty;
 import static java.util.Optional.ofNullable;
 import static org.apache.jena.rdf.model.ResourceFactory.createResource;
 import static org.apache.jena.rdf.model.ResourceFactory.createStringLiteral;
@@ -22,16 +29,17 @@ public class SearchService {
     private static final Query RESOURCE_BY_TEXT_QUERY = QueryFactory.create(String.format("""
             PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>
             PREFIX fs: <%1$s>
+            PREFIX text: <%2$s>
 
             SELECT ?id ?label ?comment
             WHERE {
+                ?id text:query ?textQuery .
                 ?id a ?type ; rdfs:label ?label .
                 OPTIONAL { ?id rdfs:comment ?comment }
                 FILTER NOT EXISTS { ?id fs:dateDeleted ?anydate }
-                FILTER (regex(?label, ?regexQuery, "i") || regex(?comment, ?regexQuery, "i"))
             } ORDER BY ?label
             LIMIT 20
-            """, FS.NS));
+            """, FS.NS, SaturnTextIndex.TEXT_NS));
 
     private static final Query RESOURCE_BY_TEXT_EXACT_MATCH_QUERY = QueryFactory.create(String.format("""
             PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>
@@ -46,10 +54,20 @@ public class SearchService {
             } ORDER BY ?label
             """, FS.NS));
 
+    private static final int LOOKUP_LIMIT = 20;
+
     private final Dataset ds;
+    private final LabelIndexDatasetGraph labelIndex;
+    private final UserService userService;
 
     public SearchService(Dataset ds) {
+        this(ds, null, null);
+    }
+
+    public SearchService(Dataset ds, LabelIndexDatasetGraph labelIndex, UserService userService) {
         this.ds = ds;
+        this.labelIndex = labelIndex;
+        this.userService = userService;
     }
 
     public SearchResultsDTO getLookupSearchResults(LookupSearchRequest request) {
@@ -59,7 +77,22 @@ public class SearchService {
                 .build();
     }
 
+    public LabelIndexStatsDTO getLabelIndexStats() {
+        if (labelIndex == null) {
+            return null;
+        }
+        if (!userService.currentUser().isAdmin()) {
+            throw new AccessDeniedException();
+        }
+        return labelIndex.getStats();
+    }
+
     private List<SearchResultDTO> getResourceByText(LookupSearchRequest request) {
+        // The queries are used until the existing data has been indexed
+        if (labelIndex != null && labelIndex.isReady()) {
+            return getResourceFromLabelIndex(request);
+        }
+
         var binding = new QuerySolutionMap();
         binding.add("query", createStringLiteral(request.getQuery()));
         binding.add("type", createResource(request.getResourceType()));
@@ -69,7 +102,43 @@ public class SearchService {
             return results;
         }
 
-        binding.add("regexQuery", createStringLiteral(SparqlUtils.getQueryRegex(request.getQuery())));
+        var textQuery = SaturnTextIndex.toTextQuery(request.getQuery());
+        if (textQuery == null) {
+            return results;
+        }
+        binding.add("textQuery", createStringLiteral(textQuery));
         return SparqlUtils.getByQuery(RESOURCE_BY_TEXT_QUERY, binding, ds);
     }
+
+    /**
+     * Looks up the resources in the label index. As in the queries, exact matches are looked up first and take precedence.
+     * The matches are then read from the dataset, which checks the permissions and adds the comments.
+     */
+    private List<SearchResultDTO> getResourceFromLabelIndex(LookupSearchRequest request) {
+        if (request.getResourceType() == null || request.getQuery() == null) {
+            return new ArrayList<>();
+        }
+        var exactMatches = readMatches(labelIndex.lookupExact(request.getResourceType(), request.getQuery()));
+        if (!exactMatches.isEmpty()) {
+            return exactMatches;
+        }
+        return readMatches(labelIndex.lookup(request.getResourceType(), request.getQuery(), LOOKUP_LIMIT));
+    }
+
+    private List<SearchResultDTO> readMatches(List<SearchResultDTO> matches) {
+        if (matches.isEmpty()) {
+            return matches;
+        }
+        return calculateRead(ds, () -> {
+            var model = ds.getDefaultModel();
+            return matches.stream()
+                    .filter(match -> model.createResource(match.getId()).hasProperty(RDFS.label))
+                    .map(match -> SearchResultDTO.builder()
+                            .id(match.getId())
+                            .label(match.getLabel())
+                            .comment(getStringProperty(model.createResource(match.getId()), RDFS.comment))
+                            .build())
+                    .toList();
+        });
+    }
 }
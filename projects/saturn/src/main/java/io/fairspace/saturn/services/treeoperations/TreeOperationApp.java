@@ -0,0 +1,39 @@
+package io.fairspace.saturn.services.treeoperations;
+
+import io.fairspace.saturn.services.BaseApp;
+import io.fairspace.saturn.webdav.TreeOperations;
+
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static org.eclipse.jetty.http.MimeTypes.Type.APPLICATION_JSON;
+import static spark.Spark.get;
+
+/**
+ * Reports the progress of moving, copying, deleting and restoring large directory trees in the background.
+ * A WebDAV request starting such an operation results in 202 Accepted, with the location of the operation.
+ */
+public class TreeOperationApp extends BaseApp {
+    private final TreeOperations treeOperations;
+
+    public TreeOperationApp(String basePath, TreeOperations treeOperations) {
+        super(basePath);
+        this.treeOperations = treeOperations;
+    }
+
+    @Override
+    protected void initApp() {
+        get("/", (req, res) -> {
+            res.type(APPLICATION_JSON.asString());
+            return mapper.writeValueAsString(treeOperations.list());
+        });
+
+        get("/:id", (req, res) -> {
+            var status = treeOperations.get(req.params("id"));
+            if (status == null) {
+                res.status(SC_NOT_FOUND);
+                return "";
+            }
+            res.type(APPLICATION_JSON.asString());
+            return mapper.writeValueAsString(status);
+        });
+    }
+}
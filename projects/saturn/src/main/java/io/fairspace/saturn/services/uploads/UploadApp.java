@@ -0,0 +1,82 @@
+package io.fairspace.saturn.services.uploads;
+
+import io.fairspace.saturn.services.BaseApp;
+
+import static javax.servlet.http.HttpServletResponse.*;
+import static org.eclipse.jetty.http.MimeTypes.Type.APPLICATION_JSON;
+import static spark.Spark.*;
+
+/**
+ * Resumable uploads, loosely following the tus protocol:
+ * POST with an Upload-Length header starts an upload, PATCH with an Upload-Offset header sends a chunk,
+ * HEAD returns the Upload-Offset to resume from. Chunks may be sent in parallel at different offsets.
+ * The upload is stored by a PUT request to WebDAV with an Upload-Id header and an empty body.
+ */
+public class UploadApp extends BaseApp {
+    private static final String UPLOAD_LENGTH = "Upload-Length";
+    private static final String UPLOAD_OFFSET = "Upload-Offset";
+
+    private final UploadService uploadService;
+
+    public UploadApp(String basePath, UploadService uploadService) {
+        super(basePath);
+        this.uploadService = uploadService;
+    }
+
+    @Override
+    protected void initApp() {
+        post("/", (req, res) -> {
+            var status = uploadService.create(Long.parseLong(req.headers(UPLOAD_LENGTH)));
+            res.status(SC_CREATED);
+            res.header("Location", req.url().replaceAll("/$", "") + "/" + status.getId());
+            res.type(APPLICATION_JSON.asString());
+            return mapper.writeValueAsString(status);
+        });
+
+        head("/:id", (req, res) -> {
+            var status = uploadService.getStatus(req.params("id"));
+            if (status == null) {
+                res.status(SC_NOT_FOUND);
+                return "";
+            }
+            res.header(UPLOAD_OFFSET, Long.toString(status.getOffset()));
+            res.header(UPLOAD_LENGTH, Long.toString(status.getLength()));
+            res.header("Cache-Control", "no-store");
+            return "";
+        });
+
+        get("/:id", (req, res) -> {
+            var status = uploadService.getStatus(req.params("id"));
+            if (status == null) {
+                res.status(SC_NOT_FOUND);
+                return "";
+            }
+            res.type(APPLICATION_JSON.asString());
+            return mapper.writeValueAsString(status);
+        });
+
+        patch("/:id", (req, res) -> {
+            if (uploadService.getStatus(req.params("id")) == null) {
+                res.status(SC_NOT_FOUND);
+                return "";
+            }
+            var offset = Long.parseLong(req.headers(UPLOAD_OFFSET));
+            try (var in = req.raw().getInputStream()) {
+                var status = uploadService.write(req.params("id"), offset, in);
+                res.header(UPLOAD_OFFSET, Long.toString(status.getOffset()));
+            }
+            res.status(SC_NO_CONTENT);
+            return "";
+        });
+
+        delete("/:id", (req, res) -> {
+            if (uploadService.getStatus(req.params("id")) == null) {
+                res.status(SC_NOT_FOUND);
+                return "";
+            }
+            uploadService.cancel(req.params("id"));
+            res.status(SC_NO_CONTENT);
+            return "";
+        });
+    }
+}
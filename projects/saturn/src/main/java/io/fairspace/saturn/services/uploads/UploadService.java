@@ -0,0 +1,317 @@
+package io.fairspace.saturn.services.uploads;
+
+import io.fairspace.saturn.services.AccessDeniedException;
+import io.fairspace.saturn.services.ConflictException;
+import io.fairspace.saturn.webdav.BlobInfo;
+import io.fairspace.saturn.webdav.BlobStore;
+import lombok.extern.log4j.Log4j2;
+import org.apache.jena.graph.Node;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static io.fairspace.saturn.auth.RequestContext.getUserURI;
+import static java.lang.Math.min;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.UUID.randomUUID;
+import static org.apache.commons.codec.binary.Hex.encodeHexString;
+import static org.apache.commons.codec.digest.DigestUtils.getMd5Digest;
+import static org.apache.commons.codec.digest.DigestUtils.getSha256Digest;
+import static org.apache.commons.io.FileUtils.cleanDirectory;
+
+/**
+ * Receives large files in chunks, which can be sent in parallel and resent after a failure.
+ * Chunks are written to a staging file at their offset, the file is hashed incrementally while its contiguous
+ * prefix grows, outside of the lock guarding the received ranges. A completed upload is moved to the blob store, a PUT request to WebDAV with the Upload-Id header
+ * then stores it as a new file or a new version of an existing file in a single metadata transaction.
+ * Uploads are kept in memory, the staging directory is cleared on startup.
+ */
+@Log4j2
+public class UploadService {
+    private static final Duration EXPIRATION = Duration.ofDays(1);
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final File dir;
+    private final BlobStore store;
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+
+    public UploadService(File dir, BlobStore store) {
+        this.dir = dir;
+        this.store = store;
+        try {
+            if (dir.exists()) {
+                cleanDirectory(dir);
+            } else if (!dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot initialize the upload staging directory", e);
+        }
+    }
+
+    public UploadStatusDTO create(long length) throws IOException {
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid upload length");
+        }
+        removeExpired();
+        var upload = new Upload(randomUUID().toString(), length, getUserURI());
+        Files.createFile(upload.file.toPath());
+        log.debug("Upload {} of {} bytes started", upload.id, length);
+        uploads.put(upload.id, upload);
+        return upload.getStatus();
+    }
+
+    /**
+     * @return the status of the upload, or null if there is no such upload.
+     */
+    public UploadStatusDTO getStatus(String id) {
+        var upload = uploads.get(id);
+        if (upload == null) {
+            return null;
+        }
+        upload.checkOwner();
+        return upload.getStatus();
+    }
+
+    /**
+     * Writes a chunk at the given offset. A chunk may not overlap with chunks received or being received,
+     * if the input ends prematurely, the bytes received so far are kept.
+     *
+     * @return the status of the upload after writing the chunk.
+     */
+    public UploadStatusDTO write(String id, long offset, InputStream in) throws IOException {
+        var upload = get(id);
+        upload.reserve(offset);
+        var position = offset;
+        try (var channel = FileChannel.open(upload.file.toPath(), WRITE)) {
+            var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (true) {
+                var limit = upload.progress(offset, position);
+                // Reading one byte more than allowed detects chunks which are too long
+                var read = in.read(buffer.array(), 0, (int) min(BUFFER_SIZE, limit - position + 1));
+                if (read <= 0) {
+                    break;
+                }
+                if (position + read > limit) {
+                    throw new ConflictException("The chunk exceeds the upload length or overlaps with another chunk");
+                }
+                buffer.limit(read).position(0);
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+        } finally {
+            upload.received(offset, position);
+        }
+        return upload.getStatus();
+    }
+
+    /**
+     * Moves a fully received upload to the blob store.
+     * Can be called repeatedly, e.g. when the request storing the file failed, until the upload expires.
+     * A blob stored by a previous call is touched, so it isn't collected while it's about to be referred to.
+     */
+    public BlobInfo complete(String id) throws IOException {
+        var upload = get(id);
+        upload.completion.lock();
+        try {
+            if (upload.blob == null) {
+                if (upload.getOffset() != upload.length) {
+                    throw new ConflictException("The upload is not complete");
+                }
+                upload.finishDigests();
+                var blobId = store.write(upload.file, upload.sha256Hex);
+                upload.file.delete();
+                upload.blob = new BlobInfo(blobId, upload.length, upload.md5Hex);
+                log.debug("Upload {} completed as blob {}", id, blobId);
+            } else if (!store.touch(upload.blob.id)) {
+                uploads.remove(id);
+                throw new ConflictException("The uploaded file is no longer available, it has to be uploaded again");
+            }
+            upload.touch();
+            return upload.blob;
+        } finally {
+            upload.completion.unlock();
+        }
+    }
+
+    public void cancel(String id) {
+        var upload = get(id);
+        uploads.remove(id);
+        upload.file.delete();
+    }
+
+    private Upload get(String id) {
+        var upload = uploads.get(id);
+        if (upload == null) {
+            throw new IllegalArgumentException("Unknown upload: " + id);
+        }
+        upload.checkOwner();
+        upload.touch();
+        return upload;
+    }
+
+    private void removeExpired() {
+        var threshold = System.currentTimeMillis() - EXPIRATION.toMillis();
+        uploads.values().removeIf(upload -> {
+            if (upload.lastAccess < threshold) {
+                log.info("Upload {} expired", upload.id);
+                upload.file.delete();
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private class Upload {
+        final String id;
+        final long length;
+        final Node owner;
+        final File file;
+        // Ranges of bytes received, start -> end
+        final NavigableMap<Long, Long> received = new TreeMap<>();
+        // Chunks being received, start -> current position
+        final NavigableMap<Long, Long> receiving = new TreeMap<>();
+        // Held while hashing or completing the upload, the hashed prefix is only accessed by its holder
+        final Lock completion = new ReentrantLock();
+        final MessageDigest md5 = getMd5Digest();
+        // Passed to the blob store, so a content-addressed store doesn't read the file again
+        final MessageDigest sha256 = getSha256Digest();
+        long hashed;
+        String md5Hex;
+        String sha256Hex;
+        volatile BlobInfo blob;
+        volatile long lastAccess = System.currentTimeMillis();
+
+        Upload(String id, long length, Node owner) {
+            this.id = id;
+            this.length = length;
+            this.owner = owner;
+            this.file = new File(dir, id);
+        }
+
+        void checkOwner() {
+            if (!Objects.equals(owner, getUserURI())) {
+                throw new AccessDeniedException("The upload belongs to another user");
+            }
+        }
+
+        void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        /**
+         * Registers a chunk starting at the offset, which may not be inside a chunk received or being received.
+         */
+        synchronized void reserve(long offset) {
+            if (blob != null) {
+                throw new ConflictException("The upload is already complete");
+            }
+            if (offset < 0 || offset > length) {
+                throw new IllegalArgumentException("Invalid upload offset");
+            }
+            for (var ranges : List.of(received, receiving)) {
+                var previous = ranges.floorEntry(offset);
+                if (previous != null && (previous.getKey() == offset || previous.getValue() > offset)) {
+                    throw new ConflictException("The bytes at offset " + offset + " have already been received");
+                }
+            }
+            receiving.put(offset, offset);
+        }
+
+        /**
+         * Updates the position of a chunk being received.
+         *
+         * @return the position the chunk may not exceed: the start of the next chunk or the end of the file.
+         */
+        synchronized long progress(long start, long position) {
+            receiving.put(start, position);
+            var limit = length;
+            for (var ranges : List.of(received, receiving)) {
+                var next = ranges.higherKey(start);
+                if (next != null) {
+                    limit = min(limit, next);
+                }
+            }
+            return limit;
+        }
+
+        void received(long start, long end) throws IOException {
+            synchronized (this) {
+                receiving.remove(start);
+                if (end <= start) {
+                    return;
+                }
+                var previous = received.floorEntry(start);
+                if (previous != null && previous.getValue() == start) {
+                    start = previous.getKey();
+                }
+                var next = received.remove(end);
+                received.put(start, next != null ? next : end);
+            }
+            // Hashing doesn't block other chunks and status requests. If another chunk is being hashed,
+            // its thread or the completion catches up with this one.
+            if (completion.tryLock()) {
+                try {
+                    updateDigest();
+                } finally {
+                    completion.unlock();
+                }
+            }
+        }
+
+        // Hashes the bytes between the hashed position and the end of the contiguous prefix,
+        // must be called holding the completion lock
+        void updateDigest() throws IOException {
+            var offset = getOffset();
+            if (hashed < offset) {
+                try (var channel = FileChannel.open(file.toPath(), READ)) {
+                    var buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                    while (hashed < offset) {
+                        buffer.clear().limit((int) min(BUFFER_SIZE, offset - hashed));
+                        var read = channel.read(buffer, hashed);
+                        if (read <= 0) {
+                            throw new IOException("Unexpected end of the staging file");
+                        }
+                        md5.update(buffer.array(), 0, read);
+                        sha256.update(buffer.array(), 0, read);
+                        hashed += read;
+                    }
+                }
+            }
+        }
+
+        // Finishes the digests once the whole file has been hashed, they are kept in case storing the blob fails
+        // and the completion is retried, must be called holding the completion lock
+        void finishDigests() throws IOException {
+            updateDigest();
+            if (sha256Hex == null) {
+                md5Hex = encodeHexString(md5.digest());
+                sha256Hex = encodeHexString(sha256.digest());
+            }
+        }
+
+        // The end of the contiguous prefix received
+        synchronized long getOffset() {
+            var first = received.firstEntry();
+            return first != null && first.getKey() == 0 ? first.getValue() : 0;
+        }
+
+        synchronized UploadStatusDTO getStatus() {
+            var ranges = new ArrayList<List<Long>>();
+            received.forEach((start, end) -> ranges.add(List.of(start, end)));
+            return new UploadStatusDTO(id, length, getOffset(), ranges, blob != null);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package io.fairspace.saturn.services.uploads;
+
+import lombok.Value;
+
+import java.util.List;
+
+@Value
+public class UploadStatusDTO {
+    String id;
+    long length;
+    /**
+     * The number of contiguous bytes received from the start of the file
+     */
+    long offset;
+    /**
+     * The ranges of bytes received, as [start, end) pairs
+     */
+    List<List<Long>> ranges;
+    boolean complete;
+}
@@ -0,0 +1,12 @@
+package io.fairspace.saturn.services.views;
+
+import lombok.Value;
+
+@Value
+public class CacheStatsDTO {
+    long size;
+    long hitCount;
+    long missCount;
+    double hitRate;
+    long evictionCount;
+}
@@ -0,0 +1,187 @@
+package io.fairspace.saturn.services.views;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.fairspace.saturn.config.Config;
+import io.fairspace.saturn.rdf.transactions.TxnVersionDatasetGraph;
+import io.fairspace.saturn.services.search.FileSearchRequest;
+import io.fairspace.saturn.services.search.SearchResultDTO;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+import org.apache.jena.graph.Node;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import static io.fairspace.saturn.auth.RequestContext.getUserURI;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Caches view pages and counts of another query service.
+ * Cached results are keyed by the canonicalized request, the collections accessible to the current user
+ * and the version of the dataset. All entries are discarded as soon as a new version of the dataset is committed.
+ * The accessible collections are looked up once per user and version of the dataset, which includes the permissions.
+ * Results read while the read replica of the view database lags behind are not cached,
+ * as they may reflect an older version of the dataset.
+ * The size of the cache is bounded by the total number of cell values of the cached pages.
+ */
+@Log4j2
+public class CachingQueryService implements QueryService {
+    private static final int MAX_SCOPES = 1000;
+
+    private final QueryService delegate;
+    private final TxnVersionDatasetGraph datasetVersion;
+    private final ViewStoreClientFactory viewStoreClientFactory;
+    private final Cache<CacheKey, Object> cache;
+    private final Cache<ScopeKey, Optional<Set<String>>> scopes = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SCOPES)
+            .build();
+    private volatile long cachedVersion;
+
+    public CachingQueryService(QueryService delegate, TxnVersionDatasetGraph datasetVersion, Config.Search config) {
+        this(delegate, datasetVersion, null, config);
+    }
+
+    /**
+     * @param viewStoreClientFactory the view database read by the delegate, if any, to check whether its replica lags behind.
+     */
+    public CachingQueryService(QueryService delegate, TxnVersionDatasetGraph datasetVersion, ViewStoreClientFactory viewStoreClientFactory, Config.Search config) {
+        this.delegate = delegate;
+        this.datasetVersion = datasetVersion;
+        this.viewStoreClientFactory = viewStoreClientFactory;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(config.resultCacheSize)
+                .weigher(CachingQueryService::weigh)
+                .recordStats()
+                .build();
+    }
+
+    @Override
+    public ViewPageDTO retrieveViewPage(ViewRequest request) {
+        var version = currentVersion();
+        var key = new CacheKey("page", request.getView(), request.getPage(), request.getSize(),
+                request.includeCounts(), request.includeJoinedViews(), canonicalize(request.getFilters()),
+                accessScope(version), version);
+        return cached(key, () -> delegate.retrieveViewPage(request), ViewPageDTO::isTimeout);
+    }
+
+    @Override
+    public CountDTO count(CountRequest request) {
+        var version = currentVersion();
+        var key = new CacheKey("count", request.getView(), null, null,
+                false, false, canonicalize(request.getFilters()),
+                accessScope(version), version);
+        return cached(key, () -> delegate.count(request), CountDTO::isTimeout);
+    }
+
+    @Override
+    public List<SearchResultDTO> searchFiles(FileSearchRequest request) {
+        return delegate.searchFiles(request);
+    }
+
+    @Override
+    public void exportRows(ViewRequest request, ViewExportWriter writer) throws IOException {
+        delegate.exportRows(request, writer);
+    }
+
+    @Override
+    public Collection<String> getAccessibleCollections() {
+        return delegate.getAccessibleCollections();
+    }
+
+    public CacheStatsDTO getStats() {
+        var stats = cache.stats();
+        return new CacheStatsDTO(cache.size(), stats.hitCount(), stats.missCount(), stats.hitRate(), stats.evictionCount());
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T cached(CacheKey key, Supplier<T> loader, Predicate<T> isTimeout) {
+        var result = (T) cache.getIfPresent(key);
+        if (result == null) {
+            // Checked before reading, a replica replaying index updates meanwhile only gets ahead of the key's version
+            var stale = viewStoreClientFactory != null && viewStoreClientFactory.isReplicaBehind();
+            result = loader.get();
+            // Incomplete results are not cached
+            if (!stale && !isTimeout.test(result)) {
+                cache.put(key, result);
+            }
+        }
+        return result;
+    }
+
+    private long currentVersion() {
+        var version = datasetVersion.getVersion();
+        if (version != cachedVersion) {
+            log.debug("Dataset version changed to {}, clearing the view cache", version);
+            cachedVersion = version;
+            cache.invalidateAll();
+            scopes.invalidateAll();
+        }
+        return version;
+    }
+
+    private Set<String> accessScope(long version) {
+        var key = new ScopeKey(getUserURI(), version);
+        var scope = scopes.getIfPresent(key);
+        if (scope == null) {
+            var collections = delegate.getAccessibleCollections();
+            scope = Optional.ofNullable(collections == null ? null : new TreeSet<>(collections));
+            scopes.put(key, scope);
+        }
+        return scope.orElse(null);
+    }
+
+    /**
+     * Returns copies of the filters in a canonical order, as the query services modify filters in place.
+     */
+    private static List<ViewFilter> canonicalize(List<ViewFilter> filters) {
+        if (filters == null) {
+            return Collections.emptyList();
+        }
+        return filters.stream()
+                .map(filter -> new ViewFilter(
+                        filter.getField(),
+                        filter.getValues() == null ? null : filter.getValues().stream()
+                                .sorted(comparing(String::valueOf))
+                                .collect(toList()),
+                        filter.getMin(),
+                        filter.getMax(),
+                        filter.getBooleanValue(),
+                        filter.getPrefix(),
+                        filter.getPrefixes()))
+                .sorted(comparing(ViewFilter::getField).thenComparing(String::valueOf))
+                .collect(toList());
+    }
+
+    private static int weigh(CacheKey key, Object value) {
+        if (value instanceof ViewPageDTO) {
+            return 1 + ((ViewPageDTO) value).getRows().stream()
+                    .flatMap(row -> row.values().stream())
+                    .mapToInt(Set::size)
+                    .sum();
+        }
+        return 1;
+    }
+
+    @Value
+    private static class CacheKey {
+        String type;
+        String view;
+        Integer page;
+        Integer size;
+        boolean includeCounts;
+        boolean includeJoinedViews;
+        List<ViewFilter> filters;
+        Set<String> collections;
+        long version;
+    }
+
+    @Value
+    private static class ScopeKey {
+        Node user;
+        long version;
+    }
+}
@@ -0,0 +1,90 @@
+package io.fairspace.saturn.services.views;
+
+import io.fairspace.saturn.services.NotAvailableException;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the number of connections a workload can take from the shared pool.
+ * Requests that exceed the limit wait in a fair queue, and are rejected
+ * with a {@link NotAvailableException} if no connection is released within the timeout.
+ * The permit is returned when the connection is closed.
+ */
+@Slf4j
+class ConnectionLimiter {
+    private final Workload workload;
+    private final int maxConnections;
+    private final long timeout;
+    private final Semaphore permits;
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitTime = new LongAdder();
+
+    ConnectionLimiter(Workload workload, int maxConnections, long timeout) {
+        this.workload = workload;
+        this.maxConnections = maxConnections;
+        this.timeout = timeout;
+        this.permits = new Semaphore(maxConnections, true);
+    }
+
+    Connection getConnection(DataSource dataSource) throws SQLException {
+        var start = System.currentTimeMillis();
+        boolean permitted;
+        try {
+            permitted = permits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NotAvailableException("Interrupted while waiting for a database connection", e);
+        } finally {
+            waitTime.add(System.currentTimeMillis() - start);
+        }
+        if (!permitted) {
+            rejected.increment();
+            log.warn("No {} database connection available after {}ms", workload, timeout);
+            throw new NotAvailableException("The database is busy, please try again later");
+        }
+        acquired.increment();
+        try {
+            return releasingPermitOnClose(dataSource.getConnection());
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    WorkloadStatsDTO getStats() {
+        return new WorkloadStatsDTO(workload, maxConnections,
+                maxConnections - permits.availablePermits(),
+                permits.getQueueLength(),
+                acquired.sum(),
+                rejected.sum(),
+                waitTime.sum());
+    }
+
+    private Connection releasingPermitOnClose(Connection connection) {
+        var released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    } finally {
+                        if (method.getName().equals("close") && released.compareAndSet(false, true)) {
+                            permits.release();
+                        }
+                    }
+                });
+    }
+}
@@ -1,9 +1,17 @@
 package io.fairspace.saturn.services.views;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
 
 @Data
+@AllArgsConstructor
 public class CountDTO {
     private final long count;
     private final boolean timeout;
+    // The count was computed for an older version of the data
+    private final boolean stale;
+
+    public CountDTO(long count, boolean timeout) {
+        this(count, timeout, false);
+    }
 }
@@ -1,5 +1,7 @@
 package io.fairspace.saturn.services.views;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import io.fairspace.saturn.config.*;
 import io.fairspace.saturn.rdf.transactions.*;
 import io.fairspace.saturn.services.search.FileSearchRequest;
@@ -8,12 +10,15 @@ import io.milton.resource.*;
 import lombok.*;
 import lombok.extern.log4j.Log4j2;
 
+import java.io.*;
 import java.net.*;
 import java.nio.charset.*;
 import java.sql.*;
 import java.util.*;
 import java.util.stream.*;
 
+import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
+import static io.fairspace.saturn.auth.RequestContext.getUserURI;
 import static java.lang.Integer.*;
 
 /**
@@ -22,6 +27,8 @@ import static java.lang.Integer.*;
  * changes to the metadata graph in a separate view database.
  * Queries are performed by the {@link ViewStoreReader}.
  * The database is initialised by the {@link ViewStoreClientFactory}.
+ * The names of the collections accessible to a user are cached until
+ * the collections version of the {@link TxnVersionDatasetGraph} changes.
  */
 @Log4j2
 public class JdbcQueryService implements QueryService {
@@ -29,12 +36,21 @@ public class JdbcQueryService implements QueryService {
     private final CollectionResource rootSubject;
     private final Config.Search searchConfig;
     private final ViewStoreClientFactory viewStoreClientFactory;
+    private final TxnVersionDatasetGraph datasetVersion;
+    private final Cache<String, CachedCollections> accessibleCollections = CacheBuilder.newBuilder()
+            .maximumSize(1000)
+            .build();
 
     public JdbcQueryService(Config.Search searchConfig, ViewStoreClientFactory viewStoreClientFactory, Transactions transactions, CollectionResource rootSubject) {
+        this(searchConfig, viewStoreClientFactory, transactions, rootSubject, null);
+    }
+
+    public JdbcQueryService(Config.Search searchConfig, ViewStoreClientFactory viewStoreClientFactory, Transactions transactions, CollectionResource rootSubject, TxnVersionDatasetGraph datasetVersion) {
         this.searchConfig = searchConfig;
         this.viewStoreClientFactory = viewStoreClientFactory;
         this.transactions = transactions;
         this.rootSubject = rootSubject;
+        this.datasetVersion = datasetVersion;
     }
 
     public String getCollectionName(String uri) {
@@ -44,7 +60,11 @@ public class JdbcQueryService implements QueryService {
     }
 
     ViewStoreReader getViewStoreReader() throws SQLException {
-        return new ViewStoreReader(searchConfig, viewStoreClientFactory);
+        return getViewStoreReader(Workload.INTERACTIVE);
+    }
+
+    ViewStoreReader getViewStoreReader(Workload workload) throws SQLException {
+        return new ViewStoreReader(searchConfig, viewStoreClientFactory, workload);
     }
 
     @SneakyThrows
@@ -55,10 +75,7 @@ public class JdbcQueryService implements QueryService {
         if (!collectionsFilterRequired) {
             return;
         }
-        var collections = transactions.calculateRead(m ->
-                rootSubject.getChildren().stream()
-                        .map(collection -> (Object) getCollectionName(collection.getUniqueId()))
-                        .collect(Collectors.toList()));
+        var collections = new ArrayList<Object>(getAccessibleCollections());
         if (filters.stream()
                 .anyMatch(filter -> filter.getField().equalsIgnoreCase("Resource_collection"))) {
             // Update existing filters in place
@@ -112,6 +129,22 @@ public class JdbcQueryService implements QueryService {
         }
     }
 
+    @SneakyThrows
+    @Override
+    public void exportRows(ViewRequest request, ViewExportWriter writer) throws IOException {
+        var filters = new ArrayList<ViewFilter>();
+        if (request.getFilters() != null) {
+            filters.addAll(request.getFilters());
+        }
+        applyCollectionsFilterIfRequired(request.getView(), filters);
+        // Exports can take long, so they should not occupy interactive connections
+        try (var viewStoreReader = getViewStoreReader(Workload.BACKGROUND)) {
+            viewStoreReader.streamRows(request.getView(), filters, request.includeJoinedViews(), writer);
+        } catch (SQLException e) {
+            throw new QueryException("Error exporting rows", e);
+        }
+    }
+
     @SneakyThrows
     public CountDTO count(CountRequest request) {
         var filters = request.getFilters();
@@ -126,15 +159,44 @@ public class JdbcQueryService implements QueryService {
         }
     }
 
+    @Override
+    public List<String> getAccessibleCollections() {
+        if (datasetVersion == null) {
+            return loadAccessibleCollections();
+        }
+        // Deleted collections are only accessible when requested explicitly
+        var request = getCurrentRequest();
+        var key = getUserURI() + " " + (request == null ? null : request.getHeader("Show-Deleted"));
+        // The version is obtained before loading, so that a concurrent change can only make the entry stale
+        var version = datasetVersion.getCollectionsVersion();
+        var cached = accessibleCollections.getIfPresent(key);
+        if (cached == null || cached.getVersion() != version) {
+            cached = new CachedCollections(version, loadAccessibleCollections());
+            accessibleCollections.put(key, cached);
+        }
+        return cached.getNames();
+    }
+
     @SneakyThrows
-    public List<SearchResultDTO> searchFiles(FileSearchRequest request) {
-        var collectionsForUser = transactions.calculateRead(m ->
+    private List<String> loadAccessibleCollections() {
+        return transactions.calculateRead(m ->
                 rootSubject.getChildren().stream()
                         .map(collection -> getCollectionName(collection.getUniqueId()))
-                        .collect(Collectors.toList()));
+                        .collect(Collectors.toUnmodifiableList()));
+    }
+
+    @SneakyThrows
+    public List<SearchResultDTO> searchFiles(FileSearchRequest request) {
+        var collectionsForUser = getAccessibleCollections();
 
         try (var viewStoreReader = getViewStoreReader()) {
             return viewStoreReader.searchFiles(request, collectionsForUser);
         }
     }
+
+    @Value
+    private static class CachedCollections {
+        long version;
+        List<String> names;
+    }
 }
@@ -6,4 +6,8 @@ public class QueryException extends RuntimeException {
     QueryException(String message, SQLException cause) {
         super(message, cause);
     }
+
+    QueryException(String message) {
+        super(message);
+    }
 }
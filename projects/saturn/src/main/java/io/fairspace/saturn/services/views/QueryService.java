@@ -3,6 +3,8 @@ package io.fairspace.saturn.services.views;
 import io.fairspace.saturn.services.search.FileSearchRequest;
 import io.fairspace.saturn.services.search.SearchResultDTO;
 
+import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -25,4 +27,16 @@ public interface QueryService {
 
     List<SearchResultDTO> searchFiles(FileSearchRequest request);
 
+    /**
+     * Writes all rows of the view that match the filters of the request, ignoring the pagination parameters.
+     */
+    void exportRows(ViewRequest request, ViewExportWriter writer) throws IOException;
+
+    /**
+     * @return the names of the collections the current user has access to,
+     * or null if the results of the service do not depend on the user.
+     */
+    default Collection<String> getAccessibleCollections() {
+        return null;
+    }
 }
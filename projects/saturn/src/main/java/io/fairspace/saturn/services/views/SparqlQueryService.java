@@ -1,47 +1,93 @@
 package io.fairspace.saturn.services.views;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import io.fairspace.saturn.config.Config;
 import io.fairspace.saturn.config.ViewsConfig;
 import io.fairspace.saturn.config.ViewsConfig.View;
 import io.fairspace.saturn.rdf.SparqlUtils;
+import io.fairspace.saturn.rdf.search.SaturnTextIndex;
+import io.fairspace.saturn.rdf.transactions.TxnVersionDatasetGraph;
 import io.fairspace.saturn.services.search.FileSearchRequest;
 import io.fairspace.saturn.services.search.SearchResultDTO;
 import io.fairspace.saturn.vocabulary.FS;
+import lombok.Value;
 import lombok.extern.log4j.Log4j2;
 import org.apache.jena.datatypes.xsd.XSDDateTime;
 import org.apache.jena.query.*;
 import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.Statement;
+import org.apache.jena.sparql.util.FmtUtils;
 import org.apache.jena.vocabulary.RDFS;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.function.Supplier;
 
-import static io.fairspace.saturn.rdf.ModelUtils.getResourceProperties;
+import static io.fairspace.saturn.config.ConfigLoader.CONFIG;
+import static io.fairspace.saturn.services.views.SparqlViewQueryBuilder.getShape;
 import static io.fairspace.saturn.util.ValidationUtils.validateIRI;
 import static java.time.Instant.ofEpochMilli;
 import static java.util.stream.Collectors.*;
-import static org.apache.jena.rdf.model.ResourceFactory.createProperty;
 import static org.apache.jena.rdf.model.ResourceFactory.createStringLiteral;
 import static org.apache.jena.system.Txn.calculateRead;
 
 @Log4j2
 public class SparqlQueryService implements QueryService {
+    private static final int EXPORT_PAGE_SIZE = 1000;
+    private static final int LAST_COUNTS_CACHE_SIZE = 1000;
+    private static final int QUERY_TEMPLATES_CACHE_SIZE = 1000;
+    private static final Query SEARCH_FILES_QUERY = QueryFactory.create(String.format("""
+            PREFIX fs: <%s>
+            PREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>
+            PREFIX text: <%s>
+
+            SELECT DISTINCT ?id ?label ?comment ?type
+            WHERE {
+                ?id text:query (?textQuery 10000) .
+                ?id rdfs:label ?label ; a ?type .
+                FILTER (?type in (fs:File, fs:Directory, fs:Collection))
+                OPTIONAL { ?id rdfs:comment ?comment }
+                FILTER NOT EXISTS { ?id fs:dateDeleted ?anydate }
+            }
+            LIMIT 10000
+            """, FS.NS, SaturnTextIndex.TEXT_NS));
+
     private final Config.Search config;
     private final ViewsConfig searchConfig;
     private final Dataset ds;
+    private final TxnVersionDatasetGraph datasetVersion;
+    private final Cache<TemplateKey, Query> queryTemplates = CacheBuilder.newBuilder()
+            .maximumSize(QUERY_TEMPLATES_CACHE_SIZE)
+            .build();
+    // The last completed count per view and filters
+    private final Cache<String, LastCount> lastCounts = CacheBuilder.newBuilder()
+            .maximumSize(LAST_COUNTS_CACHE_SIZE)
+            .build();
 
     public SparqlQueryService(Config.Search config, ViewsConfig viewsConfig, Dataset ds) {
+        this(config, viewsConfig, ds, null);
+    }
+
+    /**
+     * @param datasetVersion if specified, a count returned after a timeout is flagged as stale
+     *                       when it was computed for another version of the dataset.
+     */
+    public SparqlQueryService(Config.Search config, ViewsConfig viewsConfig, Dataset ds, TxnVersionDatasetGraph datasetVersion) {
         this.config = config;
         this.searchConfig = viewsConfig;
         this.ds = ds;
+        this.datasetVersion = datasetVersion;
     }
 
     public ViewPageDTO retrieveViewPage(ViewRequest request) {
         var page = (request.getPage() != null && request.getPage() >= 1) ? request.getPage() : 1;
         var size = (request.getSize() != null && request.getSize() >= 1) ? request.getSize() : 20;
-        var query = new SparqlViewQueryBuilder(getView(request.getView()), page, size)
-                .getQuery(request.getFilters());
+        var view = getView(request.getView());
+        var builder = new SparqlViewQueryBuilder(view, page, size);
+        var query = getQuery(new TemplateKey(view.name, "page", getShape(request.getFilters())),
+                builder, () -> builder.getQuery(request.getFilters()), request.getFilters());
 
         log.debug("Executing query with filters and pagination:\n{}", query);
         var selectExecution = QueryExecutionFactory.create(query, ds);
@@ -49,45 +95,40 @@ public class SparqlQueryService implements QueryService {
 
         // get sparql results
         return calculateRead(ds, () -> {
-            var results = new ArrayList<QuerySolution>();
+            var uniqueIris = new LinkedHashSet<Resource>();
+            var columnData = new JoinColumnData();
+            var hasNext = false;
             var timeout = false;
 
+            // extract iri's and column values
             try (selectExecution) {
                 var rs = selectExecution.execSelect();
                 while (rs.hasNext()) {
-                    results.add(rs.next());
-                }
-            } catch (QueryCancelledException e) {
-                timeout = true;
-            }
-
-            var uniqueIris = new HashSet<Resource>();
-            var columnData = new JoinColumnData();
-            var hasNext = false;
-
-            // extract iri's and column values
-            for (var row : results) {
-                var resourceUri = row.getResource(request.getView());
+                    var row = rs.next();
+                    var resourceUri = row.getResource(request.getView());
 
-                if (uniqueIris.size() < size) {
-                    uniqueIris.add(resourceUri);
-                } else {
-                    hasNext = true;
-                }
+                    if (!uniqueIris.contains(resourceUri)) {
+                        if (uniqueIris.size() < size) {
+                            uniqueIris.add(resourceUri);
+                        } else {
+                            hasNext = true;
+                        }
+                    }
 
-                var vars = row.varNames();
-                while (vars.hasNext()) {
-                    var column = vars.next();
-                    if (row.get(column) == null) {
-                        continue;
+                    var vars = row.varNames();
+                    while (vars.hasNext()) {
+                        var column = vars.next();
+                        if (row.get(column) == null) {
+                            continue;
+                        }
+                        columnData.addValue(resourceUri.getURI(), column, row.get(column));
                     }
-                    columnData.addValue(resourceUri.getURI(), column, row.get(column));
                 }
+            } catch (QueryCancelledException e) {
+                timeout = true;
             }
 
-            var rows = uniqueIris.stream()
-                    .map(resource -> fetch(resource, request.getView(), columnData))
-                    .collect(toList());
+            var rows = fetch(uniqueIris, getView(request.getView()), columnData);
 
             return ViewPageDTO.builder()
                     .rows(rows)
@@ -97,60 +138,147 @@ public class SparqlQueryService implements QueryService {
         });
     }
 
-    private Map<String, Set<ValueDTO>> fetch(Resource resource, String viewName, JoinColumnData columnData) {
-        var view = getView(viewName);
+    /**
+     * Fetches the column values of the rows of a page with a single query,
+     * restricted to the resources of the page.
+     */
+    private List<Map<String, Set<ValueDTO>>> fetch(Collection<Resource> resources, View view, JoinColumnData columnData) {
+        var rows = new LinkedHashMap<String, Map<String, Set<ValueDTO>>>();
+        for (var resource : resources) {
+            var row = new HashMap<String, Set<ValueDTO>>();
+            row.put(view.name, Set.of(toValueDTO(resource)));
+            for (var c : view.columns) {
+                row.put(view.name + "_" + c.name, new TreeSet<>());
+            }
+            for (var c : view.joinColumns) {
+                row.put(c.sourceClassName + "_" + c.name, getValuesJoinColumn(resource, c, columnData));
+            }
+            for (var j : view.join) {
+                var joinView = getView(j.view);
+                for (var colName : j.include) {
+                    row.put(colName.equals("id") ? joinView.name : joinView.name + "_" + colName, new TreeSet<>());
+                }
+            }
+            rows.put(resource.getURI(), row);
+        }
+        if (rows.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-        var result = new HashMap<String, Set<ValueDTO>>();
-        result.put(view.name, Set.of(toValueDTO(resource)));
+        var query = getProjectionQuery(view, resources);
+        log.debug("Fetching the column values of a page:\n{}", query);
+        // A value can have multiple labels, only the first one is used
+        var fetched = new HashSet<List<RDFNode>>();
+        try (var execution = QueryExecutionFactory.create(query, ds)) {
+            var rs = execution.execSelect();
+            while (rs.hasNext()) {
+                var solution = rs.next();
+                var id = solution.getResource("id");
+                var key = solution.getLiteral("key");
+                var value = solution.get("value");
+                if (!fetched.add(List.of(id, key, value))) {
+                    continue;
+                }
+                var label = solution.getLiteral("label");
+                rows.get(id.getURI()).get(key.getString())
+                        .add(label != null ? new ValueDTO(label.getString(), value.asResource().getURI()) : toValueDTO(value));
+            }
+        }
+        return new ArrayList<>(rows.values());
+    }
 
+    /**
+     * Builds a query selecting the values of all columns and joined views of the resources,
+     * each as a combination of the resource (?id), the column key (?key), the value (?value)
+     * and the label of the value (?label), if it is a resource with a label.
+     */
+    Query getProjectionQuery(View view, Collection<Resource> resources) {
+        var branches = new ArrayList<String>();
         for (var c : view.columns) {
-            result.put(viewName + "_" + c.name, getValues(resource, c));
-        }
-        for (var c : view.joinColumns) {
-            result.put(c.sourceClassName + "_" + c.name, getValuesJoinColumn(resource, c, columnData));
+            branches.add(bindKey(view.name + "_" + c.name) + "?id <" + c.source + "> ?value .");
         }
         for (var j : view.join) {
             var joinView = getView(j.view);
-
-            var prop = createProperty(j.on);
-            var refs = j.reverse
-                    ? resource.getModel().listResourcesWithProperty(prop, resource).toList()
-                    : getResourceProperties(resource, prop);
-
             for (var colName : j.include) {
                 if (colName.equals("id")) {
-                    result.put(joinView.name, refs.stream().map(this::toValueDTO).collect(toSet()));
+                    branches.add(bindKey(joinView.name) + (j.reverse
+                            ? "?value <" + j.on + "> ?id ."
+                            : "?id <" + j.on + "> ?value ."));
                 } else {
                     var col = joinView.columns.stream()
                             .filter(c -> c.name.equals(colName))
                             .findFirst()
                             .orElseThrow(() -> new RuntimeException("Unknown column: " + colName));
-
-                    var values = refs.stream()
-                            .flatMap(ref -> getValues(ref, col)
-                                    .stream()).
-                            collect(toCollection(TreeSet::new));
-
-                    result.put(joinView.name + "_" + colName, values);
+                    branches.add(bindKey(joinView.name + "_" + colName) + (j.reverse
+                            ? "?ref <" + j.on + "> ?id ."
+                            : "?id <" + j.on + "> ?ref .") +
+                            " ?ref <" + col.source + "> ?value .");
                 }
             }
         }
 
-        return result;
+        var builder = new StringBuilder("PREFIX rdfs: <")
+                .append(RDFS.getURI())
+                .append(">\n\n")
+                .append("SELECT ?id ?key ?value ?label\n")
+                .append("WHERE {\n")
+                .append("VALUES ?id { ")
+                .append(resources.stream().map(resource -> FmtUtils.stringForNode(resource.asNode())).collect(joining(" ")))
+                .append(" }\n");
+        if (branches.isEmpty()) {
+            builder.append("FILTER (false)\n");
+        } else {
+            builder.append("{ ")
+                    .append(String.join(" }\nUNION\n{ ", branches))
+                    .append(" }\n");
+        }
+        builder.append("OPTIONAL { ?value rdfs:label ?label }\n")
+                .append("}");
+
+        return QueryFactory.create(builder.toString());
     }
 
-    public List<SearchResultDTO> searchFiles(FileSearchRequest request) {
-        var query = getSearchForFilesQuery(request.getParentIRI());
-        var binding = new QuerySolutionMap();
-        binding.add("regexQuery", createStringLiteral(SparqlUtils.getQueryRegex(request.getQuery())));
-        return SparqlUtils.getByQuery(query, binding, ds);
+    /**
+     * Returns a query with the filter values bound, built from a cached template of the same shape,
+     * so that the vocabulary is walked and the query text parsed only once per shape.
+     */
+    private Query getQuery(TemplateKey key, SparqlViewQueryBuilder builder, Supplier<Query> templateBuilder, List<ViewFilter> filters) {
+        var template = queryTemplates.getIfPresent(key);
+        if (template == null) {
+            template = templateBuilder.get();
+            queryTemplates.put(key, template);
+        }
+        return builder.bind(template, filters);
+    }
+
+    long getQueryTemplateCount() {
+        return queryTemplates.size();
     }
 
-    private Set<ValueDTO> getValues(Resource resource, View.Column column) {
-        return new TreeSet<>(resource.listProperties(createProperty(column.source))
-                .mapWith(Statement::getObject)
-                .mapWith(this::toValueDTO)
-                .toSet());
+    private static String bindKey(String key) {
+        return "BIND (" + FmtUtils.stringForNode(createStringLiteral(key).asNode()) + " AS ?key) ";
+    }
+
+    /**
+     * Searches the labels and comments of files, directories and collections with the text index.
+     * The search is restricted to the parent directory, or to the file system, within the Lucene query,
+     * so the maximum number of hits of the text index only applies to the resources in scope.
+     */
+    public List<SearchResultDTO> searchFiles(FileSearchRequest request) {
+        var parentIRI = request.getParentIRI();
+        if (parentIRI != null && !parentIRI.trim().isEmpty()) {
+            validateIRI(parentIRI);
+        } else {
+            // Files, directories and collections are the only resources with an IRI in the file system
+            parentIRI = CONFIG.publicUrl + "/api/webdav";
+        }
+        var textQuery = SaturnTextIndex.toTextQuery(request.getQuery(), parentIRI);
+        if (textQuery == null) {
+            return new ArrayList<>();
+        }
+        var binding = new QuerySolutionMap();
+        binding.add("textQuery", createStringLiteral(textQuery));
+        return SparqlUtils.getByQuery(SEARCH_FILES_QUERY, binding, ds);
     }
 
     private Set<ValueDTO> getValuesJoinColumn(Resource resource, View.JoinColumn jc, JoinColumnData columnData) {
@@ -184,52 +312,82 @@ public class SparqlQueryService implements QueryService {
         return new ValueDTO(label, resource.getURI());
     }
 
-    private Query getSearchForFilesQuery(String parentIRI) {
-        var builder = new StringBuilder("PREFIX fs: <")
-                .append(FS.NS)
-                .append(">\nPREFIX rdfs: <http://www.w3.org/2000/01/rdf-schema#>\n\n")
-                .append("SELECT ?id ?label ?comment ?type\n")
-                .append("WHERE {\n");
-
-        if (parentIRI != null && !parentIRI.trim().isEmpty()) {
-            validateIRI(parentIRI);
-            builder.append("?id fs:belongsTo* <").append(parentIRI).append("> .\n");
+    /**
+     * The RDF database offers no cursors, so the rows are exported page by page.
+     */
+    @Override
+    public void exportRows(ViewRequest request, ViewExportWriter writer) throws IOException {
+        var pageRequest = new ViewRequest();
+        pageRequest.setView(request.getView());
+        pageRequest.setFilters(request.getFilters());
+        pageRequest.setIncludeJoinedViews(request.getIncludeJoinedViews());
+        pageRequest.setSize(EXPORT_PAGE_SIZE);
+        for (var page = 1; ; page++) {
+            pageRequest.setPage(page);
+            var result = retrieveViewPage(pageRequest);
+            if (result.isTimeout()) {
+                throw new QueryException("Timeout exporting rows of view " + request.getView());
+            }
+            for (var row : result.getRows()) {
+                writer.write(row);
+            }
+            if (!result.isHasNext()) {
+                return;
+            }
         }
-
-        builder.append("?id rdfs:label ?label ; a ?type .\n")
-                .append("FILTER (?type in (fs:File, fs:Directory, fs:Collection))\n")
-                .append("OPTIONAL { ?id rdfs:comment ?comment }\n")
-                .append("FILTER NOT EXISTS { ?id fs:dateDeleted ?anydate }\n")
-                .append("FILTER (regex(?label, ?regexQuery, \"i\") || regex(?comment, ?regexQuery, \"i\"))\n")
-                .append("}\nLIMIT 10000");
-
-        return QueryFactory.create(builder.toString());
     }
 
+    /**
+     * Counts the matching entities with an aggregate query.
+     * An aggregate has no intermediate results, so when the count times out,
+     * the last count computed for the same view and filters is returned, flagged as a timeout,
+     * and as stale if the data may have changed since.
+     */
     public CountDTO count(CountRequest request) {
-        var query = new SparqlViewQueryBuilder(getView(request.getView()))
-                .getQuery(request.getFilters());
+        var view = getView(request.getView());
+        var builder = new SparqlViewQueryBuilder(view);
+        var query = getQuery(new TemplateKey(view.name, "count", getShape(request.getFilters())),
+                builder, () -> builder.getCountQuery(request.getFilters()), request.getFilters());
 
         log.debug("Querying the total number of matches: \n{}", query);
 
         var execution = QueryExecutionFactory.create(query, ds);
         execution.setTimeout(config.countRequestTimeout);
 
-        var uniqueIris = new HashSet<Resource>();
+        var key = request.getView() + " " + request.getFilters();
+        // Obtained before the read transaction starts, so the data read is at least as recent
+        var version = datasetVersion != null ? datasetVersion.getVersion() : null;
 
         return calculateRead(ds, () -> {
             try (execution) {
-                var it = execution.execSelect();
-                while (it.hasNext()) {
-                    var row = it.next();
-                    var resourceUri = row.getResource(request.getView());
-                    uniqueIris.add(resourceUri);
-                }
-
-                return new CountDTO(uniqueIris.size(), false);
+                var count = executeCount(execution);
+                lastCounts.put(key, new LastCount(count, version));
+                return new CountDTO(count, false);
             } catch (QueryCancelledException e) {
-                return new CountDTO(uniqueIris.size(), true);
+                var lastCount = lastCounts.getIfPresent(key);
+                if (lastCount == null) {
+                    return new CountDTO(0, true);
+                }
+                return new CountDTO(lastCount.count, true, version == null || !version.equals(lastCount.version));
             }
         });
     }
+
+    long executeCount(QueryExecution execution) {
+        var rs = execution.execSelect();
+        return rs.hasNext() ? rs.next().getLiteral("count").getLong() : 0;
+    }
+
+    @Value
+    private static class LastCount {
+        long count;
+        Long version;
+    }
+
+    @Value
+    private static class TemplateKey {
+        String view;
+        String form;
+        List<String> filterShape;
+    }
 }
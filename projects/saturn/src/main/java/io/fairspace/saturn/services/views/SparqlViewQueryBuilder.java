@@ -5,18 +5,25 @@ import io.fairspace.saturn.config.ViewsConfig.ColumnType;
 import io.fairspace.saturn.config.ViewsConfig.View;
 import io.fairspace.saturn.vocabulary.FS;
 import lombok.extern.log4j.Log4j2;
+import org.apache.jena.graph.Node;
 import org.apache.jena.query.Query;
 import org.apache.jena.query.QueryFactory;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.shacl.vocabulary.SHACL;
 import org.apache.jena.shacl.vocabulary.SHACLM;
+import org.apache.jena.sparql.core.Var;
 import org.apache.jena.sparql.expr.*;
 import org.apache.jena.sparql.syntax.ElementFilter;
+import org.apache.jena.sparql.syntax.ElementSubQuery;
+import org.apache.jena.sparql.syntax.ElementVisitorBase;
+import org.apache.jena.sparql.syntax.ElementWalker;
+import org.apache.jena.sparql.syntax.syntaxtransform.QueryTransformOps;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.vocabulary.RDFS;
 
 import java.time.Instant;
 import java.util.*;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import static io.fairspace.saturn.rdf.ModelUtils.getStringProperty;
@@ -34,7 +41,8 @@ public class SparqlViewQueryBuilder {
     private final String ENTITY_DIR_SUFFIX = "Dir";
     private final StringBuilder builder = new StringBuilder();
     private final HashSet<String> entityColumnsWithSubquery = new HashSet<>();
-    private final ArrayList<List<Resource>> hierarchy;
+    private final Map<ViewFilter, Integer> filterIndexes = new IdentityHashMap<>();
+    private ArrayList<List<Resource>> hierarchy;
     private final HashMap<String, List<String>> entityTypes;
     private final View view;
     private final long limit;
@@ -46,7 +54,6 @@ public class SparqlViewQueryBuilder {
         this.limit = -1L;
         this.offset = -1L;
         this.entityTypes = fetchTypes(view);
-        this.hierarchy = getHierarchyTree();
     }
 
     public SparqlViewQueryBuilder(View view, int page, int size) {
@@ -54,14 +61,15 @@ public class SparqlViewQueryBuilder {
         this.limit = (size + 1);
         this.offset = ((page - 1) * size);
         this.entityTypes = fetchTypes(view);
-        this.hierarchy = getHierarchyTree();
     }
 
+    /**
+     * Builds a query selecting a page of the entities of the view that match the filters.
+     * The filter values are represented by parameters, see {@link #bind(Query, List)}.
+     */
     public Query getQuery(List<ViewFilter> viewFilters) {
-        applyAppNamespace("fs", FS.NS);
-        applyAppNamespace("rdf", RDF.getURI());
-        applyAppNamespace("rdfs", RDFS.getURI());
-        applyAppNamespace("sh", SHACL.NS);
+        init(viewFilters);
+        applyAppNamespaces();
 
         builder.append("\nSELECT DISTINCT ?")
                 .append(view.name)
@@ -81,6 +89,118 @@ public class SparqlViewQueryBuilder {
         return QueryFactory.create(query);
     }
 
+    /**
+     * Builds a query counting the distinct entities of the view that match the filters.
+     * Only the filtering subquery is needed for that, the join columns are left out.
+     */
+    public Query getCountQuery(List<ViewFilter> viewFilters) {
+        init(viewFilters);
+        applyAppNamespaces();
+
+        builder.append("\nSELECT (COUNT(DISTINCT ?")
+                .append(view.name)
+                .append(") AS ?count)")
+                .append("\nWHERE {\n");
+
+        applyViewFilters(viewFilters);
+
+        builder.append("\n}");
+
+        return QueryFactory.create(builder.toString());
+    }
+
+    /**
+     * Instantiates a query built by a builder for the same view, with filters of the same shape,
+     * by substituting the filter values and the pagination of this builder.
+     * The query passed is not modified, so it can be reused.
+     */
+    public Query bind(Query query, List<ViewFilter> viewFilters) {
+        var result = QueryTransformOps.transform(query, getParameters(viewFilters));
+        if (limit > -1L && offset > -1L) {
+            // The pagination is applied to the filtering subquery, which the transformation has copied
+            ElementWalker.walk(result.getQueryPattern(), new ElementVisitorBase() {
+                @Override
+                public void visit(ElementSubQuery el) {
+                    el.getQuery().setLimit(limit);
+                    el.getQuery().setOffset(offset);
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Describes everything about the filters that affects the structure of the query, but not their values.
+     * Queries built for filters with the same shape only differ in their parameters.
+     */
+    public static List<String> getShape(List<ViewFilter> viewFilters) {
+        return viewFilters.stream()
+                .map(f -> f.field
+                        + (f.min != null ? " min" : "")
+                        + (f.max != null ? " max" : "")
+                        + (f.values != null ? " values:" + f.values.size() : "")
+                        + (f.prefix != null && !f.prefix.isBlank() ? " prefix" : "")
+                        + (f.booleanValue != null ? " boolean" : ""))
+                .toList();
+    }
+
+    private Map<Var, Node> getParameters(List<ViewFilter> viewFilters) {
+        var parameters = new HashMap<Var, Node>();
+        for (var i = 0; i < viewFilters.size(); i++) {
+            var filter = viewFilters.get(i);
+            if (filter.field.equals("location")) {
+                if (filter.values != null) {
+                    for (var j = 0; j < filter.values.size(); j++) {
+                        var location = filter.values.get(j).toString();
+                        validateIRI(location);
+                        parameters.put(parameter(i, String.valueOf(j)), createURI(location));
+                    }
+                }
+                continue;
+            }
+            var type = filter.field.contains("_") ? getColumn(filter.field).type : ColumnType.Identifier;
+            if (filter.min != null || filter.max != null) {
+                if (filter.min != null) {
+                    parameters.put(parameter(i, "min"), toNodeValue(filter.min, type).asNode());
+                }
+                if (filter.max != null) {
+                    parameters.put(parameter(i, "max"), toNodeValue(filter.max, type).asNode());
+                }
+            } else if (filter.values != null && !filter.values.isEmpty()) {
+                for (var j = 0; j < filter.values.size(); j++) {
+                    parameters.put(parameter(i, String.valueOf(j)), toNodeValue(filter.values.get(j), type).asNode());
+                }
+            } else if (filter.prefix != null && !filter.prefix.isBlank()) {
+                parameters.put(parameter(i, "prefix"), makeString(filter.prefix.trim().toLowerCase()).asNode());
+            } else if (filter.booleanValue != null) {
+                parameters.put(parameter(i, "boolean"), makeBoolean(filter.booleanValue).asNode());
+            }
+        }
+        return parameters;
+    }
+
+    private Var parameter(ViewFilter filter, String name) {
+        return parameter(filterIndexes.get(filter), name);
+    }
+
+    private static Var parameter(int filterIndex, String name) {
+        return Var.alloc("_param" + filterIndex + "_" + name);
+    }
+
+    private void init(List<ViewFilter> viewFilters) {
+        hierarchy = getHierarchyTree();
+        for (var i = 0; i < viewFilters.size(); i++) {
+            filterIndexes.put(viewFilters.get(i), i);
+        }
+    }
+
+    private void applyAppNamespaces() {
+        applyAppNamespace("fs", FS.NS);
+        applyAppNamespace("rdf", RDF.getURI());
+        applyAppNamespace("rdfs", RDFS.getURI());
+        applyAppNamespace("sh", SHACL.NS);
+    }
+
     private void applyHierarchy(String dirSuffix) {
         int hierarchyIndexDesc = 0;
         for (int i = 0; i < hierarchy.size(); i++) {
@@ -211,9 +331,10 @@ public class SparqlViewQueryBuilder {
                 .findFirst()
                 .ifPresent(locationFilter -> {
                     if (locationFilter.values != null && !locationFilter.values.isEmpty()) {
-                        locationFilter.values.forEach(v -> validateIRI(v.toString()));
                         builder.append("?").append(dirAlias).append(" fs:belongsTo* ?location .\n FILTER (?location IN (")
-                                .append(locationFilter.values.stream().map(v -> "<" + v + ">").collect(joining(", ")))
+                                .append(IntStream.range(0, locationFilter.values.size())
+                                        .mapToObj(i -> parameter(locationFilter, String.valueOf(i)).toString())
+                                        .collect(joining(", ")))
                                 .append("))\n");
                     }
                 });
@@ -272,22 +393,23 @@ public class SparqlViewQueryBuilder {
 
         var variable = new ExprVar(field);
 
+        // The values are represented by parameters, which are substituted by bind
         Expr expr;
         if (filter.min != null && filter.max != null) {
-            expr = new E_LogicalAnd(new E_GreaterThanOrEqual(variable, toNodeValue(filter.min, type)), new E_LessThanOrEqual(variable, toNodeValue(filter.max, type)));
+            expr = new E_LogicalAnd(new E_GreaterThanOrEqual(variable, new ExprVar(parameter(filter, "min"))), new E_LessThanOrEqual(variable, new ExprVar(parameter(filter, "max"))));
         } else if (filter.min != null) {
-            expr = new E_GreaterThanOrEqual(variable, toNodeValue(filter.min, type));
+            expr = new E_GreaterThanOrEqual(variable, new ExprVar(parameter(filter, "min")));
         } else if (filter.max != null) {
-            expr = new E_LessThanOrEqual(variable, toNodeValue(filter.max, type));
+            expr = new E_LessThanOrEqual(variable, new ExprVar(parameter(filter, "max")));
         } else if (filter.values != null && !filter.values.isEmpty()) {
-            List<Expr> values = filter.values.stream()
-                    .map(o -> toNodeValue(o, type))
+            List<Expr> values = IntStream.range(0, filter.values.size())
+                    .mapToObj(i -> (Expr) new ExprVar(parameter(filter, String.valueOf(i))))
                     .collect(toList());
             expr = new E_OneOf(variable, new ExprList(values));
         } else if (filter.prefix != null && !filter.prefix.isBlank()) {
-            expr = new E_StrStartsWith(new E_StrLowerCase(variable), makeString(filter.prefix.trim().toLowerCase()));
+            expr = new E_StrStartsWith(new E_StrLowerCase(variable), new ExprVar(parameter(filter, "prefix")));
         } else if (filter.booleanValue != null) {
-            expr = new E_Equals(variable, makeBoolean(filter.booleanValue));
+            expr = new E_Equals(variable, new ExprVar(parameter(filter, "boolean")));
         }
         else {
             return null;
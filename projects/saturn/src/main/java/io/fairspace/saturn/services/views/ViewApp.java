@@ -1,8 +1,15 @@
 package io.fairspace.saturn.services.views;
 
 import io.fairspace.saturn.services.BaseApp;
+import io.fairspace.saturn.services.users.UserService;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static javax.servlet.http.HttpServletResponse.SC_FORBIDDEN;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
 import static javax.servlet.http.HttpServletResponse.SC_OK;
 import static org.eclipse.jetty.http.MimeTypes.Type.APPLICATION_JSON;
 import static spark.Spark.get;
@@ -12,11 +19,13 @@ public class ViewApp extends BaseApp {
 
     private final ViewService viewService;
     private final QueryService queryService;
+    private final UserService userService;
 
-    public ViewApp(String basePath, ViewService viewService, QueryService queryService) {
+    public ViewApp(String basePath, ViewService viewService, QueryService queryService, UserService userService) {
         super(basePath);
         this.viewService = viewService;
         this.queryService = queryService;
+        this.userService = userService;
     }
 
     @Override
@@ -33,6 +42,16 @@ public class ViewApp extends BaseApp {
         });
 
         get("/facets", (req, res) -> {
+            // The tag is obtained before the facets, so that a concurrent change can only make it stale
+            var etag = viewService.getFacetsETag();
+            if (etag != null) {
+                res.header("ETag", etag);
+                res.header("Cache-Control", "no-cache");
+                if (isNotModified(req.headers("If-None-Match"), etag)) {
+                    res.status(SC_NOT_MODIFIED);
+                    return "";
+                }
+            }
             res.type(APPLICATION_JSON.asString());
             return mapper.writeValueAsString(new FacetsDTO(viewService.getFacets()));
         });
@@ -42,5 +61,57 @@ public class ViewApp extends BaseApp {
             res.type(APPLICATION_JSON.asString());
             return mapper.writeValueAsString(result);
         });
+
+        post("/export", (req, res) -> {
+            var request = mapper.readValue(req.body(), ViewRequest.class);
+            var view = viewService.getViews().stream()
+                    .filter(v -> v.getName().equalsIgnoreCase(request.getView()))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("Unknown view: " + request.getView()));
+            var format = req.queryParamOrDefault("format", "csv");
+            if (!format.equals("csv") && !format.equals("ndjson")) {
+                throw new IllegalArgumentException("Unsupported export format: " + format);
+            }
+            res.type(format.equals("csv") ? "text/csv;charset=utf-8" : "application/x-ndjson;charset=utf-8");
+            res.header("Content-Disposition", "attachment; filename=\"" + view.getName() + "." + format + "\"");
+            // Rows are written to the response as they are read, without buffering the whole export
+            var out = new BufferedWriter(new OutputStreamWriter(res.raw().getOutputStream(), UTF_8));
+            var writer = format.equals("csv")
+                    ? ViewExportWriter.csv(view, out)
+                    : ViewExportWriter.ndjson(mapper, out);
+            queryService.exportRows(request, writer);
+            out.flush();
+            return "";
+        });
+
+        get("/cache", (req, res) -> {
+            if (!userService.currentUser().isAdmin()) {
+                res.status(SC_FORBIDDEN);
+                return "";
+            }
+            if (!(queryService instanceof CachingQueryService)) {
+                res.status(SC_NOT_FOUND);
+                return "";
+            }
+            res.type(APPLICATION_JSON.asString());
+            return mapper.writeValueAsString(((CachingQueryService) queryService).getStats());
+        });
+    }
+
+    /**
+     * @return whether one of the comma-separated tags of an If-None-Match header is the given tag,
+     * with or without the weak prefix, or the header is *.
+     */
+    static boolean isNotModified(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (var tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
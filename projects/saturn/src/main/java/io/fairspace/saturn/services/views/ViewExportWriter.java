@@ -0,0 +1,66 @@
+package io.fairspace.saturn.services.views;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fairspace.saturn.config.ViewsConfig.ColumnType;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Writes exported view rows, one at a time, so that an export never has to be held in memory.
+ * A row is represented as in {@link ViewPageDTO#getRows()}.
+ */
+@FunctionalInterface
+public interface ViewExportWriter {
+    void write(Map<String, Set<ValueDTO>> row) throws IOException;
+
+    /**
+     * Writes rows as comma separated values, with a header containing the column names of the view.
+     * Identifier columns contain the IRIs of the entities, other columns contain the value labels.
+     * Multiple values in a cell are separated by a vertical bar.
+     */
+    static ViewExportWriter csv(ViewDTO view, Writer out) throws IOException {
+        var columns = view.getColumns();
+        out.write(columns.stream()
+                .map(column -> escapeCsv(column.getName()))
+                .collect(Collectors.joining(",")));
+        out.write("\r\n");
+        return row -> {
+            out.write(columns.stream()
+                    .map(column -> {
+                        var values = row.get(column.getName());
+                        if (values == null) {
+                            return "";
+                        }
+                        return escapeCsv(values.stream()
+                                .map(value -> column.getType() == ColumnType.Identifier
+                                        ? Objects.toString(value.getValue(), "")
+                                        : Objects.toString(value.getLabel(), ""))
+                                .collect(Collectors.joining("|")));
+                    })
+                    .collect(Collectors.joining(",")));
+            out.write("\r\n");
+        };
+    }
+
+    /**
+     * Writes rows as newline delimited JSON objects.
+     */
+    static ViewExportWriter ndjson(ObjectMapper mapper, Writer out) {
+        return row -> {
+            out.write(mapper.writeValueAsString(row));
+            out.write("\n");
+        };
+    }
+
+    private static String escapeCsv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
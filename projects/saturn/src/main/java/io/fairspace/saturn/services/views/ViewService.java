@@ -1,6 +1,7 @@
 package io.fairspace.saturn.services.views;
 
 import io.fairspace.saturn.config.*;
+import io.fairspace.saturn.rdf.transactions.TxnVersionDatasetGraph;
 import io.fairspace.saturn.vocabulary.FS;
 import lombok.*;
 import lombok.extern.log4j.*;
@@ -71,12 +72,24 @@ public class ViewService {
     private final ViewsConfig viewsConfig;
     private final Dataset ds;
     private final ViewStoreClientFactory viewStoreClientFactory;
+    private final TxnVersionDatasetGraph datasetVersion;
+    private final String instanceTag = Long.toHexString(System.currentTimeMillis());
+    private volatile CachedFacets cachedFacets;
 
     public ViewService(Config.Search searchConfig, ViewsConfig viewsConfig, Dataset ds, ViewStoreClientFactory viewStoreClientFactory) {
+        this(searchConfig, viewsConfig, ds, viewStoreClientFactory, null);
+    }
+
+    /**
+     * @param datasetVersion if specified, facets are cached and only recomputed
+     *                       after the version of the dataset has changed.
+     */
+    public ViewService(Config.Search searchConfig, ViewsConfig viewsConfig, Dataset ds, ViewStoreClientFactory viewStoreClientFactory, TxnVersionDatasetGraph datasetVersion) {
         this.searchConfig = searchConfig;
         this.viewsConfig = viewsConfig;
         this.ds = ds;
         this.viewStoreClientFactory = viewStoreClientFactory;
+        this.datasetVersion = datasetVersion;
     }
 
     private Object convertLiteralValue(Object value) {
@@ -92,7 +105,16 @@ public class ViewService {
             return null;
         }
         try (var reader = new ViewStoreReader(searchConfig, viewStoreClientFactory)) {
-            return reader.aggregate(view.name, column.name);
+            var range = reader.getColumnRange(view.name, column.name);
+            if (range != null) {
+                return range;
+            }
+        }
+        // The range is stale, because a boundary value has been removed
+        try (var client = viewStoreClientFactory.build(Workload.BACKGROUND)) {
+            var range = client.recomputeColumnRange(view.name, column.name);
+            client.commit();
+            return range;
         }
     }
 
@@ -157,7 +179,54 @@ public class ViewService {
         return new FacetDTO(facetNamePrefix + "_" + column.name, column.title, column.type, values, booleanValue, min, max);
     }
 
+    /**
+     * Returns the facets of all views.
+     * The facets are computed once per version of the dataset and served from memory
+     * until the next write transaction changes the data.
+     * They are recomputed together: whether a value is listed depends on the deletion of any resource referring to it,
+     * whatever its type, so a write can't be attributed to the facets of particular views by its version alone.
+     * The ranges are read from the view database, facets computed while its replica lags behind are not cached.
+     */
     public List<FacetDTO> getFacets() {
+        if (datasetVersion == null) {
+            return computeFacets();
+        }
+        var version = datasetVersion.getVersion();
+        var cached = cachedFacets;
+        if (cached != null && cached.version == version) {
+            return cached.facets;
+        }
+        synchronized (this) {
+            cached = cachedFacets;
+            if (cached == null || cached.version != version) {
+                if (isReplicaBehind()) {
+                    return computeFacets();
+                }
+                var start = new Date().getTime();
+                cached = new CachedFacets(version, List.copyOf(computeFacets()));
+                cachedFacets = cached;
+                log.debug("Computing facets for dataset version {} took {}ms", version, new Date().getTime() - start);
+            }
+            return cached.facets;
+        }
+    }
+
+    /**
+     * @return an entity tag identifying the current state of the facets,
+     * or null if the facets are not versioned or may not reflect the current version.
+     */
+    public String getFacetsETag() {
+        if (datasetVersion == null || isReplicaBehind()) {
+            return null;
+        }
+        return "\"facets-" + instanceTag + "-" + datasetVersion.getVersion() + "\"";
+    }
+
+    private boolean isReplicaBehind() {
+        return viewStoreClientFactory != null && viewStoreClientFactory.isReplicaBehind();
+    }
+
+    private List<FacetDTO> computeFacets() {
         return calculateRead(ds, () -> viewsConfig.views
                 .stream()
                 .flatMap(view -> Stream.concat(
@@ -177,6 +246,12 @@ public class ViewService {
                 .collect(toList()));
     }
 
+    @Value
+    private static class CachedFacets {
+        long version;
+        List<FacetDTO> facets;
+    }
+
     public List<ViewDTO> getViews() {
         return viewsConfig.views.stream()
                 .map(v -> {
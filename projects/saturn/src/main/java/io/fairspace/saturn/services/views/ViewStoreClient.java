@@ -7,6 +7,7 @@ import lombok.*;
 import lombok.extern.slf4j.*;
 import org.apache.commons.lang3.tuple.*;
 
+import java.math.BigDecimal;
 import java.sql.*;
 import java.time.*;
 import java.util.*;
@@ -35,7 +36,7 @@ public class ViewStoreClient implements AutoCloseable {
         if (value == null) {
             query.setNull(index, Types.NULL);
         } else if (value instanceof Number) {
-            query.setFloat(index, ((Number) value).floatValue());
+            query.setBigDecimal(index, toBigDecimal((Number) value));
         } else if (value instanceof Instant) {
             query.setTimestamp(index, Timestamp.from((Instant) value));
         } else if (value instanceof Collection) {
@@ -45,6 +46,13 @@ public class ViewStoreClient implements AutoCloseable {
         }
     }
 
+    /**
+     * Converts a number without losing precision, so that values stored in and compared to numeric columns are exact.
+     */
+    static BigDecimal toBigDecimal(Number value) {
+        return value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+    }
+
     public final Connection connection;
     final ViewStoreConfiguration configuration;
 
@@ -64,8 +72,30 @@ public class ViewStoreClient implements AutoCloseable {
         this.connection.commit();
     }
 
+    /**
+     * Increments the version of the index as part of the current transaction.
+     *
+     * @return the new version.
+     */
+    public long incrementIndexVersion() throws SQLException {
+        try (var update = connection.prepareStatement(
+                "update index_version set version = version + 1 where id = 0")) {
+            update.executeUpdate();
+        }
+        return ViewStoreClientFactory.getIndexVersion(connection);
+    }
+
     public void deleteRow(String view, String uri) throws SQLException {
         var viewTable = configuration.viewTables.get(view);
+        var rangeColumns = rangeColumns(view);
+        if (!rangeColumns.isEmpty()) {
+            var existing = retrieveRangeValues(viewTable, uri, rangeColumns);
+            if (existing != null) {
+                for (var column : rangeColumns) {
+                    invalidateRange(view, column, existing.get(column.name));
+                }
+            }
+        }
         try (var query = connection.prepareStatement(
                 "delete from " + viewTable.name + " where id = ?")) {
             query.setString(1, uri);
@@ -171,6 +201,141 @@ public class ViewStoreClient implements AutoCloseable {
         log.debug("Deleted {}, inserted {} links for {} - {}", deleteCount, insertCount, view, joinView);
     }
 
+    /**
+     * The number and date columns of a view, for which the range of values is maintained
+     * in the column_range table. Ranges are extended when values are added. When a value
+     * at the boundary of a range is changed or removed, the range is marked as stale,
+     * to be recomputed when it is requested, see {@link #recomputeColumnRange(String, String)}.
+     */
+    List<ColumnDefinition> rangeColumns(String view) {
+        return configuration.viewTables.get(view).getColumns().stream()
+                .filter(column -> column.type == ColumnType.Number || column.type == ColumnType.Date)
+                .collect(Collectors.toList());
+    }
+
+    static String rangeType(ColumnDefinition column) {
+        return column.type == ColumnType.Date ? "date" : "number";
+    }
+
+    /**
+     * @return the values of the range columns of an existing row, or null if the row does not exist.
+     */
+    Map<String, Object> retrieveRangeValues(Table table, String id, List<ColumnDefinition> rangeColumns) throws SQLException {
+        try (var query = connection.prepareStatement(
+                "select " + rangeColumns.stream().map(ColumnDefinition::getName).collect(Collectors.joining(", ")) +
+                        " from " + table.name + " where id = ?")) {
+            query.setString(1, id);
+            var result = query.executeQuery();
+            if (!result.next()) {
+                return null;
+            }
+            var values = new HashMap<String, Object>();
+            for (var column : rangeColumns) {
+                values.put(column.name, column.type == ColumnType.Date
+                        ? result.getTimestamp(column.name)
+                        : result.getBigDecimal(column.name));
+            }
+            return values;
+        }
+    }
+
+    void invalidateRange(String view, ColumnDefinition column, Object removedValue) throws SQLException {
+        if (removedValue == null) {
+            return;
+        }
+        var type = rangeType(column);
+        try (var update = connection.prepareStatement(
+                "update column_range set stale = true" +
+                        " where view_name = ? and column_name = ?" +
+                        " and (min_" + type + " = ? or max_" + type + " = ?)")) {
+            update.setString(1, view);
+            update.setString(2, column.name);
+            update.setObject(3, removedValue);
+            update.setObject(4, removedValue);
+            update.executeUpdate();
+        }
+    }
+
+    void extendRange(String view, ColumnDefinition column, Object min, Object max) throws SQLException {
+        var type = rangeType(column);
+        try (var update = connection.prepareStatement(
+                "update column_range set" +
+                        " min_" + type + " = least(coalesce(min_" + type + ", ?), ?)," +
+                        " max_" + type + " = greatest(coalesce(max_" + type + ", ?), ?)" +
+                        " where view_name = ? and column_name = ?")) {
+            setQueryValue(update, 1, min);
+            setQueryValue(update, 2, min);
+            setQueryValue(update, 3, max);
+            setQueryValue(update, 4, max);
+            update.setString(5, view);
+            update.setString(6, column.name);
+            update.executeUpdate();
+        }
+    }
+
+    /**
+     * Recomputes a stale range from the view table and stores it.
+     * The range row is locked first, so that concurrent index updates
+     * cannot interleave with the computation.
+     */
+    public Range recomputeColumnRange(String view, String column) throws SQLException {
+        var viewTable = configuration.viewTables.get(view);
+        var columnDefinition = viewTable.getColumn(column);
+        var type = rangeType(columnDefinition);
+        try (var lock = connection.prepareStatement(
+                "select stale from column_range where view_name = ? and column_name = ? for update")) {
+            lock.setString(1, view);
+            lock.setString(2, columnDefinition.name);
+            lock.executeQuery();
+        }
+        Object min;
+        Object max;
+        try (var query = connection.prepareStatement(
+                "select min(" + columnDefinition.name + ") as min, max(" + columnDefinition.name + ") as max" +
+                        " from " + viewTable.name)) {
+            var result = query.executeQuery();
+            result.next();
+            min = columnDefinition.type == ColumnType.Date ? result.getTimestamp("min") : result.getBigDecimal("min");
+            max = columnDefinition.type == ColumnType.Date ? result.getTimestamp("max") : result.getBigDecimal("max");
+        }
+        try (var update = connection.prepareStatement(
+                "update column_range set min_" + type + " = ?, max_" + type + " = ?, stale = false" +
+                        " where view_name = ? and column_name = ?")) {
+            update.setObject(1, min);
+            update.setObject(2, max);
+            update.setString(3, view);
+            update.setString(4, columnDefinition.name);
+            update.executeUpdate();
+        }
+        log.debug("Recomputed range of column {} of view {}", column, view);
+        return new Range(min, max);
+    }
+
+    private static boolean isSameValue(Object storedValue, Object value) {
+        if (storedValue instanceof BigDecimal && value instanceof Number) {
+            return ((BigDecimal) storedValue).compareTo(toBigDecimal((Number) value)) == 0;
+        }
+        if (storedValue instanceof Timestamp && value instanceof Instant) {
+            return ((Timestamp) storedValue).toInstant().equals(value);
+        }
+        return false;
+    }
+
+    private static int compareValues(Object value1, Object value2) {
+        if (value1 instanceof Instant) {
+            return ((Instant) value1).compareTo((Instant) value2);
+        }
+        return toBigDecimal((Number) value1).compareTo(toBigDecimal((Number) value2));
+    }
+
+    private static Object getRowValue(Map<String, Object> row, String column) {
+        return row.entrySet().stream()
+                .filter(entry -> entry.getKey().equalsIgnoreCase(column))
+                .map(Map.Entry::getValue)
+                .filter(Objects::nonNull)
+                .findFirst().orElse(null);
+    }
+
     boolean rowExists(String table, String id) throws SQLException {
         try (var query = connection.prepareStatement(
                 "select exists ( select 1 from " + table + " where id = ? )"
@@ -220,6 +385,10 @@ public class ViewStoreClient implements AutoCloseable {
                 columnNames.stream()
                         .map(column -> "?")
                         .collect(Collectors.joining(", ")) + " )";
+        var rangeColumns = rangeColumns(view);
+        // Ranges of the new values in the rows, per range column
+        var newMin = new HashMap<ColumnDefinition, Object>();
+        var newMax = new HashMap<ColumnDefinition, Object>();
         try (var insert = connection.prepareStatement(insertSql);
              var update = connection.prepareStatement(updateSql)) {
             for (var row: rows) {
@@ -227,7 +396,32 @@ public class ViewStoreClient implements AutoCloseable {
                         .map(columnName -> row.getOrDefault(columnName, null))
                         .collect(Collectors.toList());
                 var id = (String) row.get("id");
-                var exists = (!bulkInsert) && rowExists(viewTable.name, id);
+                boolean exists;
+                if (bulkInsert) {
+                    exists = false;
+                } else if (rangeColumns.isEmpty()) {
+                    exists = rowExists(viewTable.name, id);
+                } else {
+                    var existing = retrieveRangeValues(viewTable, id, rangeColumns);
+                    exists = existing != null;
+                    if (exists) {
+                        for (var column : rangeColumns) {
+                            var value = getRowValue(row, column.name);
+                            var existingValue = existing.get(column.name);
+                            // Columns without a new value are not updated
+                            if (value != null && !isSameValue(existingValue, value)) {
+                                invalidateRange(view, column, existingValue);
+                            }
+                        }
+                    }
+                }
+                for (var column : rangeColumns) {
+                    var value = getRowValue(row, column.name);
+                    if (value != null) {
+                        newMin.merge(column, value, (v1, v2) -> compareValues(v1, v2) <= 0 ? v1 : v2);
+                        newMax.merge(column, value, (v1, v2) -> compareValues(v1, v2) >= 0 ? v1 : v2);
+                    }
+                }
                 if (exists) {
                     for (var i = 0; i < values.size(); i++) {
                         var value = values.get(i);
@@ -251,6 +445,9 @@ public class ViewStoreClient implements AutoCloseable {
             if (updateCount > 0) {
                 log.debug("Updated {} rows of view {}", updateCount, view);
             }
+            for (var column : newMin.keySet()) {
+                extendRange(view, column, newMin.get(column), newMax.get(column));
+            }
             return insertCount + updateCount;
         }
     }
@@ -271,5 +468,11 @@ public class ViewStoreClient implements AutoCloseable {
                 statement.executeUpdate();
             }
         }
+        try (var statement = connection.prepareStatement(
+                "update column_range set min_number = null, max_number = null, min_date = null, max_date = null, stale = false" +
+                        " where view_name = ?")) {
+            statement.setString(1, view);
+            statement.executeUpdate();
+        }
     }
 }
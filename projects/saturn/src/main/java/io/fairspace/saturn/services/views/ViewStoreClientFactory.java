@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.*;
 import com.zaxxer.hikari.*;
 import io.fairspace.saturn.config.*;
 import io.fairspace.saturn.config.ViewsConfig.*;
+import io.fairspace.saturn.services.NotAvailableException;
 import io.fairspace.saturn.vocabulary.*;
 import lombok.*;
 import lombok.extern.slf4j.*;
@@ -12,17 +13,21 @@ import lombok.extern.slf4j.*;
 import javax.sql.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.*;
 
+import static io.fairspace.saturn.auth.RequestContext.getUserURI;
 import static io.fairspace.saturn.services.views.Table.idColumn;
 import static io.fairspace.saturn.services.views.Table.valueColumn;
 
 @Slf4j
 public class ViewStoreClientFactory {
     public static boolean H2_DATABASE = false;
+    private static final int MAX_TRACKED_WRITERS = 1000;
 
-    public ViewStoreClient build() throws SQLException {
-        return new ViewStoreClient(getConnection(), configuration);
+    public ViewStoreClient build(Workload workload) throws SQLException {
+        return new ViewStoreClient(getConnection(workload), configuration);
     }
 
     public static String databaseTypeForColumnType(ColumnType type) {
@@ -42,6 +47,21 @@ public class ViewStoreClientFactory {
 
     final ViewStoreClient.ViewStoreConfiguration configuration;
     public final DataSource dataSource;
+    /**
+     * Optional read replica of the view database, may be null.
+     */
+    public final DataSource replicaDataSource;
+    // The index version produced by the last write of every user, only kept until the replica has replayed it
+    private final Map<String, Long> lastWriteVersions = new ConcurrentHashMap<>();
+    // The version of the last index update of the primary database
+    private final AtomicLong latestIndexVersion = new AtomicLong();
+    // The highest index version seen on the replica
+    private final AtomicLong replicaIndexVersion = new AtomicLong();
+    private final Map<Workload, ConnectionLimiter> connectionLimiters = new EnumMap<>(Workload.class);
+    /**
+     * Whether the file search can use trigram indexes, which requires the pg_trgm extension of PostgreSQL.
+     */
+    boolean trigramSearch;
 
     public ViewStoreClientFactory(ViewsConfig viewsConfig, Config.ViewDatabase viewDatabase) throws SQLException {
         log.debug("Initializing the database connection");
@@ -51,10 +71,32 @@ public class ViewStoreClientFactory {
         databaseConfig.setPassword(viewDatabase.password);
         databaseConfig.setAutoCommit(false);
         databaseConfig.setConnectionTimeout(10000);
-        databaseConfig.setMaximumPoolSize(50);
+        connectionLimiters.put(Workload.INDEX_WRITER, new ConnectionLimiter(
+                Workload.INDEX_WRITER, viewDatabase.maxIndexWriterConnections, viewDatabase.connectionQueueTimeout));
+        connectionLimiters.put(Workload.INTERACTIVE, new ConnectionLimiter(
+                Workload.INTERACTIVE, viewDatabase.maxInteractiveConnections, viewDatabase.connectionQueueTimeout));
+        connectionLimiters.put(Workload.BACKGROUND, new ConnectionLimiter(
+                Workload.BACKGROUND, viewDatabase.maxBackgroundConnections, viewDatabase.connectionQueueTimeout));
+        // One extra connection for health checks and schema updates
+        databaseConfig.setMaximumPoolSize(1 + viewDatabase.maxIndexWriterConnections
+                + viewDatabase.maxInteractiveConnections + viewDatabase.maxBackgroundConnections);
 
         dataSource = new HikariDataSource(databaseConfig);
 
+        if (viewDatabase.replicaUrl != null && !viewDatabase.replicaUrl.isBlank()) {
+            var replicaConfig = new HikariConfig();
+            replicaConfig.setJdbcUrl(viewDatabase.replicaUrl);
+            replicaConfig.setUsername(viewDatabase.replicaUsername != null ? viewDatabase.replicaUsername : viewDatabase.username);
+            replicaConfig.setPassword(viewDatabase.replicaPassword != null ? viewDatabase.replicaPassword : viewDatabase.password);
+            replicaConfig.setAutoCommit(false);
+            replicaConfig.setReadOnly(true);
+            replicaConfig.setConnectionTimeout(10000);
+            replicaConfig.setMaximumPoolSize(viewDatabase.maxInteractiveConnections + viewDatabase.maxBackgroundConnections);
+            replicaDataSource = new HikariDataSource(replicaConfig);
+        } else {
+            replicaDataSource = null;
+        }
+
         try (var connection = dataSource.getConnection()) {
             log.debug("Database connection: {}", connection.getMetaData().getDatabaseProductName());
         }
@@ -68,14 +110,216 @@ public class ViewStoreClientFactory {
                 ))
                 .build());
 
+        ensureIndexVersionExists();
+        try (var connection = dataSource.getConnection()) {
+            latestIndexVersion.set(getIndexVersion(connection));
+        }
+        ensureColumnRangeTableExists();
+
         configuration = new ViewStoreClient.ViewStoreConfiguration(viewsConfig);
         for (View view: viewsConfig.views) {
             ensureViewExists(view);
         }
     }
 
-    public Connection getConnection() throws SQLException {
-        return dataSource.getConnection();
+    /**
+     * Obtains a connection from the share of the pool reserved for the workload.
+     *
+     * @throws io.fairspace.saturn.services.NotAvailableException if no connection becomes available in time.
+     */
+    public Connection getConnection(Workload workload) throws SQLException {
+        return connectionLimiters.get(workload).getConnection(dataSource);
+    }
+
+    /**
+     * Obtains a connection for reading from the replica, if configured.
+     * To let users see their own changes, the primary database is used instead
+     * when the replica has not yet replayed the last index update caused by the current user.
+     */
+    public Connection getReadConnection(Workload workload) throws SQLException {
+        var user = getUserURI();
+        return getReadConnection(workload, user == null ? null : user.getURI());
+    }
+
+    Connection getReadConnection(Workload workload, String user) throws SQLException {
+        if (replicaDataSource == null) {
+            return getConnection(workload);
+        }
+        var requiredVersion = user == null ? 0 : lastWriteVersions.getOrDefault(user, 0L);
+        var connection = connectionLimiters.get(workload).getConnection(replicaDataSource);
+        try {
+            if (requiredVersion == 0) {
+                return connection;
+            }
+            if (replicaIndexVersion.get() >= requiredVersion || updateReplicaIndexVersion(connection) >= requiredVersion) {
+                lastWriteVersions.remove(user, requiredVersion);
+                return connection;
+            }
+            log.debug("Replica has not replayed index version {} yet, reading from the primary database", requiredVersion);
+        } catch (SQLException e) {
+            log.warn("Error reading the index version of the replica, reading from the primary database", e);
+        }
+        connection.close();
+        return getConnection(workload);
+    }
+
+    /**
+     * Registers the index version produced by a write transaction with changes of the users.
+     */
+    public void recordWrite(Collection<String> users, long indexVersion) {
+        latestIndexVersion.accumulateAndGet(indexVersion, Math::max);
+        if (replicaDataSource == null) {
+            return;
+        }
+        users.forEach(user -> lastWriteVersions.merge(user, indexVersion, Math::max));
+        if (lastWriteVersions.size() > MAX_TRACKED_WRITERS) {
+            // Users who haven't read since the replica caught up
+            var replayed = replicaIndexVersion.get();
+            lastWriteVersions.values().removeIf(version -> version <= replayed);
+        }
+    }
+
+    /**
+     * Whether reads from the replica may see an older state of the index than the primary database.
+     * Results read meanwhile may not reflect the current version of the dataset, so they must not be cached.
+     * The replica is only queried while it hasn't been seen to replay the last index update.
+     */
+    public boolean isReplicaBehind() {
+        if (replicaDataSource == null) {
+            return false;
+        }
+        var latest = latestIndexVersion.get();
+        if (replicaIndexVersion.get() >= latest) {
+            return false;
+        }
+        try (var connection = connectionLimiters.get(Workload.INTERACTIVE).getConnection(replicaDataSource)) {
+            return updateReplicaIndexVersion(connection) < latest;
+        } catch (SQLException | NotAvailableException e) {
+            log.warn("Error reading the index version of the replica", e);
+            return true;
+        }
+    }
+
+    private long updateReplicaIndexVersion(Connection replica) throws SQLException {
+        return replicaIndexVersion.accumulateAndGet(getIndexVersion(replica), Math::max);
+    }
+
+    static long getIndexVersion(Connection connection) throws SQLException {
+        try (var query = connection.prepareStatement("select version from index_version where id = 0")) {
+            var result = query.executeQuery();
+            return result.next() ? result.getLong("version") : 0;
+        }
+    }
+
+    /**
+     * Creates the single row table holding the version of the index,
+     * which is incremented by every index update and replicated along with the index.
+     */
+    void ensureIndexVersionExists() throws SQLException {
+        try (var connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            connection.createStatement().execute(
+                    "create table if not exists index_version ( id integer primary key, version bigint not null )");
+            if (!connection.createStatement().executeQuery("select id from index_version").next()) {
+                connection.createStatement().execute("insert into index_version (id, version) values (0, 0)");
+            }
+            connection.setAutoCommit(false);
+        }
+    }
+
+    /**
+     * Creates an index for selecting the descendants of a resource by the path in its IRI, see ViewStoreReader.searchFiles.
+     * In H2, the primary key index already compares strings in binary order.
+     */
+    void ensurePathIndexExists(Table table) throws SQLException {
+        if (H2_DATABASE) {
+            return;
+        }
+        try (var connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            connection.createStatement().execute(String.format(
+                    "create index if not exists %s_path_idx on %s ( id collate \"C\" )", table.name, table.name));
+            connection.setAutoCommit(false);
+        }
+    }
+
+    /**
+     * Creates trigram indexes on the label and description of resources, used by ViewStoreReader.searchFiles
+     * for substring matching and ranking. PostgreSQL keeps the indexes up to date on every write of the ViewUpdater.
+     * If the pg_trgm extension cannot be installed, or on H2, the file search does without.
+     */
+    void ensureTrigramIndexesExist(Table table) {
+        if (H2_DATABASE) {
+            return;
+        }
+        try (var connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            connection.createStatement().execute("create extension if not exists pg_trgm");
+            for (var column : List.of("label", "description")) {
+                if (table.columns.stream().anyMatch(c -> c.name.equals(column))) {
+                    connection.createStatement().execute(String.format(
+                            "create index if not exists %s_%s_trgm_idx on %s using gin ( %s gin_trgm_ops )",
+                            table.name, column, table.name, column));
+                }
+            }
+            connection.setAutoCommit(false);
+            trigramSearch = true;
+        } catch (SQLException e) {
+            log.warn("Trigram indexes are not available, files are searched without them", e);
+        }
+    }
+
+    /**
+     * Creates the table with the ranges of number and date columns,
+     * maintained by the {@link ViewStoreClient}.
+     */
+    void ensureColumnRangeTableExists() throws SQLException {
+        try (var connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            connection.createStatement().execute(
+                    "create table if not exists column_range ( " +
+                            "view_name " + databaseTypeForColumnType(ColumnType.Identifier) + ", " +
+                            "column_name " + databaseTypeForColumnType(ColumnType.Identifier) + ", " +
+                            "min_number numeric, max_number numeric, " +
+                            "min_date timestamp, max_date timestamp, " +
+                            "stale boolean not null, " +
+                            "primary key ( view_name, column_name ) )");
+            connection.setAutoCommit(false);
+        }
+    }
+
+    /**
+     * Adds missing ranges for the number and date columns of a view.
+     * New ranges are marked as stale, to be computed from existing values on first use.
+     */
+    void ensureColumnRangesExist(String view, Table table) throws SQLException {
+        try (var connection = dataSource.getConnection();
+             var query = connection.prepareStatement(
+                     "select exists ( select 1 from column_range where view_name = ? and column_name = ? )");
+             var insert = connection.prepareStatement(
+                     "insert into column_range ( view_name, column_name, stale ) values ( ?, ?, true )")) {
+            for (var column : table.columns) {
+                if (column.type != ColumnType.Number && column.type != ColumnType.Date) {
+                    continue;
+                }
+                query.setString(1, view);
+                query.setString(2, column.name);
+                var result = query.executeQuery();
+                result.next();
+                if (!result.getBoolean(1)) {
+                    insert.setString(1, view);
+                    insert.setString(2, column.name);
+                    insert.executeUpdate();
+                }
+            }
+            connection.commit();
+        }
+    }
+
+    public List<WorkloadStatsDTO> getConnectionStats() {
+        return connectionLimiters.values().stream()
+                .map(ConnectionLimiter::getStats)
+                .collect(Collectors.toList());
     }
 
     Map<String, ColumnMetadata> getColumnMetadata(Connection connection, String table) throws SQLException {
@@ -96,7 +340,7 @@ public class ViewStoreClientFactory {
     }
 
     void ensureTableExists(Table table) throws SQLException {
-        try (var connection = getConnection()) {
+        try (var connection = dataSource.getConnection()) {
             log.debug("Check if table {} exists ...", table.name);
             var resultSet = connection.getMetaData().getTables(null, null, table.name, null);
             var tableExists = resultSet.next();
@@ -187,7 +431,12 @@ public class ViewStoreClientFactory {
                 .columns(columns)
                 .build();
         ensureTableExists(table);
+        if (view.name.equalsIgnoreCase("resource")) {
+            ensurePathIndexExists(table);
+            ensureTrigramIndexesExist(table);
+        }
         configuration.viewTables.put(view.name, table);
+        ensureColumnRangesExist(view.name, table);
         // Add property tables
         for (ViewsConfig.View.Column column : view.columns) {
             if (!column.type.isSet()) {
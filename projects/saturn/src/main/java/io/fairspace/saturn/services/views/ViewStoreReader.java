@@ -9,6 +9,7 @@ import lombok.SneakyThrows;
 import lombok.extern.slf4j.*;
 import org.apache.commons.lang3.StringUtils;
 
+import java.io.IOException;
 import java.sql.*;
 import java.time.*;
 import java.util.*;
@@ -29,14 +30,22 @@ import static io.fairspace.saturn.services.views.Table.idColumn;
  */
 @Slf4j
 public class ViewStoreReader implements AutoCloseable {
+    static final int EXPORT_FETCH_SIZE = 1000;
+
     final Config.Search searchConfig;
     final ViewStoreClient.ViewStoreConfiguration configuration;
     final Connection connection;
+    final boolean trigramSearch;
 
     public ViewStoreReader(Config.Search searchConfig, ViewStoreClientFactory viewStoreClientFactory) throws SQLException {
+        this(searchConfig, viewStoreClientFactory, Workload.INTERACTIVE);
+    }
+
+    public ViewStoreReader(Config.Search searchConfig, ViewStoreClientFactory viewStoreClientFactory, Workload workload) throws SQLException {
         this.searchConfig = searchConfig;
         this.configuration = viewStoreClientFactory.configuration;
-        this.connection = viewStoreClientFactory.getConnection();
+        this.connection = viewStoreClientFactory.getReadConnection(workload);
+        this.trigramSearch = viewStoreClientFactory.trigramSearch;
     }
 
     String label(String id) throws SQLException {
@@ -51,19 +60,6 @@ public class ViewStoreReader implements AutoCloseable {
         return null;
     }
 
-    String iriForLabel(String type, String label) throws SQLException {
-        try (var query = connection.prepareStatement(
-                "select id from label where type = ? and label = ?")) {
-            query.setString(1, type);
-            query.setString(2, label);
-            var result = query.executeQuery();
-            if (result.next()) {
-                return result.getString("id");
-            }
-        }
-        return null;
-    }
-
     Map<String, Set<ValueDTO>> transformRow(View viewConfig, ResultSet result) throws SQLException {
         Map<String, Set<ValueDTO>> row = new HashMap<>();
         row.put(viewConfig.name, Collections.singleton(new ValueDTO(result.getString("label"), result.getString("id"))));
@@ -91,11 +87,8 @@ public class ViewStoreReader implements AutoCloseable {
                 }
             } else {
                 var value = result.getString(column.name);
-                if (viewColumn.type == ColumnType.Term) {
-                    row.put(columnName, Collections.singleton(new ValueDTO(value, iriForLabel(viewColumn.rdfType, value))));
-                } else {
-                    row.put(columnName, Collections.singleton(new ValueDTO(value, value)));
-                }
+                // The IRIs of terms are looked up for a batch of rows, see addTermIris
+                row.put(columnName, Collections.singleton(new ValueDTO(value, viewColumn.type == ColumnType.Term ? null : value)));
             }
         }
         return row;
@@ -187,6 +180,11 @@ public class ViewStoreReader implements AutoCloseable {
                 values.add(filter.getValues().get(0));
                 return String.format("%s = ?", fieldName);
             }
+            if (filter.getValues().stream().allMatch(value -> value instanceof String)) {
+                // Pass the values as a single array parameter, to keep the statement independent of the number of values
+                values.add(filter.getValues().toArray(new String[0]));
+                return anyOf(fieldName);
+            }
             return String.format("%s in ( %s )",
                     fieldName,
                     filter.getValues().stream()
@@ -228,6 +226,37 @@ public class ViewStoreReader implements AutoCloseable {
         return null;
     }
 
+    String anyOf(String fieldName) {
+        return ViewStoreClientFactory.H2_DATABASE
+                ? String.format("array_contains(?, %s)", fieldName)
+                : String.format("%s = any(?)", fieldName);
+    }
+
+    /**
+     * Selects the paths in a range, bounded by two parameters, which is answered by a range scan of the path index.
+     * In PostgreSQL, the comparison uses the binary "C" collation, as the path index does.
+     */
+    String descendantsOf(String fieldName) {
+        var field = ViewStoreClientFactory.H2_DATABASE ? fieldName : fieldName + " collate \"C\"";
+        return String.format("%s >= ? and %s < ?", field, field);
+    }
+
+    void setParameters(PreparedStatement statement, List<?> values) throws SQLException {
+        for (var i = 0; i < values.size(); i++) {
+            var value = values.get(i);
+            if (value instanceof Number) {
+                statement.setBigDecimal(i + 1, ViewStoreClient.toBigDecimal((Number) value));
+            } else if (value instanceof Instant) {
+                statement.setTimestamp(i + 1, Timestamp.from((Instant) value));
+            } else if (value instanceof String[]) {
+                statement.setArray(i + 1, connection.createArrayOf(
+                        ViewStoreClientFactory.H2_DATABASE ? "varchar" : "text", (String[]) value));
+            } else {
+                statement.setString(i + 1, value.toString());
+            }
+        }
+    }
+
     String sqlFilter(String alias, View view, List<ViewFilter> filters, List<Object> values) {
         if (filters == null || filters.isEmpty()) {
             return "";
@@ -294,45 +323,84 @@ public class ViewStoreReader implements AutoCloseable {
                         (constraints.isBlank() ? "" : " where " + constraints) +
                         (scope == null ? "" : (" " + scope))
         );
-        for (var i = 0; i < values.size(); i++) {
-            var value = values.get(i);
-            if (value instanceof Number) {
-                query.setFloat(i + 1, ((Number) value).floatValue());
-            } else if (value instanceof Instant) {
-                query.setTimestamp(i + 1, Timestamp.from((Instant) value));
-            } else {
-                query.setString(i + 1, value.toString());
-            }
-        }
+        setParameters(query, values);
         log.debug("Query: {}", query.toString());
         return query;
     }
 
-    Map<String, PreparedStatement> prepareValueSetQueries(String view, List<String> properties) throws SQLException {
-        var valueSetQueries = new LinkedHashMap<String, PreparedStatement>();
+    static String rowId(String view, Map<String, Set<ValueDTO>> row) {
+        return (String) row.get(view).stream().findFirst().orElseThrow().getValue();
+    }
+
+    /**
+     * Adds the values of the value set columns to a batch of rows, using a single query per column.
+     */
+    void addValueSetValues(String view, List<Map<String, Set<ValueDTO>>> rows, List<String> properties) throws SQLException {
+        if (rows.isEmpty() || properties.isEmpty()) {
+            return;
+        }
+        var ids = rows.stream().map(row -> rowId(view, row)).distinct().toArray(String[]::new);
+        var idColumn = idColumn(view).name;
         for (var propertyName : properties) {
             var propertyTable = configuration.propertyTables.get(view).get(propertyName);
-            var valueSetQuery = connection.prepareStatement(
-                    "select " + propertyName.toLowerCase() +
+            var valuesById = new HashMap<String, Set<ValueDTO>>();
+            try (var valueSetQuery = connection.prepareStatement(
+                    "select " + idColumn + ", " + propertyName.toLowerCase() +
                             " from " + propertyTable.name + " p " +
-                            " where p." + idColumn(view).name + " = ?");
-            valueSetQueries.put(propertyName, valueSetQuery);
+                            " where " + anyOf("p." + idColumn))) {
+                setParameters(valueSetQuery, Collections.singletonList(ids));
+                var valueSetResult = valueSetQuery.executeQuery();
+                while (valueSetResult.next()) {
+                    var label = valueSetResult.getString(propertyName.toLowerCase());
+                    valuesById.computeIfAbsent(valueSetResult.getString(idColumn), id -> new LinkedHashSet<>())
+                            .add(new ValueDTO(label, label));
+                }
+            }
+            for (var row : rows) {
+                row.put(view + "_" + propertyName,
+                        new LinkedHashSet<>(valuesById.getOrDefault(rowId(view, row), Collections.emptySet())));
+            }
         }
-        return valueSetQueries;
     }
 
-    void addValueSetValues(String view, Map<String, Set<ValueDTO>> row, List<String> properties, Map<String, PreparedStatement> valueSetQueries) throws SQLException {
-        var rowId = (String) row.get(view).stream().findFirst().orElseThrow().getValue();
-        for (var propertyName : properties) {
-            var valueSetQuery = valueSetQueries.get(propertyName);
-            valueSetQuery.setString(1, rowId);
-            var valueSetResult = valueSetQuery.executeQuery();
-            var values = new LinkedHashSet<ValueDTO>();
-            while (valueSetResult.next()) {
-                var label = valueSetResult.getString(propertyName.toLowerCase());
-                values.add(new ValueDTO(label, label));
+    /**
+     * Sets the IRIs of the terms in the term columns of a batch of rows, looking up their labels with a single query.
+     */
+    void addTermIris(View viewConfig, List<Map<String, Set<ValueDTO>>> rows) throws SQLException {
+        var termColumns = viewConfig.columns.stream()
+                .filter(column -> column.type == ColumnType.Term)
+                .collect(Collectors.toList());
+        var labels = rows.stream()
+                .flatMap(row -> termColumns.stream().map(column -> row.get(viewConfig.name + "_" + column.name)))
+                .filter(Objects::nonNull)
+                .flatMap(Set::stream)
+                .map(ValueDTO::getLabel)
+                .filter(Objects::nonNull)
+                .distinct()
+                .toArray(String[]::new);
+        if (labels.length == 0) {
+            return;
+        }
+        var types = termColumns.stream().map(column -> column.rdfType).distinct().toArray(String[]::new);
+        // Several terms can have the same label, the IRIs are looked up by type and label
+        var iris = new HashMap<List<String>, String>();
+        try (var query = connection.prepareStatement(
+                "select id, type, label from label where " + anyOf("type") + " and " + anyOf("label"))) {
+            setParameters(query, List.of(types, labels));
+            var result = query.executeQuery();
+            while (result.next()) {
+                iris.putIfAbsent(Arrays.asList(result.getString("type"), result.getString("label")), result.getString("id"));
+            }
+        }
+        for (var row : rows) {
+            for (var column : termColumns) {
+                var columnName = viewConfig.name + "_" + column.name;
+                var values = row.get(columnName);
+                if (values != null) {
+                    var label = values.iterator().next().getLabel();
+                    row.put(columnName, Collections.singleton(new ValueDTO(label, iris.get(Arrays.asList(column.rdfType, label)))));
+                }
             }
-            row.put(view + "_" + propertyName, values);
         }
     }
 
@@ -342,11 +410,7 @@ public class ViewStoreReader implements AutoCloseable {
         if (viewConfig == null) {
             throw new IllegalArgumentException("View not supported: " + view);
         }
-        var valueSetProperties = viewConfig.columns.stream()
-                .filter(column -> column.type.isSet())
-                .map(column -> column.name)
-                .collect(Collectors.toList());
-        var valueSetQueries = prepareValueSetQueries(view, valueSetProperties);
+        var valueSetProperties = valueSetProperties(viewConfig);
         var start = new Date().getTime();
         try (var query = query(view, "*", filters,
                 String.format("order by id %s limit %d", offset > 0 ? String.format("offset %d", offset) : "", limit))) {
@@ -356,123 +420,151 @@ public class ViewStoreReader implements AutoCloseable {
             var mid = new Date().getTime();
             List<Map<String, Set<ValueDTO>>> rows = new ArrayList<>();
             while (result.next()) {
-                var row = transformRow(viewConfig, result);
-                addValueSetValues(view, row, valueSetProperties, valueSetQueries);
-                rows.add(row);
+                rows.add(transformRow(viewConfig, result));
             }
+            addTermIris(viewConfig, rows);
+            addValueSetValues(view, rows, valueSetProperties);
             log.debug("Processing rows + querying value sets took {} ms", new Date().getTime() - mid);
             return rows;
         } finally {
-            for (var q : valueSetQueries.values()) {
-                q.close();
-            }
             log.debug("Complete process took {} ms", new Date().getTime() - start);
         }
     }
 
-    List<Map<String, Set<ValueDTO>>> retrieveJoinTableRows(
-            String view, View.JoinView joinView, String id) throws SQLException {
-        var joinedTable = configuration.viewTables.get(joinView.view);
-        var joinViewConfig = configuration.viewConfig.get(joinView.view);
-        var valueSetProperties = joinViewConfig.columns.stream()
+    static List<String> valueSetProperties(View viewConfig) {
+        return viewConfig.columns.stream()
                 .filter(column -> column.type.isSet())
                 .map(column -> column.name)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Reads the rows of a joined view that are linked to a batch of rows, using a single query
+     * and a single query per value set column.
+     *
+     * @return the joined rows by the id of the row they are linked to.
+     */
+    Map<String, List<Map<String, Set<ValueDTO>>>> retrieveJoinTableRows(
+            String view, View.JoinView joinView, Collection<String> ids) throws SQLException {
+        var joinedTable = configuration.viewTables.get(joinView.view);
+        var joinViewConfig = configuration.viewConfig.get(joinView.view);
+        var valueSetProperties = valueSetProperties(joinViewConfig).stream()
                 .filter(joinView.include::contains)
                 .collect(Collectors.toList());
-        var valueSetQueries = prepareValueSetQueries(joinView.view, valueSetProperties);
         var joinTable = configuration.joinTables.get(view).get(joinView.view);
         var projectionColumns = Stream.concat(
                 Stream.of("id", "label"),
                 joinView.include.stream()
                         .filter(column -> !valueSetProperties.contains(column)))
                 .collect(Collectors.toList());
-        var query = connection.prepareStatement(
-                "select " + projectionColumns.stream().map(String::toLowerCase).collect(Collectors.joining(", ")) +
+        // A joined entity may be linked to several rows, it is read once
+        var joinedRows = new LinkedHashMap<String, Map<String, Set<ValueDTO>>>();
+        var joinedIds = new LinkedHashMap<String, List<String>>();
+        try (var query = connection.prepareStatement(
+                "select jt." + idColumn(view).name + " as join_source, " +
+                        projectionColumns.stream().map(column -> "j." + column.toLowerCase()).collect(Collectors.joining(", ")) +
                         " from " + joinedTable.name + " j " +
-                        " where exists (" +
-                        "   select * from " + joinTable.name + " jt " +
-                        "   where jt." + idColumn(joinView.view).name + " = j.id" +
-                        "   and jt." + idColumn(view).name + " = ? )"
-        );
-        query.setString(1, id);
-        var result = query.executeQuery();
-        List<Map<String, Set<ValueDTO>>> rows = new ArrayList<>();
-        while (result.next()) {
-            Map<String, Set<ValueDTO>> row = new HashMap<>();
-            row.put(joinView.view, Collections.singleton(new ValueDTO(result.getString("label"), result.getString("id"))));
-            for (var column : projectionColumns) {
-                var columnName = joinView.view + "_" + column;
-                var columnDefinition = configuration.viewTables.get(joinView.view).getColumns().stream()
-                        .filter(c -> c.getName().equalsIgnoreCase(column))
-                        .findFirst().orElseThrow(() -> {
-                            throw new NoSuchElementException("Cannot find column " + column);
-                        });
-                if (columnDefinition.type == ColumnType.Number) {
-                    var value = result.getBigDecimal(columnDefinition.name);
-                    if (value != null) {
-                        row.put(columnName, Collections.singleton(new ValueDTO(value.toString(), value)));
-                    }
-                } else if (columnDefinition.type == Date) {
-                    var value = result.getTimestamp(columnDefinition.name);
-                    if (value != null) {
-                        row.put(columnName, Collections.singleton(new ValueDTO(value.toInstant().toString(), value.toString())));
+                        " join " + joinTable.name + " jt " +
+                        " on jt." + idColumn(joinView.view).name + " = j.id" +
+                        " where " + anyOf("jt." + idColumn(view).name))) {
+            setParameters(query, Collections.singletonList(ids.toArray(String[]::new)));
+            var result = query.executeQuery();
+            while (result.next()) {
+                var id = result.getString("id");
+                joinedIds.computeIfAbsent(result.getString("join_source"), source -> new ArrayList<>()).add(id);
+                if (joinedRows.containsKey(id)) {
+                    continue;
+                }
+                Map<String, Set<ValueDTO>> row = new HashMap<>();
+                row.put(joinView.view, Collections.singleton(new ValueDTO(result.getString("label"), id)));
+                for (var column : projectionColumns) {
+                    var columnName = joinView.view + "_" + column;
+                    var columnDefinition = joinedTable.getColumns().stream()
+                            .filter(c -> c.getName().equalsIgnoreCase(column))
+                            .findFirst().orElseThrow(() -> {
+                                throw new NoSuchElementException("Cannot find column " + column);
+                            });
+                    if (columnDefinition.type == ColumnType.Number) {
+                        var value = result.getBigDecimal(columnDefinition.name);
+                        if (value != null) {
+                            row.put(columnName, Collections.singleton(new ValueDTO(value.toString(), value)));
+                        }
+                    } else if (columnDefinition.type == Date) {
+                        var value = result.getTimestamp(columnDefinition.name);
+                        if (value != null) {
+                            row.put(columnName, Collections.singleton(new ValueDTO(value.toInstant().toString(), value.toString())));
+                        }
+                    } else {
+                        var label = result.getString(columnDefinition.name);
+                        row.put(columnName, Collections.singleton(new ValueDTO(label, label)));
                     }
-                } else {
-                    var label = result.getString(columnDefinition.name);
-                    row.put(columnName, Collections.singleton(new ValueDTO(label, label)));
                 }
+                joinedRows.put(id, row);
             }
-            addValueSetValues(joinView.view, row, valueSetProperties, valueSetQueries);
-            rows.add(row);
         }
-        for (var q : valueSetQueries.values()) {
-            q.close();
+        addValueSetValues(joinView.view, new ArrayList<>(joinedRows.values()), valueSetProperties);
+        var rowsBySource = new HashMap<String, List<Map<String, Set<ValueDTO>>>>();
+        joinedIds.forEach((source, joined) -> rowsBySource.put(source,
+                joined.stream().map(joinedRows::get).collect(Collectors.toList())));
+        return rowsBySource;
+    }
+
+    /**
+     * Adds the values of the joined views to a batch of rows, using a fixed number of queries per joined view.
+     */
+    void addJoinedViewValues(String view, View viewConfig, List<Map<String, Set<ValueDTO>>> rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+        var rowsById = new LinkedHashMap<String, Map<String, Set<ValueDTO>>>();
+        for (var row : rows) {
+            rowsById.put(rowId(view, row), row);
+        }
+        for (var joinView : viewConfig.join) {
+            var joinedRows = retrieveJoinTableRows(view, joinView, rowsById.keySet());
+            for (var entry : joinedRows.entrySet()) {
+                var row = rowsById.get(entry.getKey());
+                for (var joinTableRow : entry.getValue()) {
+                    joinTableRow.forEach((key, values) -> {
+                        if (!row.containsKey(key)) {
+                            row.put(key, new LinkedHashSet<>());
+                        }
+                        row.get(key).addAll(values);
+                    });
+                }
+            }
         }
-        query.close();
-        return rows;
     }
 
     /**
-     * Compute the range of numerical or date values in a column of a view.
+     * Reads the maintained range of values of a numerical or date column.
      *
      * @param view   the view name.
      * @param column the column name.
-     * @return a range object containing the minimum and maximum values.
+     * @return a range object containing the minimum and maximum values,
+     * or null if the range is stale and needs to be recomputed.
      */
-    public Range aggregate(String view, String column) {
-        var viewConfig = configuration.viewConfig.get(view);
-        if (viewConfig == null) {
-            throw new IllegalArgumentException("View not supported: " + view);
+    public Range getColumnRange(String view, String column) {
+        var columnDefinition = configuration.viewTables.get(view).getColumn(column);
+        if (columnDefinition == null) {
+            throw new NoSuchElementException("Cannot find column " + column);
         }
-        var table = configuration.viewTables.get(view);
-        var columnDefinition = table.getColumns().stream()
-                .filter(c -> c.getName().equalsIgnoreCase(column))
-                .findFirst().orElseThrow(() -> {
-                    throw new NoSuchElementException("Cannot find column " + column);
-                });
-        if (!EnumSet.of(Date, ColumnType.Number).contains(columnDefinition.type)) {
-            throw new IllegalArgumentException("Aggregation only supported for numerical and date columns");
-        }
-        try (PreparedStatement query = connection.prepareStatement(
-                "select min(" + columnDefinition.name + ") as min, max(" + columnDefinition.name + ") as max" +
-                        " from " + table.name
-        )) {
+        var type = ViewStoreClient.rangeType(columnDefinition);
+        try (var query = connection.prepareStatement(
+                "select min_" + type + " as min, max_" + type + " as max, stale" +
+                        " from column_range where view_name = ? and column_name = ?")) {
+            query.setString(1, view);
+            query.setString(2, columnDefinition.name);
             var result = query.executeQuery();
-            if (!result.next()) {
+            if (!result.next() || result.getBoolean("stale")) {
                 return null;
             }
-            Object min;
-            Object max;
             if (columnDefinition.type == Date) {
-                min = result.getTimestamp("min");
-                max = result.getTimestamp("max");
-            } else {
-                min = result.getBigDecimal("min");
-                max = result.getBigDecimal("max");
+                return new Range(result.getTimestamp("min"), result.getTimestamp("max"));
             }
-            return new Range(min, max);
+            return new Range(result.getBigDecimal("min"), result.getBigDecimal("max"));
         } catch (SQLException e) {
-            throw new QueryException("Error aggregating column values", e);
+            throw new QueryException("Error reading column range", e);
         }
     }
 
@@ -504,19 +596,7 @@ public class ViewStoreReader implements AutoCloseable {
             var rows = this.retrieveViewTableRows(view, filters, offset, limit);
             // Add items from join tables
             if (includeJoinedViews) {
-                for (var joinView : viewConfig.join) {
-                    for (var row : rows) {
-                        var id = (String) row.get(view).stream().findFirst().orElseThrow().getValue();
-                        for (var joinTableRow : this.retrieveJoinTableRows(view, joinView, id)) {
-                            joinTableRow.forEach((key, values) -> {
-                                if (!row.containsKey(key)) {
-                                    row.put(key, new LinkedHashSet<>());
-                                }
-                                row.get(key).addAll(values);
-                            });
-                        }
-                    }
-                }
+                addJoinedViewValues(view, viewConfig, rows);
             }
             return rows;
         } catch (SQLTimeoutException e) {
@@ -526,6 +606,66 @@ public class ViewStoreReader implements AutoCloseable {
         }
     }
 
+    /**
+     * Passes all rows of a view table that match the specified filters to the writer.
+     * The rows are read through a database cursor, fetching {@link #EXPORT_FETCH_SIZE} rows at a time,
+     * so memory usage does not depend on the number of rows.
+     *
+     * @param view               the name of the view.
+     * @param filters            the filters to apply.
+     * @param includeJoinedViews if true, include joined views in the resulting rows.
+     * @param writer             the writer receiving the rows.
+     * @throws SQLException
+     * @throws IOException       if writing a row fails.
+     */
+    public void streamRows(
+            String view, List<ViewFilter> filters,
+            boolean includeJoinedViews,
+            ViewExportWriter writer
+    ) throws SQLException, IOException {
+        var viewConfig = configuration.viewConfig.get(view);
+        if (viewConfig == null) {
+            throw new IllegalArgumentException("View not supported: " + view);
+        }
+        var valueSetProperties = valueSetProperties(viewConfig);
+        // The PostgreSQL driver only uses a cursor when auto-commit is disabled
+        connection.setAutoCommit(false);
+        var start = new Date().getTime();
+        var count = 0;
+        try (var query = query(view, "*", filters, "order by id")) {
+            query.setFetchSize(EXPORT_FETCH_SIZE);
+            var result = query.executeQuery();
+            // The values in other tables are read for a page of rows at a time
+            var page = new ArrayList<Map<String, Set<ValueDTO>>>(EXPORT_FETCH_SIZE);
+            while (result.next()) {
+                page.add(transformRow(viewConfig, result));
+                if (page.size() == EXPORT_FETCH_SIZE) {
+                    count += writePage(viewConfig, page, valueSetProperties, includeJoinedViews, writer);
+                }
+            }
+            count += writePage(viewConfig, page, valueSetProperties, includeJoinedViews, writer);
+        } finally {
+            log.debug("Exporting {} rows took {} ms", count, new Date().getTime() - start);
+        }
+    }
+
+    private int writePage(
+            View viewConfig, List<Map<String, Set<ValueDTO>>> page, List<String> valueSetProperties,
+            boolean includeJoinedViews, ViewExportWriter writer
+    ) throws SQLException, IOException {
+        addTermIris(viewConfig, page);
+        addValueSetValues(viewConfig.name, page, valueSetProperties);
+        if (includeJoinedViews) {
+            addJoinedViewValues(viewConfig.name, viewConfig, page);
+        }
+        for (var row : page) {
+            writer.write(row);
+        }
+        var size = page.size();
+        page.clear();
+        return size;
+    }
+
     /**
      * @param view
      * @param filters
@@ -552,31 +692,44 @@ public class ViewStoreReader implements AutoCloseable {
 
         var searchString = "%" + escapeLikeString(request.getQuery().toLowerCase()) + "%";
 
-        ArrayList<String> values = new ArrayList<String>();
+        var values = new ArrayList<Object>();
         values.add(searchString);
         values.add(searchString);
-        values.addAll(userCollections);
+        values.add(userCollections.toArray(new String[0]));
 
-        var collectionPlaceholders = userCollections
-                .stream()
-                .map(uc -> "?")
-                .collect(Collectors.toList());
-        var collectionConstraint = "and collection in (" + String.join(", ",collectionPlaceholders) + ") ";
+        var collectionConstraint = "and " + anyOf("collection") + " ";
 
-        var idConstraint = StringUtils.isBlank(request.getParentIRI()) ? "" :
-                "and id like '" + escapeLikeString(request.getParentIRI()) + "%' ";
+        var idConstraint = "";
+        if (!StringUtils.isBlank(request.getParentIRI())) {
+            // Resource IRIs are paths, so the descendants of the parent are the IRIs starting with its path.
+            // The parent itself matches as well.
+            var parent = StringUtils.removeEnd(request.getParentIRI(), "/");
+            var path = parent + "/";
+            idConstraint = "and (id = ? or (" + descendantsOf("id") + ")) ";
+            values.add(parent);
+            values.add(path);
+            // The first string after all strings starting with the path, as '0' follows '/'
+            values.add(StringUtils.removeEnd(path, "/") + "0");
+        }
+
+        // With trigram indexes, the matches are found with the indexes and ranked by how well they match
+        var order = "order by id asc";
+        if (trigramSearch) {
+            order = "order by greatest(word_similarity(?, label), word_similarity(?, coalesce(description, ''))) desc, id asc";
+            values.add(request.getQuery());
+            values.add(request.getQuery());
+        }
 
         var queryString = new StringBuilder()
                 .append("select id, label, description, type FROM resource ")
                 .append("where (label ilike ? OR description ilike ?) ")
                 .append(collectionConstraint)
                 .append(idConstraint)
-                .append("order by id asc limit 1000");
+                .append(order)
+                .append(" limit 1000");
 
         try (var statement = connection.prepareStatement(queryString.toString())) {
-            for(int i = 0; i< values.size(); i++) {
-                statement.setString(i + 1, values.get(i));
-            }
+            setParameters(statement, values);
 
             statement.setQueryTimeout((int) searchConfig.pageRequestTimeout);
 
@@ -0,0 +1,20 @@
+package io.fairspace.saturn.services.views;
+
+/**
+ * Classes of work on the view database. Each class has its own share of the connection pool,
+ * so that expensive queries of one class cannot starve the others.
+ */
+public enum Workload {
+    /**
+     * Updates of the index when committing a transaction.
+     */
+    INDEX_WRITER,
+    /**
+     * View pages, counts, facets and file search requests.
+     */
+    INTERACTIVE,
+    /**
+     * Reindexing and exports.
+     */
+    BACKGROUND
+}
@@ -0,0 +1,17 @@
+package io.fairspace.saturn.services.views;
+
+import lombok.Value;
+
+@Value
+public class WorkloadStatsDTO {
+    Workload workload;
+    int maxConnections;
+    int activeConnections;
+    int waitingRequests;
+    long acquiredCount;
+    long rejectedCount;
+    /**
+     * Total time in milliseconds spent waiting for a connection.
+     */
+    long totalWaitTime;
+}
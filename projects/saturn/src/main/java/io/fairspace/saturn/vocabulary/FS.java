@@ -21,6 +21,12 @@ public class FS {
     public static final String VERSIONS_URI = NS + "versions";
     public static final Property versions = createProperty(VERSIONS_URI);
 
+    public static final String VERSIONS_ID_URI = NS + "versionsId";
+    public static final Property versionsId = createProperty(VERSIONS_ID_URI);
+
+    public static final String VERSION_NUMBER_URI = NS + "versionNumber";
+    public static final Property versionNumber = createProperty(VERSION_NUMBER_URI);
+
     public static final String FILE_VERSION_URI = NS + "FileVersion";
     public static final Resource FileVersion = createResource(FILE_VERSION_URI);
 
@@ -55,6 +61,24 @@ public class FS {
     public static final String MOVED_TO_URI = NS + "movedTo";
     public static final Property movedTo = createProperty(MOVED_TO_URI);
 
+    public static final String TREE_OPERATION_CLASS_URI = NS + "TreeOperation";
+    public static final Resource TreeOperation = createResource(TREE_OPERATION_CLASS_URI);
+
+    public static final String TREE_OPERATION_URI = NS + "treeOperation";
+    public static final Property treeOperation = createProperty(TREE_OPERATION_URI);
+
+    public static final String OPERATION_TYPE_URI = NS + "operationType";
+    public static final Property operationType = createProperty(OPERATION_TYPE_URI);
+
+    public static final String OPERATION_SOURCE_URI = NS + "operationSource";
+    public static final Property operationSource = createProperty(OPERATION_SOURCE_URI);
+
+    public static final String OPERATION_TARGET_URI = NS + "operationTarget";
+    public static final Property operationTarget = createProperty(OPERATION_TARGET_URI);
+
+    public static final String PROCESSED_COUNT_URI = NS + "processedCount";
+    public static final Property processedCount = createProperty(PROCESSED_COUNT_URI);
+
     public static final String ID_URI = NS + "id";
     public static final Property id = createProperty(ID_URI);
 
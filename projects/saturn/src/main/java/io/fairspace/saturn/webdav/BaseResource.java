@@ -12,7 +12,6 @@ import io.milton.property.PropertySource.PropertyMetaData;
 import io.milton.property.PropertySource.PropertySetException;
 import io.milton.resource.*;
 import org.apache.jena.rdf.model.Literal;
-import org.apache.jena.rdf.model.RDFNode;
 import org.apache.jena.rdf.model.Resource;
 import org.apache.jena.rdf.model.Statement;
 import org.apache.jena.shacl.vocabulary.SHACL;
@@ -96,6 +95,12 @@ abstract class BaseResource implements PropFindableResource, DeletableResource,
     public boolean authorise(Request request, Request.Method method, Auth auth) {
         // for POST requests performAction *must* implement action-specific checks and throw NotAuthorizedException if necessary
 
+        if (method.isWrite && TreeOperations.findOperation(subject) != null) {
+            setErrorMessage("An operation on this directory is in progress.");
+            // Answered with 409 Conflict instead of a permission error, see SaturnHttp11ResponseHandler
+            TreeOperations.markBlocked();
+            return false;
+        }
         return (!method.isWrite && access.canRead()) || (method.isWrite && access.canWrite());
     }
 
@@ -116,6 +121,7 @@ abstract class BaseResource implements PropFindableResource, DeletableResource,
 
     @Override
     public final void delete() throws NotAuthorizedException, ConflictException, BadRequestException {
+        validateNotInvolved(subject);
         var purge = subject.hasProperty(FS.dateDeleted);
         delete(purge);
         updateParents(subject);
@@ -128,15 +134,53 @@ abstract class BaseResource implements PropFindableResource, DeletableResource,
 
     protected void delete(boolean purge) throws NotAuthorizedException, ConflictException, BadRequestException {
         if (purge) {
-            if (!factory.userService.currentUser().isAdmin()) {
-                var message = "Not authorized to purge the resource.";
-                setErrorMessage(message);
-                throw new NotAuthorizedException(message, this, SC_FORBIDDEN);
-            }
-            subject.getModel().removeAll(subject, null, null).removeAll(null, null, subject);
-        } else if (!subject.hasProperty(FS.dateDeleted)) {
-            subject.addProperty(FS.dateDeleted, timestampLiteral())
-                    .addProperty(FS.deletedBy, factory.currentUserResource());
+            validateCanPurge();
+            purge(subject);
+        } else {
+            markDeleted(subject, factory.currentUserResource(), timestampLiteral());
+        }
+    }
+
+    protected void validateCanPurge() throws NotAuthorizedException {
+        if (!factory.userService.currentUser().isAdmin()) {
+            var message = "Not authorized to purge the resource.";
+            setErrorMessage(message);
+            throw new NotAuthorizedException(message, this, SC_FORBIDDEN);
+        }
+    }
+
+    static void purge(Resource subject) {
+        FileVersions.purge(subject);
+        subject.getModel().removeAll(subject, null, null).removeAll(null, null, subject);
+    }
+
+    static void markDeleted(Resource subject, Resource user, Literal date) {
+        if (!subject.hasProperty(FS.dateDeleted)) {
+            subject.addProperty(FS.dateDeleted, date)
+                    .addProperty(FS.deletedBy, user);
+        }
+    }
+
+    /**
+     * Large trees are processed in the background, if enabled.
+     */
+    protected boolean isLargeTree() {
+        return factory.treeOperations != null && TreeOperations.isLarge(subject);
+    }
+
+    private static void validateNotLocked(Resource subject) throws ConflictException {
+        if (TreeOperations.findOperation(subject) != null) {
+            var message = "An operation on the target directory is in progress.";
+            setErrorMessage(message);
+            throw new ConflictException(message);
+        }
+    }
+
+    private static void validateNotInvolved(Resource subject) throws ConflictException {
+        if (TreeOperations.isInvolved(subject)) {
+            var message = "An operation on this directory or its contents is in progress.";
+            setErrorMessage(message);
+            throw new ConflictException(message);
         }
     }
 
@@ -186,6 +230,8 @@ abstract class BaseResource implements PropFindableResource, DeletableResource,
 
         boolean isRename = !this.getName().equals(name);
         var parentSubject = (parent instanceof DirectoryResource) ? ((DirectoryResource) parent).subject : factory.rootSubject;
+        validateNotInvolved(subject);
+        validateNotLocked(parentSubject);
         var parentType = Optional.ofNullable(parentSubject).map(p -> p.getPropertyResourceValue(FS.linkedEntityType)).orElse(null);
         var type = subject.getPropertyResourceValue(FS.linkedEntityType);
 
@@ -197,11 +243,37 @@ abstract class BaseResource implements PropFindableResource, DeletableResource,
             renameResourcesWithTheSameLinkedEntity(name);
         }
 
-        move(subject, parentSubject, name, true);
+        move(subject, parentSubject, name);
     }
 
-    private void move(Resource subject, Resource parent, String name, boolean isTop) {
-        var newSubject = childSubject(parent != null ? parent : factory.rootSubject, name);
+    private void move(Resource subject, Resource parent, String name) {
+        var large = factory.treeOperations != null && TreeOperations.isLarge(subject);
+        var newSubject = moveNode(subject, parent, name, factory.rootSubject);
+        if (large) {
+            factory.treeOperations.schedule(TreeOperations.Type.MOVE, subject, newSubject);
+        } else {
+            moveDescendants(subject);
+        }
+
+        updateParents(subject);
+        updateParents(newSubject);
+    }
+
+    private static void moveDescendants(Resource subject) {
+        var newSubject = subject.getPropertyResourceValue(FS.movedTo);
+        subject.getModel().listSubjectsWithProperty(FS.belongsTo, subject)
+                .toSet()  // convert to set, to prevent updating a model while iterating over its elements
+                .forEach(r -> {
+                    moveNode(r, newSubject, getStringProperty(r, RDFS.label), null);
+                    moveDescendants(r);
+                });
+    }
+
+    /**
+     * Moves a resource without its children, which keep belonging to the old subject until they're moved.
+     */
+    static Resource moveNode(Resource subject, Resource parent, String name, Resource root) {
+        var newSubject = childSubject(parent != null ? parent : root, name);
         newSubject.removeProperties().addProperty(RDFS.label, name);
         if (parent != null) {
             newSubject.addProperty(FS.belongsTo, parent);
@@ -210,36 +282,18 @@ abstract class BaseResource implements PropFindableResource, DeletableResource,
         subject.listProperties()
                 .filterDrop(stmt -> stmt.getPredicate().equals(RDFS.label))
                 .filterDrop(stmt -> stmt.getPredicate().equals(FS.belongsTo))
-                .filterDrop(stmt -> stmt.getPredicate().equals(FS.versions))
                 .toSet()  // convert to set, to prevent updating a model while iterating over its elements
                 .forEach(stmt -> newSubject.addProperty(stmt.getPredicate(), stmt.getObject()));
 
-        var versions = getListProperty(subject, FS.versions);
-
-        if (versions != null) {
-            var newVersions = subject.getModel().createList(versions.iterator()
-                    .mapWith(RDFNode::asResource)
-                    .mapWith(BaseResource::copyVersion));
-            newSubject.addProperty(FS.versions, newVersions);
-        }
-
-        subject.getModel().listSubjectsWithProperty(FS.belongsTo, subject)
-                .toSet()  // convert to set, to prevent updating a model while iterating over its elements
-                .forEach(r -> move(r, newSubject, getStringProperty(r, RDFS.label), false));
-
-        subject.getModel().listStatements(null, null, subject)
+        var incoming = subject.getModel().listStatements(null, null, subject)
                 .filterDrop(stmt -> stmt.getPredicate().equals(FS.belongsTo))
-                .toSet()  // convert to set, to prevent updating a model while iterating over its elements
-                .forEach(stmt -> stmt.getSubject().addProperty(stmt.getPredicate(), newSubject));
+                .toList();  // convert to list, to prevent updating a model while iterating over its elements
+        incoming.forEach(stmt -> stmt.getSubject().addProperty(stmt.getPredicate(), newSubject));
 
-        subject.getModel().removeAll(subject, null, null).removeAll(null, null, subject);
+        subject.getModel().removeAll(subject, null, null).remove(incoming);
 
         subject.addProperty(FS.movedTo, newSubject);
-
-        if (isTop) {
-            updateParents(subject);
-            updateParents(newSubject);
-        }
+        return newSubject;
     }
 
     private void renameResourcesWithTheSameLinkedEntity(String name) throws ConflictException, BadRequestException, NotAuthorizedException {
@@ -250,16 +304,11 @@ abstract class BaseResource implements PropFindableResource, DeletableResource,
             Statement nextResource = linkedResourcesToMove.next();
             var parent = nextResource.getSubject().getPropertyResourceValue(FS.belongsTo);
             validateTargetNotExists((CollectionResource) factory.getResource(parent), name);
-            move(nextResource.getSubject(), parent, name, true);
+            validateNotInvolved(nextResource.getSubject());
+            move(nextResource.getSubject(), parent, name);
         }
     }
 
-    private static Resource copyVersion(Resource ver) {
-        var newVer = ver.getModel().createResource();
-        copyProperties(ver.asResource(), newVer, RDF.type, FS.dateModified, FS.deletedBy, FS.fileSize, FS.blobId, FS.md5);
-        return newVer;
-    }
-
     @Override
     public void copyTo(io.milton.resource.CollectionResource parent, String name)
             throws NotAuthorizedException, BadRequestException, ConflictException {
@@ -268,16 +317,43 @@ abstract class BaseResource implements PropFindableResource, DeletableResource,
         }
         validateTarget(parent, name);
         var parentSubject = parent instanceof DirectoryResource ? ((DirectoryResource) parent).subject : factory.rootSubject;
+        validateNotInvolved(subject);
+        validateNotLocked(parentSubject);
 
         var parentType = parentSubject.getPropertyResourceValue(FS.linkedEntityType);
         var type = subject.getPropertyResourceValue(FS.linkedEntityType);
         factory.validateCanWrite(type.getURI());
         validateIfTypeIsValidForParent(type, parentType);
 
-        copy(subject, parentSubject, name, factory.currentUserResource(), timestampLiteral());
+        var user = factory.currentUserResource();
+        var date = timestampLiteral();
+        var large = isLargeTree();
+        var newSubject = copyNode(subject, parentSubject, name, user, date);
+        if (large) {
+            factory.treeOperations.schedule(TreeOperations.Type.COPY, subject, newSubject);
+        } else {
+            copyDescendants(subject, newSubject, user, date);
+        }
+
+        updateParents(subject);
+        updateParents(newSubject);
     }
 
-    private void copy(Resource subject, Resource parent, String name, Resource user, Literal date) {
+    private static void copyDescendants(Resource subject, Resource newSubject, Resource user, Literal date) {
+        subject.getModel().listSubjectsWithProperty(FS.belongsTo, subject)
+                .toSet()  // convert to set, to prevent updating a model while iterating over its elements
+                .forEach(r -> {
+                    var copy = copyNode(r, newSubject, getStringProperty(r, RDFS.label), user, date);
+                    copyDescendants(r, copy, user, date);
+                    updateParents(r);
+                    updateParents(copy);
+                });
+    }
+
+    /**
+     * Copies a resource without its children.
+     */
+    static Resource copyNode(Resource subject, Resource parent, String name, Resource user, Literal date) {
         var newSubject = childSubject(parent, name);
         newSubject.removeProperties();
         newSubject.addProperty(RDFS.label, name);
@@ -287,25 +363,16 @@ abstract class BaseResource implements PropFindableResource, DeletableResource,
 
         copyProperties(subject, newSubject, RDF.type, FS.contentType, FS.linkedEntity, FS.linkedEntityType);
 
-        if (subject.hasProperty(FS.versions)) {
-            var src = getListProperty(subject, FS.versions).getHead().asResource();
+        if (subject.hasProperty(FS.currentVersion)) {
+            var src = FileVersions.get(subject, subject.getRequiredProperty(FS.currentVersion).getInt());
 
-            var ver = newSubject.getModel().createResource()
-                    .addProperty(RDF.type, FS.FileVersion)
+            var ver = FileVersions.create(newSubject)
                     .addProperty(FS.modifiedBy, user)
                     .addProperty(FS.dateModified, date);
 
             copyProperties(src, ver, FS.blobId, FS.fileSize, FS.md5);
-
-            newSubject.addLiteral(FS.currentVersion, 1)
-                    .addProperty(FS.versions, newSubject.getModel().createList(ver));
         }
-        subject.getModel().listSubjectsWithProperty(FS.belongsTo, subject)
-                .toSet()  // convert to set, to prevent updating a model while iterating over its elements
-                .forEach(r -> copy(r, newSubject, getStringProperty(r, RDFS.label), user, date));
-
-        updateParents(subject);
-        updateParents(newSubject);
+        return newSubject;
     }
 
     @Override
@@ -388,6 +455,16 @@ abstract class BaseResource implements PropFindableResource, DeletableResource,
                 .toSet();
     }
 
+    /**
+     * The id of an operation in progress on this directory, see TreeOperations.
+     * Until it has finished, the directory only lists the entries processed so far.
+     */
+    @Property
+    public String getTreeOperation() {
+        var op = subject.getPropertyResourceValue(FS.treeOperation);
+        return op != null ? TreeOperations.idOf(op.getURI()) : null;
+    }
+
     @Property
     public String getDeletedBy() {
         var deletedBy = subject.getPropertyResourceValue(FS.deletedBy);
@@ -402,11 +479,9 @@ abstract class BaseResource implements PropFindableResource, DeletableResource,
         return subject.getURI().substring(factory.rootSubject.getURI().length());
     }
 
-    protected Resource newVersion(BlobInfo blob) {
+    protected Resource newVersion(Resource file, BlobInfo blob) {
         updateParents(subject);
-        return subject.getModel()
-                .createResource()
-                .addProperty(RDF.type, FS.FileVersion)
+        return FileVersions.create(file)
                 .addProperty(FS.blobId, blob.id)
                 .addLiteral(FS.fileSize, blob.size)
                 .addProperty(FS.md5, blob.md5)
@@ -416,8 +491,10 @@ abstract class BaseResource implements PropFindableResource, DeletableResource,
 
     protected static void updateParents(Resource subject) {
         var now = timestampLiteral();
+        var updated = updatedParents();
+        // The timestamp is the same for the whole request, so every ancestor has to be updated only once
         for (var s = subject.getPropertyResourceValue(FS.belongsTo);
-             s != null;
+             s != null && updated.add(s);
              s = s.getPropertyResourceValue(FS.belongsTo)) {
             s.removeAll(FS.dateModified)
                     .removeAll(FS.modifiedBy)
@@ -471,9 +548,15 @@ abstract class BaseResource implements PropFindableResource, DeletableResource,
             setErrorMessage(message);
             throw new ConflictException(this, message);
         }
+        validateNotInvolved(subject);
         var date = subject.getProperty(FS.dateDeleted).getLiteral();
         var user = subject.getProperty(FS.deletedBy).getResource();
-        undelete(subject, date, user);
+        if (isLargeTree()) {
+            subject.removeAll(FS.dateDeleted).removeAll(FS.deletedBy);
+            factory.treeOperations.scheduleRestore(subject, date, user);
+        } else {
+            undelete(subject, date, user);
+        }
         updateParents(subject);
     }
 
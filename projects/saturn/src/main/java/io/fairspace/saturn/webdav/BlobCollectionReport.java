@@ -0,0 +1,25 @@
+package io.fairspace.saturn.webdav;
+
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * The result of a run of the {@link BlobGarbageCollector}.
+ */
+@Data
+public class BlobCollectionReport {
+    private boolean dryRun;
+    private Instant started;
+    private Instant finished;
+    private long referencedBlobs;
+    private long scannedBlobs;
+    /**
+     * Unreferenced blobs kept because they were modified within the grace period
+     */
+    private long recentBlobs;
+    private long unreferencedBlobs;
+    private long unreferencedBytes;
+    private long deletedBlobs;
+    private long deletedBytes;
+}
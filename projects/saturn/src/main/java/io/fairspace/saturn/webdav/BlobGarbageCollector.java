@@ -0,0 +1,151 @@
+package io.fairspace.saturn.webdav;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.util.concurrent.RateLimiter;
+import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.vocabulary.FS;
+import lombok.extern.log4j.Log4j2;
+import org.apache.jena.graph.Node;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.hash.Hashing.murmur3_128;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Deletes blobs which are not referred to by any file version, e.g. left behind by purged files
+ * or by uploads which failed after the blob had been stored.
+ * All fs:blobId values are read in a single read transaction into a sorted array of 64-bit hashes (mark),
+ * then the blob directory is walked and blobs with an unknown hash are deleted (sweep).
+ * A hash collision can only keep an unreferenced blob. Blobs modified within the grace period are kept,
+ * as they may be referred to by a transaction that hasn't committed yet. Before a batch of blobs is deleted,
+ * the metadata is checked again for references added since the mark phase. A reference added after that check
+ * refers to a blob which has been stored (again) and thereby touched, which {@link ContentAddressedBlobStore}
+ * does under the same lock as the deletion, so the deletion either sees the new timestamp or happens first,
+ * in which case the blob is stored again.
+ */
+@Log4j2
+public class BlobGarbageCollector {
+    private static final HashFunction HASH = murmur3_128();
+    private static final int BATCH_SIZE = 1000;
+
+    private final LocalBlobStore store;
+    private final Transactions transactions;
+    private final Duration gracePeriod;
+    private final double deletionsPerSecond;
+
+    public BlobGarbageCollector(LocalBlobStore store, Transactions transactions, Duration gracePeriod, double deletionsPerSecond) {
+        this.store = store;
+        this.transactions = transactions;
+        this.gracePeriod = gracePeriod;
+        this.deletionsPerSecond = deletionsPerSecond;
+    }
+
+    /**
+     * @param dryRun only report the blobs that would be deleted.
+     */
+    public BlobCollectionReport collect(boolean dryRun) throws IOException {
+        var report = new BlobCollectionReport();
+        report.setDryRun(dryRun);
+        report.setStarted(Instant.now());
+        log.info("Blob garbage collection started{}", dryRun ? ", dry run" : "");
+
+        var referenced = mark();
+        report.setReferencedBlobs(referenced.length);
+        log.info("{} blob references read in {}ms", referenced.length, Duration.between(report.getStarted(), Instant.now()).toMillis());
+
+        var threshold = System.currentTimeMillis() - gracePeriod.toMillis();
+        var rateLimiter = RateLimiter.create(deletionsPerSecond);
+        var batch = new ArrayList<File>();
+        try (var blobs = store.listBlobs()) {
+            for (var it = blobs.iterator(); it.hasNext(); ) {
+                var blob = it.next();
+                report.setScannedBlobs(report.getScannedBlobs() + 1);
+                if (Arrays.binarySearch(referenced, hash(blob.getName())) >= 0) {
+                    continue;
+                }
+                if (blob.lastModified() > threshold) {
+                    report.setRecentBlobs(report.getRecentBlobs() + 1);
+                    continue;
+                }
+                batch.add(blob);
+                if (batch.size() == BATCH_SIZE) {
+                    sweep(batch, threshold, rateLimiter, report);
+                }
+            }
+        }
+        sweep(batch, threshold, rateLimiter, report);
+
+        report.setFinished(Instant.now());
+        log.info("Blob garbage collection finished in {}ms: {} blobs scanned, {} unreferenced ({} bytes), {} deleted",
+                Duration.between(report.getStarted(), report.getFinished()).toMillis(), report.getScannedBlobs(),
+                report.getUnreferencedBlobs(), report.getUnreferencedBytes(), report.getDeletedBlobs());
+        return report;
+    }
+
+    private long[] mark() {
+        return transactions.calculateRead(m -> {
+            var hashes = new long[1024];
+            var count = 0;
+            var it = m.getGraph().find(Node.ANY, FS.blobId.asNode(), Node.ANY);
+            try {
+                while (it.hasNext()) {
+                    var object = it.next().getObject();
+                    if (object.isLiteral()) {
+                        if (count == hashes.length) {
+                            hashes = Arrays.copyOf(hashes, count * 2);
+                        }
+                        hashes[count++] = hash(object.getLiteralLexicalForm());
+                    }
+                }
+            } finally {
+                it.close();
+            }
+            var result = Arrays.copyOf(hashes, count);
+            Arrays.sort(result);
+            return result;
+        });
+    }
+
+    private void sweep(List<File> batch, long threshold, RateLimiter rateLimiter, BlobCollectionReport report) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        // References added since the mark phase
+        var referenced = transactions.calculateRead(m -> batch.stream()
+                .map(File::getName)
+                .filter(id -> m.contains(null, FS.blobId, id))
+                .collect(toSet()));
+
+        for (var blob : batch) {
+            if (referenced.contains(blob.getName())) {
+                continue;
+            }
+            var size = blob.length();
+            report.setUnreferencedBlobs(report.getUnreferencedBlobs() + 1);
+            report.setUnreferencedBytes(report.getUnreferencedBytes() + size);
+            if (report.isDryRun()) {
+                log.debug("Unreferenced blob {}, {} bytes", blob.getName(), size);
+                continue;
+            }
+            rateLimiter.acquire();
+            // A content-addressed blob stored again is touched before the new reference is committed
+            if (store.deleteIfNotModifiedSince(blob, threshold)) {
+                report.setDeletedBlobs(report.getDeletedBlobs() + 1);
+                report.setDeletedBytes(report.getDeletedBytes() + size);
+            }
+        }
+        batch.clear();
+    }
+
+    private static long hash(String id) {
+        return HASH.hashString(id, UTF_8).asLong();
+    }
+}
@@ -3,9 +3,12 @@ package io.fairspace.saturn.webdav;
 import org.apache.commons.io.input.CountingInputStream;
 import org.apache.commons.io.input.MessageDigestCalculatingInputStream;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
 
 import static org.apache.commons.codec.binary.Hex.encodeHexString;
@@ -13,8 +16,44 @@ import static org.apache.commons.codec.binary.Hex.encodeHexString;
 public interface BlobStore {
     String write(InputStream in) throws IOException;
 
+    /**
+     * Stores a complete file, which the blob store may move instead of copying.
+     * The caller deletes the file afterwards if it still exists.
+     */
+    default String write(File file) throws IOException {
+        try (var in = new FileInputStream(file)) {
+            return write(in);
+        }
+    }
+
+    /**
+     * Stores a complete file whose SHA-256 hash has been computed while it was received.
+     * Blob stores addressing blobs by their hash use it instead of reading the file again.
+     */
+    default String write(File file, String sha256) throws IOException {
+        return write(file);
+    }
+
     void read(String id, OutputStream out, long start, Long finish) throws IOException;
 
+    /**
+     * Returns the local file of a blob, which allows sending it to the client without copying it through the heap.
+     *
+     * @return the path of the blob, or null if the blob store doesn't keep blobs in local files.
+     */
+    default Path getPath(String id) {
+        return null;
+    }
+
+    /**
+     * Marks a blob as recently used, so it isn't collected before a reference to it has been committed.
+     *
+     * @return false if the blob doesn't exist.
+     */
+    default boolean touch(String id) {
+        return true;
+    }
+
     default BlobInfo store(InputStream in) throws IOException {
         try {
             var countingInputStream = new CountingInputStream(in);
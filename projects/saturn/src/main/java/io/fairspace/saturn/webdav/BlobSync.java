@@ -0,0 +1,104 @@
+package io.fairspace.saturn.webdav;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static org.apache.commons.lang3.SystemUtils.IS_OS_WINDOWS;
+
+/**
+ * Flushes blob files and the directories referring to them to disk.
+ * Files are flushed by the writing thread. Directories are flushed by a single thread in batches:
+ * the directories requested while a batch is being flushed are flushed together, each of them once,
+ * so parallel uploads share the cost of flushing their common parent directories.
+ */
+@Log4j2
+class BlobSync {
+    private final BlockingQueue<SyncRequest> queue = new LinkedBlockingQueue<>();
+
+    BlobSync() {
+        var thread = new Thread(this::run, "blob-sync");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void syncFile(File file) throws IOException {
+        try (var channel = FileChannel.open(file.toPath(), READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Waits until the directories have been flushed to disk.
+     */
+    void syncDirectories(Collection<File> dirs) throws IOException {
+        var request = new SyncRequest(dirs);
+        queue.add(request);
+        try {
+            request.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing blob directories");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException
+                    ? (IOException) e.getCause()
+                    : new IOException("Cannot flush blob directories", e.getCause());
+        }
+    }
+
+    private void run() {
+        var batch = new ArrayList<SyncRequest>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+
+            var dirs = new LinkedHashSet<File>();
+            batch.forEach(request -> dirs.addAll(request.dirs));
+            try {
+                for (var dir : dirs) {
+                    syncDirectory(dir);
+                }
+                batch.forEach(request -> request.done.complete(null));
+            } catch (Exception e) {
+                log.error("Cannot flush blob directories", e);
+                batch.forEach(request -> request.done.completeExceptionally(e));
+            }
+            log.trace("Flushed {} directories for {} blobs", dirs.size(), batch.size());
+            batch.clear();
+        }
+    }
+
+    private static void syncDirectory(File dir) throws IOException {
+        // Directories cannot be opened on Windows
+        if (IS_OS_WINDOWS) {
+            return;
+        }
+        try (var channel = FileChannel.open(dir.toPath(), READ)) {
+            channel.force(true);
+        }
+    }
+
+    private static class SyncRequest {
+        final Collection<File> dirs;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        SyncRequest(Collection<File> dirs) {
+            this.dirs = dirs;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package io.fairspace.saturn.webdav;
+
+import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.vocabulary.FS;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+
+import static java.lang.Math.min;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static org.apache.commons.codec.binary.Hex.encodeHexString;
+import static org.apache.commons.codec.digest.DigestUtils.getSha256Digest;
+import static org.apache.commons.io.IOUtils.copyLarge;
+
+/**
+ * A local blob store addressing blobs by the SHA-256 hash of their contents, so identical uploads share a single file.
+ * Blobs are first written to a staging directory and then atomically moved into place, or discarded if a blob
+ * with the same contents already exists.
+ * The references to a blob are the fs:blobId statements in the metadata, so a blob is only deleted when no file
+ * version refers to it. Blobs stored under a random UUID by {@link LocalBlobStore} remain readable
+ * and can be converted with {@link #migrateLegacyBlobs()}.
+ */
+@Log4j2
+public class ContentAddressedBlobStore extends LocalBlobStore {
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+    private static final Pattern CONTENT_ADDRESS = Pattern.compile("[0-9a-f]{64}");
+
+    private final File staging;
+    private final Transactions transactions;
+
+    public ContentAddressedBlobStore(File dir, Transactions transactions) {
+        this(dir, transactions, false);
+    }
+
+    public ContentAddressedBlobStore(File dir, Transactions transactions, boolean fsync) {
+        super(dir, fsync);
+        this.transactions = transactions;
+        this.staging = new File(dir, ".staging");
+        if (!staging.exists() && !staging.mkdirs()) {
+            throw new RuntimeException("Cannot initialize the local blob store");
+        }
+    }
+
+    @Override
+    public String write(InputStream in) throws IOException {
+        var temp = File.createTempFile("blob", null, staging);
+        try {
+            var digest = getSha256Digest();
+            try (var out = new BufferedOutputStream(new FileOutputStream(temp))) {
+                copyLarge(new DigestInputStream(in, digest), out);
+            }
+            syncFile(temp);
+            var id = encodeHexString(digest.digest());
+            publish(temp, id);
+            return id;
+        } finally {
+            temp.delete();
+        }
+    }
+
+    @Override
+    public String write(File file) throws IOException {
+        return write(file, hash(file));
+    }
+
+    @Override
+    public String write(File file, String id) throws IOException {
+        try {
+            syncFile(file);
+            publish(file, id);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Different file systems
+            try (var in = new FileInputStream(file)) {
+                return write(in);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return the number of file versions referring to the blob.
+     */
+    public long getReferenceCount(String id) {
+        return transactions.calculateRead(m -> {
+            var it = m.listStatements(null, FS.blobId, id);
+            try {
+                var count = 0L;
+                while (it.hasNext()) {
+                    it.next();
+                    count++;
+                }
+                return count;
+            } finally {
+                it.close();
+            }
+        });
+    }
+
+    /**
+     * Converts the blobs stored under a random UUID into content-addressed ones, replacing their ids in the metadata.
+     * Legacy blobs stay readable until the metadata referring to them has been updated,
+     * so the migration can run while the application is in use.
+     *
+     * @return the number of migrated blobs.
+     */
+    public int migrateLegacyBlobs() throws IOException {
+        File[] legacy;
+        try (var files = listBlobs()) {
+            legacy = files.filter(file -> !CONTENT_ADDRESS.matcher(file.getName()).matches())
+                    .toArray(File[]::new);
+        }
+        log.info("Migrating {} legacy blobs", legacy.length);
+        var start = System.currentTimeMillis();
+        for (var offset = 0; offset < legacy.length; offset += MIGRATION_BATCH_SIZE) {
+            var batch = Arrays.copyOfRange(legacy, offset, min(offset + MIGRATION_BATCH_SIZE, legacy.length));
+            var ids = new HashMap<String, String>();
+            for (var file : batch) {
+                ids.put(file.getName(), migrate(file));
+            }
+            transactions.executeWrite(m -> ids.forEach((legacyId, id) -> {
+                for (var statement : m.listStatements(null, FS.blobId, legacyId).toList()) {
+                    statement.changeObject(id);
+                }
+            }));
+            for (var file : batch) {
+                file.delete();
+            }
+            log.info("Migrated {} of {} legacy blobs", offset + batch.length, legacy.length);
+        }
+        log.info("Blob migration finished in {}ms", System.currentTimeMillis() - start);
+        return legacy.length;
+    }
+
+    private String migrate(File file) throws IOException {
+        var id = hash(file);
+        if (!resolve(id).exists()) {
+            var temp = File.createTempFile("blob", null, staging);
+            try {
+                temp.delete();
+                try {
+                    Files.createLink(temp.toPath(), file.toPath());
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(file.toPath(), temp.toPath());
+                }
+                publish(temp, id);
+            } finally {
+                temp.delete();
+            }
+        }
+        return id;
+    }
+
+    private static String hash(File file) throws IOException {
+        var digest = getSha256Digest();
+        try (var in = new DigestInputStream(new BufferedInputStream(new FileInputStream(file)), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return encodeHexString(digest.digest());
+    }
+
+    private void publish(File temp, String id) throws IOException {
+        // The garbage collector can't delete the blob while it's being touched or stored
+        var lock = lock(id);
+        lock.lock();
+        try {
+            // Refresh the timestamp of an existing blob, so it's not deleted before the new reference is committed.
+            // This fails if the blob doesn't exist (anymore), then it's stored.
+            if (resolve(id).setLastModified(System.currentTimeMillis())) {
+                return;
+            }
+            var target = createBlobFile(id);
+            Files.move(temp.toPath(), target.toPath(), ATOMIC_MOVE);
+            // Linked legacy blobs keep their timestamp
+            target.setLastModified(System.currentTimeMillis());
+            syncDirectories(target);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -9,12 +9,18 @@ import io.milton.http.exceptions.BadRequestException;
 import io.milton.http.exceptions.ConflictException;
 import io.milton.http.exceptions.NotAuthorizedException;
 import io.milton.resource.Resource;
+import org.apache.jena.atlas.iterator.Iter;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.Model;
 import org.apache.jena.sparql.util.Context;
 import org.apache.jena.vocabulary.RDF;
 import org.apache.jena.vocabulary.RDFS;
 
 import java.net.URI;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static io.fairspace.saturn.auth.RequestContext.getUserURI;
 import static io.fairspace.saturn.config.Services.METADATA_PERMISSIONS;
@@ -23,6 +29,7 @@ import static io.fairspace.saturn.vocabulary.Vocabularies.VOCABULARY;
 import static io.fairspace.saturn.webdav.DavUtils.*;
 import static io.fairspace.saturn.webdav.PathUtils.encodePath;
 import static io.fairspace.saturn.webdav.WebDAVServlet.*;
+import static java.util.stream.Collectors.toList;
 import static org.apache.jena.rdf.model.ResourceFactory.createResource;
 
 public class DavFactory implements ResourceFactory {
@@ -33,6 +40,8 @@ public class DavFactory implements ResourceFactory {
     final Context context;
     private final String baseUri;
     public final RootResource root = new RootResource(this);
+    // Processes large trees in the background if set, see TreeOperations
+    TreeOperations treeOperations;
 
     public DavFactory(org.apache.jena.rdf.model.Resource rootSubject, BlobStore store, UserService userService, Context context) {
         this.rootSubject = rootSubject;
@@ -90,6 +99,59 @@ public class DavFactory implements ResourceFactory {
         return getResourceByType(subject, access);
     }
 
+    /**
+     * Returns the children of a directory visible with the given access.
+     * Instead of probing the type and the deleted and moved flags of each child one by one,
+     * all statements of a child are read in a single scan. The versions of files are only loaded when needed.
+     */
+    List<Resource> getChildren(org.apache.jena.rdf.model.Resource parent, Access access) {
+        try (var children = getChildren(parent, access, 0, Long.MAX_VALUE)) {
+            return children.collect(toList());
+        }
+    }
+
+    /**
+     * Lazily iterates over a page of the entries of a directory, which have to be read in a transaction.
+     * The offset and the limit refer to all entries, including deleted and moved ones,
+     * so a page may contain fewer children than the limit.
+     * The order of the entries is stable as long as the directory isn't modified.
+     */
+    Stream<Resource> getChildren(org.apache.jena.rdf.model.Resource parent, Access access, long offset, long limit) {
+        var model = parent.getModel();
+        var showDeleted = showDeleted();
+        var entries = model.getGraph().find(Node.ANY, FS.belongsTo.asNode(), parent.asNode());
+        return Iter.asStream(entries)
+                .onClose(entries::close)
+                .skip(offset)
+                .limit(limit)
+                .map(t -> getChild(model, t.getSubject(), access, showDeleted))
+                .filter(Objects::nonNull);
+    }
+
+    private Resource getChild(Model model, Node child, Access access, boolean showDeleted) {
+        var graph = model.getGraph();
+        var file = false;
+        var directory = false;
+        for (var it = graph.find(child, Node.ANY, Node.ANY); it.hasNext(); ) {
+            var t = it.next();
+            var p = t.getPredicate();
+            if (p.equals(FS.movedTo.asNode()) || (p.equals(FS.dateDeleted.asNode()) && !showDeleted)) {
+                it.close();
+                return null;
+            } else if (p.equals(RDF.type.asNode())) {
+                file |= t.getObject().equals(FS.File.asNode());
+                directory |= t.getObject().equals(FS.Directory.asNode());
+            }
+        }
+        if (file) {
+            return new FileResource(this, model.wrapAsResource(child), access);
+        }
+        if (directory) {
+            return new DirectoryResource(this, model.wrapAsResource(child), access);
+        }
+        return null;
+    }
+
     public Resource getResourceByType(org.apache.jena.rdf.model.Resource subject, Access access) {
         if (subject.hasProperty(RDF.type, FS.File)) {
             return new FileResource(this, subject, access);
@@ -30,7 +30,6 @@ import java.io.OutputStream;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.stream.Stream;
 
 import static io.fairspace.saturn.config.Services.METADATA_PERMISSIONS;
 import static io.fairspace.saturn.config.Services.METADATA_SERVICE;
@@ -40,7 +39,6 @@ import static io.fairspace.saturn.webdav.DavUtils.*;
 import static io.fairspace.saturn.webdav.PathUtils.*;
 import static io.fairspace.saturn.webdav.WebDAVServlet.getBlob;
 import static io.fairspace.saturn.webdav.WebDAVServlet.setErrorMessage;
-import static java.util.stream.Collectors.joining;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.jena.graph.NodeFactory.createURI;
 import static org.apache.jena.rdf.model.ModelFactory.createDefaultModel;
@@ -92,16 +90,19 @@ class DirectoryResource extends BaseResource implements FolderResource, Deletabl
     }
 
     private Resource createNew(String name, BlobInfo blob, String contentType) throws NotAuthorizedException, ConflictException, BadRequestException {
+        return factory.getResource(createFile(name, blob, contentType), access);
+    }
+
+    private org.apache.jena.rdf.model.Resource createFile(String name, BlobInfo blob, String contentType) throws NotAuthorizedException, ConflictException, BadRequestException {
         var subj = createResource(name)
-                .addProperty(RDF.type, FS.File)
-                .addLiteral(FS.currentVersion, 1)
-                .addProperty(FS.versions, subject.getModel().createList(newVersion(blob)));
+                .addProperty(RDF.type, FS.File);
+        newVersion(subj, blob);
 
         if (contentType != null) {
             subj.addProperty(FS.contentType, contentType);
         }
 
-        return factory.getResource(subj, access);
+        return subj;
     }
 
     private org.apache.jena.rdf.model.Resource createResource(String name) throws ConflictException, NotAuthorizedException, BadRequestException {
@@ -121,15 +122,21 @@ class DirectoryResource extends BaseResource implements FolderResource, Deletabl
 
     @Override
     public List<? extends Resource> getChildren() {
-        return subject.getModel()
-                .listSubjectsWithProperty(FS.belongsTo, subject)
-                .mapWith(r -> factory.getResource(r, access))
-                .filterDrop(Objects::isNull)
-                .toList();
+        return factory.getChildren(subject, access);
     }
 
     @Override
     public void delete(boolean purge) throws NotAuthorizedException, ConflictException, BadRequestException {
+        if (isLargeTree()) {
+            // The directory is deleted right away, or kept until its descendants have been purged
+            if (purge) {
+                validateCanPurge();
+            } else {
+                super.delete(false);
+            }
+            factory.treeOperations.schedule(purge ? TreeOperations.Type.PURGE : TreeOperations.Type.DELETE, subject, null);
+            return;
+        }
         for (var child : getChildren()) {
             ((BaseResource) child).delete(purge);
         }
@@ -176,40 +183,48 @@ class DirectoryResource extends BaseResource implements FolderResource, Deletabl
     }
 
     private void uploadFiles(Map<String, FileItem> files) throws NotAuthorizedException, ConflictException, BadRequestException {
-        for (var entry : files.entrySet()) {
-            uploadFile(entry.getKey(), entry.getValue());
+        // Each directory is looked up or created only once for all files in it
+        var directories = new HashMap<String, DirectoryResource>();
+        directories.put("", this);
+        // Sorted, so files in the same directory are handled together and the results don't depend on the request order
+        for (var entry : new TreeMap<>(files).entrySet()) {
+            uploadFile(entry.getKey(), entry.getValue(), directories);
         }
     }
 
-    private void uploadFile(String path, FileItem file) throws NotAuthorizedException, BadRequestException, ConflictException {
-        path = normalizePath(URLDecoder.decode(path, StandardCharsets.UTF_8));
-        if (path.contains("/")) {
-            var segments = splitPath(path);
-            var child = child(segments[0]);
+    private void uploadFile(String path, FileItem file, Map<String, DirectoryResource> directories) throws NotAuthorizedException, BadRequestException, ConflictException {
+        var segments = splitPath(URLDecoder.decode(path, StandardCharsets.UTF_8));
+        var dir = directory(segments, segments.length - 1, directories);
+        var name = segments[segments.length - 1];
+        var blob = ((BlobFileItem) file).getBlob();
+        var child = dir.child(name);
+        if (child != null) {
+            if (child instanceof FileResource) {
+                ((FileResource) child).replaceContent(blob);
+            } else {
+                throw new ConflictException(child);
+            }
+        } else {
+            dir.createFile(name, blob, file.getContentType());
+        }
+    }
+
+    private DirectoryResource directory(String[] segments, int depth, Map<String, DirectoryResource> directories) throws NotAuthorizedException, BadRequestException, ConflictException {
+        var path = String.join("/", Arrays.asList(segments).subList(0, depth));
+        var dir = directories.get(path);
+        if (dir == null) {
+            var parent = directory(segments, depth - 1, directories);
+            var child = parent.child(segments[depth - 1]);
             if (child == null) {
-                child = createCollection(segments[0]);
+                child = parent.createCollection(segments[depth - 1]);
             }
             if (!(child instanceof DirectoryResource)) {
                 throw new ConflictException(child);
             }
-            var dir = (DirectoryResource) child;
-            var relPath = Stream.of(segments)
-                    .skip(1)
-                    .collect(joining("/"));
-            dir.uploadFile(relPath, file);
-        } else {
-            var blob = ((BlobFileItem) file).getBlob();
-            var child = child(path);
-            if (child != null) {
-                if (child instanceof FileResource) {
-                    ((FileResource) child).replaceContent(blob);
-                } else {
-                    throw new ConflictException(child);
-                }
-            } else {
-                createNew(path, blob, file.getContentType());
-            }
+            dir = (DirectoryResource) child;
+            directories.put(path, dir);
         }
+        return dir;
     }
 
     private void uploadMetadata(FileItem file) throws BadRequestException {
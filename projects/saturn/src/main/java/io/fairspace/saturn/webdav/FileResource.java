@@ -12,11 +12,14 @@ import io.milton.http.exceptions.NotFoundException;
 import io.milton.resource.ReplaceableResource;
 import lombok.SneakyThrows;
 import org.apache.jena.rdf.model.Resource;
-import org.apache.jena.vocabulary.RDF;
+import org.eclipse.jetty.server.HttpOutput;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import java.util.Date;
 import java.util.Map;
 
@@ -24,38 +27,56 @@ import static io.fairspace.saturn.rdf.ModelUtils.*;
 import static io.fairspace.saturn.webdav.WebDAVServlet.*;
 import static io.milton.http.ResponseStatus.SC_FORBIDDEN;
 import static java.lang.Integer.parseInt;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardOpenOption.READ;
 
 class FileResource extends BaseResource implements io.milton.resource.FileResource, ReplaceableResource {
+    private static final long MAPPED_CHUNK_SIZE = 64 * 1024 * 1024;
+    private static final long VERSION_MAX_AGE_SECONDS = 365L * 24 * 60 * 60;
+
     private int version;
     private String blobId;
     private long contentLength;
     private Date modifiedDate;
-    private boolean singleVersion;
+    private boolean loaded;
 
     @SneakyThrows
     FileResource(DavFactory factory, Resource subject, Access access) {
         super(factory, subject, access);
 
-        loadVersion();
+        // The current version is loaded when needed, e.g. not for every file in a directory listing,
+        // but a request for an invalid version has to fail right away.
+        if (fileVersion() != null) {
+            loadVersion();
+        }
     }
 
     private void loadVersion() throws BadRequestException {
-        var versions = getListProperty(subject, FS.versions);
+        var current = subject.getRequiredProperty(FS.currentVersion).getInt();
         var ver = fileVersion();
-        version = (ver != null) ? ver : versions.size();
+        version = (ver != null) ? ver : current;
 
-        if (version < 1 || version > versions.size()) {
+        if (version < 1 || version > current) {
             var message = "Invalid file version";
             setErrorMessage(message);
             throw new BadRequestException(message);
         }
 
-        var current = versions.get(subject.getProperty(FS.currentVersion).getInt() - version).asResource();
+        var versionSubject = FileVersions.get(subject, version);
+
+        blobId = versionSubject.getRequiredProperty(FS.blobId).getString();
+        contentLength = versionSubject.getRequiredProperty(FS.fileSize).getLong();
+        modifiedDate = parseDate(versionSubject, FS.dateModified);
+        loaded = true;
+    }
 
-        blobId = current.getRequiredProperty(FS.blobId).getString();
-        contentLength = current.getRequiredProperty(FS.fileSize).getLong();
-        modifiedDate = parseDate(current, FS.dateModified);
-        singleVersion = versions.size() == 1;
+    @SneakyThrows
+    private void ensureVersionLoaded() {
+        if (!loaded) {
+            loadVersion();
+        }
     }
 
     @Override
@@ -68,12 +89,62 @@ class FileResource extends BaseResource implements io.milton.resource.FileResour
 
     @Override
     public void sendContent(OutputStream out, Range range, Map<String, String> params, String contentType) throws IOException, NotAuthorizedException, BadRequestException, NotFoundException {
-        factory.store.read(blobId, out, range != null ? range.getStart() : 0, range != null ? range.getFinish() : null);
+        ensureVersionLoaded();
+        var path = factory.store.getPath(blobId);
+        if (path != null) {
+            sendFile(path, out, range);
+        } else {
+            factory.store.read(blobId, out, range != null ? range.getStart() : 0, range != null ? range.getFinish() : null);
+        }
+    }
+
+    /**
+     * Sends a file or a range of it without copying it through the heap.
+     * Jetty writes memory-mapped buffers directly to the socket, other streams are written to with transferTo.
+     */
+    static void sendFile(Path path, OutputStream out, Range range) throws IOException {
+        try (var channel = FileChannel.open(path, READ)) {
+            var size = channel.size();
+            long start = 0;
+            var end = size;
+            if (range != null) {
+                if (range.getStart() == null) {
+                    // A suffix range, e.g. bytes=-500
+                    start = max(0, size - range.getFinish());
+                } else {
+                    start = range.getStart();
+                    if (range.getFinish() != null) {
+                        end = min(size, range.getFinish() + 1);
+                    }
+                }
+            }
+
+            if (out instanceof HttpOutput) {
+                for (var position = start; position < end; position += MAPPED_CHUNK_SIZE) {
+                    ((HttpOutput) out).write(channel.map(READ_ONLY, position, min(MAPPED_CHUNK_SIZE, end - position)));
+                }
+            } else {
+                var target = Channels.newChannel(out);
+                for (var position = start; position < end; ) {
+                    position += channel.transferTo(position, end - position, target);
+                }
+            }
+        }
     }
 
     @Override
     public Long getMaxAgeSeconds(Auth auth) {
-        return singleVersion ? Long.MAX_VALUE : null;
+        // A specific version never changes, the current version has to be revalidated using its ETag
+        return fileVersion() != null ? VERSION_MAX_AGE_SECONDS : 0L;
+    }
+
+    /**
+     * Returns the strong entity tag of the version.
+     * Blobs are never modified, so the blob id identifies the contents.
+     */
+    String getETag() {
+        ensureVersionLoaded();
+        return blobId;
     }
 
     @Override
@@ -83,6 +154,7 @@ class FileResource extends BaseResource implements io.milton.resource.FileResour
 
     @Override
     public Long getContentLength() {
+        ensureVersionLoaded();
         return contentLength;
     }
 
@@ -99,25 +171,21 @@ class FileResource extends BaseResource implements io.milton.resource.FileResour
             throw new ConflictException(this, message);
         }
 
-        var versions = getListProperty(subject, FS.versions).cons(newVersion(blobInfo));
-        var current = subject.getRequiredProperty(FS.currentVersion).getInt() + 1;
-
-        subject.removeAll(FS.versions)
-                .removeAll(FS.currentVersion)
-                .addProperty(FS.versions, versions)
-                .addLiteral(FS.currentVersion, current);
+        newVersion(subject, blobInfo);
 
         loadVersion();
     }
 
     @Override
     public Date getModifiedDate() {
+        ensureVersionLoaded();
         return modifiedDate;
     }
 
 
     @Property
     public int getVersion() {
+        ensureVersionLoaded();
         return version;
     }
 
@@ -144,20 +212,16 @@ class FileResource extends BaseResource implements io.milton.resource.FileResour
             setErrorMessage(message);
             throw new BadRequestException(this, message);
         }
-        var versions = getListProperty(subject, FS.versions);
-        var ver = versions.get(subject.getProperty(FS.currentVersion).getInt() - version).asResource();
-        var newVer = subject.getModel()
-                .createResource();
+        if (version < 1 || version > subject.getRequiredProperty(FS.currentVersion).getInt()) {
+            var message = "Invalid file version";
+            setErrorMessage(message);
+            throw new BadRequestException(this, message);
+        }
+        var ver = FileVersions.get(subject, version);
+        var newVer = FileVersions.create(subject);
 
-        copyProperties(ver, newVer, RDF.type, FS.blobId, FS.fileSize, FS.md5);
+        copyProperties(ver, newVer, FS.blobId, FS.fileSize, FS.md5);
         newVer.addProperty(FS.modifiedBy, factory.currentUserResource())
                 .addLiteral(FS.dateModified, WebDAVServlet.timestampLiteral());
-
-        versions = versions.cons(newVer);
-        var current = subject.getRequiredProperty(FS.currentVersion).getInt() + 1;
-        subject.removeAll(FS.versions)
-                .removeAll(FS.currentVersion)
-                .addProperty(FS.versions, versions)
-                .addLiteral(FS.currentVersion, current);
     }
 }
@@ -0,0 +1,132 @@
+package io.fairspace.saturn.webdav;
+
+import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.vocabulary.FS;
+import lombok.extern.log4j.Log4j2;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.RDFNode;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+
+import java.util.ArrayList;
+
+import static io.fairspace.saturn.rdf.ModelUtils.getListProperty;
+import static io.fairspace.saturn.rdf.SparqlUtils.generateMetadataIri;
+import static java.util.UUID.randomUUID;
+
+/**
+ * File versions are stored as resources named after the fs:versionsId of the file and their number,
+ * so any version is looked up directly, adding a version doesn't rewrite the others,
+ * and moving a file doesn't touch its versions.
+ * Versions stored as an rdf:List (fs:versions, the current version first) remain readable,
+ * they're converted when a version is added or by {@link #migrate(Transactions)}.
+ */
+@Log4j2
+public class FileVersions {
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+
+    /**
+     * @return the version with the given number, which must be between 1 and the current version.
+     */
+    static Resource get(Resource file, int version) {
+        var versionsId = file.getProperty(FS.versionsId);
+        if (versionsId != null) {
+            return versionResource(file.getModel(), versionsId.getString(), version);
+        }
+        // The current version is the head of the list, only older versions require walking it
+        var current = file.getRequiredProperty(FS.currentVersion).getInt();
+        return version == current
+                ? file.getRequiredProperty(FS.versions).getResource().getRequiredProperty(RDF.first).getResource()
+                : getListProperty(file, FS.versions).get(current - version).asResource();
+    }
+
+    /**
+     * Adds a version and makes it the current one.
+     *
+     * @return the new version, to be completed by the caller.
+     */
+    static Resource create(Resource file) {
+        if (file.hasProperty(FS.versions)) {
+            convert(file);
+        } else if (!file.hasProperty(FS.versionsId)) {
+            file.addProperty(FS.versionsId, randomUUID().toString());
+        }
+        var current = file.hasProperty(FS.currentVersion) ? file.getRequiredProperty(FS.currentVersion).getInt() : 0;
+        file.removeAll(FS.currentVersion)
+                .addLiteral(FS.currentVersion, current + 1);
+        return versionResource(file.getModel(), file.getRequiredProperty(FS.versionsId).getString(), current + 1)
+                .addProperty(RDF.type, FS.FileVersion)
+                .addLiteral(FS.versionNumber, current + 1);
+    }
+
+    /**
+     * Removes all versions of a file.
+     */
+    static void purge(Resource file) {
+        if (file.hasProperty(FS.versions)) {
+            var list = getListProperty(file, FS.versions);
+            list.iterator().mapWith(RDFNode::asResource).toList().forEach(Resource::removeProperties);
+            list.removeList();
+        } else if (file.hasProperty(FS.versionsId) && file.hasProperty(FS.currentVersion)) {
+            for (var version = file.getRequiredProperty(FS.currentVersion).getInt(); version > 0; version--) {
+                get(file, version).removeProperties();
+            }
+        }
+    }
+
+    /**
+     * Converts the versions of all files stored as an rdf:List, in batches.
+     * Files not converted yet remain readable, so the migration can run while the application is in use.
+     *
+     * @return the number of converted files.
+     */
+    public static long migrate(Transactions transactions) {
+        log.info("Converting file versions");
+        var start = System.currentTimeMillis();
+        var total = 0L;
+        while (true) {
+            var converted = transactions.calculateWrite(m -> {
+                var batch = new ArrayList<Resource>();
+                var it = m.listSubjectsWithProperty(FS.versions);
+                try {
+                    while (it.hasNext() && batch.size() < MIGRATION_BATCH_SIZE) {
+                        batch.add(it.next());
+                    }
+                } finally {
+                    it.close();
+                }
+                batch.forEach(FileVersions::convert);
+                return batch.size();
+            });
+            total += converted;
+            if (converted < MIGRATION_BATCH_SIZE) {
+                break;
+            }
+            log.info("Converted the versions of {} files", total);
+        }
+        log.info("The versions of {} files converted in {}ms", total, System.currentTimeMillis() - start);
+        return total;
+    }
+
+    private static void convert(Resource file) {
+        var m = file.getModel();
+        var versionsId = randomUUID().toString();
+        var list = getListProperty(file, FS.versions);
+        var number = file.getRequiredProperty(FS.currentVersion).getInt();
+        for (var node : list.iterator().toList()) {
+            var version = node.asResource();
+            var named = versionResource(m, versionsId, number)
+                    .addLiteral(FS.versionNumber, number);
+            version.listProperties().toList().forEach(stmt -> named.addProperty(stmt.getPredicate(), stmt.getObject()));
+            version.removeProperties();
+            number--;
+        }
+        list.removeList();
+        file.removeAll(FS.versions)
+                .addProperty(FS.versionsId, versionsId);
+    }
+
+    private static Resource versionResource(Model m, String versionsId, int version) {
+        return m.createResource(generateMetadataIri(versionsId + "/" + version).getURI());
+    }
+}
@@ -1,19 +1,52 @@
 package io.fairspace.saturn.webdav;
 
 
+import com.google.common.util.concurrent.Striped;
 import io.milton.common.RangeUtils;
 import io.milton.http.Range;
+import lombok.extern.log4j.Log4j2;
 
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.Stream;
 
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
 import static java.util.UUID.randomUUID;
 import static org.apache.commons.io.IOUtils.copyLarge;
 
+/**
+ * Stores blobs as files named after their id, in directories named after the first characters of the id,
+ * e.g. ab/cd/abcd..., so that no directory holds more than a fraction of the blobs.
+ * Blobs stored directly in the blob directory by previous versions remain readable
+ * and can be moved into place with {@link #migrateToShardedLayout()}.
+ * If enabled, a blob and the directory entries leading to it are flushed to disk before a write returns,
+ * so a blob referred to by committed metadata survives a crash.
+ */
+@Log4j2
 public class LocalBlobStore implements BlobStore {
-    private final File dir;
+    private static final int SHARD_LEVELS = 2;
+    private static final int SHARD_NAME_LENGTH = 2;
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+
+    protected final File dir;
+    private final BlobSync sync;
+    // Serializes storing and deleting blobs with the same id
+    private final Striped<Lock> locks = Striped.lock(64);
 
     public LocalBlobStore(File dir) {
+        this(dir, false);
+    }
+
+    public LocalBlobStore(File dir, boolean fsync) {
         this.dir = dir;
+        this.sync = fsync ? new BlobSync() : null;
         if(!dir.exists() && !dir.mkdirs()) {
             throw new RuntimeException("Cannot initialize the local blob store");
         }
@@ -21,27 +54,215 @@ public class LocalBlobStore implements BlobStore {
 
     @Override
     public String write(InputStream in) throws IOException {
-        var id = randomUUID().toString();
-        var dest = new File(dir, id);
-        while (dest.exists()) {
-            // The chance that this happens is zero, but we need to guarantee uniqueness.
-            id = randomUUID().toString();
-            dest = new File(dir, id);
-        }
+        var dest = newBlobFile();
         try (var out = new BufferedOutputStream(new FileOutputStream(dest))) {
              copyLarge(in, out);
         } catch (IOException e) {
             dest.delete();
             throw e;
         }
-        return id;
+        syncFile(dest);
+        syncDirectories(dest);
+        return dest.getName();
+    }
+
+    @Override
+    public String write(File file) throws IOException {
+        var dest = newBlobFile();
+        try {
+            syncFile(file);
+            Files.move(file.toPath(), dest.toPath(), ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Different file systems
+            return BlobStore.super.write(file);
+        }
+        // The file may have been uploaded long ago, it mustn't look like an old unreferenced blob
+        dest.setLastModified(System.currentTimeMillis());
+        syncDirectories(dest);
+        return dest.getName();
+    }
+
+    private File newBlobFile() throws IOException {
+        var dest = createBlobFile(randomUUID().toString());
+        while (dest.exists()) {
+            // The chance that this happens is zero, but we need to guarantee uniqueness.
+            dest = createBlobFile(randomUUID().toString());
+        }
+        return dest;
     }
 
     @Override
     public void read(String id, OutputStream out, long start, Long finish) throws IOException {
-        var src = new File(dir, id);
+        var src = resolve(id);
         try(var in = new BufferedInputStream(new FileInputStream(src))) {
             RangeUtils.writeRange(in, new Range(start, finish), out);
         }
     }
+
+    @Override
+    public Path getPath(String id) {
+        return resolve(id).toPath();
+    }
+
+    @Override
+    public boolean touch(String id) {
+        var lock = lock(id);
+        lock.lock();
+        try {
+            return resolve(id).setLastModified(System.currentTimeMillis());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the location of a blob in the sharded layout.
+     */
+    protected File blobFile(String id) {
+        var parent = dir;
+        for (var level = 0; level < SHARD_LEVELS && id.length() > (level + 1) * SHARD_NAME_LENGTH; level++) {
+            parent = new File(parent, id.substring(level * SHARD_NAME_LENGTH, (level + 1) * SHARD_NAME_LENGTH));
+        }
+        return new File(parent, id);
+    }
+
+    /**
+     * @return the location of a blob in the sharded layout, creating its directory if needed.
+     */
+    protected File createBlobFile(String id) throws IOException {
+        var file = blobFile(id);
+        var parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        return file;
+    }
+
+    /**
+     * @return the location of an existing blob, which may not have been moved into the sharded layout yet.
+     */
+    protected File resolve(String id) {
+        var file = blobFile(id);
+        if (file.exists()) {
+            return file;
+        }
+        var legacy = new File(dir, id);
+        // The blob may have just been moved
+        return legacy.exists() ? legacy : file;
+    }
+
+    protected Lock lock(String id) {
+        return locks.get(id);
+    }
+
+    /**
+     * Deletes a blob file unless it has been modified after the given time.
+     * Storing a blob with the same id waits until this has finished, and vice versa.
+     *
+     * @return true if the blob has been deleted.
+     */
+    boolean deleteIfNotModifiedSince(File blob, long time) {
+        var lock = lock(blob.getName());
+        lock.lock();
+        try {
+            return blob.lastModified() <= time && blob.delete();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    protected void syncFile(File file) throws IOException {
+        if (sync != null) {
+            sync.syncFile(file);
+        }
+    }
+
+    /**
+     * Flushes the entries of the directories leading to a blob.
+     */
+    protected void syncDirectories(File blob) throws IOException {
+        if (sync != null) {
+            var dirs = new LinkedHashSet<File>();
+            addDirectories(blob, dirs);
+            sync.syncDirectories(dirs);
+        }
+    }
+
+    private void addDirectories(File blob, Set<File> dirs) {
+        for (var parent = blob.getParentFile(); !parent.equals(dir); parent = parent.getParentFile()) {
+            dirs.add(parent);
+        }
+        dirs.add(dir);
+    }
+
+    /**
+     * Lists the files of all blobs, in either layout. Hidden directories, used for staging, are skipped.
+     * The stream must be closed.
+     */
+    Stream<File> listBlobs() throws IOException {
+        var root = dir.toPath();
+        return Files.walk(root)
+                .filter(path -> !root.relativize(path).toString().startsWith(".") && Files.isRegularFile(path))
+                .map(Path::toFile);
+    }
+
+    /**
+     * Moves the blobs stored directly in the blob directory into the sharded layout.
+     * Blob ids don't change and blobs are readable from either location,
+     * so the migration can run while the application is in use.
+     *
+     * @return the number of migrated blobs.
+     */
+    public long migrateToShardedLayout() throws IOException {
+        log.info("Moving blobs into the sharded layout");
+        var start = System.currentTimeMillis();
+        var count = 0L;
+        // The directory is not modified while it is being listed, a batch is moved after the listing has been closed
+        for (var batch = nextMigrationBatch(); !batch.isEmpty(); batch = nextMigrationBatch()) {
+            count += moveToShards(batch);
+            log.info("Moved {} blobs into the sharded layout", count);
+        }
+        log.info("{} blobs moved into the sharded layout in {}ms", count, System.currentTimeMillis() - start);
+        return count;
+    }
+
+    /**
+     * @return up to {@link #MIGRATION_BATCH_SIZE} blobs still stored directly in the blob directory.
+     */
+    private List<Path> nextMigrationBatch() throws IOException {
+        var batch = new ArrayList<Path>();
+        try (var entries = Files.newDirectoryStream(dir.toPath(), Files::isRegularFile)) {
+            for (var entry : entries) {
+                // Too short to be sharded, stays where it is
+                if (blobFile(entry.getFileName().toString()).toPath().equals(entry)) {
+                    continue;
+                }
+                batch.add(entry);
+                if (batch.size() == MIGRATION_BATCH_SIZE) {
+                    break;
+                }
+            }
+        }
+        return batch;
+    }
+
+    private int moveToShards(List<Path> batch) throws IOException {
+        var dirs = new LinkedHashSet<File>();
+        var moved = 0;
+        for (var legacy : batch) {
+            var target = createBlobFile(legacy.getFileName().toString());
+            if (target.exists()) {
+                // A content-addressed blob stored again after the upgrade
+                Files.delete(legacy);
+            } else {
+                Files.move(legacy, target.toPath(), ATOMIC_MOVE);
+            }
+            addDirectories(target, dirs);
+            moved++;
+        }
+        if (sync != null && !dirs.isEmpty()) {
+            sync.syncDirectories(dirs);
+        }
+        return moved;
+    }
 }
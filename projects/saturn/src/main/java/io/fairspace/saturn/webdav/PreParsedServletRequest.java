@@ -5,16 +5,20 @@ import io.milton.http.RequestParseException;
 import io.milton.servlet.ServletRequest;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import static io.milton.http.ResourceHandlerHelper.ATT_NAME_FILES;
 import static io.milton.http.ResourceHandlerHelper.ATT_NAME_PARAMS;
-import static java.util.stream.Collectors.toMap;
 
 public class PreParsedServletRequest extends ServletRequest {
 
-    public PreParsedServletRequest(HttpServletRequest request, BlobStore store) throws RequestParseException {
+    public PreParsedServletRequest(HttpServletRequest request, BlobStore store, ExecutorService ingestionPool) throws RequestParseException {
         super(request, request.getServletContext());
 
         var params = new HashMap<String, String>();
@@ -22,15 +26,39 @@ public class PreParsedServletRequest extends ServletRequest {
         super.parseRequestParameters(params, files);
 
         if ("upload_files".equals(params.get("action"))) {
-            files = files.entrySet()
-                    .stream()
-                    .collect(toMap(Map.Entry::getKey, e -> new BlobFileItem(e.getValue(), store)));
+            files = storeFiles(files, store, ingestionPool);
         }
 
         getAttributes().put(ATT_NAME_PARAMS, params);
         getAttributes().put(ATT_NAME_FILES, files);
     }
 
+    /**
+     * Stores the files parsed by Milton in the blob store in parallel, hashing and copying them on the ingestion pool.
+     * The files are collected in the order they are stored, so the first failure cancels the files still being stored.
+     */
+    static Map<String, FileItem> storeFiles(Map<String, FileItem> files, BlobStore store, ExecutorService ingestionPool) {
+        var completion = new ExecutorCompletionService<Map.Entry<String, BlobFileItem>>(ingestionPool);
+        var futures = new ArrayList<Future<Map.Entry<String, BlobFileItem>>>();
+        files.forEach((name, file) -> futures.add(completion.submit(() -> Map.entry(name, new BlobFileItem(file, store)))));
+
+        var result = new HashMap<String, FileItem>();
+        try {
+            for (var i = 0; i < futures.size(); i++) {
+                var stored = completion.take().get();
+                result.put(stored.getKey(), stored.getValue());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        }
+        return result;
+    }
+
     @Override
     public void parseRequestParameters(Map<String, String> params, Map<String, FileItem> files) throws RequestParseException {
        params.putAll(getParams());
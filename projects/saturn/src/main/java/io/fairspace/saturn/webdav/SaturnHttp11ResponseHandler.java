@@ -0,0 +1,173 @@
+package io.fairspace.saturn.webdav;
+
+import io.milton.http.AuthenticationService;
+import io.milton.http.Range;
+import io.milton.http.Request;
+import io.milton.http.Response;
+import io.milton.http.exceptions.BadRequestException;
+import io.milton.http.exceptions.NotAuthorizedException;
+import io.milton.http.exceptions.NotFoundException;
+import io.milton.http.http11.ContentGenerator;
+import io.milton.http.http11.DefaultHttp11ResponseHandler;
+import io.milton.http.http11.ETagGenerator;
+import io.milton.resource.GetableResource;
+import io.milton.resource.Resource;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Map;
+
+import static io.fairspace.saturn.App.API_PREFIX;
+import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
+import static java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME;
+
+/**
+ * Honors If-None-Match and If-Range for files, using the strong ETag of the requested version.
+ * A matching If-None-Match results in 304 Not Modified without reading the blob,
+ * a range request with a non-matching If-Range results in the full contents.
+ * A request which started a background operation on a large tree results in 202 Accepted with its location.
+ * A write rejected because of an operation in progress results in 409 Conflict, as when the operation is detected
+ * while processing the request, rather than in a permission error.
+ */
+class SaturnHttp11ResponseHandler extends DefaultHttp11ResponseHandler {
+    SaturnHttp11ResponseHandler(AuthenticationService authenticationService, ETagGenerator eTagGenerator, ContentGenerator contentGenerator) {
+        super(authenticationService, eTagGenerator, contentGenerator);
+    }
+
+    @Override
+    public void respondBadRequest(Resource resource, Response response, Request request) {
+        super.respondBadRequest(resource, response, request);
+        getContentGenerator().generate(resource, request, response, Response.Status.SC_BAD_REQUEST);
+    }
+
+    @Override
+    public void respondUnauthorised(Resource resource, Response response, Request request) {
+        if (!respondBlocked(resource, response, request)) {
+            super.respondUnauthorised(resource, response, request);
+        }
+    }
+
+    @Override
+    public void respondForbidden(Resource resource, Response response, Request request) {
+        if (!respondBlocked(resource, response, request)) {
+            super.respondForbidden(resource, response, request);
+        }
+    }
+
+    private boolean respondBlocked(Resource resource, Response response, Request request) {
+        if (!TreeOperations.isBlocked()) {
+            return false;
+        }
+        respondConflict(resource, response, request, WebDAVServlet.getErrorMessage());
+        return true;
+    }
+
+    @Override
+    public void respondCreated(Resource resource, Response response, Request request) {
+        if (!respondAccepted(response)) {
+            super.respondCreated(resource, response, request);
+        }
+    }
+
+    @Override
+    public void respondNoContent(Resource resource, Response response, Request request) {
+        if (!respondAccepted(response)) {
+            super.respondNoContent(resource, response, request);
+        }
+    }
+
+    // Large trees are moved, copied, deleted or restored in the background
+    static boolean respondAccepted(Response response) {
+        var operation = TreeOperations.scheduledOperation();
+        if (operation == null) {
+            return false;
+        }
+        response.setStatus(Response.Status.SC_ACCEPTED);
+        response.setLocationHeader(API_PREFIX + "/tree-operations/" + operation);
+        return true;
+    }
+
+    @Override
+    public void respondHead(Resource resource, Response response, Request request) {
+        if (isNotModified(resource)) {
+            respondNotModified((GetableResource) resource, response, request);
+        } else {
+            super.respondHead(resource, response, request);
+        }
+    }
+
+    @Override
+    public void respondContent(Resource resource, Response response, Request request, Map<String, String> params) throws NotAuthorizedException, BadRequestException, NotFoundException {
+        if (respondAccepted(response)) {
+            // A POST request restoring a large tree
+            return;
+        }
+        if (isNotModified(resource)) {
+            respondNotModified((GetableResource) resource, response, request);
+        } else {
+            super.respondContent(resource, response, request, params);
+        }
+    }
+
+    @Override
+    public void respondPartialContent(GetableResource resource, Response response, Request request, Map<String, String> params, Range range) throws NotAuthorizedException, BadRequestException, NotFoundException {
+        if (isNotModified(resource) || !isRangeApplicable(resource)) {
+            respondContent(resource, response, request, params);
+        } else {
+            super.respondPartialContent(resource, response, request, params, range);
+        }
+    }
+
+    @Override
+    public void respondPartialContent(GetableResource resource, Response response, Request request, Map<String, String> params, List<Range> ranges) throws NotAuthorizedException, BadRequestException, NotFoundException {
+        if (isNotModified(resource) || !isRangeApplicable(resource)) {
+            respondContent(resource, response, request, params);
+        } else {
+            super.respondPartialContent(resource, response, request, params, ranges);
+        }
+    }
+
+    /**
+     * If-None-Match uses the weak comparison, so both strong and weak tags match (RFC 7232, 3.2).
+     */
+    static boolean isNotModified(Resource resource) {
+        var ifNoneMatch = getCurrentRequest().getHeader("If-None-Match");
+        if (!(resource instanceof FileResource) || ifNoneMatch == null) {
+            return false;
+        }
+        var etag = quote(((FileResource) resource).getETag());
+        for (var tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * If-Range uses the strong comparison, so a weak tag never matches (RFC 7233, 3.2).
+     */
+    static boolean isRangeApplicable(Resource resource) {
+        var ifRange = getCurrentRequest().getHeader("If-Range");
+        if (!(resource instanceof FileResource) || ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(quote(((FileResource) resource).getETag()));
+        }
+        try {
+            var date = ZonedDateTime.parse(ifRange, RFC_1123_DATE_TIME).toInstant();
+            var modified = resource.getModifiedDate();
+            return modified != null && date.getEpochSecond() == modified.toInstant().getEpochSecond();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private static String quote(String etag) {
+        return "\"" + etag + "\"";
+    }
+}
@@ -0,0 +1,197 @@
+package io.fairspace.saturn.webdav;
+
+import io.milton.common.Utils;
+import io.milton.http.Handler;
+import io.milton.http.HttpManager;
+import io.milton.http.Request;
+import io.milton.http.Response;
+import io.milton.http.XmlWriter;
+import io.milton.http.exceptions.BadRequestException;
+import io.milton.http.exceptions.ConflictException;
+import io.milton.http.exceptions.NotAuthorizedException;
+import io.milton.http.exceptions.NotFoundException;
+import io.milton.http.values.ValueWriters;
+import io.milton.http.webdav.PropFindPropertyBuilder;
+import io.milton.http.webdav.PropFindRequestFieldParser;
+import io.milton.http.webdav.PropFindResponse;
+import io.milton.http.webdav.PropertiesRequest;
+import io.milton.resource.PropFindableResource;
+import io.milton.resource.Resource;
+import lombok.SneakyThrows;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
+import static java.lang.Long.parseLong;
+
+/**
+ * Handles PROPFIND requests with Depth 1 on a directory without building the list of children
+ * and the whole multistatus response in memory: a response element is written for each child
+ * as the children are read from the graph.
+ * Clients can page through a listing with the Page-Size and Page-Offset headers,
+ * the Next-Page-Offset response header is set if there are more children.
+ * As the header precedes the body, the first child after the page is looked up before the page is written.
+ * Other PROPFIND requests are handled by the default handler.
+ */
+class StreamingPropFindHandler implements Handler {
+    static final String PAGE_SIZE_HEADER = "Page-Size";
+    static final String PAGE_OFFSET_HEADER = "Page-Offset";
+    static final String NEXT_PAGE_OFFSET_HEADER = "Next-Page-Offset";
+    private static final String DAV_NAMESPACE = "DAV:";
+    private static final String DAV_PREFIX = "d";
+    private static final int FLUSH_INTERVAL = 100;
+
+    private final Handler wrapped;
+    private final PropFindPropertyBuilder propertyBuilder;
+    private final PropFindRequestFieldParser requestFieldParser;
+    private final ValueWriters valueWriters;
+
+    StreamingPropFindHandler(Handler wrapped, PropFindPropertyBuilder propertyBuilder, PropFindRequestFieldParser requestFieldParser, ValueWriters valueWriters) {
+        this.wrapped = wrapped;
+        this.propertyBuilder = propertyBuilder;
+        this.requestFieldParser = requestFieldParser;
+        this.valueWriters = valueWriters;
+    }
+
+    @Override
+    public String[] getMethods() {
+        return wrapped.getMethods();
+    }
+
+    @Override
+    public boolean isCompatible(Resource res) {
+        return wrapped.isCompatible(res);
+    }
+
+    @Override
+    public void process(HttpManager manager, Request request, Response response) throws ConflictException, NotAuthorizedException, BadRequestException, NotFoundException {
+        var resource = request.getDepthHeader() == 1
+                ? manager.getResourceFactory().getResource(request.getHostHeader(), request.getAbsolutePath())
+                : null;
+        if (!(resource instanceof DirectoryResource) || !resource.authorise(request, request.getMethod(), request.getAuthorization())) {
+            wrapped.process(manager, request, response);
+            return;
+        }
+
+        var directory = (DirectoryResource) resource;
+        var offset = getLongHeader(PAGE_OFFSET_HEADER, 0);
+        var pageSize = getLongHeader(PAGE_SIZE_HEADER, Long.MAX_VALUE);
+        if (offset < 0 || pageSize < 1) {
+            throw new BadRequestException(resource, "Invalid page offset or size");
+        }
+
+        var fields = getRequestedFields(request);
+        var own = buildProperties(directory, fields, request.getAbsoluteUrl());
+
+        response.setStatus(Response.Status.SC_MULTI_STATUS);
+        response.setContentTypeHeader("application/xml; charset=utf-8");
+        if (pageSize != Long.MAX_VALUE && hasChildren(directory, offset + pageSize)) {
+            response.setNonStandardHeader(NEXT_PAGE_OFFSET_HEADER, Long.toString(offset + pageSize));
+        }
+
+        var writer = new XmlWriter(response.getOutputStream());
+        // Namespaces used by the directory itself are declared once, others in each response using them
+        var namespaces = new HashMap<String, String>();
+        namespaces.put(DAV_NAMESPACE, DAV_PREFIX);
+        addNamespaces(own, namespaces);
+
+        writer.writeXMLHeader();
+        var multistatus = writer.begin(DAV_PREFIX, "multistatus");
+        namespaces.forEach((ns, prefix) -> multistatus.writeAtt("xmlns:" + prefix, ns));
+        multistatus.open();
+        writeResponse(writer, own, namespaces);
+        writer.flush();
+
+        var collectionHref = own.getHref();
+        try (var children = directory.factory.getChildren(directory.subject, directory.access, offset, pageSize)) {
+            var count = 0;
+            for (var it = children.iterator(); it.hasNext(); ) {
+                var child = (PropFindableResource) it.next();
+                writeResponse(writer, buildProperties(child, fields, collectionHref + Utils.percentEncode(child.getName())), namespaces);
+                if (++count % FLUSH_INTERVAL == 0) {
+                    writer.flush();
+                }
+            }
+        }
+
+        writer.close(DAV_PREFIX, "multistatus");
+        writer.flush();
+    }
+
+    private static boolean hasChildren(DirectoryResource directory, long offset) {
+        try (var children = directory.factory.getChildren(directory.subject, directory.access, offset, Long.MAX_VALUE)) {
+            return children.findAny().isPresent();
+        }
+    }
+
+    @SneakyThrows
+    private PropertiesRequest getRequestedFields(Request request) {
+        return requestFieldParser.getRequestedFields(request.getInputStream());
+    }
+
+    @SneakyThrows
+    private PropFindResponse buildProperties(PropFindableResource resource, PropertiesRequest fields, String href) {
+        return propertyBuilder.buildProperties(resource, 0, fields, href).get(0);
+    }
+
+    private void writeResponse(XmlWriter writer, PropFindResponse response, Map<String, String> namespaces) {
+        var local = new HashMap<>(namespaces);
+        addNamespaces(response, local);
+
+        var element = writer.begin(DAV_PREFIX, "response");
+        local.forEach((ns, prefix) -> {
+            if (!namespaces.containsKey(ns)) {
+                element.writeAtt("xmlns:" + prefix, ns);
+            }
+        });
+        element.open();
+        writer.writeProperty(DAV_PREFIX, "href", response.getHref());
+
+        var known = response.getKnownProperties();
+        if (!known.isEmpty()) {
+            var propstat = writer.begin(DAV_PREFIX, "propstat").open();
+            var prop = writer.begin(DAV_PREFIX, "prop").open();
+            known.forEach((name, value) -> valueWriters.writeValue(writer, name, local.get(name.getNamespaceURI()), value, response.getHref(), local));
+            prop.close();
+            writer.writeProperty(DAV_PREFIX, "status", Response.Status.SC_OK.toString());
+            propstat.close();
+        }
+
+        if (response.getErrorProperties() != null) {
+            response.getErrorProperties().forEach((status, errors) -> {
+                if (!errors.isEmpty()) {
+                    var propstat = writer.begin(DAV_PREFIX, "propstat").open();
+                    var prop = writer.begin(DAV_PREFIX, "prop").open();
+                    errors.forEach(error -> writer.writeProperty(local.get(error.getName().getNamespaceURI()), error.getName().getLocalPart()));
+                    prop.close();
+                    writer.writeProperty(DAV_PREFIX, "status", status.toString());
+                    propstat.close();
+                }
+            });
+        }
+
+        element.close();
+    }
+
+    private static void addNamespaces(PropFindResponse response, Map<String, String> namespaces) {
+        var names = new ArrayList<QName>(response.getKnownProperties().keySet());
+        if (response.getErrorProperties() != null) {
+            response.getErrorProperties().values().forEach(errors -> errors.forEach(error -> names.add(error.getName())));
+        }
+        for (var name : names) {
+            namespaces.putIfAbsent(name.getNamespaceURI(), "ns" + namespaces.size());
+        }
+    }
+
+    private static long getLongHeader(String name, long defaultValue) throws BadRequestException {
+        var value = getCurrentRequest().getHeader(name);
+        try {
+            return value != null ? parseLong(value.trim()) : defaultValue;
+        } catch (NumberFormatException e) {
+            throw new BadRequestException("Invalid " + name + " header");
+        }
+    }
+}
@@ -12,6 +12,8 @@ import io.milton.http.exceptions.NotFoundException;
 import io.milton.resource.Resource;
 import lombok.SneakyThrows;
 
+import static io.fairspace.saturn.webdav.WebDAVServlet.resetUpdatedParents;
+
 class TransactionalHandlerWrapper implements Handler {
     private final Handler wrapped;
     private final Transactions txn;
@@ -30,7 +32,11 @@ class TransactionalHandlerWrapper implements Handler {
     @SneakyThrows
     public void process(HttpManager httpManager, Request request, Response response) throws ConflictException, NotAuthorizedException, BadRequestException, NotFoundException {
         if (request.getMethod().isWrite) {
-            txn.executeWrite(ds -> wrapped.process(httpManager, request, response));
+            txn.executeWrite(ds -> {
+                // Bulk transactions can execute a job again after another job in the same transaction failed
+                resetUpdatedParents();
+                wrapped.process(httpManager, request, response);
+            });
         } else {
             txn.executeRead(ds -> wrapped.process(httpManager, request, response));
         }
@@ -7,23 +7,26 @@ import io.milton.http.http11.CustomPostHandler;
 
 import java.util.List;
 import java.util.Set;
+import java.util.function.UnaryOperator;
 
 import static java.util.stream.Collectors.toSet;
 
 class TransactionalHttpExtensionWrapper implements HttpExtension {
     private final HttpExtension p;
     private final Transactions txn;
+    private final UnaryOperator<Handler> decorator;
 
-    public TransactionalHttpExtensionWrapper(HttpExtension p, Transactions txn) {
+    public TransactionalHttpExtensionWrapper(HttpExtension p, Transactions txn, UnaryOperator<Handler> decorator) {
         this.p = p;
         this.txn = txn;
+        this.decorator = decorator;
     }
 
     @Override
     public Set<Handler> getHandlers() {
         return p.getHandlers()
                 .stream()
-                .map(h -> new TransactionalHandlerWrapper(h, txn))
+                .map(h -> new TransactionalHandlerWrapper(decorator.apply(h), txn))
                 .collect(toSet());
     }
 
@@ -0,0 +1,27 @@
+package io.fairspace.saturn.webdav;
+
+import lombok.Value;
+import lombok.With;
+
+import java.time.Instant;
+
+@Value
+@With
+public class TreeOperationDTO {
+    String id;
+    TreeOperations.Type type;
+    /**
+     * Paths relative to the WebDAV root
+     */
+    String source;
+    String target;
+    String createdBy;
+    TreeOperations.Status status;
+    /**
+     * The number of descendants processed and to process, the total is 0 until the operation has started
+     */
+    long processed;
+    long total;
+    String error;
+    Instant dateFinished;
+}
@@ -0,0 +1,568 @@
+package io.fairspace.saturn.webdav;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.services.AccessDeniedException;
+import io.fairspace.saturn.vocabulary.FS;
+import lombok.Value;
+import lombok.extern.log4j.Log4j2;
+import org.apache.jena.graph.Node;
+import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
+import static io.fairspace.saturn.auth.RequestContext.getUserURI;
+import static io.fairspace.saturn.rdf.ModelUtils.getStringProperty;
+import static io.fairspace.saturn.rdf.SparqlUtils.generateMetadataIri;
+import static io.fairspace.saturn.rdf.SparqlUtils.parseXSDDateTimeLiteral;
+import static io.fairspace.saturn.webdav.WebDAVServlet.POST_COMMIT_ACTION_ATTRIBUTE;
+import static io.fairspace.saturn.webdav.WebDAVServlet.timestampLiteral;
+import static java.util.Comparator.comparing;
+import static java.util.UUID.randomUUID;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Moves, copies, deletes and restores large directory trees in the background.
+ * The request only processes the directory itself and records the operation in the metadata, marking the directories
+ * involved with fs:treeOperation, which blocks writes to their subtrees until the operation is finished.
+ * The descendants are then processed in chunks, each in its own transaction, so other writers are never blocked
+ * for long. Operations are executed one at a time in the order they were requested,
+ * operations interrupted by a restart are resumed on startup.
+ * A failed operation is reported as failed and the next operation is started. A failed move is kept with its markers
+ * and resumed after a restart, as the entries not moved yet are only reachable through it. Other failed operations
+ * are not retried: their markers are removed, so the directories involved can be written again.
+ * The tree is left partially processed, the request can be repeated.
+ * Until an operation is finished, its directories list the entries processed so far: the destination of a move
+ * or a copy only lists the entries moved or copied already. Clients can tell from the fs:treeOperation property.
+ */
+@Log4j2
+public class TreeOperations {
+    // Entries processed per transaction. Smaller trees are processed in the request, as before.
+    static final int CHUNK_SIZE = 1000;
+    private static final Duration RETENTION = Duration.ofDays(1);
+    private static final String OPERATION_ATTRIBUTE = "TREE_OPERATION";
+    private static final String BLOCKED_ATTRIBUTE = "BLOCKED_BY_TREE_OPERATION";
+
+    public enum Type {MOVE, COPY, DELETE, PURGE, RESTORE}
+
+    public enum Status {PENDING, RUNNING, COMPLETED, FAILED}
+
+    private final DavFactory factory;
+    private final Transactions transactions;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("tree-operations-%d").setDaemon(true).build());
+    // Running and finished operations, finished ones are no longer stored in the metadata
+    private final Map<String, TreeOperationDTO> statuses = new ConcurrentHashMap<>();
+    // Failed moves, kept in the metadata until they are resumed after a restart
+    private final Set<String> failedMoves = ConcurrentHashMap.newKeySet();
+
+    public TreeOperations(DavFactory factory, Transactions transactions) {
+        this.factory = factory;
+        this.transactions = transactions;
+        factory.treeOperations = this;
+        resume();
+    }
+
+    /**
+     * @return the operations of the current user, or all operations for an admin.
+     */
+    public List<TreeOperationDTO> list() {
+        var admin = factory.userService.currentUser().isAdmin();
+        var user = getUserURI().getURI();
+        var result = new ArrayList<TreeOperationDTO>();
+        transactions.executeRead(m -> pending(m).forEach(op -> result.add(getStatus(op))));
+        // Finished operations are no longer stored, apart from failed moves
+        statuses.values().stream()
+                .filter(op -> op.getDateFinished() != null && !failedMoves.contains(op.getId()))
+                .forEach(result::add);
+        result.removeIf(op -> !admin && !user.equals(op.getCreatedBy()));
+        return result;
+    }
+
+    /**
+     * @return the status of an operation, or null if there is no such operation.
+     */
+    public TreeOperationDTO get(String id) {
+        var status = statuses.get(id);
+        if (status == null) {
+            status = transactions.calculateRead(m -> {
+                var op = m.getResource(generateMetadataIri(id).getURI());
+                return op.hasProperty(RDF.type, FS.TreeOperation) ? getStatus(op) : null;
+            });
+        }
+        if (status != null && !factory.userService.currentUser().isAdmin() && !getUserURI().getURI().equals(status.getCreatedBy())) {
+            throw new AccessDeniedException("The operation belongs to another user");
+        }
+        return status;
+    }
+
+    /**
+     * @return true if a subtree has more descendants than processed in a single chunk.
+     */
+    static boolean isLarge(Resource subject) {
+        var graph = subject.getModel().getGraph();
+        var stack = new ArrayDeque<Node>();
+        stack.push(subject.asNode());
+        var count = 0;
+        while (!stack.isEmpty()) {
+            var it = graph.find(Node.ANY, FS.belongsTo.asNode(), stack.pop());
+            try {
+                while (it.hasNext()) {
+                    if (++count > CHUNK_SIZE) {
+                        return true;
+                    }
+                    stack.push(it.next().getSubject());
+                }
+            } finally {
+                it.close();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the operation in progress on the resource or one of its ancestors, or null.
+     */
+    static Resource findOperation(Resource subject) {
+        for (var s = subject; s != null; ) {
+            var op = s.getPropertyResourceValue(FS.treeOperation);
+            if (op != null) {
+                return op;
+            }
+            s = parentOf(s);
+        }
+        return null;
+    }
+
+    // The children of a directory being moved still belong to the old one
+    private static Resource parentOf(Resource subject) {
+        var parent = subject.getPropertyResourceValue(FS.belongsTo);
+        return parent != null ? parent : subject.getPropertyResourceValue(FS.movedTo);
+    }
+
+    /**
+     * @return true if an operation is in progress on the resource, one of its ancestors or one of its descendants.
+     */
+    static boolean isInvolved(Resource subject) {
+        if (findOperation(subject) != null) {
+            return true;
+        }
+        return subject.getModel().listSubjectsWithProperty(FS.treeOperation).toList()
+                .stream()
+                .anyMatch(marked -> {
+                    for (var s = parentOf(marked); s != null; s = parentOf(s)) {
+                        if (s.equals(subject)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                });
+    }
+
+    /**
+     * Records an operation on the descendants of a directory, the directory itself has already been processed.
+     * The operation starts after the current request has been committed.
+     */
+    Resource schedule(Type type, Resource source, Resource target) {
+        var id = randomUUID().toString();
+        var op = source.getModel().createResource(generateMetadataIri(id).getURI())
+                .addProperty(RDF.type, FS.TreeOperation)
+                .addProperty(FS.operationType, type.name())
+                .addProperty(FS.operationSource, source)
+                .addProperty(FS.dateCreated, timestampLiteral())
+                .addProperty(FS.createdBy, factory.currentUserResource())
+                .addLiteral(FS.processedCount, 0L);
+        if (target != null) {
+            op.addProperty(FS.operationTarget, target);
+        }
+        switch (type) {
+            case MOVE -> target.addProperty(FS.treeOperation, op);
+            case COPY -> {
+                source.addProperty(FS.treeOperation, op);
+                target.addProperty(FS.treeOperation, op);
+            }
+            case DELETE, PURGE, RESTORE -> source.addProperty(FS.treeOperation, op);
+        }
+        log.info("{} of {} scheduled as operation {}", type, source, id);
+
+        var request = getCurrentRequest();
+        request.setAttribute(OPERATION_ATTRIBUTE, id);
+        request.setAttribute(POST_COMMIT_ACTION_ATTRIBUTE, (Runnable) this::resume);
+        return op;
+    }
+
+    /**
+     * Records restoring the descendants of a directory which were deleted along with it,
+     * the directory itself has already been restored.
+     */
+    void scheduleRestore(Resource source, Literal dateDeleted, Resource deletedBy) {
+        schedule(Type.RESTORE, source, null)
+                .addProperty(FS.dateDeleted, dateDeleted)
+                .addProperty(FS.deletedBy, deletedBy);
+    }
+
+    /**
+     * @return the id of the operation scheduled by the current request, or null.
+     */
+    static String scheduledOperation() {
+        return (String) getCurrentRequest().getAttribute(OPERATION_ATTRIBUTE);
+    }
+
+    /**
+     * Records that the current request has been rejected, as it writes to a directory involved in an operation.
+     */
+    static void markBlocked() {
+        getCurrentRequest().setAttribute(BLOCKED_ATTRIBUTE, true);
+    }
+
+    /**
+     * @return true if the current request has been rejected, as it writes to a directory involved in an operation.
+     */
+    static boolean isBlocked() {
+        return getCurrentRequest().getAttribute(BLOCKED_ATTRIBUTE) != null;
+    }
+
+    void resume() {
+        executor.submit(this::runPending);
+    }
+
+    private void runPending() {
+        while (true) {
+            var next = transactions.calculateRead(m -> pending(m)
+                    .stream()
+                    .map(Resource::getURI)
+                    .filter(uri -> !failedMoves.contains(idOf(uri)))
+                    .findFirst()
+                    .orElse(null));
+            if (next == null || !run(next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return false if a failed operation couldn't be released, the operations after it wait for a restart.
+     */
+    private boolean run(String uri) {
+        var start = System.currentTimeMillis();
+        var id = idOf(uri);
+        Job job = null;
+        try {
+            job = transactions.calculateRead(m -> new Job(m.getResource(uri)));
+            statuses.put(id, job.status.withStatus(Status.RUNNING));
+            log.info("Operation {} started, {} of {} entries processed", id, job.processed, job.total);
+            while (!job.finished) {
+                var current = job;
+                job.commit(transactions.calculateWrite(current::process));
+                statuses.put(id, job.status.withStatus(Status.RUNNING).withProcessed(job.processed).withTotal(job.total));
+            }
+            statuses.put(id, job.status.withStatus(Status.COMPLETED).withProcessed(job.processed).withTotal(job.total).withDateFinished(Instant.now()));
+            log.info("Operation {} finished in {}ms", id, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            var status = job != null ? job.status.withProcessed(job.processed).withTotal(job.total)
+                    : new TreeOperationDTO(id, null, null, null, null, null, 0, 0, null, null);
+            statuses.put(id, status.withStatus(Status.FAILED).withError(e.getMessage()).withDateFinished(Instant.now()));
+            if (isMove(job, uri)) {
+                // The old subjects are hidden once they have been moved, the entries not moved yet can only be
+                // reached by completing the move
+                log.error("Operation {} failed, it will be resumed after a restart", id, e);
+                failedMoves.add(id);
+                return true;
+            }
+            log.error("Operation {} failed, releasing the directories involved", id, e);
+            try {
+                transactions.executeWrite(m -> release(m.getResource(uri)));
+            } catch (Exception releaseError) {
+                log.error("Cannot release operation {}, the operations after it will be started after a restart", id, releaseError);
+                return false;
+            }
+        }
+        var threshold = Instant.now().minus(RETENTION);
+        statuses.values().removeIf(op -> op.getDateFinished() != null && op.getDateFinished().isBefore(threshold)
+                && !failedMoves.contains(op.getId()));
+        return true;
+    }
+
+    private boolean isMove(Job job, String uri) {
+        if (job != null) {
+            return job.type == Type.MOVE;
+        }
+        try {
+            return transactions.calculateRead(m -> Type.MOVE.name().equals(getStringProperty(m.getResource(uri), FS.operationType)));
+        } catch (Exception e) {
+            log.error("Cannot read the type of operation {}", idOf(uri), e);
+            // Keeping the operation is safe, it is retried after a restart
+            return true;
+        }
+    }
+
+    // Removes the operation and its markers
+    private static void release(Resource op) {
+        op.getModel().removeAll(null, FS.treeOperation, op).removeAll(op, null, null);
+    }
+
+    private static List<Resource> pending(Model m) {
+        return m.listSubjectsWithProperty(RDF.type, FS.TreeOperation)
+                .toList()
+                .stream()
+                .sorted(comparing((Resource op) -> parseXSDDateTimeLiteral(op.getProperty(FS.dateCreated).getLiteral()))
+                        .thenComparing(Resource::getURI))
+                .collect(toList());
+    }
+
+    private TreeOperationDTO getStatus(Resource op) {
+        var running = statuses.get(idOf(op.getURI()));
+        if (running != null) {
+            return running;
+        }
+        var target = op.getPropertyResourceValue(FS.operationTarget);
+        return new TreeOperationDTO(idOf(op.getURI()),
+                Type.valueOf(op.getProperty(FS.operationType).getString()),
+                path(op.getPropertyResourceValue(FS.operationSource)),
+                target != null ? path(target) : null,
+                op.getPropertyResourceValue(FS.createdBy).getURI(),
+                Status.PENDING,
+                op.getProperty(FS.processedCount).getLong(),
+                0,
+                null,
+                null);
+    }
+
+    private String path(Resource subject) {
+        return subject.getURI().substring(factory.rootSubject.getURI().length());
+    }
+
+    static String idOf(String uri) {
+        return uri.substring(generateMetadataIri("").getURI().length());
+    }
+
+    private static List<Node> children(Model m, Node parent) {
+        return m.getGraph().find(Node.ANY, FS.belongsTo.asNode(), parent).mapWith(t -> t.getSubject()).toList();
+    }
+
+    /**
+     * The state of a running operation. The entries to process next are derived from the metadata when the operation
+     * starts, so an interrupted operation is resumed where it stopped, and kept in memory afterwards.
+     * Processing a chunk doesn't change that state, a transaction may be executed more than once.
+     */
+    private class Job {
+        final String uri;
+        final Type type;
+        final Node source;
+        final Node target;
+        final Resource user;
+        final Literal date;
+        // The deletion undone by a restore
+        final Literal dateDeleted;
+        final Resource deletedBy;
+        // Entries to process next: the old subjects to move, the subjects to mark as deleted or to restore,
+        // or the subjects to copy followed by the directory to copy them to
+        final Deque<Node[]> frontier = new ArrayDeque<>();
+        final TreeOperationDTO status;
+        long processed;
+        long total;
+        boolean finished;
+
+        Job(Resource op) {
+            var m = op.getModel();
+            uri = op.getURI();
+            type = Type.valueOf(op.getProperty(FS.operationType).getString());
+            source = op.getPropertyResourceValue(FS.operationSource).asNode();
+            var targetResource = op.getPropertyResourceValue(FS.operationTarget);
+            target = targetResource != null ? targetResource.asNode() : null;
+            user = op.getPropertyResourceValue(FS.createdBy);
+            date = op.getProperty(FS.dateCreated).getLiteral();
+            dateDeleted = op.hasProperty(FS.dateDeleted) ? op.getProperty(FS.dateDeleted).getLiteral() : null;
+            deletedBy = op.getPropertyResourceValue(FS.deletedBy);
+            processed = op.getProperty(FS.processedCount).getLong();
+            status = getStatus(op);
+
+            switch (type) {
+                case MOVE -> {
+                    // Children of directories already moved
+                    var stack = new ArrayDeque<Node>();
+                    stack.push(target);
+                    while (!stack.isEmpty()) {
+                        var moved = stack.pop();
+                        m.listSubjectsWithProperty(FS.movedTo, m.wrapAsResource(moved))
+                                .forEachRemaining(old -> children(m, old.asNode()).forEach(child -> frontier.add(new Node[]{child})));
+                        children(m, moved).forEach(stack::push);
+                    }
+                }
+                case COPY -> {
+                    // Children of directories already copied, which don't have a copy yet
+                    var stack = new ArrayDeque<Node[]>();
+                    stack.push(new Node[]{source, target});
+                    while (!stack.isEmpty()) {
+                        var pair = stack.pop();
+                        var copy = m.wrapAsResource(pair[1]);
+                        for (var child : children(m, pair[0])) {
+                            var childCopy = DavUtils.childSubject(copy, getStringProperty(m.wrapAsResource(child), RDFS.label));
+                            if (childCopy.hasProperty(FS.belongsTo, copy)) {
+                                stack.push(new Node[]{child, childCopy.asNode()});
+                            } else {
+                                frontier.add(new Node[]{child, pair[1]});
+                            }
+                        }
+                    }
+                }
+                case DELETE -> {
+                    // Children of directories already deleted by this operation, which haven't been deleted yet
+                    var stack = new ArrayDeque<Node>();
+                    stack.push(source);
+                    while (!stack.isEmpty()) {
+                        for (var child : children(m, stack.pop())) {
+                            var deleted = m.wrapAsResource(child).getProperty(FS.dateDeleted);
+                            if (isProcessed(m.wrapAsResource(child))) {
+                                frontier.add(new Node[]{child});
+                            } else if (deleted.getObject().equals(date)) {
+                                stack.push(child);
+                            }
+                        }
+                    }
+                }
+                case RESTORE -> {
+                    // Children of directories already restored, which were deleted along with the source
+                    var stack = new ArrayDeque<Node>();
+                    stack.push(source);
+                    while (!stack.isEmpty()) {
+                        for (var child : children(m, stack.pop())) {
+                            var resource = m.wrapAsResource(child);
+                            if (isProcessed(resource)) {
+                                frontier.add(new Node[]{child});
+                            } else if (!resource.hasProperty(FS.dateDeleted)) {
+                                stack.push(child);
+                            }
+                        }
+                    }
+                }
+                case PURGE -> total = processed + countSubtree(m, source) - 1;
+            }
+            if (type != Type.PURGE) {
+                total = processed + frontier.stream().mapToLong(entry -> countSubtree(m, entry[0])).sum();
+            }
+        }
+
+        /**
+         * Processes the next chunk and finishes the operation if nothing is left.
+         */
+        Chunk process(Model m) {
+            var op = m.getResource(uri);
+            if (type == Type.PURGE) {
+                var collected = new ArrayList<Node>();
+                var done = collectForPurge(m, source, collected);
+                collected.forEach(node -> BaseResource.purge(m.wrapAsResource(node)));
+                if (done) {
+                    BaseResource.purge(m.wrapAsResource(source));
+                }
+                return finish(op, new Chunk(collected.size(), List.of(), done));
+            }
+
+            var found = new ArrayList<Node[]>();
+            var count = 0;
+            for (var it = frontier.iterator(); it.hasNext() && count < CHUNK_SIZE; count++) {
+                var entry = it.next();
+                var subject = m.wrapAsResource(entry[0]);
+                var children = children(m, entry[0]);
+                switch (type) {
+                    case MOVE -> {
+                        var newParent = subject.getPropertyResourceValue(FS.belongsTo).getPropertyResourceValue(FS.movedTo);
+                        BaseResource.moveNode(subject, newParent, getStringProperty(subject, RDFS.label), null);
+                        children.forEach(child -> found.add(new Node[]{child}));
+                    }
+                    case COPY -> {
+                        var copy = BaseResource.copyNode(subject, m.wrapAsResource(entry[1]), getStringProperty(subject, RDFS.label), user, date);
+                        children.forEach(child -> found.add(new Node[]{child, copy.asNode()}));
+                    }
+                    case DELETE -> {
+                        BaseResource.markDeleted(subject, user, date);
+                        children.stream()
+                                .filter(child -> isProcessed(m.wrapAsResource(child)))
+                                .forEach(child -> found.add(new Node[]{child}));
+                    }
+                    case RESTORE -> {
+                        subject.removeAll(FS.dateDeleted).removeAll(FS.deletedBy);
+                        children.stream()
+                                .filter(child -> isProcessed(m.wrapAsResource(child)))
+                                .forEach(child -> found.add(new Node[]{child}));
+                    }
+                }
+            }
+            return finish(op, new Chunk(count, found, count == frontier.size() && found.isEmpty()));
+        }
+
+        // Whether a descendant is still to be processed, deleted or restored entries are skipped with their subtrees
+        private boolean isProcessed(Resource subject) {
+            return switch (type) {
+                case DELETE -> !subject.hasProperty(FS.dateDeleted);
+                case RESTORE -> subject.hasProperty(FS.dateDeleted, dateDeleted) && subject.hasProperty(FS.deletedBy, deletedBy);
+                default -> true;
+            };
+        }
+
+        // The number of entries in a subtree to process
+        private long countSubtree(Model m, Node node) {
+            var count = 0L;
+            var stack = new ArrayDeque<Node>();
+            stack.push(node);
+            while (!stack.isEmpty()) {
+                count++;
+                children(m, stack.pop()).stream()
+                        .filter(child -> isProcessed(m.wrapAsResource(child)))
+                        .forEach(stack::push);
+            }
+            return count;
+        }
+
+        private Chunk finish(Resource op, Chunk chunk) {
+            if (chunk.done) {
+                release(op);
+            } else {
+                op.removeAll(FS.processedCount).addLiteral(FS.processedCount, processed + chunk.count);
+            }
+            return chunk;
+        }
+
+        // Collects descendants to purge, each after its own descendants. Returns true if all of them fit in the chunk.
+        private boolean collectForPurge(Model m, Node parent, List<Node> chunk) {
+            for (var child : children(m, parent)) {
+                if (chunk.size() >= CHUNK_SIZE || !collectForPurge(m, child, chunk) || chunk.size() >= CHUNK_SIZE) {
+                    return false;
+                }
+                chunk.add(child);
+            }
+            return true;
+        }
+
+        /**
+         * Updates the state after a chunk has been committed.
+         */
+        void commit(Chunk chunk) {
+            if (type != Type.PURGE) {
+                for (var i = 0; i < chunk.count; i++) {
+                    frontier.removeFirst();
+                }
+                frontier.addAll(chunk.found);
+            }
+            processed += chunk.count;
+            finished = chunk.done;
+        }
+    }
+
+    @Value
+    private static class Chunk {
+        int count;
+        List<Node[]> found;
+        boolean done;
+    }
+}
@@ -1,27 +1,40 @@
 package io.fairspace.saturn.webdav;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.services.AccessDeniedException;
+import io.fairspace.saturn.services.ConflictException;
+import io.fairspace.saturn.services.uploads.UploadService;
 import io.milton.config.HttpManagerBuilder;
 import io.milton.event.ResponseEvent;
 import io.milton.http.*;
+import io.milton.http.http11.DefaultETagGenerator;
 import io.milton.http.http11.DefaultHttp11ResponseHandler;
+import io.milton.http.webdav.PropFindHandler;
 import io.milton.http.webdav.ResourceTypeHelper;
 import io.milton.http.webdav.WebDavResponseHandler;
-import io.milton.resource.Resource;
 import io.milton.servlet.ServletResponse;
 import org.apache.jena.rdf.model.Literal;
+import org.apache.jena.rdf.model.Resource;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.time.Instant;
+import java.util.HashSet;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static io.fairspace.saturn.App.API_PREFIX;
 import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
 import static io.fairspace.saturn.rdf.SparqlUtils.toXSDDateTimeLiteral;
 import static io.milton.http.ResponseStatus.SC_UNSUPPORTED_MEDIA_TYPE;
+import static javax.servlet.http.HttpServletResponse.SC_BAD_REQUEST;
+import static javax.servlet.http.HttpServletResponse.SC_CONFLICT;
+import static javax.servlet.http.HttpServletResponse.SC_FORBIDDEN;
 import static io.milton.servlet.MiltonServlet.clearThreadlocals;
 import static io.milton.servlet.MiltonServlet.setThreadlocals;
 import static java.util.Collections.singletonList;
@@ -31,19 +44,30 @@ import static org.apache.commons.lang.StringUtils.isEmpty;
 /**
  * Ensures that all operations are handled in one transaction.
  * Contents of PUT requests is received and saved to the blob store BEFORE transaction is started.
+ * A PUT request with an Upload-Id header and no contents stores a file received by the upload service instead,
+ * an upload which isn't complete or whose blob is no longer available is rejected with 409 Conflict.
  * Contents of GET responses is sent AFTER transaction is ended.
+ * Listings of directories are streamed, see {@link StreamingPropFindHandler}.
  */
 public class WebDAVServlet extends HttpServlet {
     private static final String BLOB_ATTRIBUTE = "BLOB";
     private static final String TIMESTAMP_ATTRIBUTE = "TIMESTAMP";
+    private static final String UPDATED_PARENTS_ATTRIBUTE = "UPDATED_PARENTS";
+    private static final String UPLOAD_ID_HEADER = "Upload-Id";
+    private static final int BLOB_INGESTION_THREADS = 8;
     public static final String POST_COMMIT_ACTION_ATTRIBUTE = "POST_COMMIT";
     public static final String ERROR_MESSAGE = "ERROR_MESSAGE";
 
     private final HttpManager httpManager;
     private final BlobStore store;
+    private final UploadService uploadService;
+    // Uploaded files are stored in parallel, the number of threads limits the concurrent disk I/O
+    private final ExecutorService ingestionPool = Executors.newFixedThreadPool(BLOB_INGESTION_THREADS,
+            new ThreadFactoryBuilder().setNameFormat("blob-ingestion-%d").setDaemon(true).build());
 
-    public WebDAVServlet(ResourceFactory factory, Transactions txn, BlobStore store) {
+    public WebDAVServlet(ResourceFactory factory, Transactions txn, BlobStore store, UploadService uploadService) {
         this.store = store;
+        this.uploadService = uploadService;
 
         httpManager = new HttpManagerBuilder() {
             {
@@ -54,6 +78,8 @@ public class WebDAVServlet extends HttpServlet {
                 setEnabledJson(false);
                 setEnabledCkBrowser(false);
                 setContentGenerator(new AdvancedContentGenerator());
+                var defaultETagGenerator = new DefaultETagGenerator();
+                seteTagGenerator(r -> r instanceof FileResource ? ((FileResource) r).getETag() : defaultETagGenerator.generateEtag(r));
             }
 
             @Override
@@ -62,32 +88,51 @@ public class WebDAVServlet extends HttpServlet {
 
                 setProtocolHandlers(new ProtocolHandlers(getProtocols()
                         .stream()
-                        .map(p -> new TransactionalHttpExtensionWrapper(p, txn))
+                        .map(p -> new TransactionalHttpExtensionWrapper(p, txn, h -> h instanceof PropFindHandler
+                                ? new StreamingPropFindHandler(h, getPropFindPropertyBuilder(), getPropFindRequestFieldParser(), getValueWriters())
+                                : h))
                         .collect(toList())));
             }
 
             @Override
             protected DefaultHttp11ResponseHandler createDefaultHttp11ResponseHandler(AuthenticationService authenticationService) {
-                return new DefaultHttp11ResponseHandler(authenticationService, geteTagGenerator(), getContentGenerator()) {
-                    @Override
-                    public void respondBadRequest(Resource resource, Response response, Request request) {
-                        super.respondBadRequest(resource, response, request);
-                        getContentGenerator().generate(resource, request, response, Response.Status.SC_BAD_REQUEST);
-                    }
-                };
+                return new SaturnHttp11ResponseHandler(authenticationService, geteTagGenerator(), getContentGenerator());
             }
         }.buildHttpManager();
 
         httpManager.getEventManager().registerEventListener(new AuditEventListener(), ResponseEvent.class);
     }
 
+    @Override
+    public void destroy() {
+        // No requests are handled anymore, ingestions still running belong to requests that are being aborted
+        ingestionPool.shutdownNow();
+        super.destroy();
+    }
+
     @Override
     protected void service(HttpServletRequest req, HttpServletResponse res) throws IOException {
         try {
             setThreadlocals(req, res);
 
             switch (req.getMethod().toUpperCase()) {
-                case "PUT" -> req.setAttribute(BLOB_ATTRIBUTE, store.store(req.getInputStream()));
+                case "PUT" -> {
+                    var uploadId = req.getHeader(UPLOAD_ID_HEADER);
+                    try {
+                        req.setAttribute(BLOB_ATTRIBUTE, uploadId != null && uploadService != null
+                                ? uploadService.complete(uploadId)
+                                : store.store(req.getInputStream()));
+                    } catch (ConflictException e) {
+                        res.sendError(SC_CONFLICT, e.getMessage());
+                        return;
+                    } catch (IllegalArgumentException e) {
+                        res.sendError(SC_BAD_REQUEST, e.getMessage());
+                        return;
+                    } catch (AccessDeniedException e) {
+                        res.sendError(SC_FORBIDDEN, e.getMessage());
+                        return;
+                    }
+                }
                 case "MKCOL" -> {
                     try (var in = req.getInputStream()) {
                         if (in.read() >= 0) {
@@ -99,7 +144,7 @@ public class WebDAVServlet extends HttpServlet {
             }
 
             try {
-                httpManager.process(new PreParsedServletRequest(req, store), new ServletResponse(res));
+                httpManager.process(new PreParsedServletRequest(req, store, ingestionPool), new ServletResponse(res));
             } catch (RequestParseException e) {
                 throw new IOException(e);
             }
@@ -165,6 +210,24 @@ public class WebDAVServlet extends HttpServlet {
         return (String) getCurrentRequest().getAttribute(ERROR_MESSAGE);
     }
 
+    /**
+     * Returns the directories whose modification date has already been updated by the current request.
+     */
+    @SuppressWarnings("unchecked")
+    static Set<Resource> updatedParents() {
+        var r = getCurrentRequest();
+        var updated = (Set<Resource>) r.getAttribute(UPDATED_PARENTS_ATTRIBUTE);
+        if (updated == null) {
+            updated = new HashSet<>();
+            r.setAttribute(UPDATED_PARENTS_ATTRIBUTE, updated);
+        }
+        return updated;
+    }
+
+    static void resetUpdatedParents() {
+        getCurrentRequest().removeAttribute(UPDATED_PARENTS_ATTRIBUTE);
+    }
+
     static Literal timestampLiteral() {
         var r = getCurrentRequest();
         var t = (Literal) r.getAttribute(TIMESTAMP_ATTRIBUTE);
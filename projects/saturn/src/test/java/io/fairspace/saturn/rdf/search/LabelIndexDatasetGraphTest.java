@@ -0,0 +1,110 @@
+package io.fairspace.saturn.rdf.search;
+
+import io.fairspace.saturn.rdf.transactions.BulkTransactions;
+import io.fairspace.saturn.services.search.SearchResultDTO;
+import io.fairspace.saturn.vocabulary.FS;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.apache.jena.rdf.model.ResourceFactory.createResource;
+import static org.apache.jena.sparql.core.DatasetGraphFactory.createTxnMem;
+import static org.junit.Assert.*;
+
+public class LabelIndexDatasetGraphTest {
+    private static final Resource SAMPLE = createResource("http://example.com/Sample");
+    private static final Resource SUBJECT = createResource("http://example.com/Subject");
+
+    private LabelIndexDatasetGraph dsg;
+    private Dataset ds;
+    private BulkTransactions txn;
+
+    @Before
+    public void before() {
+        dsg = new LabelIndexDatasetGraph(createTxnMem());
+        dsg.build();
+        ds = DatasetFactory.wrap(dsg);
+        txn = new BulkTransactions(ds);
+        txn.executeWrite(m -> m
+                .add(createResource("http://example.com/1"), RDF.type, SAMPLE)
+                .add(createResource("http://example.com/1"), RDFS.label, "Blood sample")
+                .add(createResource("http://example.com/2"), RDF.type, SAMPLE)
+                .add(createResource("http://example.com/2"), RDFS.label, "Tissue sample from blood")
+                .add(createResource("http://example.com/3"), RDF.type, SUBJECT)
+                .add(createResource("http://example.com/3"), RDFS.label, "Blood donor"));
+    }
+
+    @Test
+    public void testPrefixMatchesPrecedeInfixMatches() {
+        assertEquals(List.of("http://example.com/1", "http://example.com/2"), ids(dsg.lookup(SAMPLE.getURI(), "blo", 10)));
+        assertEquals(List.of("http://example.com/1"), ids(dsg.lookup(SAMPLE.getURI(), "blo", 1)));
+        assertEquals(List.of("http://example.com/1", "http://example.com/2"), ids(dsg.lookup(SAMPLE.getURI(), "SAMP", 10)));
+        assertEquals(List.of("http://example.com/2"), ids(dsg.lookup(SAMPLE.getURI(), "tissue s", 10)));
+        assertEquals(List.of(), ids(dsg.lookup(SAMPLE.getURI(), "ample", 10)));
+        assertEquals(List.of("http://example.com/3"), ids(dsg.lookup(SUBJECT.getURI(), "blood", 10)));
+    }
+
+    @Test
+    public void testExactLookup() {
+        txn.executeWrite(m -> m
+                .add(createResource("http://example.com/4"), RDF.type, SAMPLE)
+                .add(createResource("http://example.com/4"), RDFS.label, "BLOOD SAMPLE")
+                .add(createResource("http://example.com/5"), RDF.type, SAMPLE)
+                .add(createResource("http://example.com/5"), RDFS.label, "Blood sample"));
+
+        assertEquals(List.of("http://example.com/1", "http://example.com/5"), ids(dsg.lookupExact(SAMPLE.getURI(), "Blood sample")));
+        assertEquals(List.of(), ids(dsg.lookupExact(SAMPLE.getURI(), "Blood")));
+        assertEquals(List.of(), ids(dsg.lookupExact(SUBJECT.getURI(), "Blood sample")));
+    }
+
+    @Test
+    public void testChangesAreApplied() {
+        txn.executeWrite(m -> m
+                .removeAll(createResource("http://example.com/1"), RDFS.label, null)
+                .add(createResource("http://example.com/1"), RDFS.label, "Plasma")
+                .add(createResource("http://example.com/2"), FS.dateDeleted, "2021-01-01"));
+
+        assertEquals(List.of(), ids(dsg.lookup(SAMPLE.getURI(), "blood", 10)));
+        assertEquals(List.of("http://example.com/1"), ids(dsg.lookup(SAMPLE.getURI(), "plas", 10)));
+    }
+
+    @Test
+    public void testAbortedChangesAreIgnored() {
+        txn.executeWrite(m -> {
+            m.add(createResource("http://example.com/4"), RDF.type, SAMPLE)
+                    .add(createResource("http://example.com/4"), RDFS.label, "Urine");
+            ds.abort();
+        });
+
+        assertEquals(List.of(), ids(dsg.lookup(SAMPLE.getURI(), "urine", 10)));
+    }
+
+    @Test
+    public void testExistingDataIsIndexed() {
+        var reopened = new LabelIndexDatasetGraph(ds.asDatasetGraph());
+        assertFalse(reopened.isReady());
+        assertFalse(reopened.getStats().isReady());
+        assertEquals(List.of(), ids(reopened.lookup(SAMPLE.getURI(), "blood", 10)));
+
+        reopened.build();
+
+        assertTrue(reopened.isReady());
+        assertEquals(List.of("http://example.com/1", "http://example.com/2"), ids(reopened.lookup(SAMPLE.getURI(), "blood", 10)));
+        var stats = reopened.getStats();
+        assertTrue(stats.isReady());
+        assertEquals(2, stats.getTypes());
+        assertEquals(3, stats.getResources());
+        assertEquals(3, stats.getLabels());
+        assertEquals(8, stats.getKeys());
+    }
+
+    private static List<String> ids(List<SearchResultDTO> results) {
+        return results.stream().map(SearchResultDTO::getId).toList();
+    }
+}
@@ -0,0 +1,142 @@
+package io.fairspace.saturn.rdf.search;
+
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.query.QueryExecutionFactory;
+import org.apache.jena.query.QuerySolutionMap;
+import org.apache.jena.sparql.core.DatasetGraph;
+import org.apache.jena.vocabulary.RDFS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.apache.jena.rdf.model.ResourceFactory.createResource;
+import static org.apache.jena.rdf.model.ResourceFactory.createStringLiteral;
+import static org.apache.jena.sparql.core.DatasetGraphFactory.createTxnMem;
+import static org.apache.jena.system.Txn.calculateRead;
+import static org.apache.jena.system.Txn.executeWrite;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SaturnTextIndexTest {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void testToTextQuery() {
+        assertEquals("label:(+coffee* +beans* +2*) OR comment:(+coffee* +beans* +2*)",
+                SaturnTextIndex.toTextQuery("Coffee-beans (2)"));
+        assertNull(SaturnTextIndex.toTextQuery(" -- "));
+    }
+
+    @Test
+    public void testToTextQueryWithinAPath() {
+        assertEquals("+(label:(+coffee*) OR comment:(+coffee*)) +(uri:http\\:\\/\\/example.com\\/dir OR uri:http\\:\\/\\/example.com\\/dir\\/*)",
+                SaturnTextIndex.toTextQuery("coffee", "http://example.com/dir/"));
+        assertNull(SaturnTextIndex.toTextQuery(" -- ", "http://example.com/dir"));
+    }
+
+    @Test
+    public void testRenamedAndDeletedLabelsAreRemovedFromTheIndex() throws IOException {
+        var dsg = SaturnTextIndex.wrap(createTxnMem(), testFolder.newFolder());
+        var ds = DatasetFactory.wrap(dsg);
+        var resource1 = createResource("http://example.com/1");
+        var resource2 = createResource("http://example.com/2");
+        executeWrite(ds, () -> {
+            ds.getDefaultModel().add(resource1, RDFS.label, "Coffee beans");
+            ds.getDefaultModel().add(resource2, RDFS.label, "Tea leaves");
+            ds.getDefaultModel().add(resource2, RDFS.comment, "Green tea");
+        });
+
+        executeWrite(ds, () -> {
+            ds.getDefaultModel().removeAll(resource1, RDFS.label, null);
+            ds.getDefaultModel().add(resource1, RDFS.label, "Cocoa beans");
+            ds.getDefaultModel().removeAll(resource2, RDFS.comment, null);
+        });
+
+        assertEquals(List.of(), search(dsg, "coffee"));
+        assertEquals(List.of("http://example.com/1"), search(dsg, "cocoa"));
+        assertEquals(List.of(), search(dsg, "green"));
+        assertEquals(List.of("http://example.com/2"), search(dsg, "tea"));
+
+        executeWrite(ds, () -> ds.getDefaultModel().removeAll(resource1, null, null));
+
+        assertEquals(List.of(), search(dsg, "cocoa"));
+        assertEquals(List.of(), search(dsg, "beans"));
+    }
+
+    @Test
+    public void testMovedResourcesOnlyMatchUnderTheirNewPath() throws IOException {
+        var dsg = SaturnTextIndex.wrap(createTxnMem(), testFolder.newFolder());
+        var ds = DatasetFactory.wrap(dsg);
+        var before = createResource("http://example.com/dir1/coffee.txt");
+        var after = createResource("http://example.com/dir2/coffee.txt");
+        executeWrite(ds, () -> {
+            ds.getDefaultModel().add(before, RDFS.label, "coffee.txt");
+            ds.getDefaultModel().add(createResource("http://example.com/dir10/coffee.txt"), RDFS.label, "coffee.txt");
+        });
+
+        executeWrite(ds, () -> {
+            ds.getDefaultModel().removeAll(before, RDFS.label, null);
+            ds.getDefaultModel().add(after, RDFS.label, "coffee.txt");
+        });
+
+        assertEquals(List.of(), searchIndex(dsg, SaturnTextIndex.toTextQuery("coffee", "http://example.com/dir1")));
+        assertEquals(List.of("http://example.com/dir2/coffee.txt"),
+                searchIndex(dsg, SaturnTextIndex.toTextQuery("coffee", "http://example.com/dir2")));
+        assertEquals(List.of("http://example.com/dir2/coffee.txt"),
+                searchIndex(dsg, SaturnTextIndex.toTextQuery("coffee", "http://example.com/dir2/coffee.txt")));
+        assertEquals(List.of("http://example.com/dir10/coffee.txt", "http://example.com/dir2/coffee.txt"),
+                searchIndex(dsg, SaturnTextIndex.toTextQuery("coffee", "http://example.com")));
+    }
+
+    @Test
+    public void testIndexesLabelsAndComments() throws IOException {
+        var dsg = SaturnTextIndex.wrap(createTxnMem(), testFolder.newFolder());
+        var ds = DatasetFactory.wrap(dsg);
+        executeWrite(ds, () -> {
+            ds.getDefaultModel().add(createResource("http://example.com/1"), RDFS.label, "Coffee beans");
+            ds.getDefaultModel().add(createResource("http://example.com/2"), RDFS.comment, "Roasted coffee");
+            ds.getDefaultModel().add(createResource("http://example.com/3"), RDFS.label, "Tea");
+        });
+
+        assertEquals(List.of("http://example.com/1", "http://example.com/2"), search(dsg, "coff"));
+        assertEquals(List.of("http://example.com/1"), search(dsg, "coffee bea"));
+        assertEquals(List.of(), search(dsg, "milk"));
+    }
+
+    @Test
+    public void testRebuild() throws IOException {
+        var base = createTxnMem();
+        executeWrite(base, () -> base.getDefaultGraph()
+                .add(createResource("http://example.com/1").asNode(), RDFS.label.asNode(), createStringLiteral("Coffee").asNode()));
+        var dsg = SaturnTextIndex.wrap(base, testFolder.newFolder());
+        assertEquals(List.of(), search(dsg, "coffee"));
+
+        SaturnTextIndex.rebuild(dsg);
+
+        assertEquals(List.of("http://example.com/1"), search(dsg, "coffee"));
+    }
+
+    private static List<String> search(DatasetGraph dsg, String query) {
+        return searchIndex(dsg, SaturnTextIndex.toTextQuery(query));
+    }
+
+    private static List<String> searchIndex(DatasetGraph dsg, String textQuery) {
+        var ds = DatasetFactory.wrap(dsg);
+        var binding = new QuerySolutionMap();
+        binding.add("textQuery", createStringLiteral(textQuery));
+        var sparql = "PREFIX text: <" + SaturnTextIndex.TEXT_NS + ">\n" +
+                "SELECT DISTINCT ?id WHERE { ?id text:query ?textQuery } ORDER BY ?id";
+        return calculateRead(ds, () -> {
+            var results = new ArrayList<String>();
+            try (var execution = QueryExecutionFactory.create(sparql, ds, binding)) {
+                execution.execSelect().forEachRemaining(row -> results.add(row.getResource("id").getURI()));
+            }
+            return results;
+        });
+    }
+}
@@ -31,12 +31,14 @@ public class RestoreTest {
         config = new Config.Jena();
         config.datasetPath = new File(getTempDirectory(), randomUUID().toString());
         config.transactionLogPath = new File(getTempDirectory(), randomUUID().toString());
+        config.textIndexPath = new File(getTempDirectory(), randomUUID().toString());
     }
 
     @After
     public void after() {
         config.transactionLogPath.delete();
         config.datasetPath.delete();
+        config.textIndexPath.delete();
     }
 
     @Test
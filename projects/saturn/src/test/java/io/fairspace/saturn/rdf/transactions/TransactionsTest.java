@@ -28,6 +28,7 @@ public class TransactionsTest {
     public void before() {
         config.datasetPath = new File(getTempDirectory(), randomUUID().toString());
         config.transactionLogPath = new File(getTempDirectory(), randomUUID().toString());
+        config.textIndexPath = new File(getTempDirectory(), randomUUID().toString());
 
         ds = SaturnDatasetFactory.connect(config, null);
     }
@@ -36,6 +37,7 @@ public class TransactionsTest {
     public void after() throws IOException {
         ds.close();
         deleteDirectory(config.datasetPath);
+        deleteDirectory(config.textIndexPath);
         ds = null;
     }
 
@@ -0,0 +1,63 @@
+package io.fairspace.saturn.rdf.transactions;
+
+import io.fairspace.saturn.vocabulary.FS;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Statement;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.jena.rdf.model.ResourceFactory.*;
+import static org.apache.jena.sparql.core.DatasetGraphFactory.createTxnMem;
+import static org.junit.Assert.assertEquals;
+
+public class TxnVersionDatasetGraphTest {
+    private static final Statement statement = createStatement(createResource("http://example.com/s1"),
+            createProperty("http://example.com/p1"),
+            createPlainLiteral("blah"));
+
+    private TxnVersionDatasetGraph dsg;
+    private Dataset ds;
+    private BulkTransactions txn;
+
+    @Before
+    public void before() {
+        dsg = new TxnVersionDatasetGraph(createTxnMem());
+        ds = DatasetFactory.wrap(dsg);
+        txn = new BulkTransactions(ds);
+    }
+
+    @Test
+    public void shouldIncrementVersionOnChanges() {
+        assertEquals(0, dsg.getVersion());
+        txn.executeWrite(m -> m.add(statement));
+        assertEquals(1, dsg.getVersion());
+        txn.executeWrite(m -> m.remove(statement));
+        assertEquals(2, dsg.getVersion());
+    }
+
+    @Test
+    public void shouldIncrementCollectionsVersionOnlyOnCollectionChanges() {
+        txn.executeWrite(m -> m.add(statement));
+        assertEquals(0, dsg.getCollectionsVersion());
+        txn.executeWrite(m -> m.add(statement.getSubject(), FS.dateDeleted, "2021-01-01"));
+        assertEquals(1, dsg.getCollectionsVersion());
+        assertEquals(2, dsg.getVersion());
+    }
+
+    @Test
+    public void shouldNotIncrementVersionWithoutChanges() {
+        txn.executeRead(m -> m.listStatements().toList());
+        txn.executeWrite(m -> m.listStatements().toList());
+        assertEquals(0, dsg.getVersion());
+    }
+
+    @Test
+    public void shouldNotIncrementVersionOnAbort() {
+        txn.executeWrite(m -> {
+            m.add(statement);
+            ds.abort();
+        });
+        assertEquals(0, dsg.getVersion());
+    }
+}
@@ -0,0 +1,81 @@
+package io.fairspace.saturn.services.treeoperations;
+
+import io.fairspace.saturn.services.AccessDeniedException;
+import io.fairspace.saturn.webdav.TreeOperationDTO;
+import io.fairspace.saturn.webdav.TreeOperations;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import spark.Spark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TreeOperationAppTest {
+    private static final TreeOperations treeOperations = mock(TreeOperations.class);
+    private static final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeClass
+    public static void startServer() {
+        Spark.port(0);
+        new TreeOperationApp("/api/tree-operations", treeOperations).init();
+        Spark.awaitInitialization();
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        Spark.stop();
+        Spark.awaitStop();
+    }
+
+    private static HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        var request = HttpRequest.newBuilder(URI.create("http://localhost:" + Spark.port() + "/api/tree-operations" + path)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    public void testStatusOfAnOperation() throws IOException, InterruptedException {
+        when(treeOperations.get("op1")).thenReturn(new TreeOperationDTO("op1", TreeOperations.Type.MOVE, "/coll1/dir", "/coll2/dir",
+                "http://localhost/iri/user", TreeOperations.Status.RUNNING, 1000, 2500, null, null));
+
+        var response = get("/op1");
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("\"status\":\"RUNNING\""));
+        assertTrue(response.body().contains("\"processed\":1000"));
+        assertTrue(response.body().contains("\"total\":2500"));
+    }
+
+    @Test
+    public void testStatusOfAnUnknownOperation() throws IOException, InterruptedException {
+        assertEquals(404, get("/unknown").statusCode());
+    }
+
+    @Test
+    public void testStatusOfAnOperationOfAnotherUser() throws IOException, InterruptedException {
+        when(treeOperations.get("op2")).thenThrow(new AccessDeniedException("The operation belongs to another user"));
+
+        assertEquals(403, get("/op2").statusCode());
+    }
+
+    @Test
+    public void testListOfOperations() throws IOException, InterruptedException {
+        when(treeOperations.list()).thenReturn(List.of(new TreeOperationDTO("op3", TreeOperations.Type.DELETE, "/coll1/dir", null,
+                "http://localhost/iri/user", TreeOperations.Status.PENDING, 0, 0, null, null)));
+
+        var response = get("/");
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().startsWith("["));
+        assertTrue(response.body().contains("\"id\":\"op3\""));
+    }
+}
@@ -0,0 +1,177 @@
+package io.fairspace.saturn.services.uploads;
+
+import io.fairspace.saturn.rdf.transactions.SimpleTransactions;
+import io.fairspace.saturn.services.ConflictException;
+import io.fairspace.saturn.webdav.BlobStore;
+import io.fairspace.saturn.webdav.ContentAddressedBlobStore;
+import io.fairspace.saturn.webdav.LocalBlobStore;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.fairspace.saturn.TestUtils.setupRequestContext;
+import static org.apache.commons.codec.digest.DigestUtils.md5Hex;
+import static org.apache.commons.codec.digest.DigestUtils.sha256Hex;
+import static org.apache.jena.query.DatasetFactory.createTxnMem;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class UploadServiceTest {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private final byte[] contents = new byte[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+    private LocalBlobStore store;
+    private UploadService uploadService;
+
+    @Before
+    public void before() throws IOException {
+        setupRequestContext();
+        store = new LocalBlobStore(testFolder.newFolder());
+        uploadService = new UploadService(testFolder.newFolder(), store);
+    }
+
+    @Test
+    public void testChunksCanBeSentInAnyOrder() throws IOException {
+        var id = uploadService.create(contents.length).getId();
+
+        var status = uploadService.write(id, 6, chunk(6, 10));
+        assertEquals(0, status.getOffset());
+        assertEquals(List.of(List.of(6L, 10L)), status.getRanges());
+
+        status = uploadService.write(id, 0, chunk(0, 3));
+        assertEquals(3, status.getOffset());
+
+        status = uploadService.write(id, 3, chunk(3, 6));
+        assertEquals(10, status.getOffset());
+        assertEquals(List.of(List.of(0L, 10L)), status.getRanges());
+
+        var blob = uploadService.complete(id);
+        assertEquals(contents.length, blob.size);
+        assertEquals(md5Hex(contents), blob.md5);
+        assertSame(blob, uploadService.complete(id));
+        assertTrue(uploadService.getStatus(id).isComplete());
+
+        var out = new ByteArrayOutputStream();
+        store.read(blob.id, out, 0, null);
+        assertArrayEquals(contents, out.toByteArray());
+    }
+
+    @Test
+    public void testInterruptedChunkCanBeResumed() throws IOException {
+        var id = uploadService.create(contents.length).getId();
+
+        try {
+            uploadService.write(id, 0, new ByteArrayInputStream(contents, 0, 4) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    var read = super.read(b, off, len);
+                    if (read < 0) {
+                        throw new RuntimeException("Connection reset");
+                    }
+                    return read;
+                }
+            });
+            fail();
+        } catch (RuntimeException ignored) {
+        }
+
+        assertEquals(4, uploadService.getStatus(id).getOffset());
+        assertEquals(10, uploadService.write(id, 4, chunk(4, 10)).getOffset());
+        assertEquals(md5Hex(contents), uploadService.complete(id).md5);
+    }
+
+    @Test(expected = ConflictException.class)
+    public void testOverlappingChunksAreRejected() throws IOException {
+        var id = uploadService.create(contents.length).getId();
+        uploadService.write(id, 0, chunk(0, 5));
+        uploadService.write(id, 2, chunk(2, 10));
+    }
+
+    @Test(expected = ConflictException.class)
+    public void testChunksCannotExceedTheLength() throws IOException {
+        var id = uploadService.create(5).getId();
+        uploadService.write(id, 0, chunk(0, 6));
+    }
+
+    @Test(expected = ConflictException.class)
+    public void testIncompleteUploadCannotBeCompleted() throws IOException {
+        var id = uploadService.create(contents.length).getId();
+        uploadService.write(id, 0, chunk(0, 5));
+        uploadService.complete(id);
+    }
+
+    @Test
+    public void testCompletingAgainTouchesTheBlob() throws IOException {
+        var id = uploadService.create(contents.length).getId();
+        uploadService.write(id, 0, chunk(0, 10));
+        var blob = uploadService.complete(id);
+        var file = store.getPath(blob.id).toFile();
+        assertTrue(file.setLastModified(0));
+
+        assertSame(blob, uploadService.complete(id));
+        assertTrue(file.lastModified() > 0);
+    }
+
+    @Test
+    public void testCompletingAgainFailsIfTheBlobIsGone() throws IOException {
+        var id = uploadService.create(contents.length).getId();
+        uploadService.write(id, 0, chunk(0, 10));
+        var blob = uploadService.complete(id);
+        assertTrue(store.getPath(blob.id).toFile().delete());
+
+        try {
+            uploadService.complete(id);
+            fail();
+        } catch (ConflictException ignored) {
+        }
+        assertNull(uploadService.getStatus(id));
+    }
+
+    @Test
+    public void testContentAddressedBlobIsStoredUnderTheHashComputedWhileReceiving() throws IOException {
+        var contentAddressed = new ContentAddressedBlobStore(testFolder.newFolder(), new SimpleTransactions(createTxnMem()));
+        uploadService = new UploadService(testFolder.newFolder(), contentAddressed);
+        var id = uploadService.create(contents.length).getId();
+        uploadService.write(id, 5, chunk(5, 10));
+        uploadService.write(id, 0, chunk(0, 5));
+
+        var blob = uploadService.complete(id);
+
+        assertEquals(sha256Hex(contents), blob.id);
+        assertEquals(md5Hex(contents), blob.md5);
+        var out = new ByteArrayOutputStream();
+        contentAddressed.read(blob.id, out, 0, null);
+        assertArrayEquals(contents, out.toByteArray());
+    }
+
+    @Test
+    public void testHashesArePassedToTheStoreAgainAfterAFailure() throws IOException {
+        var failing = mock(BlobStore.class);
+        when(failing.write(any(File.class), anyString())).thenThrow(new IOException("Disk full")).thenReturn("blob");
+        uploadService = new UploadService(testFolder.newFolder(), failing);
+        var id = uploadService.create(contents.length).getId();
+        uploadService.write(id, 0, chunk(0, 10));
+
+        assertThrows(IOException.class, () -> uploadService.complete(id));
+        var blob = uploadService.complete(id);
+
+        assertEquals("blob", blob.id);
+        assertEquals(md5Hex(contents), blob.md5);
+        verify(failing, times(2)).write(any(File.class), eq(sha256Hex(contents)));
+        verify(failing, never()).write(any(File.class));
+    }
+
+    private ByteArrayInputStream chunk(int from, int to) {
+        return new ByteArrayInputStream(Arrays.copyOfRange(contents, from, to));
+    }
+}
@@ -0,0 +1,118 @@
+package io.fairspace.saturn.services.views;
+
+import io.fairspace.saturn.config.Config;
+import io.fairspace.saturn.rdf.transactions.TxnVersionDatasetGraph;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static io.fairspace.saturn.TestUtils.mockAuthentication;
+import static io.fairspace.saturn.TestUtils.setupRequestContext;
+import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CachingQueryServiceTest {
+    @Mock
+    private QueryService delegate;
+    @Mock
+    private TxnVersionDatasetGraph datasetVersion;
+    @Mock
+    private ViewStoreClientFactory viewStoreClientFactory;
+
+    private CachingQueryService service;
+
+    @Before
+    public void before() {
+        service = new CachingQueryService(delegate, datasetVersion, viewStoreClientFactory, new Config.Search());
+        setupRequestContext();
+        lenient().when(delegate.retrieveViewPage(any())).thenAnswer(invocation -> ViewPageDTO.builder().rows(Collections.emptyList()).build());
+    }
+
+    private static ViewRequest request(String... values) {
+        var request = new ViewRequest();
+        request.setView("Sample");
+        request.setPage(1);
+        request.setSize(10);
+        request.setFilters(new ArrayList<>(List.of(ViewFilter.builder()
+                .field("Sample_nature")
+                .values(List.of(values))
+                .build())));
+        return request;
+    }
+
+    @Test
+    public void testEquivalentRequestsAreServedFromCache() {
+        var first = service.retrieveViewPage(request("a", "b"));
+        var second = service.retrieveViewPage(request("b", "a"));
+
+        assertSame(first, second);
+        verify(delegate, times(1)).retrieveViewPage(any());
+        assertEquals(1, service.getStats().getHitCount());
+        assertEquals(1, service.getStats().getMissCount());
+    }
+
+    @Test
+    public void testCacheIsInvalidatedOnNewVersion() {
+        service.retrieveViewPage(request("a"));
+        when(datasetVersion.getVersion()).thenReturn(1L);
+        service.retrieveViewPage(request("a"));
+
+        verify(delegate, times(2)).retrieveViewPage(any());
+    }
+
+    @Test
+    public void testCacheIsScopedToAccessibleCollections() {
+        when(delegate.getAccessibleCollections()).thenReturn(List.of("c1"));
+        service.retrieveViewPage(request("a"));
+        when(getCurrentRequest().getAuthentication()).thenReturn(mockAuthentication("other"));
+        when(delegate.getAccessibleCollections()).thenReturn(List.of("c1", "c2"));
+        service.retrieveViewPage(request("a"));
+
+        verify(delegate, times(2)).retrieveViewPage(any());
+    }
+
+    @Test
+    public void testAccessibleCollectionsAreLookedUpOncePerUserAndVersion() {
+        service.retrieveViewPage(request("a"));
+        service.retrieveViewPage(request("b"));
+        verify(delegate, times(1)).getAccessibleCollections();
+
+        when(getCurrentRequest().getAuthentication()).thenReturn(mockAuthentication("other"));
+        service.retrieveViewPage(request("a"));
+        verify(delegate, times(2)).getAccessibleCollections();
+
+        when(datasetVersion.getVersion()).thenReturn(1L);
+        service.retrieveViewPage(request("a"));
+        verify(delegate, times(3)).getAccessibleCollections();
+    }
+
+    @Test
+    public void testResultsReadFromALaggingReplicaAreNotCached() {
+        when(viewStoreClientFactory.isReplicaBehind()).thenReturn(true);
+        service.retrieveViewPage(request("a"));
+        when(viewStoreClientFactory.isReplicaBehind()).thenReturn(false);
+        service.retrieveViewPage(request("a"));
+        service.retrieveViewPage(request("a"));
+
+        verify(delegate, times(2)).retrieveViewPage(any());
+    }
+
+    @Test
+    public void testTimedOutResultsAreNotCached() {
+        when(delegate.retrieveViewPage(any())).thenAnswer(invocation -> ViewPageDTO.builder().rows(Collections.emptyList()).timeout(true).build());
+        service.retrieveViewPage(request("a"));
+        service.retrieveViewPage(request("a"));
+
+        verify(delegate, times(2)).retrieveViewPage(any());
+    }
+}
@@ -0,0 +1,48 @@
+package io.fairspace.saturn.services.views;
+
+import io.fairspace.saturn.services.NotAvailableException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConnectionLimiterTest {
+    @Mock
+    private DataSource dataSource;
+    @Mock
+    private Connection connection;
+
+    private final ConnectionLimiter limiter = new ConnectionLimiter(Workload.INTERACTIVE, 1, 10);
+
+    @Before
+    public void before() throws Exception {
+        when(dataSource.getConnection()).thenReturn(connection);
+    }
+
+    @Test
+    public void testRequestsAreRejectedWhenLimitIsReached() throws Exception {
+        var first = limiter.getConnection(dataSource);
+        assertThrows(NotAvailableException.class, () -> limiter.getConnection(dataSource));
+
+        first.close();
+        // Closing twice releases the permit only once
+        first.close();
+        verify(connection, times(2)).close();
+
+        limiter.getConnection(dataSource);
+        var stats = limiter.getStats();
+        assertEquals(1, stats.getMaxConnections());
+        assertEquals(1, stats.getActiveConnections());
+        assertEquals(2, stats.getAcquiredCount());
+        assertEquals(1, stats.getRejectedCount());
+    }
+}
@@ -85,7 +85,7 @@ public class JdbcQueryServiceTest {
         Transactions tx = new SimpleTransactions(ds);
         Model model = ds.getDefaultModel();
 
-        maintenanceService = new MaintenanceService(userService, ds, viewStoreClientFactory);
+        maintenanceService = new MaintenanceService(userService, ds, tx, viewStoreClientFactory, store);
 
         var context = new Context();
 
@@ -314,6 +314,27 @@ public class JdbcQueryServiceTest {
         request.setParentIRI(ConfigLoader.CONFIG.publicUrl + "/api/webdav/coll2");
         results = queryService.searchFiles(request);
         Assert.assertEquals(0, results.size());
+
+        // Collections with a name starting with the name of the parent are not descendants of the parent
+        request.setParentIRI(ConfigLoader.CONFIG.publicUrl + "/api/webdav/coll");
+        results = queryService.searchFiles(request);
+        Assert.assertEquals(0, results.size());
+    }
+
+    @Test
+    public void testSearchFilesIncludesTheParentDirectory() {
+        selectAdmin();
+        var request = new FileSearchRequest();
+        request.setQuery("coll1");
+
+        request.setParentIRI(ConfigLoader.CONFIG.publicUrl + "/api/webdav/coll1");
+        var results = queryService.searchFiles(request);
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals("coll1", results.get(0).getLabel());
+
+        request.setParentIRI(ConfigLoader.CONFIG.publicUrl + "/api/webdav/coll1/");
+        results = queryService.searchFiles(request);
+        Assert.assertEquals(1, results.size());
     }
 
     @Test
@@ -6,6 +6,7 @@ import io.fairspace.saturn.rdf.dao.DAO;
 import io.fairspace.saturn.rdf.search.FilteredDatasetGraph;
 import io.fairspace.saturn.rdf.transactions.SimpleTransactions;
 import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.rdf.transactions.TxnVersionDatasetGraph;
 import io.fairspace.saturn.services.metadata.MetadataPermissions;
 import io.fairspace.saturn.services.metadata.MetadataService;
 import io.fairspace.saturn.services.metadata.validation.ComposedValidator;
@@ -21,6 +22,7 @@ import io.milton.http.exceptions.ConflictException;
 import io.milton.http.exceptions.NotAuthorizedException;
 import io.milton.resource.MakeCollectionableResource;
 import org.apache.jena.query.Dataset;
+import org.apache.jena.query.QueryCancelledException;
 import org.apache.jena.rdf.model.Model;
 import org.apache.jena.sparql.core.DatasetGraphFactory;
 import org.apache.jena.sparql.core.DatasetImpl;
@@ -44,7 +46,9 @@ import static io.fairspace.saturn.config.Services.FS_ROOT;
 import static io.fairspace.saturn.config.Services.METADATA_PERMISSIONS;
 import static io.fairspace.saturn.vocabulary.Vocabularies.VOCABULARY;
 import static org.apache.jena.query.DatasetFactory.wrap;
+import static org.apache.jena.rdf.model.ResourceFactory.createResource;
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -58,6 +62,8 @@ public class SparqlQueryServiceTest {
     UserService userService;
     @Mock
     private MetadataPermissions permissions;
+    @Mock
+    private TxnVersionDatasetGraph datasetVersion;
     MetadataService api;
     QueryService queryService;
     User admin;
@@ -65,6 +71,8 @@ public class SparqlQueryServiceTest {
     private org.eclipse.jetty.server.Request request;
 
     private DavFactory davFactory;
+    private Dataset filteredDataset;
+    private ViewsConfig viewsConfig;
 
     private void selectAdmin() {
         lenient().when(request.getAuthentication()).thenReturn(adminAuthentication);
@@ -93,9 +101,10 @@ public class SparqlQueryServiceTest {
         when(permissions.canReadMetadata()).thenReturn(true);
         context.set(METADATA_PERMISSIONS, permissions);
         var filteredDatasetGraph = new FilteredDatasetGraph(ds.asDatasetGraph(), permissions);
-        var filteredDataset = DatasetImpl.wrap(filteredDatasetGraph);
+        filteredDataset = DatasetImpl.wrap(filteredDatasetGraph);
+        viewsConfig = loadViewsConfig("src/test/resources/test-views.yaml");
 
-        queryService = new SparqlQueryService(ConfigLoader.CONFIG.search, loadViewsConfig("src/test/resources/test-views.yaml"), filteredDataset);
+        queryService = new SparqlQueryService(ConfigLoader.CONFIG.search, viewsConfig, filteredDataset);
         api = new MetadataService(tx, VOCABULARY, new ComposedValidator(new DeletionValidator()), this.permissions, davFactory);
 
         setupUsers(model);
@@ -210,6 +219,82 @@ public class SparqlQueryServiceTest {
         assertEquals(2, result.getCount());
     }
 
+    @Test
+    public void testTimedOutCountReturnsTheLastCount() throws BadRequestException, NotAuthorizedException, ConflictException {
+        var service = spy(new SparqlQueryService(ConfigLoader.CONFIG.search, viewsConfig, filteredDataset, datasetVersion));
+        var assay = (MakeCollectionableResource) ((ResourceFactory) davFactory).getResource(null, BASE_PATH + "/Dept001/PI001/Project001/Study001/Object001/Sample001/Assay001");
+        when(request.getHeader("Linked-Entity-IRI")).thenReturn("");
+        when(request.getHeader("Entity-Type")).thenReturn("https://sils.uva.nl/ontology#ExternalFile");
+        assay.createCollection("File001");
+        assay.createCollection("File001-2");
+
+        var requestParams = new CountRequest();
+        requestParams.setView("Resource");
+        requestParams.setFilters(new ArrayList<>());
+        assertEquals(new CountDTO(2, false, false), service.count(requestParams));
+
+        doThrow(new QueryCancelledException()).when(service).executeCount(any());
+        assertEquals(new CountDTO(2, true, false), service.count(requestParams));
+
+        // The data has changed since the last count
+        when(datasetVersion.getVersion()).thenReturn(1L);
+        assertEquals(new CountDTO(2, true, true), service.count(requestParams));
+    }
+
+    @Test
+    public void testTimedOutCountWithoutAPreviousCount() {
+        var service = spy(new SparqlQueryService(ConfigLoader.CONFIG.search, viewsConfig, filteredDataset, datasetVersion));
+        doThrow(new QueryCancelledException()).when(service).executeCount(any());
+
+        var requestParams = new CountRequest();
+        requestParams.setView("Resource");
+        requestParams.setFilters(new ArrayList<>());
+        assertEquals(new CountDTO(0, true, false), service.count(requestParams));
+    }
+
+    @Test
+    public void testQueryTemplatesAreReusedForFiltersOfTheSameShape() throws BadRequestException, NotAuthorizedException, ConflictException {
+        var service = new SparqlQueryService(ConfigLoader.CONFIG.search, viewsConfig, filteredDataset);
+        var assay = (MakeCollectionableResource) ((ResourceFactory) davFactory).getResource(null, BASE_PATH + "/Dept001/PI001/Project001/Study001/Object001/Sample001/Assay001");
+        when(request.getHeader("Linked-Entity-IRI")).thenReturn("");
+        when(request.getHeader("Entity-Type")).thenReturn("https://sils.uva.nl/ontology#ExternalFile");
+        assay.createCollection("File001");
+
+        var vr = new ViewRequest();
+        vr.setView("Resource");
+        vr.setPage(1);
+        vr.setSize(10);
+        // The altitude of the object is 94, as defined in testdata.ttl
+        vr.setFilters(List.of(ViewFilter.builder().field("Object_objectAltitude").min(92).build()));
+        assertEquals(1, service.retrieveViewPage(vr).getRows().size());
+        vr.setFilters(List.of(ViewFilter.builder().field("Object_objectAltitude").min(95).build()));
+        assertEquals(0, service.retrieveViewPage(vr).getRows().size());
+        assertEquals(1, service.getQueryTemplateCount());
+
+        vr.setFilters(List.of(ViewFilter.builder().field("Object_objectAltitude").min(92).max(93).build()));
+        assertEquals(0, service.retrieveViewPage(vr).getRows().size());
+        assertEquals(2, service.getQueryTemplateCount());
+
+        var countRequest = new CountRequest();
+        countRequest.setView("Resource");
+        countRequest.setFilters(List.of(ViewFilter.builder().field("Object_objectAltitude").min(92).build()));
+        assertEquals(1, service.count(countRequest).getCount());
+        assertEquals(3, service.getQueryTemplateCount());
+    }
+
+    @Test
+    public void testProjectionQuery() {
+        var query = ((SparqlQueryService) queryService).getProjectionQuery(viewsConfig.views.get(0),
+                List.of(createResource("http://example.com/f1"), createResource("http://example.com/f2")));
+
+        assertEquals(List.of("id", "key", "value", "label"), query.getResultVars());
+        var text = query.toString();
+        assertTrue(text.contains("<http://example.com/f1>"));
+        assertTrue(text.contains("<http://example.com/f2>"));
+        assertTrue(text.contains("\"Resource_externalFileLink\""));
+        assertTrue(text.contains("<https://sils.uva.nl/ontology#externalFileLink>"));
+    }
+
     @Test
     public void testRetrieveViewPageUsingObjectFilter() throws ConflictException, BadRequestException, NotAuthorizedException {
         var assay = (MakeCollectionableResource) ((ResourceFactory) davFactory).getResource(null, BASE_PATH + "/Dept001/PI001/Project001/Study001/Object001/Sample001/Assay001");
@@ -0,0 +1,104 @@
+package io.fairspace.saturn.services.views;
+
+import io.fairspace.saturn.config.ViewsConfig.View;
+import org.apache.jena.query.Query;
+import org.apache.jena.sparql.syntax.ElementSubQuery;
+import org.apache.jena.sparql.syntax.ElementVisitorBase;
+import org.apache.jena.sparql.syntax.ElementWalker;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static io.fairspace.saturn.TestUtils.loadViewsConfig;
+import static io.fairspace.saturn.services.views.SparqlViewQueryBuilder.getShape;
+import static org.junit.Assert.*;
+
+public class SparqlViewQueryBuilderTest {
+    private final View view = loadViewsConfig("src/test/resources/test-views.yaml").views.get(0);
+
+    private static List<ViewFilter> altitude(Object min, Object max) {
+        return List.of(ViewFilter.builder().field("Object_objectAltitude").min(min).max(max).build());
+    }
+
+    private static List<ViewFilter> species(Object... values) {
+        return List.of(ViewFilter.builder().field("Object_objectSpecies").values(List.of(values)).build());
+    }
+
+    private static List<Query> subqueries(Query query) {
+        var result = new ArrayList<Query>();
+        ElementWalker.walk(query.getQueryPattern(), new ElementVisitorBase() {
+            @Override
+            public void visit(ElementSubQuery el) {
+                result.add(el.getQuery());
+            }
+        });
+        return result;
+    }
+
+    @Test
+    public void testShape() {
+        assertEquals(getShape(species("http://example.com/s1")), getShape(species("http://example.com/s2")));
+        assertEquals(getShape(altitude(1, 2)), getShape(altitude(3, 4)));
+
+        assertNotEquals(getShape(species("http://example.com/s1")), getShape(species("http://example.com/s1", "http://example.com/s2")));
+        assertNotEquals(getShape(altitude(1, null)), getShape(altitude(1, 2)));
+        assertNotEquals(getShape(altitude(1, null)), getShape(altitude(null, 1)));
+        assertNotEquals(getShape(List.of(ViewFilter.builder().field("Study_studyName").prefix("a").build())),
+                getShape(List.of(ViewFilter.builder().field("Study_studyName").values(List.of("a")).build())));
+        assertNotEquals(getShape(List.of(ViewFilter.builder().field("Study_studyName").prefix("a").build())),
+                getShape(List.of(ViewFilter.builder().field("Project_projectName").prefix("a").build())));
+    }
+
+    @Test
+    public void testFilterValuesAreParameters() {
+        var query = new SparqlViewQueryBuilder(view, 1, 10).getQuery(altitude(92, 1234)).toString();
+
+        assertTrue(query.contains("?_param0_min"));
+        assertTrue(query.contains("?_param0_max"));
+        assertFalse(query.contains("1234"));
+    }
+
+    @Test
+    public void testBindSubstitutesTheValuesAndThePage() {
+        var template = new SparqlViewQueryBuilder(view, 1, 10).getQuery(altitude(1, 2));
+        var original = template.toString();
+
+        var builder = new SparqlViewQueryBuilder(view, 3, 10);
+        var bound = builder.bind(template, altitude(50, 60));
+
+        // The same query as built for these filters in the first place
+        var expected = new SparqlViewQueryBuilder(view, 3, 10);
+        assertEquals(expected.bind(expected.getQuery(altitude(50, 60)), altitude(50, 60)).toString(), bound.toString());
+        assertFalse(bound.toString().contains("_param"));
+        var page = subqueries(bound);
+        assertEquals(1, page.size());
+        assertEquals(11, page.get(0).getLimit());
+        assertEquals(20, page.get(0).getOffset());
+        // The template can be reused
+        assertEquals(original, template.toString());
+    }
+
+    @Test
+    public void testBindTermValues() {
+        var template = new SparqlViewQueryBuilder(view, 1, 10).getQuery(species("http://example.com/s1", "http://example.com/s2"));
+
+        var bound = new SparqlViewQueryBuilder(view, 1, 10)
+                .bind(template, species("http://example.com/s3", "http://example.com/s4")).toString();
+
+        assertTrue(bound.contains("<http://example.com/s3>"));
+        assertTrue(bound.contains("<http://example.com/s4>"));
+        assertFalse(bound.contains("<http://example.com/s1>"));
+    }
+
+    @Test
+    public void testCountQueryLeavesOutTheJoinColumns() {
+        var builder = new SparqlViewQueryBuilder(view);
+        var query = builder.bind(builder.getCountQuery(altitude(92, null)), altitude(92, null));
+
+        assertEquals(List.of("count"), query.getResultVars());
+        assertTrue(query.hasAggregators());
+        assertFalse(query.toString().contains("OPTIONAL"));
+        assertTrue(new SparqlViewQueryBuilder(view, 1, 10).getQuery(List.of()).toString().contains("OPTIONAL"));
+    }
+}
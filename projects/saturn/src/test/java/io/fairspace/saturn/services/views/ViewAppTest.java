@@ -0,0 +1,25 @@
+package io.fairspace.saturn.services.views;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ViewAppTest {
+    private static final String ETAG = "\"facets-abc-12\"";
+
+    @Test
+    public void testIfNoneMatch() {
+        assertTrue(ViewApp.isNotModified(ETAG, ETAG));
+        assertTrue(ViewApp.isNotModified("W/" + ETAG, ETAG));
+        assertTrue(ViewApp.isNotModified("\"other\", " + ETAG, ETAG));
+        assertTrue(ViewApp.isNotModified("*", ETAG));
+
+        assertFalse(ViewApp.isNotModified(null, ETAG));
+        assertFalse(ViewApp.isNotModified("\"facets-abc-1\"", ETAG));
+        assertFalse(ViewApp.isNotModified("\"facets-abc-123\"", ETAG));
+        // A tag containing the current one
+        assertFalse(ViewApp.isNotModified("\"x" + ETAG + "\"", ETAG));
+        assertFalse(ViewApp.isNotModified("\"facets-abc-121\", W/\"facets-abc-1\"", ETAG));
+    }
+}
@@ -0,0 +1,69 @@
+package io.fairspace.saturn.services.views;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fairspace.saturn.config.ViewsConfig.ColumnType;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ViewExportWriterTest {
+    private final ViewDTO view = new ViewDTO("Sample", "Samples", List.of(
+            new ColumnDTO("Sample", "Sample", ColumnType.Identifier),
+            new ColumnDTO("Sample_nature", "Nature", ColumnType.TermSet),
+            new ColumnDTO("Sample_description", "Description", ColumnType.Text)));
+
+    @Test
+    public void testCsvExport() throws Exception {
+        var out = new StringWriter();
+        var writer = ViewExportWriter.csv(view, out);
+        var natures = new LinkedHashSet<ValueDTO>();
+        natures.add(new ValueDTO("DNA", "http://example.com/dna"));
+        natures.add(new ValueDTO("RNA", "http://example.com/rna"));
+        writer.write(Map.of(
+                "Sample", Set.of(new ValueDTO("Sample 1", "http://example.com/s1")),
+                "Sample_nature", natures,
+                "Sample_description", Set.of(new ValueDTO("Contains \"quotes\", commas", "Contains \"quotes\", commas"))));
+        writer.write(Map.of("Sample", Set.of(new ValueDTO("Sample 2", "http://example.com/s2"))));
+
+        assertEquals("Sample,Sample_nature,Sample_description\r\n" +
+                "http://example.com/s1,DNA|RNA,\"Contains \"\"quotes\"\", commas\"\r\n" +
+                "http://example.com/s2,,\r\n", out.toString());
+    }
+
+    @Test
+    public void testNdjsonExport() throws Exception {
+        var mapper = new ObjectMapper();
+        var out = new StringWriter();
+        var writer = ViewExportWriter.ndjson(mapper, out);
+        var natures = new LinkedHashSet<ValueDTO>();
+        natures.add(new ValueDTO("DNA", "http://example.com/dna"));
+        natures.add(new ValueDTO("RNA", "http://example.com/rna"));
+        var row = new LinkedHashMap<String, Set<ValueDTO>>();
+        row.put("Sample", Set.of(new ValueDTO("Sample 1", "http://example.com/s1")));
+        row.put("Sample_nature", natures);
+        writer.write(row);
+        writer.write(Map.of("Sample", Set.of(new ValueDTO("Line\nbreak", "http://example.com/s2"))));
+
+        var lines = out.toString().split("\n", -1);
+        // One object per line, the output ends with a line break
+        assertEquals(3, lines.length);
+        assertEquals("", lines[2]);
+        var first = mapper.readTree(lines[0]);
+        assertEquals("http://example.com/s1", first.get("Sample").get(0).get("value").asText());
+        assertEquals("Sample 1", first.get("Sample").get(0).get("label").asText());
+        assertEquals(2, first.get("Sample_nature").size());
+        assertEquals("DNA", first.get("Sample_nature").get(0).get("label").asText());
+        assertEquals("RNA", first.get("Sample_nature").get(1).get("label").asText());
+        var second = mapper.readTree(lines[1]);
+        assertEquals("Line\nbreak", second.get("Sample").get(0).get("label").asText());
+        assertFalse(second.has("Sample_nature"));
+    }
+}
@@ -0,0 +1,90 @@
+package io.fairspace.saturn.services.views;
+
+import io.fairspace.saturn.config.Config;
+import io.fairspace.saturn.config.ConfigLoader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ViewStoreClientFactoryTest {
+    private static final String PRIMARY_URL = "jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+    private static final String REPLICA_URL = "jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+
+    private ViewStoreClientFactory viewStoreClientFactory;
+
+    @Before
+    public void before() throws SQLException {
+        // The replica is simulated by a second database, with an index version that is updated manually
+        try (var replica = DriverManager.getConnection(REPLICA_URL, "sa", "")) {
+            replica.createStatement().execute("create table if not exists index_version ( id integer primary key, version bigint not null )");
+            replica.createStatement().execute("delete from index_version");
+            replica.createStatement().execute("insert into index_version (id, version) values (0, 0)");
+        }
+
+        var viewDatabase = new Config.ViewDatabase();
+        viewDatabase.url = PRIMARY_URL;
+        viewDatabase.username = "sa";
+        viewDatabase.password = "";
+        viewDatabase.replicaUrl = REPLICA_URL;
+        ViewStoreClientFactory.H2_DATABASE = true;
+        viewStoreClientFactory = new ViewStoreClientFactory(ConfigLoader.VIEWS_CONFIG, viewDatabase);
+    }
+
+    @After
+    public void after() {
+        ViewStoreClientFactory.H2_DATABASE = false;
+    }
+
+    private String readFrom(String user) throws SQLException {
+        try (var connection = viewStoreClientFactory.getReadConnection(Workload.INTERACTIVE, user)) {
+            return connection.getMetaData().getURL();
+        }
+    }
+
+    @Test
+    public void testReadsAreRoutedToTheReplicaUnlessItIsBehind() throws SQLException {
+        assertEquals(REPLICA_URL, readFrom("user1"));
+
+        long version;
+        try (var client = viewStoreClientFactory.build(Workload.INDEX_WRITER)) {
+            version = client.incrementIndexVersion();
+            client.commit();
+        }
+        viewStoreClientFactory.recordWrite(List.of("user1"), version);
+
+        assertEquals(PRIMARY_URL, readFrom("user1"));
+        assertEquals(REPLICA_URL, readFrom("user2"));
+        assertEquals(REPLICA_URL, readFrom(null));
+
+        try (Connection replica = DriverManager.getConnection(REPLICA_URL, "sa", "")) {
+            replica.createStatement().execute("update index_version set version = " + version);
+        }
+        assertEquals(REPLICA_URL, readFrom("user1"));
+    }
+
+    @Test
+    public void testReplicaIsBehindUntilItReplaysTheLastIndexUpdate() throws SQLException {
+        long version;
+        try (var client = viewStoreClientFactory.build(Workload.INDEX_WRITER)) {
+            version = client.incrementIndexVersion();
+            client.commit();
+        }
+        viewStoreClientFactory.recordWrite(List.of(), version);
+
+        assertTrue(viewStoreClientFactory.isReplicaBehind());
+
+        try (Connection replica = DriverManager.getConnection(REPLICA_URL, "sa", "")) {
+            replica.createStatement().execute("update index_version set version = " + version);
+        }
+        assertFalse(viewStoreClientFactory.isReplicaBehind());
+    }
+}
@@ -0,0 +1,121 @@
+package io.fairspace.saturn.services.views;
+
+import io.fairspace.saturn.config.Config;
+import io.fairspace.saturn.config.ViewsConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ViewStoreClientTest {
+    private static final String VIEWS = """
+            views:
+              - name: Sample
+                title: Samples
+                types:
+                  - https://example.com/Sample
+                columns:
+                  - name: temperature
+                    title: Temperature
+                    source: https://example.com/temperature
+                    type: number
+            """;
+
+    private ViewStoreClientFactory viewStoreClientFactory;
+
+    @Before
+    public void before() throws Exception {
+        var viewDatabase = new Config.ViewDatabase();
+        viewDatabase.url = "jdbc:h2:mem:ranges;DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+        viewDatabase.username = "sa";
+        viewDatabase.password = "";
+        ViewStoreClientFactory.H2_DATABASE = true;
+        viewStoreClientFactory = new ViewStoreClientFactory(ViewsConfig.MAPPER.readValue(VIEWS, ViewsConfig.class), viewDatabase);
+        try (var client = viewStoreClientFactory.build(Workload.INDEX_WRITER)) {
+            client.truncateViewTables("Sample");
+            client.commit();
+        }
+    }
+
+    private void update(String id, Number temperature) throws Exception {
+        try (var client = viewStoreClientFactory.build(Workload.INDEX_WRITER)) {
+            client.updateRows("Sample", List.of(Map.of("id", id, "label", id, "temperature", temperature)), false);
+            client.commit();
+        }
+    }
+
+    private void delete(String id) throws Exception {
+        try (var client = viewStoreClientFactory.build(Workload.INDEX_WRITER)) {
+            client.deleteRow("Sample", id);
+            client.commit();
+        }
+    }
+
+    private Range range() throws Exception {
+        try (var reader = new ViewStoreReader(new Config.Search(), viewStoreClientFactory)) {
+            return reader.getColumnRange("Sample", "temperature");
+        }
+    }
+
+    private Range recompute() throws Exception {
+        try (var client = viewStoreClientFactory.build(Workload.BACKGROUND)) {
+            var range = client.recomputeColumnRange("Sample", "temperature");
+            client.commit();
+            return range;
+        }
+    }
+
+    private static void assertRange(double min, double max, Range range) {
+        assertEquals(min, ((BigDecimal) range.getStart()).doubleValue(), 0.001);
+        assertEquals(max, ((BigDecimal) range.getEnd()).doubleValue(), 0.001);
+    }
+
+    @Test
+    public void testRangeIsExtendedOnInsert() throws Exception {
+        update("s1", 10);
+        update("s2", 20);
+        assertRange(10, 20, range());
+        update("s3", 5);
+        assertRange(5, 20, range());
+    }
+
+    @Test
+    public void testRangeIsRecomputedWhenBoundaryIsRemoved() throws Exception {
+        update("s1", 10);
+        update("s2", 20);
+        update("s3", 15);
+
+        // Changing a value inside the range keeps the range valid
+        update("s3", 12);
+        assertRange(10, 20, range());
+
+        update("s2", 14);
+        assertNull(range());
+        assertRange(10, 14, recompute());
+        assertRange(10, 14, range());
+
+        delete("s1");
+        assertNull(range());
+        assertRange(12, 14, recompute());
+    }
+
+    @Test
+    public void testRangeIsInvalidatedByAChangeBeyondFloatPrecision() throws Exception {
+        update("s1", 10);
+        update("s2", 16_777_217);
+        assertEquals(0, BigDecimal.valueOf(16_777_217).compareTo((BigDecimal) range().getEnd()));
+
+        // Both values are the same float
+        update("s2", 16_777_216);
+        assertNull(range());
+        assertEquals(0, BigDecimal.valueOf(16_777_216).compareTo((BigDecimal) recompute().getEnd()));
+
+        update("s3", new BigDecimal("16777216.5"));
+        assertEquals(0, new BigDecimal("16777216.5").compareTo((BigDecimal) range().getEnd()));
+    }
+}
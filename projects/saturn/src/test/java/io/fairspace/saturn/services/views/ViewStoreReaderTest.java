@@ -0,0 +1,219 @@
+package io.fairspace.saturn.services.views;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.fairspace.saturn.config.Config;
+import io.fairspace.saturn.config.ViewsConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static io.fairspace.saturn.services.views.ViewStoreReader.EXPORT_FETCH_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ViewStoreReaderTest {
+    private static final String VIEWS = """
+            views:
+              - name: Sample
+                title: Samples
+                types:
+                  - https://example.com/Sample
+                columns:
+                  - name: nature
+                    title: Nature
+                    source: https://example.com/nature
+                    type: set
+                  - name: description
+                    title: Description
+                    source: https://example.com/description
+                    type: text
+                  - name: kind
+                    title: Kind
+                    source: https://example.com/kind
+                    rdfType: https://example.com/Kind
+                    type: term
+                join:
+                  - view: Subject
+                    on: https://example.com/subject
+                    include:
+                      - name
+                      - species
+              - name: Subject
+                title: Subjects
+                types:
+                  - https://example.com/Subject
+                columns:
+                  - name: name
+                    title: Name
+                    source: https://example.com/name
+                    type: text
+                  - name: species
+                    title: Species
+                    source: https://example.com/species
+                    type: set
+            """;
+
+    private ViewStoreClientFactory viewStoreClientFactory;
+
+    @Before
+    public void before() throws Exception {
+        var viewDatabase = new Config.ViewDatabase();
+        viewDatabase.url = "jdbc:h2:mem:export;DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE";
+        viewDatabase.username = "sa";
+        viewDatabase.password = "";
+        ViewStoreClientFactory.H2_DATABASE = true;
+        viewStoreClientFactory = new ViewStoreClientFactory(ViewsConfig.MAPPER.readValue(VIEWS, ViewsConfig.class), viewDatabase);
+        try (var client = viewStoreClientFactory.build(Workload.INDEX_WRITER)) {
+            client.truncateViewTables("Sample");
+            client.truncateViewTables("Subject");
+            client.commit();
+        }
+    }
+
+    private List<Map<String, Set<ValueDTO>>> export(List<ViewFilter> filters, boolean includeJoinedViews) throws Exception {
+        var rows = new ArrayList<Map<String, Set<ValueDTO>>>();
+        try (var reader = new ViewStoreReader(new Config.Search(), viewStoreClientFactory, Workload.BACKGROUND)) {
+            reader.streamRows("Sample", filters, includeJoinedViews, rows::add);
+        }
+        return rows;
+    }
+
+    private static Set<String> labels(Map<String, Set<ValueDTO>> row, String column) {
+        return row.getOrDefault(column, Collections.emptySet()).stream()
+                .map(ValueDTO::getLabel)
+                .collect(Collectors.toSet());
+    }
+
+    private static Object id(Map<String, Set<ValueDTO>> row) {
+        return row.get("Sample").iterator().next().getValue();
+    }
+
+    private void createSamplesAndSubjects() throws Exception {
+        try (var client = viewStoreClientFactory.build(Workload.INDEX_WRITER)) {
+            client.updateRows("Subject", List.of(
+                    Map.of("id", "p1", "label", "Subject 1", "name", "Alice"),
+                    Map.of("id", "p2", "label", "Subject 2", "name", "Bob")), false);
+            client.updateValues("Subject", "p1", "species", Set.of("Human"));
+            client.updateValues("Subject", "p2", "species", Set.of("Human", "Mouse"));
+            client.updateRows("Sample", List.of(
+                    Map.of("id", "s1", "label", "Sample 1", "description", "First", "kind", "Blood"),
+                    Map.of("id", "s2", "label", "Sample 2", "description", "Second", "kind", "Tissue")), false);
+            client.addLabel("https://example.com/kinds#blood", "https://example.com/Kind", "Blood");
+            client.addLabel("https://example.com/kinds#tissue", "https://example.com/Kind", "Tissue");
+            // A term of another type with the same label
+            client.addLabel("https://example.com/colors#blood", "https://example.com/Color", "Blood");
+            client.updateValues("Sample", "s1", "nature", Set.of("DNA", "RNA"));
+            client.updateLinks("Sample", "s1", "Subject", Set.of("p1", "p2"));
+            client.updateLinks("Sample", "s2", "Subject", Set.of("p1"));
+            client.commit();
+        }
+    }
+
+    @Test
+    public void testStreamRowsIncludesValueSets() throws Exception {
+        createSamplesAndSubjects();
+
+        var rows = export(null, false);
+
+        assertEquals(List.of("s1", "s2"), rows.stream().map(ViewStoreReaderTest::id).collect(Collectors.toList()));
+        assertEquals(Set.of("DNA", "RNA"), labels(rows.get(0), "Sample_nature"));
+        assertEquals(Set.of("First"), labels(rows.get(0), "Sample_description"));
+        assertEquals(Set.of(), labels(rows.get(1), "Sample_nature"));
+        assertFalse(rows.get(0).containsKey("Subject"));
+    }
+
+    @Test
+    public void testTermsHaveTheirIris() throws Exception {
+        createSamplesAndSubjects();
+
+        List<Map<String, Set<ValueDTO>>> retrieved;
+        try (var reader = new ViewStoreReader(new Config.Search(), viewStoreClientFactory)) {
+            retrieved = reader.retrieveRows("Sample", null, 0, 10, false);
+        }
+
+        for (var rows : List.of(export(null, false), retrieved)) {
+            assertEquals(Set.of(new ValueDTO("Blood", "https://example.com/kinds#blood")), rows.get(0).get("Sample_kind"));
+            assertEquals(Set.of(new ValueDTO("Tissue", "https://example.com/kinds#tissue")), rows.get(1).get("Sample_kind"));
+        }
+    }
+
+    @Test
+    public void testStreamRowsIncludesJoinedViews() throws Exception {
+        createSamplesAndSubjects();
+
+        var rows = export(null, true);
+
+        assertEquals(2, rows.size());
+        var s1 = rows.get(0);
+        assertEquals(Set.of("Subject 1", "Subject 2"), labels(s1, "Subject"));
+        assertEquals(Set.of("Alice", "Bob"), labels(s1, "Subject_name"));
+        assertEquals(Set.of("Human", "Mouse"), labels(s1, "Subject_species"));
+        // A joined entity linked to several rows is added to each of them
+        var s2 = rows.get(1);
+        assertEquals(Set.of("Subject 1"), labels(s2, "Subject"));
+        assertEquals(Set.of("Alice"), labels(s2, "Subject_name"));
+        assertEquals(Set.of("Human"), labels(s2, "Subject_species"));
+    }
+
+    @Test
+    public void testStreamRowsAppliesFilters() throws Exception {
+        createSamplesAndSubjects();
+
+        var rows = export(List.of(ViewFilter.builder().field("Sample_description").prefix("Sec").build()), true);
+
+        assertEquals(1, rows.size());
+        assertEquals("s2", id(rows.get(0)));
+        assertEquals(Set.of("Subject 1"), labels(rows.get(0), "Subject"));
+    }
+
+    @Test
+    public void testStreamRowsReadsTheValuesOfEveryPage() throws Exception {
+        var count = EXPORT_FETCH_SIZE + 1;
+        try (var client = viewStoreClientFactory.build(Workload.INDEX_WRITER)) {
+            var samples = new ArrayList<Map<String, Object>>();
+            for (var i = 0; i < count; i++) {
+                samples.add(new HashMap<>(Map.of("id", String.format("s%05d", i), "label", "Sample " + i)));
+            }
+            client.updateRows("Sample", samples, true);
+            for (var i = 0; i < count; i++) {
+                client.updateValues("Sample", String.format("s%05d", i), "nature", Set.of("Nature " + i));
+            }
+            client.commit();
+        }
+
+        var rows = export(null, false);
+
+        assertEquals(count, rows.size());
+        for (var i = 0; i < count; i++) {
+            assertEquals(String.format("s%05d", i), id(rows.get(i)));
+            assertEquals(Set.of("Nature " + i), labels(rows.get(i), "Sample_nature"));
+        }
+    }
+
+    @Test
+    public void testStreamRowsAsNdjson() throws Exception {
+        createSamplesAndSubjects();
+        var mapper = new ObjectMapper();
+        var out = new StringWriter();
+
+        try (var reader = new ViewStoreReader(new Config.Search(), viewStoreClientFactory, Workload.BACKGROUND)) {
+            reader.streamRows("Sample", null, true, ViewExportWriter.ndjson(mapper, out));
+        }
+
+        var lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        var first = mapper.readTree(lines[0]);
+        assertEquals("s1", first.get("Sample").get(0).get("value").asText());
+        assertEquals(2, first.get("Sample_nature").size());
+        assertEquals(2, first.get("Subject").size());
+        assertEquals("s2", mapper.readTree(lines[1]).get("Sample").get(0).get("value").asText());
+    }
+}
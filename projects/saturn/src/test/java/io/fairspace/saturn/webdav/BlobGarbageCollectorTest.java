@@ -0,0 +1,118 @@
+package io.fairspace.saturn.webdav;
+
+import io.fairspace.saturn.rdf.transactions.SimpleTransactions;
+import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.vocabulary.FS;
+import org.apache.jena.query.DatasetFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.apache.jena.rdf.model.ResourceFactory.createResource;
+import static org.junit.Assert.*;
+
+public class BlobGarbageCollectorTest {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private final byte[] contents = new byte[]{0, 1, 2, 3};
+
+    private Transactions transactions;
+    private LocalBlobStore blobStore;
+    private BlobGarbageCollector collector;
+
+    @Before
+    public void before() throws IOException {
+        transactions = new SimpleTransactions(DatasetFactory.createTxnMem());
+        blobStore = new LocalBlobStore(testFolder.newFolder());
+        collector = new BlobGarbageCollector(blobStore, transactions, Duration.ofHours(1), 1000);
+    }
+
+    @Test
+    public void shouldDeleteOldUnreferencedBlobs() throws IOException {
+        var referenced = store(true, 0);
+        var unreferenced = store(false, 0);
+        var recent = store(false, System.currentTimeMillis());
+
+        var report = collector.collect(false);
+
+        assertEquals(1, report.getReferencedBlobs());
+        assertEquals(3, report.getScannedBlobs());
+        assertEquals(1, report.getRecentBlobs());
+        assertEquals(1, report.getUnreferencedBlobs());
+        assertEquals(1, report.getDeletedBlobs());
+        assertEquals(contents.length, report.getDeletedBytes());
+        assertTrue(blobStore.getPath(referenced).toFile().exists());
+        assertFalse(blobStore.getPath(unreferenced).toFile().exists());
+        assertTrue(blobStore.getPath(recent).toFile().exists());
+    }
+
+    @Test
+    public void shouldOnlyReportInDryRun() throws IOException {
+        var unreferenced = store(false, 0);
+
+        var report = collector.collect(true);
+
+        assertTrue(report.isDryRun());
+        assertEquals(1, report.getUnreferencedBlobs());
+        assertEquals(contents.length, report.getUnreferencedBytes());
+        assertEquals(0, report.getDeletedBlobs());
+        assertTrue(blobStore.getPath(unreferenced).toFile().exists());
+    }
+
+    @Test
+    public void shouldKeepABlobStoredAgainWhileBeingCollected() throws Exception {
+        var store = new ContentAddressedBlobStore(testFolder.newFolder(), transactions);
+        var collector = new BlobGarbageCollector(store, transactions, Duration.ofHours(1), 1000);
+        var id = store.write(new ByteArrayInputStream(contents));
+        store.getPath(id).toFile().setLastModified(0);
+
+        // Let the collector wait for the blob while it's being stored again
+        var lock = (ReentrantLock) store.lock(id);
+        lock.lock();
+        try {
+            var collection = Executors.newSingleThreadExecutor().submit(() -> collector.collect(false));
+            while (!lock.hasQueuedThreads()) {
+                Thread.sleep(10);
+            }
+            assertEquals(id, store.write(new ByteArrayInputStream(contents)));
+            lock.unlock();
+
+            assertEquals(0, collection.get().getDeletedBlobs());
+        } finally {
+            if (lock.isHeldByCurrentThread()) {
+                lock.unlock();
+            }
+        }
+        assertTrue(store.getPath(id).toFile().exists());
+    }
+
+    @Test
+    public void shouldStoreABlobAgainAfterItHasBeenCollected() throws IOException {
+        var store = new ContentAddressedBlobStore(testFolder.newFolder(), transactions);
+        var collector = new BlobGarbageCollector(store, transactions, Duration.ofHours(1), 1000);
+        var id = store.write(new ByteArrayInputStream(contents));
+        store.getPath(id).toFile().setLastModified(0);
+
+        assertEquals(1, collector.collect(false).getDeletedBlobs());
+        assertEquals(id, store.write(new ByteArrayInputStream(contents)));
+
+        assertTrue(store.getPath(id).toFile().exists());
+    }
+
+    private String store(boolean referenced, long lastModified) throws IOException {
+        var id = blobStore.write(new ByteArrayInputStream(contents));
+        blobStore.getPath(id).toFile().setLastModified(lastModified);
+        if (referenced) {
+            transactions.executeWrite(m -> m.add(createResource("http://example.com/" + id), FS.blobId, id));
+        }
+        return id;
+    }
+}
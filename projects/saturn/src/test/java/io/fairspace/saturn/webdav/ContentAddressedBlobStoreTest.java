@@ -0,0 +1,95 @@
+package io.fairspace.saturn.webdav;
+
+import io.fairspace.saturn.rdf.transactions.SimpleTransactions;
+import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.vocabulary.FS;
+import org.apache.jena.query.DatasetFactory;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.apache.commons.codec.digest.DigestUtils.sha256Hex;
+import static org.apache.jena.rdf.model.ResourceFactory.createResource;
+import static org.junit.Assert.*;
+
+public class ContentAddressedBlobStoreTest {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private final byte[] contents1 = new byte[]{0, 1, 2, 3};
+    private final byte[] contents2 = new byte[]{4, 5, 6, 7, 8, 9};
+
+    private File dir;
+    private Transactions transactions;
+    private ContentAddressedBlobStore blobStore;
+
+    @Before
+    public void before() throws IOException {
+        dir = testFolder.newFolder();
+        transactions = new SimpleTransactions(DatasetFactory.createTxnMem());
+        blobStore = new ContentAddressedBlobStore(dir, transactions);
+    }
+
+    @Test
+    public void shouldAddressBlobsByContents() throws IOException {
+        var id1 = blobStore.store(new ByteArrayInputStream(contents1)).id;
+        var id2 = blobStore.store(new ByteArrayInputStream(contents1)).id;
+        var id3 = blobStore.store(new ByteArrayInputStream(contents2)).id;
+
+        assertEquals(sha256Hex(contents1), id1);
+        assertEquals(id1, id2);
+        assertNotEquals(id1, id3);
+        assertArrayEquals(contents1, read(id1));
+        assertEquals(2, countBlobs());
+    }
+
+    @Test
+    public void shouldCountReferences() throws IOException {
+        var id = blobStore.write(new ByteArrayInputStream(contents1));
+        assertEquals(0, blobStore.getReferenceCount(id));
+
+        transactions.executeWrite(m -> m
+                .add(createResource("http://example.com/v1"), FS.blobId, id)
+                .add(createResource("http://example.com/v2"), FS.blobId, id));
+
+        assertEquals(2, blobStore.getReferenceCount(id));
+    }
+
+    @Test
+    public void shouldMigrateLegacyBlobs() throws IOException {
+        var legacyId1 = new LocalBlobStore(dir).write(new ByteArrayInputStream(contents1));
+        var legacyId2 = new LocalBlobStore(dir).write(new ByteArrayInputStream(contents1));
+        transactions.executeWrite(m -> m
+                .add(createResource("http://example.com/v1"), FS.blobId, legacyId1)
+                .add(createResource("http://example.com/v2"), FS.blobId, legacyId2));
+        assertArrayEquals(contents1, read(legacyId1));
+
+        assertEquals(2, blobStore.migrateLegacyBlobs());
+
+        var id = sha256Hex(contents1);
+        assertEquals(2, blobStore.getReferenceCount(id));
+        assertEquals(0, blobStore.getReferenceCount(legacyId1));
+        assertFalse(blobStore.getPath(legacyId1).toFile().exists());
+        assertArrayEquals(contents1, Files.readAllBytes(blobStore.getPath(id)));
+        assertEquals(0, blobStore.migrateLegacyBlobs());
+    }
+
+    private long countBlobs() throws IOException {
+        try (var files = Files.walk(dir.toPath())) {
+            return files.filter(Files::isRegularFile).count();
+        }
+    }
+
+    private byte[] read(String id) throws IOException {
+        var out = new ByteArrayOutputStream();
+        blobStore.read(id, out, 0, null);
+        return out.toByteArray();
+    }
+}
@@ -45,6 +45,7 @@ import static org.apache.jena.query.DatasetFactory.wrap;
 import static org.apache.jena.rdf.model.ResourceFactory.createProperty;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -158,6 +159,98 @@ public class DirectoryResourceTest {
         assertEquals(FILE_SIZE, (long) file.getContentLength());
     }
 
+    private static BlobFileItem uploadedFile(String blobId) {
+        var item = mock(BlobFileItem.class);
+        lenient().when(item.getBlob()).thenReturn(new BlobInfo(blobId, FILE_SIZE, "md5"));
+        lenient().when(item.getContentType()).thenReturn("text/plain");
+        return item;
+    }
+
+    @Test
+    public void testUploadFilesIntoNewAndExistingDirectories() throws NotAuthorizedException, ConflictException, BadRequestException {
+        var coll1 = (DirectoryResource) davFactory.getResource(null, BASE_PATH + "/coll1");
+        coll1.createCollection("existing");
+
+        coll1.processForm(Map.of("action", "upload_files"), Map.of(
+                "/new/sub/a.txt", uploadedFile("a"),
+                "/new/b.txt", uploadedFile("b"),
+                "/new/sub/c.txt", uploadedFile("c"),
+                "/existing/d%20e.txt", uploadedFile("d"),
+                "/coffee.jpg", uploadedFile("coffee")));
+
+        var created = (DirectoryResource) coll1.child("new");
+        var sub = (DirectoryResource) created.child("sub");
+        assertEquals("a", ((FileResource) sub.child("a.txt")).getETag());
+        assertEquals("c", ((FileResource) sub.child("c.txt")).getETag());
+        assertEquals("b", ((FileResource) created.child("b.txt")).getETag());
+        assertEquals(2, sub.getChildren().size());
+        var existing = (DirectoryResource) coll1.child("existing");
+        assertEquals("d", ((FileResource) existing.child("d e.txt")).getETag());
+        // An existing file gets a new version
+        var coffee = (FileResource) coll1.child("coffee.jpg");
+        assertEquals(2, coffee.getVersion());
+        assertEquals("coffee", coffee.getETag());
+        assertEquals(4, coll1.getChildren().size());
+    }
+
+    @Test
+    public void testUploadFileIntoAFileIsAConflict() throws NotAuthorizedException, BadRequestException {
+        var coll1 = (DirectoryResource) davFactory.getResource(null, BASE_PATH + "/coll1");
+
+        assertThrows(ConflictException.class, () -> coll1.processForm(Map.of("action", "upload_files"),
+                Map.of("/coffee.jpg/file.txt", uploadedFile("file"))));
+    }
+
+    @Test
+    public void testGetChildren() throws NotAuthorizedException, ConflictException, BadRequestException {
+        var coll1 = (DirectoryResource) davFactory.getResource(null, BASE_PATH + "/coll1");
+        ((DirectoryResource) coll1.createCollection("subdir")).delete();
+
+        var children = coll1.getChildren();
+
+        assertEquals(1, children.size());
+        assertTrue(children.get(0) instanceof FileResource);
+        var file = (FileResource) children.get(0);
+        assertEquals("coffee.jpg", file.getName());
+        assertEquals(FILE_SIZE, (long) file.getContentLength());
+        assertEquals(1, file.getVersion());
+    }
+
+    @Test
+    public void testGetChildrenPage() throws NotAuthorizedException, ConflictException, BadRequestException {
+        var coll2 = (DirectoryResource) davFactory.getResource(null, BASE_PATH + "/coll2");
+        for (var i = 0; i < 5; i++) {
+            coll2.createNew("file" + i, null, 0L, "text/plain");
+        }
+        ((FileResource) coll2.child("file2")).delete();
+
+        try (var page = davFactory.getChildren(coll2.subject, coll2.access, 0, 3)) {
+            var size = page.count();
+            try (var rest = davFactory.getChildren(coll2.subject, coll2.access, 3, 3)) {
+                assertEquals(4, size + rest.count());
+            }
+        }
+        try (var next = davFactory.getChildren(coll2.subject, coll2.access, 5, 1)) {
+            assertEquals(0, next.count());
+        }
+    }
+
+    @Test
+    public void testTreeOperationBlocksWrites() throws NotAuthorizedException, ConflictException, BadRequestException {
+        var coll1 = (DirectoryResource) davFactory.getResource(null, BASE_PATH + "/coll1");
+        var subdir = (DirectoryResource) coll1.createCollection("subdir");
+        var op = model.createResource("http://localhost/iri/op").addProperty(RDF.type, FS.TreeOperation);
+        subdir.subject.addProperty(FS.treeOperation, op);
+
+        assertEquals("op", subdir.getTreeOperation());
+        assertNotNull(TreeOperations.findOperation(subdir.subject));
+        assertTrue(TreeOperations.isInvolved(coll1.subject));
+        assertFalse(TreeOperations.isInvolved(((DirectoryResource) davFactory.getResource(null, BASE_PATH + "/coll2")).subject));
+        assertThrows(ConflictException.class, coll1::delete);
+        assertFalse(coll1.subject.hasProperty(FS.dateDeleted));
+        assertFalse(TreeOperations.isLarge(coll1.subject));
+    }
+
     @Test
     public void testTypedLiteralMetadataUploadSuccess() throws NotAuthorizedException, ConflictException, BadRequestException {
         String csv =
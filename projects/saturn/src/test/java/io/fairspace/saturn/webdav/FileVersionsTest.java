@@ -0,0 +1,96 @@
+package io.fairspace.saturn.webdav;
+
+import io.fairspace.saturn.rdf.transactions.SimpleTransactions;
+import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.vocabulary.FS;
+import org.apache.jena.query.DatasetFactory;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.vocabulary.RDF;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FileVersionsTest {
+    private static final String FILE = "http://example.com/api/webdav/coll/file.txt";
+
+    private Transactions transactions;
+
+    @Before
+    public void before() {
+        transactions = new SimpleTransactions(DatasetFactory.createTxnMem());
+    }
+
+    @Test
+    public void shouldLookUpVersionsByNumber() {
+        transactions.executeWrite(m -> {
+            var file = m.createResource(FILE);
+            for (var i = 1; i <= 3; i++) {
+                FileVersions.create(file).addProperty(FS.blobId, "blob" + i);
+            }
+
+            assertEquals(3, file.getRequiredProperty(FS.currentVersion).getInt());
+            for (var i = 1; i <= 3; i++) {
+                assertEquals("blob" + i, FileVersions.get(file, i).getRequiredProperty(FS.blobId).getString());
+                assertEquals(i, FileVersions.get(file, i).getRequiredProperty(FS.versionNumber).getInt());
+            }
+        });
+    }
+
+    @Test
+    public void shouldReadAndConvertLegacyVersions() {
+        transactions.executeWrite(m -> {
+            var file = createLegacyFile(m);
+
+            assertEquals("blob2", FileVersions.get(file, 2).getRequiredProperty(FS.blobId).getString());
+            assertEquals("blob1", FileVersions.get(file, 1).getRequiredProperty(FS.blobId).getString());
+
+            FileVersions.create(file).addProperty(FS.blobId, "blob3");
+
+            assertFalse(file.hasProperty(FS.versions));
+            assertEquals(3, file.getRequiredProperty(FS.currentVersion).getInt());
+            assertEquals("blob1", FileVersions.get(file, 1).getRequiredProperty(FS.blobId).getString());
+            assertEquals("blob2", FileVersions.get(file, 2).getRequiredProperty(FS.blobId).getString());
+            assertEquals("blob3", FileVersions.get(file, 3).getRequiredProperty(FS.blobId).getString());
+            assertFalse(m.contains(null, RDF.first));
+        });
+    }
+
+    @Test
+    public void shouldMigrateLegacyVersions() {
+        transactions.executeWrite(FileVersionsTest::createLegacyFile);
+
+        assertEquals(1, FileVersions.migrate(transactions));
+
+        transactions.executeRead(m -> {
+            var file = m.getResource(FILE);
+            assertFalse(file.hasProperty(FS.versions));
+            assertEquals("blob1", FileVersions.get(file, 1).getRequiredProperty(FS.blobId).getString());
+            assertEquals("blob2", FileVersions.get(file, 2).getRequiredProperty(FS.blobId).getString());
+            assertEquals(2, m.listSubjectsWithProperty(RDF.type, FS.FileVersion).toList().size());
+        });
+        assertEquals(0, FileVersions.migrate(transactions));
+    }
+
+    @Test
+    public void shouldPurgeVersions() {
+        transactions.executeWrite(m -> {
+            var file = m.createResource(FILE);
+            FileVersions.create(file).addProperty(FS.blobId, "blob1");
+            FileVersions.create(file).addProperty(FS.blobId, "blob2");
+
+            FileVersions.purge(file);
+
+            assertFalse(m.contains(null, FS.blobId));
+        });
+    }
+
+    private static Resource createLegacyFile(Model m) {
+        var v1 = m.createResource().addProperty(RDF.type, FS.FileVersion).addProperty(FS.blobId, "blob1");
+        var v2 = m.createResource().addProperty(RDF.type, FS.FileVersion).addProperty(FS.blobId, "blob2");
+        return m.createResource(FILE)
+                .addLiteral(FS.currentVersion, 2)
+                .addProperty(FS.versions, m.createList(v2, v1));
+    }
+}
@@ -1,5 +1,6 @@
 package io.fairspace.saturn.webdav;
 
+import io.milton.http.Range;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -8,6 +9,8 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static java.util.UUID.randomUUID;
 import static org.apache.commons.io.FileUtils.getTempDirectory;
@@ -45,4 +48,80 @@ public class LocalBlobStoreTest {
         var id2 = blobStore.write(new ByteArrayInputStream(contents2));
         assertNotEquals(id1, id2);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldStoreBlobsInShardedDirectories() throws IOException {
+        var id = blobStore.write(new ByteArrayInputStream(contents1));
+
+        var expected = new File(new File(new File(dir, id.substring(0, 2)), id.substring(2, 4)), id);
+        assertTrue(expected.isFile());
+        assertEquals(expected.toPath(), blobStore.getPath(id));
+    }
+
+    @Test
+    public void shouldReadAndMigrateLegacyBlobs() throws IOException {
+        var id = randomUUID().toString();
+        Files.write(new File(dir, id).toPath(), contents2);
+
+        assertArrayEquals(contents2, read(id));
+
+        assertEquals(1, ((LocalBlobStore) blobStore).migrateToShardedLayout());
+
+        assertFalse(new File(dir, id).exists());
+        assertArrayEquals(contents2, read(id));
+        assertEquals(0, ((LocalBlobStore) blobStore).migrateToShardedLayout());
+    }
+
+    @Test
+    public void shouldMigrateLegacyBlobsInSeveralBatches() throws IOException {
+        var count = 2500;
+        for (var i = 0; i < count; i++) {
+            Files.write(new File(dir, randomUUID().toString()).toPath(), contents1);
+        }
+        // Too short to be sharded
+        Files.write(new File(dir, "ab").toPath(), contents2);
+
+        assertEquals(count, ((LocalBlobStore) blobStore).migrateToShardedLayout());
+
+        try (var remaining = Files.list(dir.toPath())) {
+            assertEquals(1, remaining.filter(Files::isRegularFile).count());
+        }
+        assertArrayEquals(contents2, read("ab"));
+    }
+
+    @Test
+    public void shouldSyncBlobs() throws IOException {
+        var syncing = new LocalBlobStore(dir, true);
+        var id1 = syncing.write(new ByteArrayInputStream(contents1));
+        var file = new File(dir, "upload");
+        Files.write(file.toPath(), contents2);
+        var id2 = syncing.write(file);
+
+        assertArrayEquals(contents1, read(id1));
+        assertArrayEquals(contents2, read(id2));
+    }
+
+    private byte[] read(String id) throws IOException {
+        var out = new ByteArrayOutputStream();
+        blobStore.read(id, out, 0, null);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void shouldSendRangesOfTheBlobFile() throws IOException {
+        var id = blobStore.write(new ByteArrayInputStream(contents2));
+        var path = blobStore.getPath(id);
+
+        assertArrayEquals(contents2, send(path, null));
+        assertArrayEquals(new byte[]{5, 6}, send(path, new Range(1L, 2L)));
+        assertArrayEquals(new byte[]{7, 8, 9}, send(path, new Range(3L, null)));
+        assertArrayEquals(new byte[]{8, 9}, send(path, new Range(null, 2L)));
+        assertArrayEquals(new byte[]{9}, send(path, new Range(5L, 100L)));
+    }
+
+    private static byte[] send(Path path, Range range) throws IOException {
+        var out = new ByteArrayOutputStream();
+        FileResource.sendFile(path, out, range);
+        return out.toByteArray();
+    }
+}
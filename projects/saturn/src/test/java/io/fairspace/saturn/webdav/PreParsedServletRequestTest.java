@@ -0,0 +1,82 @@
+package io.fairspace.saturn.webdav;
+
+import io.milton.http.FileItem;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PreParsedServletRequestTest {
+    private static final byte FAILING = 0;
+    private static final byte SLOW = 1;
+
+    @Mock
+    BlobStore store;
+
+    private final ExecutorService ingestionPool = Executors.newFixedThreadPool(3);
+
+    @After
+    public void after() {
+        ingestionPool.shutdownNow();
+    }
+
+    private static FileItem fileItem(byte contents) {
+        var item = mock(FileItem.class);
+        when(item.getInputStream()).thenAnswer(invocation -> new ByteArrayInputStream(new byte[]{contents}));
+        return item;
+    }
+
+    @Test
+    public void testFilesAreStoredInTheBlobStore() throws IOException {
+        when(store.store(any())).thenAnswer(invocation -> new BlobInfo("id" + ((InputStream) invocation.getArgument(0)).read(), 1, "md5"));
+
+        var stored = PreParsedServletRequest.storeFiles(Map.of("/a.txt", fileItem((byte) 1), "/dir/b.txt", fileItem((byte) 2)), store, ingestionPool);
+
+        assertEquals(2, stored.size());
+        assertEquals("id1", ((BlobFileItem) stored.get("/a.txt")).getBlob().id);
+        assertEquals("id2", ((BlobFileItem) stored.get("/dir/b.txt")).getBlob().id);
+    }
+
+    @Test
+    public void testAFailingFileCancelsTheOthers() throws Exception {
+        var started = new CountDownLatch(2);
+        var interrupted = new CountDownLatch(2);
+        when(store.store(any())).thenAnswer(invocation -> {
+            if (((InputStream) invocation.getArgument(0)).read() == FAILING) {
+                // The failure is reported while the other files are still being stored
+                started.await();
+                throw new IOException("Disk full");
+            }
+            started.countDown();
+            try {
+                Thread.sleep(SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return new BlobInfo("id", 1, "md5");
+        });
+
+        var files = Map.of("/slow1.txt", fileItem(SLOW), "/failing.txt", fileItem(FAILING), "/slow2.txt", fileItem(SLOW));
+        var e = assertThrows(RuntimeException.class, () -> PreParsedServletRequest.storeFiles(files, store, ingestionPool));
+
+        assertEquals("Disk full", e.getCause().getMessage());
+        assertTrue(interrupted.await(5, SECONDS));
+    }
+}
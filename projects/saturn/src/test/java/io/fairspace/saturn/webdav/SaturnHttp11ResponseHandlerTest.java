@@ -0,0 +1,104 @@
+package io.fairspace.saturn.webdav;
+
+import io.milton.http.AuthenticationService;
+import io.milton.http.Request;
+import io.milton.http.Response;
+import io.milton.http.http11.ContentGenerator;
+import io.milton.http.http11.ETagGenerator;
+import io.milton.resource.FolderResource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Date;
+
+import static io.fairspace.saturn.TestUtils.setupRequestContext;
+import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
+import static io.fairspace.saturn.webdav.SaturnHttp11ResponseHandler.isNotModified;
+import static io.fairspace.saturn.webdav.SaturnHttp11ResponseHandler.isRangeApplicable;
+import static io.fairspace.saturn.webdav.SaturnHttp11ResponseHandler.respondAccepted;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SaturnHttp11ResponseHandlerTest {
+    @Mock
+    FileResource file;
+    @Mock
+    FolderResource folder;
+    @Mock
+    Response response;
+
+    @Before
+    public void before() {
+        setupRequestContext();
+        lenient().when(file.getETag()).thenReturn("blob1");
+        lenient().when(file.getModifiedDate()).thenReturn(new Date(1_600_000_000_000L));
+    }
+
+    @Test
+    public void testIfNoneMatch() {
+        assertFalse(isNotModified(file));
+
+        when(getCurrentRequest().getHeader("If-None-Match")).thenReturn("\"blob0\", \"blob1\"");
+        assertTrue(isNotModified(file));
+        assertFalse(isNotModified(folder));
+
+        when(getCurrentRequest().getHeader("If-None-Match")).thenReturn("W/\"blob1\"");
+        assertTrue(isNotModified(file));
+
+        when(getCurrentRequest().getHeader("If-None-Match")).thenReturn("\"blob2\"");
+        assertFalse(isNotModified(file));
+
+        when(getCurrentRequest().getHeader("If-None-Match")).thenReturn("*");
+        assertTrue(isNotModified(file));
+    }
+
+    @Test
+    public void testIfRange() {
+        assertTrue(isRangeApplicable(file));
+
+        when(getCurrentRequest().getHeader("If-Range")).thenReturn("\"blob1\"");
+        assertTrue(isRangeApplicable(file));
+
+        when(getCurrentRequest().getHeader("If-Range")).thenReturn("W/\"blob1\"");
+        assertFalse(isRangeApplicable(file));
+
+        when(getCurrentRequest().getHeader("If-Range")).thenReturn("\"blob2\"");
+        assertFalse(isRangeApplicable(file));
+
+        when(getCurrentRequest().getHeader("If-Range")).thenReturn("Sun, 13 Sep 2020 12:26:40 GMT");
+        assertTrue(isRangeApplicable(file));
+
+        when(getCurrentRequest().getHeader("If-Range")).thenReturn("Sun, 13 Sep 2020 12:26:41 GMT");
+        assertFalse(isRangeApplicable(file));
+    }
+
+    @Test
+    public void testScheduledTreeOperationIsAccepted() {
+        assertFalse(respondAccepted(response));
+        verifyNoInteractions(response);
+
+        when(getCurrentRequest().getAttribute("TREE_OPERATION")).thenReturn("op1");
+        assertTrue(respondAccepted(response));
+        verify(response).setStatus(Response.Status.SC_ACCEPTED);
+        verify(response).setLocationHeader("/api/tree-operations/op1");
+    }
+
+    @Test
+    public void testWriteBlockedByATreeOperationIsAConflict() {
+        var handler = new SaturnHttp11ResponseHandler(mock(AuthenticationService.class), mock(ETagGenerator.class), mock(ContentGenerator.class));
+        var request = mock(Request.class);
+        when(getCurrentRequest().getAttribute("BLOCKED_BY_TREE_OPERATION")).thenReturn(true);
+
+        handler.respondUnauthorised(folder, response, request);
+        handler.respondForbidden(folder, response, request);
+
+        verify(response, times(2)).setStatus(Response.Status.SC_CONFLICT);
+        verify(response, never()).setStatus(Response.Status.SC_UNAUTHORIZED);
+        verify(response, never()).setStatus(Response.Status.SC_FORBIDDEN);
+    }
+}
@@ -0,0 +1,261 @@
+package io.fairspace.saturn.webdav;
+
+import io.fairspace.saturn.rdf.dao.DAO;
+import io.fairspace.saturn.rdf.transactions.SimpleTransactions;
+import io.fairspace.saturn.services.metadata.MetadataPermissions;
+import io.fairspace.saturn.services.metadata.MetadataService;
+import io.fairspace.saturn.services.metadata.validation.ComposedValidator;
+import io.fairspace.saturn.services.metadata.validation.DeletionValidator;
+import io.fairspace.saturn.services.users.User;
+import io.fairspace.saturn.services.users.UserService;
+import io.milton.http.Handler;
+import io.milton.http.HttpManager;
+import io.milton.http.Request;
+import io.milton.http.ResourceFactory;
+import io.milton.http.Response;
+import io.milton.http.exceptions.BadRequestException;
+import io.milton.http.values.ValueAndType;
+import io.milton.http.values.ValueWriters;
+import io.milton.http.webdav.PropFindPropertyBuilder;
+import io.milton.http.webdav.PropFindRequestFieldParser;
+import io.milton.http.webdav.PropFindResponse;
+import io.milton.http.webdav.PropertiesRequest;
+import io.milton.resource.MakeCollectionableResource;
+import io.milton.resource.PropFindableResource;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.util.Context;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.fairspace.saturn.TestUtils.*;
+import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
+import static io.fairspace.saturn.config.Services.METADATA_PERMISSIONS;
+import static io.fairspace.saturn.config.Services.METADATA_SERVICE;
+import static io.fairspace.saturn.vocabulary.Vocabularies.VOCABULARY;
+import static org.apache.jena.query.DatasetFactory.wrap;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StreamingPropFindHandlerTest {
+    private static final String BASE_PATH = "/api/webdav";
+    private static final String baseUri = "http://example.com" + BASE_PATH;
+    private static final String DAV = "DAV:";
+    private static final String CUSTOM = "http://example.com/custom#";
+    private static final QName DISPLAY_NAME = new QName(DAV, "displayname");
+    private static final QName MISSING = new QName(CUSTOM, "missing");
+
+    @Mock
+    BlobStore store;
+    @Mock
+    UserService userService;
+    @Mock
+    Handler wrapped;
+    @Mock
+    PropFindPropertyBuilder propertyBuilder;
+    @Mock
+    PropFindRequestFieldParser requestFieldParser;
+    @Mock
+    PropertiesRequest fields;
+    @Mock
+    HttpManager manager;
+    @Mock
+    Request request;
+    @Mock
+    Response response;
+
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    private Model model;
+    private DavFactory davFactory;
+    private StreamingPropFindHandler handler;
+    private org.eclipse.jetty.server.Request jettyRequest;
+
+    @Before
+    public void before() throws Exception {
+        var context = new Context();
+        var ds = wrap(DatasetGraphFactory.createTxnMem());
+        var transactions = new SimpleTransactions(ds);
+        model = ds.getDefaultModel();
+        var permissions = new MetadataPermissions(userService, VOCABULARY);
+        context.set(METADATA_PERMISSIONS, permissions);
+        davFactory = new DavFactory(model.createResource(baseUri), store, userService, context);
+        context.set(METADATA_SERVICE, new MetadataService(transactions, VOCABULARY, new ComposedValidator(new DeletionValidator()), permissions, davFactory));
+        handler = new StreamingPropFindHandler(wrapped, propertyBuilder, requestFieldParser, new ValueWriters());
+
+        User admin = createTestUser("admin", true);
+        new DAO(model).write(admin);
+
+        setupRequestContext();
+        jettyRequest = getCurrentRequest();
+        lenient().when(jettyRequest.getAuthentication()).thenReturn(mockAuthentication("admin"));
+        lenient().when(userService.currentUser()).thenReturn(admin);
+        lenient().when(jettyRequest.getAttribute("BLOB")).thenReturn(new BlobInfo("id", 10, "md5"));
+        when(jettyRequest.getHeader("Entity-Type")).thenReturn("https://sils.uva.nl/ontology#Department");
+
+        var root = (MakeCollectionableResource) ((ResourceFactory) davFactory).getResource(null, BASE_PATH);
+        var coll1 = (DirectoryResource) root.createCollection("coll1");
+        coll1.createNew("my file & more.txt", null, 0L, "text/plain");
+        var coll2 = (DirectoryResource) root.createCollection("coll2");
+        for (var i = 0; i < 5; i++) {
+            coll2.createNew("file" + i, null, 0L, "text/plain");
+        }
+
+        lenient().when(manager.getResourceFactory()).thenReturn(davFactory);
+        lenient().when(request.getDepthHeader()).thenReturn(1);
+        lenient().when(request.getMethod()).thenReturn(Request.Method.PROPFIND);
+        lenient().when(response.getOutputStream()).thenReturn(out);
+        lenient().when(requestFieldParser.getRequestedFields(any())).thenReturn(fields);
+        // The directories have a display name, the files also a property that isn't found
+        lenient().when(propertyBuilder.buildProperties(any(), eq(0), eq(fields), anyString())).thenAnswer(invocation -> {
+            PropFindableResource resource = invocation.getArgument(0);
+            var known = new LinkedHashMap<QName, ValueAndType>();
+            known.put(DISPLAY_NAME, new ValueAndType(resource.getName(), String.class));
+            var errors = new LinkedHashMap<Response.Status, List<PropFindResponse.NameAndError>>();
+            if (resource instanceof FileResource) {
+                errors.put(Response.Status.SC_NOT_FOUND, List.of(new PropFindResponse.NameAndError(MISSING, null)));
+            }
+            return List.of(new PropFindResponse(invocation.getArgument(3), known, errors));
+        });
+    }
+
+    private Document propFind(String path) throws Exception {
+        when(request.getAbsolutePath()).thenReturn(BASE_PATH + path);
+        lenient().when(request.getAbsoluteUrl()).thenReturn(baseUri + path + "/");
+
+        handler.process(manager, request, response);
+
+        verify(response).setStatus(Response.Status.SC_MULTI_STATUS);
+        var factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static List<Element> elements(Element parent, String namespace, String name) {
+        var nodes = parent.getElementsByTagNameNS(namespace, name);
+        var result = new ArrayList<Element>();
+        for (var i = 0; i < nodes.getLength(); i++) {
+            result.add((Element) nodes.item(i));
+        }
+        return result;
+    }
+
+    private static Map<String, Element> responsesByName(Document doc) {
+        var result = new LinkedHashMap<String, Element>();
+        for (var response : elements(doc.getDocumentElement(), DAV, "response")) {
+            result.put(elements(response, DAV, "displayname").get(0).getTextContent(), response);
+        }
+        return result;
+    }
+
+    @Test
+    public void testListingIsWellFormed() throws Exception {
+        var doc = propFind("/coll1");
+
+        var root = doc.getDocumentElement();
+        assertEquals(DAV, root.getNamespaceURI());
+        assertEquals("multistatus", root.getLocalName());
+        var responses = responsesByName(doc);
+        assertEquals(List.of("coll1", "my file & more.txt"), new ArrayList<>(responses.keySet()));
+        // A namespace used by a child only is declared in its response
+        var missing = elements(responses.get("my file & more.txt"), CUSTOM, "missing");
+        assertEquals(1, missing.size());
+        assertNull(root.lookupPrefix(CUSTOM));
+        assertTrue(elements(responses.get("coll1"), CUSTOM, "missing").isEmpty());
+    }
+
+    @Test
+    public void testHrefsAreEncoded() throws Exception {
+        var responses = responsesByName(propFind("/coll1"));
+
+        var href = elements(responses.get("my file & more.txt"), DAV, "href").get(0).getTextContent();
+        assertEquals(BASE_PATH + "/coll1/my file & more.txt", URI.create(href).getPath());
+        assertEquals(baseUri + "/coll1/", elements(responses.get("coll1"), DAV, "href").get(0).getTextContent());
+    }
+
+    @Test
+    public void testPropertiesAreGroupedByStatus() throws Exception {
+        var responses = responsesByName(propFind("/coll1"));
+
+        var propstats = elements(responses.get("my file & more.txt"), DAV, "propstat");
+        assertEquals(2, propstats.size());
+        assertTrue(elements(propstats.get(0), DAV, "status").get(0).getTextContent().contains("200"));
+        assertEquals(1, elements(propstats.get(0), DAV, "displayname").size());
+        assertTrue(elements(propstats.get(1), DAV, "status").get(0).getTextContent().contains("404"));
+        assertEquals(1, elements(propstats.get(1), CUSTOM, "missing").size());
+
+        assertEquals(1, elements(responses.get("coll1"), DAV, "propstat").size());
+    }
+
+    @Test
+    public void testPages() throws Exception {
+        when(jettyRequest.getHeader(StreamingPropFindHandler.PAGE_SIZE_HEADER)).thenReturn("2");
+        when(jettyRequest.getHeader(StreamingPropFindHandler.PAGE_OFFSET_HEADER)).thenReturn("2");
+
+        var responses = responsesByName(propFind("/coll2"));
+
+        assertEquals(1 + 2, responses.size());
+        verify(response).setNonStandardHeader(StreamingPropFindHandler.NEXT_PAGE_OFFSET_HEADER, "4");
+    }
+
+    @Test
+    public void testLastPage() throws Exception {
+        when(jettyRequest.getHeader(StreamingPropFindHandler.PAGE_SIZE_HEADER)).thenReturn("2");
+        when(jettyRequest.getHeader(StreamingPropFindHandler.PAGE_OFFSET_HEADER)).thenReturn("4");
+
+        var responses = responsesByName(propFind("/coll2"));
+
+        assertEquals(1 + 1, responses.size());
+        verify(response, never()).setNonStandardHeader(eq(StreamingPropFindHandler.NEXT_PAGE_OFFSET_HEADER), anyString());
+    }
+
+    @Test
+    public void testNoNextPageIfOnlyDeletedEntriesFollow() throws Exception {
+        var coll2 = (DirectoryResource) davFactory.getResource(null, BASE_PATH + "/coll2");
+        var entries = new ArrayList<FileResource>();
+        try (var children = davFactory.getChildren(coll2.subject, coll2.access, 4, 1)) {
+            children.forEach(child -> entries.add((FileResource) child));
+        }
+        entries.get(0).delete();
+        when(jettyRequest.getHeader(StreamingPropFindHandler.PAGE_SIZE_HEADER)).thenReturn("4");
+
+        var responses = responsesByName(propFind("/coll2"));
+
+        assertEquals(1 + 4, responses.size());
+        verify(response, never()).setNonStandardHeader(eq(StreamingPropFindHandler.NEXT_PAGE_OFFSET_HEADER), anyString());
+    }
+
+    @Test
+    public void testInvalidPageSizeIsRejected() {
+        when(request.getAbsolutePath()).thenReturn(BASE_PATH + "/coll2");
+        when(jettyRequest.getHeader(StreamingPropFindHandler.PAGE_SIZE_HEADER)).thenReturn("0");
+
+        assertThrows(BadRequestException.class, () -> handler.process(manager, request, response));
+    }
+
+    @Test
+    public void testOtherRequestsAreHandledByTheWrappedHandler() throws Exception {
+        when(request.getDepthHeader()).thenReturn(0);
+
+        handler.process(manager, request, response);
+
+        verify(wrapped).process(manager, request, response);
+        verifyNoInteractions(propertyBuilder);
+    }
+}
@@ -0,0 +1,146 @@
+package io.fairspace.saturn.webdav;
+
+import com.pivovarit.function.ThrowingFunction;
+import io.fairspace.saturn.rdf.dao.DAO;
+import io.fairspace.saturn.rdf.transactions.BaseTransactions;
+import io.fairspace.saturn.rdf.transactions.SimpleTransactions;
+import io.fairspace.saturn.services.metadata.MetadataPermissions;
+import io.fairspace.saturn.services.metadata.MetadataService;
+import io.fairspace.saturn.services.metadata.validation.ComposedValidator;
+import io.fairspace.saturn.services.metadata.validation.DeletionValidator;
+import io.fairspace.saturn.services.users.User;
+import io.fairspace.saturn.services.users.UserService;
+import io.fairspace.saturn.vocabulary.FS;
+import io.milton.http.Handler;
+import io.milton.http.HttpManager;
+import io.milton.http.Request;
+import io.milton.http.ResourceFactory;
+import io.milton.http.Response;
+import io.milton.resource.MakeCollectionableResource;
+import org.apache.jena.query.Dataset;
+import org.apache.jena.query.ReadWrite;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.util.Context;
+import org.apache.jena.system.Txn;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.HashMap;
+
+import static io.fairspace.saturn.TestUtils.*;
+import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
+import static io.fairspace.saturn.config.Services.METADATA_PERMISSIONS;
+import static io.fairspace.saturn.config.Services.METADATA_SERVICE;
+import static io.fairspace.saturn.vocabulary.Vocabularies.VOCABULARY;
+import static org.apache.jena.query.DatasetFactory.wrap;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TransactionalHandlerWrapperTest {
+    private static final String BASE_PATH = "/api/webdav";
+    private static final String baseUri = "http://example.com" + BASE_PATH;
+
+    @Mock
+    BlobStore store;
+    @Mock
+    UserService userService;
+    @Mock
+    Handler wrapped;
+    @Mock
+    HttpManager manager;
+    @Mock
+    Request request;
+    @Mock
+    Response response;
+
+    private Dataset ds;
+    private DirectoryResource coll;
+    private DirectoryResource dir;
+    private DirectoryResource subdir;
+    private int runs;
+
+    /**
+     * Aborts the first run of each write job and executes it again,
+     * as BulkTransactions does when another job in the same batch fails.
+     */
+    private static class RetryingTransactions extends BaseTransactions {
+        RetryingTransactions(Dataset ds) {
+            super(ds);
+        }
+
+        @Override
+        public <R, E extends Exception> R calculateWrite(ThrowingFunction<? super Model, R, E> job) throws E {
+            ds.begin(ReadWrite.WRITE);
+            try {
+                job.apply(ds.getDefaultModel());
+            } finally {
+                ds.abort();
+                ds.end();
+            }
+            return Txn.calculateWrite(ds, () -> ThrowingFunction.sneaky(job).apply(ds.getDefaultModel()));
+        }
+    }
+
+    @Before
+    public void before() throws Exception {
+        var context = new Context();
+        ds = wrap(DatasetGraphFactory.createTxnMem());
+        var model = ds.getDefaultModel();
+        var permissions = new MetadataPermissions(userService, VOCABULARY);
+        context.set(METADATA_PERMISSIONS, permissions);
+        var davFactory = new DavFactory(model.createResource(baseUri), store, userService, context);
+        context.set(METADATA_SERVICE, new MetadataService(new SimpleTransactions(ds), VOCABULARY, new ComposedValidator(new DeletionValidator()), permissions, davFactory));
+
+        User admin = createTestUser("admin", true);
+        new DAO(model).write(admin);
+
+        setupRequestContext();
+        var jettyRequest = getCurrentRequest();
+        lenient().when(jettyRequest.getAuthentication()).thenReturn(mockAuthentication("admin"));
+        lenient().when(userService.currentUser()).thenReturn(admin);
+        lenient().when(jettyRequest.getHeader("Entity-Type")).thenReturn("https://sils.uva.nl/ontology#Department");
+        // Attributes are kept, like the timestamp and the updated parents of a real request
+        var attributes = new HashMap<String, Object>();
+        var blob = new BlobInfo("id", 10, "md5");
+        attributes.put("BLOB", blob);
+        when(jettyRequest.getAttribute(anyString())).thenAnswer(invocation -> attributes.get((String) invocation.getArgument(0)));
+        doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(jettyRequest).setAttribute(anyString(), any());
+        doAnswer(invocation -> attributes.remove((String) invocation.getArgument(0)))
+                .when(jettyRequest).removeAttribute(anyString());
+
+        var root = (MakeCollectionableResource) ((ResourceFactory) davFactory).getResource(null, BASE_PATH);
+        coll = (DirectoryResource) root.createCollection("coll");
+        dir = (DirectoryResource) coll.createCollection("dir");
+        subdir = (DirectoryResource) dir.createCollection("subdir");
+        // A new request, with a timestamp of its own
+        attributes.clear();
+        attributes.put("BLOB", blob);
+        coll.subject.removeAll(FS.dateModified);
+        dir.subject.removeAll(FS.dateModified);
+
+        when(request.getMethod()).thenReturn(Request.Method.PUT);
+        doAnswer(invocation -> {
+            runs++;
+            subdir.createNew("file.txt", null, 0L, "text/plain");
+            return null;
+        }).when(wrapped).process(manager, request, response);
+    }
+
+    @Test
+    public void testParentsAreUpdatedWhenAJobIsExecutedAgain() throws Exception {
+        new TransactionalHandlerWrapper(wrapped, new RetryingTransactions(ds)).process(manager, request, response);
+
+        assertEquals(2, runs);
+        var modified = WebDAVServlet.timestampLiteral();
+        assertEquals(modified, dir.subject.getProperty(FS.dateModified).getLiteral());
+        assertEquals(modified, coll.subject.getProperty(FS.dateModified).getLiteral());
+        assertNotNull(subdir.child("file.txt"));
+    }
+}
@@ -0,0 +1,324 @@
+package io.fairspace.saturn.webdav;
+
+import io.fairspace.saturn.rdf.dao.DAO;
+import io.fairspace.saturn.rdf.transactions.SimpleTransactions;
+import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.services.metadata.MetadataPermissions;
+import io.fairspace.saturn.services.metadata.MetadataService;
+import io.fairspace.saturn.services.metadata.validation.ComposedValidator;
+import io.fairspace.saturn.services.metadata.validation.DeletionValidator;
+import io.fairspace.saturn.services.users.User;
+import io.fairspace.saturn.services.users.UserService;
+import io.fairspace.saturn.vocabulary.FS;
+import io.milton.http.Request.Method;
+import io.milton.http.ResourceFactory;
+import io.milton.http.exceptions.BadRequestException;
+import io.milton.http.exceptions.ConflictException;
+import io.milton.http.exceptions.NotAuthorizedException;
+import io.milton.resource.MakeCollectionableResource;
+import org.apache.jena.rdf.model.Model;
+import org.apache.jena.rdf.model.Property;
+import org.apache.jena.rdf.model.Resource;
+import org.apache.jena.sparql.core.DatasetGraphFactory;
+import org.apache.jena.sparql.util.Context;
+import org.apache.jena.vocabulary.RDF;
+import org.eclipse.jetty.server.Request;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import static io.fairspace.saturn.TestUtils.*;
+import static io.fairspace.saturn.auth.RequestContext.getCurrentRequest;
+import static io.fairspace.saturn.config.Services.METADATA_PERMISSIONS;
+import static io.fairspace.saturn.config.Services.METADATA_SERVICE;
+import static io.fairspace.saturn.rdf.SparqlUtils.generateMetadataIri;
+import static io.fairspace.saturn.rdf.SparqlUtils.toXSDDateTimeLiteral;
+import static io.fairspace.saturn.vocabulary.Vocabularies.VOCABULARY;
+import static io.fairspace.saturn.webdav.WebDAVServlet.POST_COMMIT_ACTION_ATTRIBUTE;
+import static org.apache.jena.query.DatasetFactory.wrap;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TreeOperationsTest {
+    private static final String BASE_PATH = "/api/webdav";
+    private static final String baseUri = "http://example.com" + BASE_PATH;
+    // Two subdirectories with their files, more than processed in a single chunk
+    private static final int FILES_PER_DIRECTORY = TreeOperations.CHUNK_SIZE / 2 + 50;
+    private static final long DESCENDANTS = 2 + 2 * FILES_PER_DIRECTORY;
+
+    @Mock
+    BlobStore store;
+    @Mock
+    UserService userService;
+
+    private final Map<String, Object> attributes = new HashMap<>();
+    private Model model;
+    private Transactions transactions;
+    private DavFactory davFactory;
+    private TreeOperations treeOperations;
+    private Request request;
+    private DirectoryResource coll1;
+    private DirectoryResource coll2;
+    private DirectoryResource big;
+
+    @Before
+    public void before() throws NotAuthorizedException, BadRequestException, ConflictException {
+        var context = new Context();
+        var ds = wrap(DatasetGraphFactory.createTxnMem());
+        transactions = new SimpleTransactions(ds);
+        model = ds.getDefaultModel();
+        var permissions = new MetadataPermissions(userService, VOCABULARY);
+        context.set(METADATA_PERMISSIONS, permissions);
+        davFactory = new DavFactory(model.createResource(baseUri), store, userService, context);
+        context.set(METADATA_SERVICE, new MetadataService(transactions, VOCABULARY, new ComposedValidator(new DeletionValidator()), permissions, davFactory));
+        treeOperations = new TreeOperations(davFactory, transactions);
+
+        User admin = createTestUser("admin", true);
+        new DAO(model).write(admin);
+
+        setupRequestContext();
+        request = getCurrentRequest();
+        lenient().when(request.getAuthentication()).thenReturn(mockAuthentication("admin"));
+        lenient().when(userService.currentUser()).thenReturn(admin);
+        // The attributes of a single request
+        lenient().doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(request).setAttribute(anyString(), any());
+        lenient().doAnswer(invocation -> attributes.remove(invocation.<String>getArgument(0)))
+                .when(request).removeAttribute(anyString());
+        lenient().when(request.getAttribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.<String>getArgument(0)));
+        attributes.put("BLOB", new BlobInfo("id", 10, "md5"));
+
+        var root = (MakeCollectionableResource) ((ResourceFactory) davFactory).getResource(null, BASE_PATH);
+        when(request.getHeader("Entity-Type")).thenReturn("https://sils.uva.nl/ontology#Department");
+        coll1 = (DirectoryResource) root.createCollection("coll1");
+        coll2 = (DirectoryResource) root.createCollection("coll2");
+        when(request.getHeader("Entity-Type")).thenReturn("https://sils.uva.nl/ontology#PrincipalInvestigator");
+        big = (DirectoryResource) coll1.createCollection("big");
+        when(request.getHeader("Entity-Type")).thenReturn("https://sils.uva.nl/ontology#Project");
+        for (var name : new String[]{"a", "b"}) {
+            var dir = (DirectoryResource) big.createCollection(name);
+            for (var i = 0; i < FILES_PER_DIRECTORY; i++) {
+                dir.createNew("file" + i, null, 0L, "text/plain");
+            }
+        }
+        newRequest();
+    }
+
+    @Test
+    public void testMoveLargeTree() throws Exception {
+        big.moveTo(coll2, "big");
+
+        var status = runScheduledOperation(TreeOperations.Type.MOVE, DESCENDANTS);
+
+        assertEquals("/coll1/big", status.getSource());
+        assertEquals("/coll2/big", status.getTarget());
+        var moved = model.getResource(baseUri + "/coll2/big/b");
+        assertEquals(FILES_PER_DIRECTORY, model.listSubjectsWithProperty(FS.belongsTo, moved).toList().size());
+        assertFalse(model.getResource(baseUri + "/coll1/big/b/file0").hasProperty(FS.belongsTo));
+        assertEquals(model.getResource(baseUri + "/coll2/big/b/file0"),
+                model.getResource(baseUri + "/coll1/big/b/file0").getPropertyResourceValue(FS.movedTo));
+    }
+
+    @Test
+    public void testCopyLargeTree() throws Exception {
+        big.copyTo(coll2, "big");
+
+        runScheduledOperation(TreeOperations.Type.COPY, DESCENDANTS);
+
+        for (var coll : new String[]{"coll1", "coll2"}) {
+            var dir = model.getResource(baseUri + "/" + coll + "/big/a");
+            assertEquals(FILES_PER_DIRECTORY, model.listSubjectsWithProperty(FS.belongsTo, dir).toList().size());
+        }
+        assertTrue(model.getResource(baseUri + "/coll2/big/a/file0").hasProperty(FS.currentVersion));
+    }
+
+    @Test
+    public void testDeleteLargeTree() throws Exception {
+        big.delete();
+
+        runScheduledOperation(TreeOperations.Type.DELETE, DESCENDANTS);
+
+        assertEquals(DESCENDANTS + 1, countUnder("/coll1/big", FS.dateDeleted));
+    }
+
+    @Test
+    public void testPurgeLargeTree() throws Exception {
+        big.delete();
+        runScheduledOperation(TreeOperations.Type.DELETE, DESCENDANTS);
+        newRequest();
+
+        big.delete();
+        runScheduledOperation(TreeOperations.Type.PURGE, DESCENDANTS);
+
+        assertEquals(0, countUnder("/coll1/big", FS.belongsTo));
+        assertFalse(model.listStatements(model.getResource(baseUri + "/coll1/big"), null, (Resource) null).hasNext());
+    }
+
+    @Test
+    public void testRestoreLargeTree() throws Exception {
+        var deletedEarlier = (FileResource) davFactory.getResource(model.getResource(baseUri + "/coll1/big/a/file0"));
+        deletedEarlier.delete();
+        newRequest();
+        Thread.sleep(10);
+        big.delete();
+        // The file deleted earlier is skipped
+        runScheduledOperation(TreeOperations.Type.DELETE, DESCENDANTS - 1);
+        newRequest();
+
+        big.processForm(Map.of("action", "undelete"), Map.of());
+
+        runScheduledOperation(TreeOperations.Type.RESTORE, DESCENDANTS - 1);
+        assertEquals(1, countUnder("/coll1/big", FS.dateDeleted));
+        assertTrue(model.getResource(baseUri + "/coll1/big/a/file0").hasProperty(FS.dateDeleted));
+    }
+
+    @Test
+    public void testOperationIsResumedFromTheProcessedEntries() throws Exception {
+        big.delete();
+        var id = TreeOperations.scheduledOperation();
+        // The state left by a restart after the first chunk: directory a and part of its files have been deleted
+        var op = model.getResource(operationIri(id));
+        var date = op.getProperty(FS.dateCreated).getLiteral();
+        var user = op.getPropertyResourceValue(FS.createdBy);
+        var a = model.getResource(baseUri + "/coll1/big/a");
+        BaseResource.markDeleted(a, user, date);
+        for (var i = 0; i < 100; i++) {
+            BaseResource.markDeleted(model.getResource(baseUri + "/coll1/big/a/file" + i), user, date);
+        }
+        op.removeAll(FS.processedCount).addLiteral(FS.processedCount, 101L);
+
+        treeOperations = new TreeOperations(davFactory, transactions);
+        var status = awaitFinished(id);
+
+        assertEquals(TreeOperations.Status.COMPLETED, status.getStatus());
+        assertEquals(DESCENDANTS, status.getProcessed());
+        assertEquals(DESCENDANTS, status.getTotal());
+        assertEquals(DESCENDANTS + 1, countUnder("/coll1/big", FS.dateDeleted));
+    }
+
+    @Test
+    public void testFailedOperationIsReleased() throws Exception {
+        // An operation requested earlier, which can't be processed
+        var failing = "failing";
+        var op = model.createResource(operationIri(failing))
+                .addProperty(RDF.type, FS.TreeOperation)
+                .addProperty(FS.operationSource, coll2.subject)
+                .addProperty(FS.dateCreated, toXSDDateTimeLiteral(Instant.EPOCH))
+                .addLiteral(FS.processedCount, 0L);
+        coll2.subject.addProperty(FS.treeOperation, op);
+        assertFalse(coll2.authorise(null, Method.PUT, null));
+
+        big.delete();
+        var next = TreeOperations.scheduledOperation();
+        treeOperations.resume();
+
+        assertEquals(TreeOperations.Status.FAILED, awaitFinished(failing).getStatus());
+        assertEquals(TreeOperations.Status.COMPLETED, awaitFinished(next).getStatus());
+        assertFalse(model.contains(op, null));
+        assertNull(TreeOperations.findOperation(coll2.subject));
+        assertTrue(coll2.authorise(null, Method.PUT, null));
+    }
+
+    @Test
+    public void testFailedMoveIsResumedAfterARestart() throws Exception {
+        // A move requested earlier, which can't be processed as its source is missing
+        var failing = "failing-move";
+        var op = model.createResource(operationIri(failing))
+                .addProperty(RDF.type, FS.TreeOperation)
+                .addProperty(FS.operationType, TreeOperations.Type.MOVE.name())
+                .addProperty(FS.operationTarget, coll2.subject)
+                .addProperty(FS.createdBy, model.getResource(baseUri + "/iri/admin"))
+                .addProperty(FS.dateCreated, toXSDDateTimeLiteral(Instant.EPOCH))
+                .addLiteral(FS.processedCount, 0L);
+        coll2.subject.addProperty(FS.treeOperation, op);
+
+        big.delete();
+        var next = TreeOperations.scheduledOperation();
+        treeOperations.resume();
+
+        assertEquals(TreeOperations.Status.FAILED, awaitFinished(failing).getStatus());
+        assertEquals(TreeOperations.Status.COMPLETED, awaitFinished(next).getStatus());
+        // The move and its markers are kept
+        assertTrue(model.contains(op, RDF.type, FS.TreeOperation));
+        assertEquals(op, TreeOperations.findOperation(coll2.subject));
+        assertFalse(coll2.authorise(null, Method.PUT, null));
+        // Answered with 409 Conflict
+        assertTrue(TreeOperations.isBlocked());
+        assertEquals(1, treeOperations.list().stream().filter(status -> status.getId().equals(failing)).count());
+
+        op.addProperty(FS.operationSource, coll1.subject);
+        treeOperations = new TreeOperations(davFactory, transactions);
+
+        assertEquals(TreeOperations.Status.COMPLETED, awaitFinished(failing).getStatus());
+        assertFalse(model.contains(op, null));
+        assertNull(TreeOperations.findOperation(coll2.subject));
+    }
+
+    @Test
+    public void testOperationsAreListed() throws Exception {
+        big.delete();
+        var id = TreeOperations.scheduledOperation();
+
+        assertEquals(TreeOperations.Status.PENDING, treeOperations.get(id).getStatus());
+        assertEquals(1, treeOperations.list().size());
+        assertNull(treeOperations.get("unknown"));
+
+        treeOperations.resume();
+        awaitFinished(id);
+        assertEquals(TreeOperations.Status.COMPLETED, treeOperations.list().get(0).getStatus());
+    }
+
+    private TreeOperationDTO runScheduledOperation(TreeOperations.Type type, long entries) throws InterruptedException {
+        var id = TreeOperations.scheduledOperation();
+        assertNotNull(id);
+        assertNotNull(TreeOperations.findOperation(model.getResource(baseUri + "/coll1/big")));
+        ((Runnable) attributes.get(POST_COMMIT_ACTION_ATTRIBUTE)).run();
+
+        var status = awaitFinished(id);
+        assertEquals(type, status.getType());
+        assertEquals(TreeOperations.Status.COMPLETED, status.getStatus());
+        assertEquals(entries, status.getProcessed());
+        assertEquals(entries, status.getTotal());
+        assertFalse(model.contains(null, FS.treeOperation));
+        return status;
+    }
+
+    private TreeOperationDTO awaitFinished(String id) throws InterruptedException {
+        for (var i = 0; i < 600; i++) {
+            var status = treeOperations.get(id);
+            if (status != null && status.getDateFinished() != null) {
+                return status;
+            }
+            Thread.sleep(100);
+        }
+        fail("Operation " + id + " didn't finish");
+        return null;
+    }
+
+    private long countUnder(String path, Property property) {
+        return model.listSubjectsWithProperty(property)
+                .filterKeep(s -> s.getURI().startsWith(baseUri + path))
+                .toList()
+                .size();
+    }
+
+    private static String operationIri(String id) {
+        return generateMetadataIri(id).getURI();
+    }
+
+    // Request attributes, such as the timestamp and the scheduled operation, are per request
+    private void newRequest() {
+        var blob = attributes.get("BLOB");
+        attributes.clear();
+        attributes.put("BLOB", blob);
+    }
+}
@@ -2,6 +2,7 @@ package io.fairspace.saturn.webdav;
 
 import com.pivovarit.function.ThrowingConsumer;
 import io.fairspace.saturn.rdf.transactions.Transactions;
+import io.fairspace.saturn.services.uploads.UploadService;
 import io.milton.http.ResourceFactory;
 import io.milton.resource.FolderResource;
 import org.junit.Before;
@@ -30,6 +31,8 @@ public class WebDAVServletTest {
     @Mock
     BlobStore store;
     @Mock
+    UploadService uploadService;
+    @Mock
     HttpServletRequest req;
     @Mock
     HttpServletResponse res;
@@ -45,7 +48,7 @@ public class WebDAVServletTest {
 
     @Before
     public void before() throws Exception {
-        servlet = new WebDAVServlet(factory, txn, store);
+        servlet = new WebDAVServlet(factory, txn, store, uploadService);
 
         when(req.getRequestURL()).thenReturn(new StringBuffer("http://ex.com/api/webdav/resource"));
         when(req.getInputStream()).thenReturn(in);
@@ -103,6 +106,24 @@ public class WebDAVServletTest {
         order.verify(txn).executeWrite(any());
     }
 
+    @Test
+    public void testPutWithUploadIdStoresTheUpload() throws IOException {
+        var blob = new BlobInfo("id", 1, "md5");
+
+        when(req.getMethod()).thenReturn("PUT");
+        when(req.getHeader("Upload-Id")).thenReturn("upload");
+        when(uploadService.complete("upload")).thenReturn(blob);
+
+        servlet.service(req, res);
+
+        var order = inOrder(uploadService, req, txn);
+
+        order.verify(uploadService).complete("upload");
+        order.verify(req).setAttribute("BLOB", blob);
+        order.verify(txn).executeWrite(any());
+        verify(store, never()).store(any());
+    }
+
     @Test
     public void testGetPayloadIsReadOutsideTransaction() throws Exception {
         when(req.getMethod()).thenReturn("GET");